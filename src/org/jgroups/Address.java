@@ -23,6 +23,7 @@ public interface Address extends SizeStreamable, Comparable<Address> {
     byte SITE_UUID    = 1 << 2;
     byte SITE_MASTER  = 1 << 3;
     byte IP_ADDR      = 1 << 4;
+    byte MEMBER_INDEX = 1 << 5; // index into the members of a view (Util.writeAddress(Address,int,long,int,DataOutput))
 
     /**
      * Whether or not this address causes a message to be sent to mulitple members. Typically, 'null' as destination
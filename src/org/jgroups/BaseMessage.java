@@ -283,6 +283,14 @@ public abstract class BaseMessage implements Message {
     }
 
     public void writeToNoAddrs(Address src, DataOutput out) throws IOException {
+        writeToNoAddrs(src, out, true);
+    }
+
+    /**
+     * Same as {@link #writeToNoAddrs(Address, DataOutput)}, but the payload can be omitted. This is used by bundlers
+     * which send the payload as a separate buffer (gathering write)
+     */
+    public void writeToNoAddrs(Address src, DataOutput out, boolean write_payload) throws IOException {
         byte leading=0;
 
         boolean write_src_addr=sender != null && !sender.equals(src);
@@ -304,9 +312,41 @@ public abstract class BaseMessage implements Message {
         Headers.writeHeaders(this.headers, out);
 
         // finally write the payload
+        if(write_payload)
+            writePayload(out);
+    }
+
+
+    /**
+     * Writes the message in the format used by compact message batches ({@link org.jgroups.util.CompactMessageList}):
+     * same as {@link #writeToNoAddrs(Address, DataOutput)}, but headers whose IDs are in excluded_ids are skipped
+     * (they're written only once for the entire batch) and the number of headers is written as varint
+     */
+    public void writeToCompact(Address src, DataOutput out, short[] excluded_ids) throws IOException {
+        byte leading=0;
+        boolean write_src_addr=sender != null && !sender.equals(src);
+        if(write_src_addr)
+            leading=Util.setFlag(leading, SRC_SET);
+        out.write(leading);
+        out.writeShort(flags);
+        if(write_src_addr)
+            Util.writeAddress(sender, out);
+        Headers.writeHeadersCompact(this.headers, out, excluded_ids);
         writePayload(out);
     }
 
+    /**
+     * Reads a message written by {@link #writeToCompact(Address, DataOutput, short[])}. The headers array has room
+     * for extra_headers headers, which are added by the caller
+     */
+    public void readFromCompact(DataInput in, int extra_headers) throws IOException, ClassNotFoundException {
+        byte leading=in.readByte();
+        flags=in.readShort();
+        if(Util.isFlagSet(leading, SRC_SET))
+            sender=Util.readAddress(in);
+        this.headers=Headers.readHeadersCompact(in, extra_headers);
+        readPayload(in);
+    }
 
     public void readFrom(DataInput in) throws IOException, ClassNotFoundException {
         // 1. read the leading byte first
@@ -2,13 +2,14 @@
 package org.jgroups;
 
 
-import org.jgroups.util.ByteArray;
-import org.jgroups.util.Util;
+import org.jgroups.util.*;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.function.Supplier;
 
 /**
@@ -20,7 +21,7 @@ import java.util.function.Supplier;
  * @since  5.0
  * @author Bela Ban
  */
-public class BytesMessage extends BaseMessage {
+public class BytesMessage extends BaseMessage implements Refcountable<BytesMessage> {
 
     /** The payload */
     protected byte[]            array;
@@ -31,6 +32,9 @@ public class BytesMessage extends BaseMessage {
     /** The number of bytes in the array */
     protected int               length;
 
+    /** If non-null, the payload points into this (pooled) receive buffer */
+    protected PooledBuffer      pooled_buf;
+
 
     public BytesMessage() {
     }
@@ -232,6 +236,46 @@ public class BytesMessage extends BaseMessage {
         }
     }
 
+    /**
+     * Increments the reference count of the pooled buffer the payload points to (if any). Needs to be called when
+     * a received message is retained after delivery; the message then needs to be {@link #release()}d when done
+     */
+    public BytesMessage retain() {
+        if(pooled_buf != null)
+            pooled_buf.retain();
+        return this;
+    }
+
+    /**
+     * Releases the pooled buffer the payload points to (if any). The payload must not be accessed after this call.
+     * Called by {@link JChannel} after a message has been delivered
+     */
+    public boolean release() {
+        return pooled_buf != null && pooled_buf.release();
+    }
+
+    /** The reference count of the pooled buffer (shared by all messages whose payloads point into it), or 0 */
+    public int refCount() {
+        return pooled_buf != null? pooled_buf.refCount() : 0;
+    }
+
+    /**
+     * If the payload points into a pooled buffer, copies it into its own array and releases the reference to the
+     * pooled buffer. Called before a received message is retained beyond its delivery, e.g. for retransmission
+     */
+    public BytesMessage detach() {
+        if(pooled_buf == null)
+            return this;
+        if(array != null) {
+            array=Arrays.copyOfRange(array, offset, offset + length);
+            offset=0;
+        }
+        PooledBuffer tmp=pooled_buf;
+        pooled_buf=null;
+        tmp.release();
+        return this;
+    }
+
     /**
      * Copies the byte array. If offset and length are used (to refer to another array), the copy will contain only
      * the subset that offset and length point to, copying the subset into the new copy.<p>
@@ -242,6 +286,8 @@ public class BytesMessage extends BaseMessage {
     @Override protected Message copyPayload(Message copy) {
         if(array != null)
             copy.setArray(array, offset, length);
+        if(pooled_buf != null) // the copy shares the payload, so it needs its own reference
+            ((BytesMessage)copy).pooled_buf=pooled_buf.retain();
         return copy;
     }
 
@@ -260,6 +306,19 @@ public class BytesMessage extends BaseMessage {
 
     public void readPayload(DataInput in) throws IOException {
         int len=in.readInt();
+        if(len >= 0 && in instanceof ByteArrayDataInputStream && ((ByteArrayDataInputStream)in).pooledBuffer() != null
+          && ((ByteArrayDataInputStream)in).pooledBuffer().canReference(len)) {
+            // point into the pooled receive buffer rather than copying the payload
+            ByteArrayDataInputStream bin=(ByteArrayDataInputStream)in;
+            if(len > bin.limit() - bin.position())
+                throw new EOFException();
+            array=bin.buffer();
+            offset=bin.position();
+            length=len;
+            bin.advance(len);
+            pooled_buf=bin.pooledBuffer().retain();
+            return;
+        }
         if(len >= 0) {
             array=new byte[len];
             in.readFully(array, 0, len);
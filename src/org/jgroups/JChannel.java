@@ -457,6 +457,31 @@ public class JChannel implements Closeable {
         return this;
     }
 
+    /**
+     * Sends a message without blocking the caller when flow control (UFC or MFC) runs out of credits, provided
+     * flow control is configured with {@code non_blocking=true}. In that case, the message is queued and the
+     * returned future is completed when credits have been received and the message has been sent. This can be used
+     * to apply backpressure without blocking threads. A fragmented message is sent when all of its fragments have
+     * been sent.
+     * @param msg the message to be sent. Destination and buffer should be set. A null destination
+     *           means to send to all group members.
+     * @return A CompletableFuture which is completed (with the result of sending the message) when the message has
+     *         been sent
+     * @exception IllegalStateException thrown if the channel is disconnected or closed
+     */
+    public CompletableFuture<Object> sendAsync(Message msg) {
+        if(msg == null)
+            throw new NullPointerException("msg is null");
+        checkClosedOrNotConnected();
+        try {
+            Object retval=down(msg);
+            return retval instanceof CompletableFuture<?> f? (CompletableFuture<Object>)f : CompletableFuture.completedFuture(retval);
+        }
+        catch(Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+
 
     /**
      * Helper method to create a Message with given parameters and invoke {@link #send(Message)}.
@@ -670,8 +695,13 @@ public class JChannel implements Closeable {
         if(up_handler != null)
             return up_handler.up(msg);
 
-        if(receiver != null)
+        if(receiver != null) {
             receiver.receive(msg);
+            // releases the pooled receive buffer (if any) the payload points into; a receiver keeping the message
+            // needs to retain() or detach() it. Protocols keeping delivered messages (NAKACK2, FEC) do this, too
+            if(msg instanceof Refcountable)
+                ((Refcountable<?>)msg).release();
+        }
         return null;
     }
 
@@ -698,6 +728,10 @@ public class JChannel implements Closeable {
             catch(Throwable t) {
                 log.error(Util.getMessage("ReceiverFailure"), t);
             }
+            for(Message msg: batch) {
+                if(msg instanceof Refcountable)
+                    ((Refcountable<?>)msg).release();
+            }
         }
         return this;
     }
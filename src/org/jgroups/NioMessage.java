@@ -2,11 +2,11 @@
 package org.jgroups;
 
 
-import org.jgroups.util.ByteArray;
-import org.jgroups.util.Util;
+import org.jgroups.util.*;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.function.Supplier;
@@ -20,11 +20,14 @@ import java.util.function.Supplier;
  * @since  5.0
  * @author Bela Ban
  */
-public class NioMessage extends BaseMessage {
+public class NioMessage extends BaseMessage implements Refcountable<NioMessage> {
 
     /** The payload */
     protected ByteBuffer buf;
 
+    /** If non-null, the (heap-based) payload points into this (pooled) receive buffer */
+    protected PooledBuffer pooled_buf;
+
     /**
      * If true, use direct memory when creating {@link ByteBuffer} payloads, e.g. on {@link #setArray(byte[], int, int)},
      * {@link #setArray(ByteArray)}, {@link #setObject(Object)} or when getting read from the network
@@ -182,9 +185,41 @@ public class NioMessage extends BaseMessage {
         return String.format("%s %s", super.toString(), use_direct_memory_for_allocations? "(direct)" : "");
     }
 
+    /** Increments the reference count of the pooled buffer the payload points to (if any) */
+    public NioMessage retain() {
+        if(pooled_buf != null)
+            pooled_buf.retain();
+        return this;
+    }
+
+    /** Releases the pooled buffer the payload points to (if any). The payload must not be accessed after this call */
+    public boolean release() {
+        return pooled_buf != null && pooled_buf.release();
+    }
+
+    public int refCount() {
+        return pooled_buf != null? pooled_buf.refCount() : 0;
+    }
+
+    /** Copies the payload into its own buffer if it points into a pooled buffer, and releases the pooled buffer */
+    public NioMessage detach() {
+        if(pooled_buf == null)
+            return this;
+        if(buf != null) {
+            ByteBuffer tmp=buf.duplicate();
+            buf=ByteBuffer.allocate(tmp.remaining()).put(tmp).flip();
+        }
+        PooledBuffer tmp=pooled_buf;
+        pooled_buf=null;
+        tmp.release();
+        return this;
+    }
+
     @Override protected Message copyPayload(Message copy) {
         if(buf != null)
             ((NioMessage)copy).buf=buf.duplicate();
+        if(pooled_buf != null)
+            ((NioMessage)copy).pooled_buf=pooled_buf.retain();
         return copy;
     }
 
@@ -222,6 +257,26 @@ public class NioMessage extends BaseMessage {
         int len=in.readInt();
         if(len < 0)
             return;
+        if(in instanceof ByteBufferInputStream) { // e.g. UDP_NIO: copy directly from the (direct) receive buffer
+            ByteBuffer src=((ByteBufferInputStream)in).buf();
+            int pos=src.position();
+            if(len > src.remaining())
+                throw new EOFException();
+            buf=Util.createBuffer(len, use_direct_memory_for_allocations).put(src.slice(pos, len)).flip();
+            src.position(pos + len);
+            return;
+        }
+        if(!use_direct_memory_for_allocations && in instanceof ByteArrayDataInputStream
+          && ((ByteArrayDataInputStream)in).pooledBuffer() != null
+          && ((ByteArrayDataInputStream)in).pooledBuffer().canReference(len)) { // point into the pooled receive buffer
+            ByteArrayDataInputStream bin=(ByteArrayDataInputStream)in;
+            if(len > bin.limit() - bin.position())
+                throw new EOFException();
+            buf=ByteBuffer.wrap(bin.buffer(), bin.position(), len).slice();
+            bin.advance(len);
+            pooled_buf=bin.pooledBuffer().retain();
+            return;
+        }
         // unfortunately, we cannot create a ByteBuffer and read directly into it from an input stream (no such API)
         byte[] tmp=new byte[len];
         in.readFully(tmp, 0, tmp.length);
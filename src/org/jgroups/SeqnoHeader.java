@@ -0,0 +1,23 @@
+package org.jgroups;
+
+/**
+ * A header which carries a seqno. In compact message batches ({@link org.jgroups.util.CompactMessageList}), a seqno
+ * header of the first message is written once (as template), and the other messages only carry the delta between
+ * their seqno and the template's seqno, as long as their headers differ from the template only in the seqno.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public interface SeqnoHeader {
+
+    /** The seqno of this header */
+    long seqno();
+
+    /**
+     * Returns true if this header can be used as template for hdr, ie. hdr is of the same class and type and only
+     * differs in the seqno. Should return false for types whose seqno is not used.
+     */
+    boolean deltaCompatible(Header hdr);
+
+    /** Returns a copy of this header with the given seqno */
+    Header copy(long seqno);
+}
@@ -148,6 +148,16 @@ public class View implements Comparable<View>, SizeStreamable, Iterable<Address>
         return false;
     }
 
+    /** Returns the index of mbr in the members, or -1 if mbr is not a member */
+    public int indexOf(Address mbr) {
+        if(mbr == null || members == null)
+            return -1;
+        for(int i=0; i < members.length; i++)
+            if(Objects.equals(members[i], mbr))
+                return i;
+        return -1;
+    }
+
     /** Returns true if all mbrs are elements of this view, false otherwise */
     public boolean containsMembers(Address ... mbrs) {
         if(mbrs == null || members == null)
@@ -69,9 +69,9 @@ public class RequestCorrelator {
 
     protected final RpcStats             rpc_stats=new RpcStats(false);
 
-    protected final AverageMinMax        avg_req_delivery=new AverageMinMax(1024).unit(TimeUnit.NANOSECONDS);
+    protected final Histogram            avg_req_delivery=new Histogram().unit(TimeUnit.NANOSECONDS);
 
-    protected final AverageMinMax        avg_rsp_delivery=new AverageMinMax(1024).unit(TimeUnit.NANOSECONDS);
+    protected final Histogram            avg_rsp_delivery=new Histogram().unit(TimeUnit.NANOSECONDS);
 
     protected static final Log           log=LogFactory.getLog(RequestCorrelator.class);
 
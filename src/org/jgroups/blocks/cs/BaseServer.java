@@ -275,6 +275,40 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         }
     }
 
+    /**
+     * Sends a number of buffers as a single message to dest. Connections supporting gathering writes (e.g.
+     * {@link NioConnection}) write the buffers without copying them into a single buffer first
+     */
+    public void send(Address dest, ByteBuffer[] bufs) throws Exception {
+        if(!validateArgs(dest, bufs))
+            return;
+
+        if(dest == null || dest.equals(local_addr)) {
+            ByteArray ba=Util.bufferToByteArray(bufs);
+            if(dest == null)
+                sendToAll(ba.array(), ba.offset(), ba.length());
+            else
+                receive(dest, ByteBuffer.wrap(ba.array(), ba.offset(), ba.length()));
+            return;
+        }
+
+        Connection conn=null;
+        try {
+            conn=getConnection(dest);
+            conn.send(bufs);
+        }
+        catch(Exception ex) {
+            removeConnectionIfPresent(dest, conn);
+            throw ex;
+        }
+        finally {
+            if(!running()) {
+                log.trace("%s: removing dangling connection to %s created during shutdown", local_addr, dest);
+                removeConnectionIfPresent(dest, conn);
+            }
+        }
+    }
+
     @Override
     public void connectionClosed(Connection conn) {
         removeConnectionIfPresent(conn.peerAddress(), conn);
@@ -1,6 +1,7 @@
 package org.jgroups.blocks.cs;
 
 import org.jgroups.Address;
+import org.jgroups.util.BufferPool;
 import org.jgroups.util.SocketFactory;
 import org.jgroups.util.ThreadFactory;
 
@@ -16,6 +17,7 @@ public abstract class TcpBaseServer extends BaseServer {
     protected boolean non_blocking_sends;       // https://issues.redhat.com/browse/JGRP-2759
     protected int     max_send_queue=1024;      // when non_blocking, how many messages to queue max?
     protected boolean use_lock_to_send=true;    // e.g. a single sender doesn't need to acquire the send_lock
+    protected BufferPool buffer_pool;           // if non-null, messages are read into pooled buffers
 
     protected TcpBaseServer(ThreadFactory f, SocketFactory sf, int recv_buf_size) {
         super(f, sf, recv_buf_size);
@@ -40,6 +42,8 @@ public abstract class TcpBaseServer extends BaseServer {
     public TcpBaseServer maxSendQueue(int s)                {this.max_send_queue=s; return this;}
     public boolean       useLockToSend()                    {return use_lock_to_send;}
     public TcpBaseServer useLockToSend(boolean u)           {this.use_lock_to_send=u; return this;}
+    public BufferPool    bufferPool()                       {return buffer_pool;}
+    public TcpBaseServer bufferPool(BufferPool p)           {this.buffer_pool=p; return this;}
 
 
 }
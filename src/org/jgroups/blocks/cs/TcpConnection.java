@@ -144,12 +144,25 @@ public class TcpConnection extends Connection {
         send(ba.array(), ba.offset(), ba.length());
     }
 
+    /** Writes the total length, followed by the buffers, without copying them into a single buffer first */
     @Override
     public void send(ByteBuffer[] bufs) throws Exception {
-        if(bufs == null || bufs.length == 0)
+        if(out == null || bufs == null || bufs.length == 0)
             return;
-        ByteArray ba=Util.bufferToByteArray(bufs);
-        send(ba.array(), ba.offset(), ba.length());
+        if(!use_lock_to_send) {
+            doSend(bufs, true);
+            return;
+        }
+        writers.incrementAndGet();
+        send_lock.lock();
+        try {
+            doSend(bufs, false);
+        }
+        finally {
+            send_lock.unlock();
+            if(writers.decrementAndGet() == 0) // only the last active writer thread calls flush()
+                flush(); // won't throw an exception
+        }
     }
 
     public void locklessSend(byte[] data, int offset, int length) throws Exception {
@@ -167,6 +180,20 @@ public class TcpConnection extends Connection {
             out.flush();
     }
 
+    @GuardedBy("send_lock")
+    protected void doSend(ByteBuffer[] bufs, boolean flush) throws Exception {
+        Bits.writeInt(Util.length(bufs), length_buf, 0);
+        out.write(length_buf, 0, length_buf.length);
+        for(ByteBuffer buf: bufs) {
+            if(buf == null)
+                continue;
+            ByteArray ba=Util.bufferToByteArray(buf); // copies only direct buffers
+            out.write(ba.array(), ba.offset(), ba.length());
+        }
+        if(flush)
+            out.flush();
+    }
+
     public void flush() {
         try {
             out.flush();
@@ -296,7 +323,11 @@ public class TcpConnection extends Connection {
                         server.log.trace("%s: received graceful close from %s", server.local_addr, peer_addr);
                         break;
                     }
-                    server.receive(peer_addr, in, len);
+                    BufferPool pool=((TcpBaseServer)server).bufferPool();
+                    if(pool != null && len <= pool.bufferSize())
+                        receivePooled(pool, len);
+                    else
+                        server.receive(peer_addr, in, len);
                     updateLastAccessed();
                 }
             }
@@ -325,6 +356,18 @@ public class TcpConnection extends Connection {
                 server.notifyConnectionClosed(TcpConnection.this);
             }
         }
+
+        /** Reads the message into a pooled buffer; payloads of messages can point into it rather than copy it */
+        protected void receivePooled(BufferPool pool, int len) throws Exception {
+            PooledBuffer buf=pool.acquire();
+            try {
+                in.readFully(buf.array(), 0, len);
+                server.receive(peer_addr, new ByteArrayDataInputStream(buf.array(), 0, len).pooledBuffer(buf), len);
+            }
+            finally {
+                buf.release();
+            }
+        }
     }
 
 
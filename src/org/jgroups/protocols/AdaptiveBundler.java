@@ -0,0 +1,233 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.AttributeType;
+import org.jgroups.util.Histogram;
+import org.jgroups.util.Util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.jgroups.conf.AttributeType.SCALAR;
+
+/**
+ * {@link PerDestinationBundler} which adapts the max bundle size and the linger time of each destination to a
+ * latency target ({@link #latency_target}), instead of using a fixed max_size and sending as soon as the queue is
+ * empty.
+ * <br/>
+ * The delay of a bundle is the time between the first message being added to it and the bundle having been sent.
+ * Every {@link #window} bundles, each destination checks how many bundles exceeded the latency target:
+ * <ul>
+ *     <li>More than (100-{@link #percentile})%: the max bundle size and the linger time are halved</li>
+ *     <li>None: the max bundle size is increased (up to max_size). If, at the observed send rate, at least 2
+ *     messages are expected to arrive within half the latency target, the sender lingers (waits for more messages
+ *     before sending a non-full bundle); the linger time is doubled up to half the latency target.
+ *     Otherwise (low rate), lingering is disabled and messages are sent immediately.</li>
+ * </ul>
+ * Lingering busy-spins; with use_single_sender_thread=true, it therefore also delays other destinations, but never
+ * by more than half the latency target.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class AdaptiveBundler extends PerDestinationBundler {
+
+    @Property(description="Target delay (in microseconds) of a bundle at the given percentile",
+      type=AttributeType.TIME,unit=MICROSECONDS)
+    protected long   latency_target=200;
+
+    @Property(description="The percentile of the bundle delays which must be <= latency_target")
+    protected double percentile=99.0;
+
+    @Property(description="Min size (in bytes) of a bundle; the max bundle size is never decreased below this",
+      type=AttributeType.BYTES)
+    protected int    min_bundle_size=1500;
+
+    @Property(description="Number of bundles after which the max bundle size and linger time are adjusted",type=SCALAR)
+    protected int    window=100;
+
+    @ManagedAttribute(description="Number of times the bundle size and linger time of a destination were decreased",
+      type=SCALAR)
+    protected final LongAdder     num_decreases=new LongAdder();
+
+    @ManagedAttribute(description="Number of times the bundle size and/or linger time of a destination were increased",
+      type=SCALAR)
+    protected final LongAdder     num_increases=new LongAdder();
+
+    @ManagedAttribute(description="Number of bundles whose delay exceeded latency_target",type=SCALAR)
+    protected final LongAdder     num_target_violations=new LongAdder();
+
+    @ManagedAttribute(description="Delay of bundles (time between adding the first message and having sent the bundle)")
+    protected final Histogram     bundle_delay=new Histogram().unit(NANOSECONDS);
+
+
+    public long            latencyTarget()           {return latency_target;}
+    public AdaptiveBundler latencyTarget(long t)     {this.latency_target=t; return this;}
+    public double          percentile()              {return percentile;}
+    public AdaptiveBundler percentile(double p)      {this.percentile=p; return this;}
+    public int             minBundleSize()           {return min_bundle_size;}
+    public AdaptiveBundler minBundleSize(int s)      {this.min_bundle_size=s; return this;}
+    public int             window()                  {return window;}
+    public AdaptiveBundler window(int w)             {this.window=w; return this;}
+
+    @ManagedAttribute(description="The current max bundle size (bytes) and linger time of each destination")
+    public String decisions() {
+        return dests.entrySet().stream()
+          .map(e -> String.format("%s: %s", e.getKey(), e.getValue() instanceof AdaptiveSendBuffer b? b.decisions() : "n/a"))
+          .collect(Collectors.joining("\n"));
+    }
+
+    @ManagedOperation(description="Returns the current max bundle size (in bytes) for the given destination " +
+      "(null: multicasts), or -1 if not found")
+    public int bundleSize(Address dest) {
+        return dests.get(dest == null? NULL : dest) instanceof AdaptiveSendBuffer b? b.bundle_size : -1;
+    }
+
+    @ManagedOperation(description="Returns the current linger time (in ns) for the given destination " +
+      "(null: multicasts), or -1 if not found")
+    public long linger(Address dest) {
+        return dests.get(dest == null? NULL : dest) instanceof AdaptiveSendBuffer b? b.linger : -1;
+    }
+
+    @Override
+    public void init(TP transport) {
+        super.init(transport);
+        if(latency_target <= 0)
+            throw new IllegalArgumentException(String.format("latency_target (%d) must be > 0", latency_target));
+        if(percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException(String.format("percentile (%.2f) must be in range (0..100]", percentile));
+        min_bundle_size=Math.min(min_bundle_size, max_size);
+        window=Math.max(window, 1);
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        num_decreases.reset(); num_increases.reset(); num_target_violations.reset();
+        bundle_delay.clear();
+    }
+
+    @Override
+    protected SendBuffer createSendBuffer(Address dest) {
+        return new AdaptiveSendBuffer(dest);
+    }
+
+
+    protected class AdaptiveSendBuffer extends SendBuffer {
+        protected volatile int  bundle_size=max_size; // current max size of a bundle (bytes)
+        protected volatile long linger;               // ns to wait for more messages before sending a non-full bundle
+        protected volatile long rate;                 // messages / sec, computed at the end of each window
+        protected long          bundle_start;         // time (ns) the first message was added to the current bundle
+        protected long          window_start=System.nanoTime();
+        protected int           bundles, msgs_in_window, exceeded; // in the current window
+        protected long          max_delay;                         // max delay in the current window
+
+        public AdaptiveSendBuffer(Address dest) {
+            super(dest);
+        }
+
+        protected String decisions() {
+            return String.format("bundle_size=%,d linger=%s rate=%,d msgs/sec",
+                                 bundle_size, Util.printTime(linger, NANOSECONDS), rate);
+        }
+
+        @Override
+        protected void removeAndSend(boolean execute_only_once) {
+            for(;;) {
+                drain(execute_only_once);
+                if(count == 0 || linger == 0 || !linger())
+                    break;
+            }
+            sendRemaining();
+        }
+
+        /** Waits until a message is available or the linger time has elapsed. Returns true if a message is available */
+        protected boolean linger() {
+            long deadline=bundle_start + linger;
+            while(System.nanoTime() - deadline < 0) {
+                if(!queue.isEmpty())
+                    return true;
+                Thread.onSpinWait();
+            }
+            return false;
+        }
+
+        @Override
+        protected void addAndSendIfSizeExceeded(Message msg) {
+            int size=msg.size();
+            if(count > 0 && count + size >= bundle_size) {
+                if(transport.statsEnabled())
+                    avg_fill_count.add(count);
+                sendBundledMessages();
+                num_sends_because_full_queue.increment();
+            }
+            if(count == 0)
+                bundle_start=System.nanoTime();
+            addMessage(msg, size);
+            msgs_in_window++;
+        }
+
+        @Override
+        protected void sendBundledMessages() {
+            if(msgs.isEmpty())
+                return;
+            super.sendBundledMessages();
+            long delay=System.nanoTime() - bundle_start;
+            bundle_delay.add(delay);
+            if(delay > MICROSECONDS.toNanos(latency_target)) {
+                exceeded++;
+                num_target_violations.increment();
+            }
+            max_delay=Math.max(max_delay, delay);
+            if(++bundles >= window)
+                adjust();
+        }
+
+        /** Called at the end of a window: adjusts bundle size and linger time */
+        protected void adjust() {
+            long now=System.nanoTime();
+            decide(now - window_start);
+            window_start=now;
+        }
+
+        /**
+         * Adjusts bundle size and linger time based on the bundles, messages and delays of the current window, then
+         * resets the window
+         * @param elapsed The duration of the window (ns)
+         */
+        protected void decide(long elapsed) {
+            long target=MICROSECONDS.toNanos(latency_target), max_linger=target/2;
+            elapsed=Math.max(1, elapsed);
+            rate=(long)(msgs_in_window * 1_000_000_000.0 / elapsed);
+            int allowed=(int)(bundles * (100.0 - percentile) / 100.0);
+            if(exceeded > allowed) {
+                bundle_size=Math.max(min_bundle_size, bundle_size / 2);
+                linger/=2;
+                num_decreases.increment();
+            }
+            else if(exceeded == 0) {
+                int new_size=Math.min(max_size, bundle_size + Math.max(min_bundle_size, bundle_size / 4));
+                long inter_arrival=rate > 0? 1_000_000_000L / rate : Long.MAX_VALUE;
+                // only linger if at least 2 messages are expected to arrive within the max linger time
+                long new_linger=inter_arrival <= max_linger / 2? Math.min(max_linger, Math.max(linger * 2, inter_arrival * 2)) : 0;
+                if(max_delay + (new_linger - linger) > target)
+                    new_linger=linger; // don't linger longer if this would exceed the target
+                if(new_size != bundle_size || new_linger > linger)
+                    num_increases.increment();
+                bundle_size=new_size;
+                linger=new_linger;
+            }
+            bundles=msgs_in_window=exceeded=0;
+            max_delay=0;
+        }
+
+        public String toString() {
+            return String.format("%s, %s", super.toString(), decisions());
+        }
+    }
+}
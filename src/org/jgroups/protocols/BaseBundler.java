@@ -1,6 +1,7 @@
 package org.jgroups.protocols;
 
 import org.jgroups.Address;
+import org.jgroups.BytesMessage;
 import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.View;
@@ -13,6 +14,9 @@ import org.jgroups.logging.Log;
 import org.jgroups.stack.MessageProcessingPolicy;
 import org.jgroups.util.*;
 
+import java.io.DataOutput;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -89,6 +93,23 @@ public abstract class BaseBundler implements Bundler {
     @Property(description="Delay (in ms) after which queued messages to non-members are removed",unit=MILLISECONDS,type=AttributeType.TIME)
     protected long                                  remove_delay=5000;
 
+    @Property(description="Min size (in bytes) of the payload of a BytesMessage in a batch to be sent as a separate " +
+      "buffer (gathering write) rather than being copied into the output buffer. Only used by transports supporting " +
+      "gathering writes (e.g. TCP, TCP_NIO2). 0 disables gathering writes",type=AttributeType.BYTES)
+    protected int                                   gather_min_size=4096;
+
+    @Property(description="Max number of payloads of a batch sent as separate buffers. Payloads exceeding this " +
+      "number are copied into the output buffer. 0 disables gathering writes",type=SCALAR)
+    protected int                                   max_gather_payloads=8;
+
+    @Property(description="Send message batches in the compact format (CompactMessageList): headers shared by all " +
+      "messages are written only once and seqnos are delta-encoded. All members need to be able to read the compact " +
+      "format (5.6 or higher)")
+    protected boolean                               compact_batches;
+
+    @ManagedAttribute(description="Number of batches sent via gathering writes",type=SCALAR)
+    protected final LongAdder                       num_gathering_writes=new LongAdder();
+
     @ManagedAttribute(description="Average fill size of the queue (in bytes) when messages are sent",gauge=true)
     protected final AverageMinMax                   avg_fill_count=new AverageMinMax(512);
 
@@ -96,7 +117,7 @@ public abstract class BaseBundler implements Bundler {
     protected final AverageMinMax                   avg_remove_queue_size=new AverageMinMax(512);
 
     @ManagedAttribute(description="Time (us) to send the bundled messages",gauge=true)
-    protected final AverageMinMax                   avg_send_time=new AverageMinMax(1024).unit(NANOSECONDS);
+    protected final Histogram                       avg_send_time=new Histogram().unit(NANOSECONDS);
 
     @ManagedAttribute(description="Total number of messages sent (single and batches)",type=AttributeType.SCALAR)
     protected final LongAdder                       total_msgs_sent=new LongAdder();
@@ -140,6 +161,12 @@ public abstract class BaseBundler implements Bundler {
     public Bundler               useRingBuffer(boolean u)         {this.use_ringbuffer=u; return this;}
     public long                  suppressLogTimeout()             {return suppress_log_timeout;}
     public void                  suppressLogTimeout(long s)       {this.suppress_log_timeout=s;}
+    public int                   gatherMinSize()                  {return gather_min_size;}
+    public Bundler               gatherMinSize(int s)             {this.gather_min_size=s; return this;}
+    public int                   maxGatherPayloads()              {return max_gather_payloads;}
+    public Bundler               maxGatherPayloads(int m)         {this.max_gather_payloads=m; return this;}
+    public boolean               compactBatches()                 {return compact_batches;}
+    public Bundler               compactBatches(boolean c)        {this.compact_batches=c; return this;}
     public long                  removeDelay()                    {return remove_delay;}
     public Bundler               removeDelay(long remove_delay)   {this.remove_delay=remove_delay; return this;}
 
@@ -162,7 +189,7 @@ public abstract class BaseBundler implements Bundler {
 
     public void resetStats() {
         Stream.of(total_msgs_sent,num_batches_sent, num_single_msgs_sent,num_sends_because_full_queue,
-                  num_sends_because_no_msgs,num_drops_on_full_queue)
+                  num_sends_because_no_msgs,num_drops_on_full_queue,num_gathering_writes)
           .forEach(LongAdder::reset);
         avg_send_time.clear(); avg_fill_count.clear(); avg_remove_queue_size.clear();
     }
@@ -307,13 +334,68 @@ public abstract class BaseBundler implements Bundler {
     }
 
     protected void sendMessageList(Address dest, Address src, List<Message> list, ByteBufferOutputStream out) throws Exception {
-        Util.writeMessageList(dest, src, transport.cluster_name.val(), list, out, dest == null);
-        out.buf().flip();
-        transport.doSend(out.buf(), dest);
+        ByteBuffer[] bufs=!compact_batches && gather_min_size > 0 && max_gather_payloads > 0
+          && transport.supportsGatheringWrites()?
+          writeMessageList(dest, src, list, out) : null;
+        if(bufs != null) {
+            transport.doSend(bufs, dest);
+            num_gathering_writes.increment();
+        }
+        else if(compact_batches) {
+            CompactMessageList.writeMessageList(dest, src, transport.cluster_name.val(), list, out, dest == null);
+            out.buf().flip();
+            transport.doSend(out.buf(), dest);
+        }
+        else {
+            Util.writeMessageList(dest, src, transport.cluster_name.val(), list, out, dest == null);
+            out.buf().flip();
+            transport.doSend(out.buf(), dest);
+        }
         transport.getMessageStats().incrNumBatchesSent();
         num_batches_sent.increment();
     }
 
+    /**
+     * Writes a message list in the same format as {@link Util#writeMessageList(Address, Address, byte[], List, DataOutput, boolean)},
+     * but the payloads of large {@link BytesMessage}s are not copied into out. Instead, the list is returned as
+     * buffers, alternating between slices of out (headers) and the payloads of large messages.
+     * @return The buffers, or null if the list doesn't contain any large messages
+     */
+    protected ByteBuffer[] writeMessageList(Address dest, Address src, List<Message> list, ByteBufferOutputStream out)
+      throws Exception {
+        int num_payloads=0;
+        for(Message msg: list) {
+            if(isGatherable(msg) && ++num_payloads >= max_gather_payloads)
+                break;
+        }
+        if(num_payloads == 0)
+            return null;
+        ByteBuffer[] bufs=new ByteBuffer[num_payloads*2 +1];
+        int index=0, start=0;
+        Util.writeMessageListHeader(dest, src, transport.cluster_name.val(), list.size(), out, dest == null);
+        for(Message msg: list) {
+            out.writeShort(msg.getType());
+            if(num_payloads > 0 && isGatherable(msg)) {
+                ((BytesMessage)msg).writeToNoAddrs(src, out, false);
+                out.writeInt(msg.getLength()); // the length is written by BytesMessage.writePayload() as well
+                bufs[index++]=out.buf().slice(start, out.position() - start);
+                bufs[index++]=ByteBuffer.wrap(msg.getArray(), msg.getOffset(), msg.getLength());
+                start=out.position();
+                num_payloads--;
+            }
+            else
+                msg.writeToNoAddrs(src, out);
+        }
+        if(out.position() > start)
+            bufs[index++]=out.buf().slice(start, out.position() - start);
+        return index == bufs.length? bufs : Arrays.copyOf(bufs, index);
+    }
+
+    /** Only BytesMessages (not subclasses, which may write their payloads differently) are sent as separate buffers */
+    protected boolean isGatherable(Message msg) {
+        return msg.getClass() == BytesMessage.class && msg.getArray() != null && msg.getLength() >= gather_min_size;
+    }
+
     @GuardedBy("lock") protected void addMessage(Message msg, int size) {
         Address dest=msg.getDest();
         List<Message> tmp=msgs.computeIfAbsent(dest, FUNC);
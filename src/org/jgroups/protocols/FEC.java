@@ -0,0 +1,576 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.annotations.GuardedBy;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.jgroups.Message.Flag.*;
+import static org.jgroups.Message.TransientFlag.DONT_BLOCK;
+import static org.jgroups.Message.TransientFlag.DONT_LOOPBACK;
+import static org.jgroups.conf.AttributeType.*;
+
+/**
+ * Forward error correction for multicast messages. A sender assigns its multicast messages to groups of
+ * {@code group_size} messages and sends a parity message after each group, which is the XOR of the (serialized)
+ * messages of the group. A receiver which received the parity message and all but one message of a group
+ * reconstructs the missing message locally and passes it up, instead of having the reliable layer above (NAKACK2,
+ * NAKACK4) ask the sender for retransmission. If more than one message of a group is lost, the reliable layer
+ * retransmits them as usual.
+ * <p>
+ * The bandwidth overhead is roughly 1/{@code group_size}. A parity message is also sent for a group which is not
+ * full after {@code max_delay} ms, so that the last messages of a burst are covered, too.
+ * <p>
+ * Needs to be placed directly above the transport. Unicast messages are passed on unchanged.
+ * @author Bela Ban
+ * @since  5.6
+ */
+@MBean(description="Forward error correction for multicast messages")
+public class FEC extends Protocol {
+
+    @Property(description="Number of multicast messages covered by a parity message. The bandwidth overhead is " +
+      "about 1/group_size; smaller groups can recover more lost messages, at a higher overhead",type=SCALAR)
+    protected int     group_size=10;
+
+    @Property(description="Max time (in ms) after which a parity message is sent for a group which is not yet " +
+      "full. 0 disables this: parity messages are only sent for full groups",type=TIME)
+    protected long    max_delay=20;
+
+    @Property(description="Max number of incomplete groups per sender kept by a receiver. When exceeded, the " +
+      "oldest group is discarded",type=SCALAR)
+    protected int     max_pending_groups=32;
+
+    @ManagedAttribute(description="Number of multicast messages sent",type=SCALAR)
+    protected final LongAdder num_msgs_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of parity messages sent",type=SCALAR)
+    protected final LongAdder num_parity_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of parity messages received",type=SCALAR)
+    protected final LongAdder num_parity_received=new LongAdder();
+
+    @ManagedAttribute(description="Number of lost messages reconstructed from parity messages",type=SCALAR)
+    protected final LongAdder num_recovered=new LongAdder();
+
+    @ManagedAttribute(description="Number of failed reconstructions, e.g. because a message was changed after " +
+      "reception",type=SCALAR)
+    protected final LongAdder num_recovery_failures=new LongAdder();
+
+    @ManagedAttribute(description="Number of bytes of all (serialized) multicast messages sent",type=BYTES)
+    protected final LongAdder bytes_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of bytes of all parity messages sent",type=BYTES)
+    protected final LongAdder parity_bytes_sent=new LongAdder();
+
+    // the group currently being filled by this sender
+    protected final Lock                lock=new ReentrantLock();
+    protected long                      group=1;
+    protected int                       index;      // index of the next message in the current group
+    protected byte[]                    parity;     // XOR of the messages of the current group
+    protected int                       parity_length;
+    protected int[]                     lengths;    // length of each serialized message in the current group
+    protected int[]                     checksums;  // CRC32 of each serialized message in the current group
+
+    protected final Map<Address,Groups> receivers=Util.createConcurrentMap();
+    protected TimeScheduler             timer;
+    protected short                     tp_id;      // the header of the transport is excluded from the encoding
+
+    public int  groupSize()                {return group_size;}
+    public FEC  groupSize(int s)           {group_size=s; return this;}
+    public long maxDelay()                 {return max_delay;}
+    public FEC  maxDelay(long d)           {max_delay=d; return this;}
+    public int  maxPendingGroups()         {return max_pending_groups;}
+    public FEC  maxPendingGroups(int m)    {max_pending_groups=m; return this;}
+    public long numRecovered()             {return num_recovered.sum();}
+    public long numParitySent()            {return num_parity_sent.sum();}
+
+    @ManagedAttribute(description="Ratio of parity bytes to message bytes sent")
+    public double getRedundancy() {
+        long sent=bytes_sent.sum();
+        return sent == 0? 0 : parity_bytes_sent.sum() / (double)sent;
+    }
+
+    @Override
+    public void init() throws Exception {
+        super.init();
+        if(group_size < 2)
+            throw new IllegalArgumentException(String.format("group_size (%d) must be >= 2", group_size));
+        if(max_pending_groups < 1)
+            throw new IllegalArgumentException(String.format("max_pending_groups (%d) must be >= 1", max_pending_groups));
+        tp_id=getTransport().getId();
+        lengths=new int[group_size];
+        checksums=new int[group_size];
+    }
+
+    @Override
+    public void start() throws Exception {
+        super.start();
+        timer=getTransport().getTimer();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        receivers.clear();
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        Stream.of(num_msgs_sent, num_parity_sent, num_parity_received, num_recovered, num_recovery_failures,
+                  bytes_sent, parity_bytes_sent).forEach(LongAdder::reset);
+    }
+
+    @Override
+    public Object down(Event evt) {
+        if(evt.type() == Event.VIEW_CHANGE)
+            handleView(evt.getArg());
+        return down_prot.down(evt);
+    }
+
+    @Override
+    public Object down(Message msg) {
+        // unicasts and retransmissions (which already have a header) are passed down unchanged
+        if(msg.getDest() != null || msg.getHeader(id) != null)
+            return down_prot.down(msg);
+        ByteArray buf;
+        try {
+            buf=encode(msg, id, tp_id);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed serializing message %s: %s", local_addr, msg, ex);
+            return down_prot.down(msg);
+        }
+        Message parity_msg=null;
+        lock.lock();
+        try {
+            msg.putHeader(id, FecHeader.createDataHeader(group, index));
+            add(buf);
+            if(index == 1 && max_delay > 0) {
+                final long g=group;
+                timer.schedule(() -> flush(g), max_delay, MILLISECONDS, false);
+            }
+            if(index >= group_size)
+                parity_msg=createParityMessage();
+        }
+        finally {
+            lock.unlock();
+        }
+        num_msgs_sent.increment();
+        bytes_sent.add(buf.getLength());
+        Object retval=down_prot.down(msg);
+        if(parity_msg != null)
+            sendParityMessage(parity_msg);
+        return retval;
+    }
+
+    @Override
+    public Object up(Message msg) {
+        FecHeader hdr;
+        if(msg.getDest() != null || (hdr=msg.getHeader(id)) == null || Objects.equals(local_addr, msg.getSrc()))
+            return up_prot.up(msg);
+        if(hdr.type == FecHeader.PARITY) {
+            Message recovered=handleParity(msg.getSrc(), hdr, msg);
+            return recovered != null? up_prot.up(recovered) : null;
+        }
+        Message recovered=handleData(msg.getSrc(), hdr, msg);
+        Object retval=up_prot.up(msg);
+        if(recovered != null)
+            up_prot.up(recovered);
+        return retval;
+    }
+
+    @Override
+    public void up(MessageBatch batch) {
+        Address sender=batch.sender();
+        if(batch.dest() != null || Objects.equals(local_addr, sender)) {
+            up_prot.up(batch);
+            return;
+        }
+        List<Message> recovered=null;
+        for(Iterator<Message> it=batch.iterator(); it.hasNext();) {
+            Message msg=it.next(), rec;
+            FecHeader hdr=msg.getHeader(id);
+            if(hdr == null)
+                continue;
+            if(hdr.type == FecHeader.PARITY) {
+                it.remove();
+                rec=handleParity(sender, hdr, msg);
+            }
+            else
+                rec=handleData(sender, hdr, msg);
+            if(rec != null) {
+                if(recovered == null)
+                    recovered=new ArrayList<>(2);
+                recovered.add(rec);
+            }
+        }
+        if(!batch.isEmpty())
+            up_prot.up(batch);
+        // not added to the batch: parity messages are OOB, but the mode of a recovered message may be different
+        if(recovered != null)
+            recovered.forEach(up_prot::up);
+    }
+
+    protected void handleView(View view) {
+        receivers.keySet().retainAll(view.getMembers());
+    }
+
+    /** Adds a serialized message to the current group */
+    @GuardedBy("lock")
+    protected void add(ByteArray buf) {
+        int len=buf.getLength();
+        if(parity == null || parity.length < len)
+            parity=parity == null? new byte[len] : Arrays.copyOf(parity, len);
+        xor(parity, buf.getArray(), buf.getOffset(), len);
+        parity_length=Math.max(parity_length, len);
+        lengths[index]=len;
+        checksums[index]=checksum(buf.getArray(), buf.getOffset(), len);
+        index++;
+    }
+
+    /** Creates the parity message for the current group and starts a new group */
+    @GuardedBy("lock")
+    protected Message createParityMessage() {
+        FecHeader hdr=FecHeader.createParityHeader(group, Arrays.copyOf(lengths, index), Arrays.copyOf(checksums, index));
+        Message msg=new BytesMessage(null, parity, 0, parity_length).putHeader(id, hdr)
+          .setFlag(OOB, NO_FC, NO_RELIABILITY).setFlag(DONT_BLOCK, DONT_LOOPBACK);
+        group++;
+        index=parity_length=0;
+        parity=null;
+        return msg;
+    }
+
+    /** Sends the parity message for group g if g is still the current group (which is not yet full) */
+    protected void flush(long g) {
+        Message parity_msg=null;
+        lock.lock();
+        try {
+            if(group == g && index > 0)
+                parity_msg=createParityMessage();
+        }
+        finally {
+            lock.unlock();
+        }
+        if(parity_msg != null)
+            sendParityMessage(parity_msg);
+    }
+
+    protected void sendParityMessage(Message msg) {
+        num_parity_sent.increment();
+        parity_bytes_sent.add(msg.getLength());
+        down_prot.down(msg);
+    }
+
+    /** Adds a message to its group. Returns a reconstructed message, or null */
+    protected Message handleData(Address sender, FecHeader hdr, Message msg) {
+        Groups groups=getGroups(sender);
+        Group g;
+        synchronized(groups) {
+            if((g=groups.get(hdr.group)) == null || !g.add(hdr.index, msg) || !g.recoverable())
+                return null;
+            g.done=true; // no other thread will change or recover the group
+        }
+        return recover(sender, g);
+    }
+
+    /** Adds the parity to its group. Returns a reconstructed message, or null */
+    protected Message handleParity(Address sender, FecHeader hdr, Message msg) {
+        num_parity_received.increment();
+        Groups groups=getGroups(sender);
+        Group g;
+        synchronized(groups) {
+            if((g=groups.get(hdr.group)) == null || !g.parity(hdr, msg) || !g.recoverable())
+                return null;
+            g.done=true; // no other thread will change or recover the group
+        }
+        return recover(sender, g);
+    }
+
+    protected Groups getGroups(Address sender) {
+        Groups groups=receivers.get(sender);
+        return groups != null? groups : receivers.computeIfAbsent(sender, __ -> new Groups(max_pending_groups));
+    }
+
+    /** Reconstructs the single missing message of a group from the parity and the other messages */
+    protected Message recover(Address sender, Group g) {
+        int missing=g.missing();
+        try {
+            byte[] buf=g.parity;
+            for(int i=0; i < g.count(); i++) {
+                if(i == missing)
+                    continue;
+                ByteArray tmp=encode(g.msgs[i], id, tp_id);
+                if(tmp.getLength() != g.hdr.lengths[i])
+                    throw new IllegalStateException(String.format("length of message %d (%d) doesn't match length " +
+                                                                    "sent (%d)", i, tmp.getLength(), g.hdr.lengths[i]));
+                xor(buf, tmp.getArray(), tmp.getOffset(), tmp.getLength());
+            }
+            int len=g.hdr.lengths[missing];
+            if(checksum(buf, 0, len) != g.hdr.checksums[missing])
+                throw new IllegalStateException("checksum of reconstructed message doesn't match");
+            Message msg=decode(buf, 0, len).setSrc(sender);
+            num_recovered.increment();
+            if(log.isTraceEnabled())
+                log.trace("%s: reconstructed message %d of group %d from %s", local_addr, missing, g.id, sender);
+            return msg;
+        }
+        catch(Exception ex) {
+            num_recovery_failures.increment();
+            log.warn("%s: failed reconstructing message %d of group %d from %s: %s", local_addr, missing, g.id, sender, ex);
+            return null;
+        }
+        finally {
+            g.release();
+        }
+    }
+
+    /**
+     * Serializes a message without the addresses and without the headers of the excluded protocols (this protocol
+     * and the transport, which adds a header at the receiver). The headers are written sorted by protocol ID, as the
+     * order of the headers of a message may be different at the receiver
+     */
+    protected static ByteArray encode(Message msg, short ... exclude) throws IOException {
+        Header[] hdrs=msg.getHeaders().values().stream().filter(h -> !excluded(h.getProtId(), exclude))
+          .sorted(Comparator.comparingInt(Header::getProtId)).toArray(Header[]::new);
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(msg.size());
+        out.writeShort(msg.getType());
+        out.writeShort(msg.getFlags());
+        Bits.writeIntCompressed(hdrs.length, out);
+        for(Header hdr: hdrs) {
+            out.writeShort(hdr.getProtId());
+            Headers.writeHeader(hdr, out);
+        }
+        msg.writePayload(out);
+        return out.getBuffer();
+    }
+
+    protected static Message decode(byte[] buf, int offset, int length) throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+        Message msg=MessageFactory.create(in.readShort());
+        msg.setFlag(in.readShort(), false);
+        int num_hdrs=Bits.readIntCompressed(in);
+        for(int i=0; i < num_hdrs; i++) {
+            short prot_id=in.readShort();
+            msg.putHeader(prot_id, Headers.readHeader(in));
+        }
+        msg.readPayload(in);
+        return msg;
+    }
+
+    protected static boolean excluded(short prot_id, short[] exclude) {
+        for(short id: exclude)
+            if(id == prot_id)
+                return true;
+        return false;
+    }
+
+    protected static void xor(byte[] dest, byte[] src, int offset, int length) {
+        for(int i=0; i < length; i++)
+            dest[i]^=src[offset+i];
+    }
+
+    protected static int checksum(byte[] buf, int offset, int length) {
+        CRC32 crc=new CRC32();
+        crc.update(buf, offset, length);
+        return (int)crc.getValue();
+    }
+
+
+    /** The last groups received from a sender, in a ring indexed by group ID. Access must be synchronized */
+    protected static class Groups {
+        protected final Group[] groups;
+        protected long          highest; // highest group ID seen
+
+        protected Groups(int capacity) {
+            groups=new Group[capacity];
+        }
+
+        /** Returns the group with the given ID (creating it if needed), or null if the group is too old */
+        protected Group get(long id) {
+            if(id <= highest - groups.length)
+                return null;
+            int idx=(int)(id % groups.length);
+            Group g=groups[idx];
+            if(g != null && g.id == id)
+                return g;
+            if(g != null && g.id > id)
+                return null;
+            if(g != null && !g.done) // a done group has been released, or is released by the recovering thread
+                g.release();
+            highest=Math.max(highest, id);
+            return groups[idx]=new Group(id);
+        }
+    }
+
+    /**
+     * The received messages of a group and its parity. The messages are retained (their payloads may point into
+     * pooled receive buffers, released after delivery) until the group is done, recovered or overwritten
+     */
+    protected static class Group {
+        protected final long id;
+        protected Message[]  msgs=new Message[8];
+        protected int        received;
+        protected FecHeader  hdr;     // header of the parity message, null until received
+        protected byte[]     parity;  // null until received
+        protected boolean    done;    // no more messages need to be reconstructed
+
+        protected Group(long id) {
+            this.id=id;
+        }
+
+        protected int count() {return hdr != null? hdr.lengths.length : -1;}
+
+        /** Adds a message, returns true if it was added (not a duplicate) */
+        protected boolean add(int index, Message msg) {
+            if(done || index < 0 || (hdr != null && index >= count()))
+                return false;
+            if(index >= msgs.length)
+                msgs=Arrays.copyOf(msgs, Math.max(index+1, msgs.length * 2));
+            if(msgs[index] != null)
+                return false;
+            msgs[index]=msg instanceof Refcountable? (Message)((Refcountable<?>)msg).retain() : msg;
+            received++;
+            if(received == count()) {
+                done=true;
+                release();
+            }
+            return true;
+        }
+
+        protected boolean parity(FecHeader h, Message msg) {
+            if(done || hdr != null)
+                return false;
+            hdr=h;
+            parity=new byte[msg.getLength()];
+            if(msg.hasArray())
+                System.arraycopy(msg.getArray(), msg.getOffset(), parity, 0, parity.length);
+            if(msgs.length < count())
+                msgs=Arrays.copyOf(msgs, count());
+            if(received >= count()) {
+                done=true;
+                release();
+            }
+            return true;
+        }
+
+        /** A group can be recovered if the parity and all but one message have been received */
+        protected boolean recoverable() {
+            return !done && hdr != null && received == count() - 1;
+        }
+
+        /** Releases the retained messages; called when no more messages need to be reconstructed */
+        protected void release() {
+            for(int i=0; i < msgs.length; i++) {
+                Message msg=msgs[i];
+                if(msg instanceof Refcountable)
+                    ((Refcountable<?>)msg).release();
+                msgs[i]=null;
+            }
+        }
+
+        protected int missing() {
+            for(int i=0; i < count(); i++)
+                if(msgs[i] == null)
+                    return i;
+            return -1;
+        }
+    }
+
+
+    public static class FecHeader extends Header {
+        protected static final byte DATA=1, PARITY=2;
+
+        protected byte  type;
+        protected long  group;
+        protected int   index;      // DATA: index of the message in its group
+        protected int[] lengths;    // PARITY: lengths of the serialized messages of the group
+        protected int[] checksums;  // PARITY: CRC32 checksums of the serialized messages of the group
+
+        public FecHeader() {
+        }
+
+        public static FecHeader createDataHeader(long group, int index) {
+            FecHeader hdr=new FecHeader();
+            hdr.type=DATA;
+            hdr.group=group;
+            hdr.index=index;
+            return hdr;
+        }
+
+        public static FecHeader createParityHeader(long group, int[] lengths, int[] checksums) {
+            FecHeader hdr=new FecHeader();
+            hdr.type=PARITY;
+            hdr.group=group;
+            hdr.lengths=lengths;
+            hdr.checksums=checksums;
+            return hdr;
+        }
+
+        public short                      getMagicId() {return 102;}
+        public Supplier<? extends Header> create()     {return FecHeader::new;}
+
+        @Override
+        public int serializedSize() {
+            int retval=Global.BYTE_SIZE + Bits.size(group);
+            if(type == DATA)
+                return retval + Bits.size(index);
+            retval+=Bits.size(lengths.length);
+            for(int len: lengths)
+                retval+=Bits.size(len);
+            return retval + checksums.length * Global.INT_SIZE;
+        }
+
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(type);
+            Bits.writeLongCompressed(group, out);
+            if(type == DATA) {
+                Bits.writeIntCompressed(index, out);
+                return;
+            }
+            Bits.writeIntCompressed(lengths.length, out);
+            for(int len: lengths)
+                Bits.writeIntCompressed(len, out);
+            for(int checksum: checksums)
+                out.writeInt(checksum);
+        }
+
+        @Override
+        public void readFrom(DataInput in) throws IOException {
+            type=in.readByte();
+            group=Bits.readLongCompressed(in);
+            if(type == DATA) {
+                index=Bits.readIntCompressed(in);
+                return;
+            }
+            int count=Bits.readIntCompressed(in);
+            lengths=new int[count];
+            checksums=new int[count];
+            for(int i=0; i < count; i++)
+                lengths[i]=Bits.readIntCompressed(in);
+            for(int i=0; i < count; i++)
+                checksums[i]=in.readInt();
+        }
+
+        public String toString() {
+            return type == DATA? String.format("DATA group=%d index=%d", group, index)
+              : String.format("PARITY group=%d count=%d", group, lengths.length);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.util.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
@@ -103,9 +104,9 @@ public class FRAG2 extends Fragmentation {
     public Object down(Message msg) {
         long size=msg.getLength();
         if(size > frag_size) {
-            fragment(msg);  // Fragment and pass down
+            Object retval=fragment(msg);  // Fragment and pass down
             avg_size_down.add(size);
-            return null;
+            return retval; // a future if flow control below queued fragments
         }
         return down_prot.down(msg);
     }
@@ -195,7 +196,8 @@ public class FRAG2 extends Fragmentation {
      [2344,3,2]{dst,src,buf3}
      </pre>
      */
-    protected void fragment(Message msg) {
+    protected Object fragment(Message msg) {
+        List<CompletableFuture<?>> futures=null;
         try {
             boolean serialize=!msg.hasArray();
             ByteArray tmp=null;
@@ -227,11 +229,13 @@ public class FRAG2 extends Fragmentation {
                 frag_msg.setArray(buffer, (int)r.low, (int)r.high);
                 FragHeader hdr=new FragHeader(frag_id, i, num_frags).needsDeserialization(serialize);
                 frag_msg.putHeader(this.id, hdr);
-                down_prot.down(frag_msg);
+                futures=addFuture(futures, down_prot.down(frag_msg));
             }
+            return combine(futures);
         }
         catch(Exception e) {
             log.error("%s: fragmentation failure: %s", local_addr, e);
+            return null;
         }
     }
 
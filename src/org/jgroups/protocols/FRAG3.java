@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -98,9 +99,9 @@ public class FRAG3 extends Fragmentation {
     public Object down(Message msg) {
         int size=msg.getLength();
         if(size > frag_size) {
-            fragment(msg);  // Fragment and pass down
+            Object retval=fragment(msg);  // Fragment and pass down
             avg_size_down.add(size);
-            return null;
+            return retval; // a future if flow control below queued fragments
         }
         return down_prot.down(msg);
     }
@@ -188,7 +189,8 @@ public class FRAG3 extends Fragmentation {
      [2344,3,2]{dst,src,buf3}
      </pre>
      */
-    protected void fragment(final Message msg) {
+    protected Object fragment(final Message msg) {
+        List<CompletableFuture<?>> futures=null;
         try {
             boolean serialize=!msg.hasArray();
             ByteArray tmp=null;
@@ -229,13 +231,15 @@ public class FRAG3 extends Fragmentation {
                     frag_msg=msg.copy(false, i == 0);
 
                 frag_msg.setArray(buffer, offset, tmp_size).putHeader(this.id, hdr);
-                down_prot.down(frag_msg);
+                futures=addFuture(futures, down_prot.down(frag_msg));
                 offset+=tmp_size;
                 i++;
             }
+            return combine(futures);
         }
         catch(Exception e) {
             log.error(String.format("%s: fragmentation failure", local_addr), e);
+            return null;
         }
     }
 
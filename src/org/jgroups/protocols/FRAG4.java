@@ -5,7 +5,14 @@ import org.jgroups.BytesMessage;
 import org.jgroups.FragmentedMessage;
 import org.jgroups.Message;
 import org.jgroups.MessageFactory;
+import org.jgroups.NioMessage;
+import org.jgroups.ObjectMessage;
+import org.jgroups.View;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.AttributeType;
 import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.FixedSizeBitSet;
+import org.jgroups.util.FragmentInputStream;
 import org.jgroups.util.Range;
 import org.jgroups.util.Util;
 
@@ -13,8 +20,12 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -33,14 +44,71 @@ import java.util.Objects;
  * the original message's byte array, plus and offset and length. Otherwise, we use a number of {@link FragmentedMessage}
  * instances, with a reference to the original message and also an offset and length. These serialize messages at the
  * last possible moment, just before being sent by the transport.
- * 
+ * <br/>
+ * If {@link #send_offsets} is true, fragments of a byte[] array carry the length of the original array and their
+ * offset in it ({@link Frag4Header}). The receiver allocates the reassembly buffer once, when the first fragment is
+ * received, and copies every fragment directly to its offset; fragments are not retained. If
+ * {@link #deliver_nio_messages} is true, the reassembled message is a {@link NioMessage} wrapping the reassembly
+ * buffer, which avoids another copy. Members running a version without {@link Frag4Header} cannot read these
+ * fragments, so send_offsets must only be enabled when all members understand it; it is therefore off by default.
+ * <br/>
+ * If {@link #stream_threshold} is greater than 0, a message (sent with send_offsets) with a byte[] array of at least
+ * that size is delivered as
+ * soon as its first fragment has been received, as an {@link ObjectMessage} whose payload is a
+ * {@link FragmentInputStream}. The stream is fed with the fragments in order as they are received, and releases them
+ * when they have been read. The application must read the stream on a separate thread: reading it on the thread
+ * delivering the message blocks the delivery of the remaining fragments.
+ *
  * @author  Bela Ban
  * @version 5.0
  */
 public class FRAG4 extends FRAG2 {
 
+    @Property(description="If true, fragments of a byte[] array carry the length of the original array and their " +
+      "offset in it, so that the receiver can copy them directly into a buffer of the original size. Requires all " +
+      "members to run a version which understands this header (Frag4Header). Required by deliver_nio_messages and " +
+      "stream_threshold on the receivers")
+    protected boolean send_offsets;
+
+    @Property(description="If true, a message reassembled from the fragments of a byte[] array is delivered as " +
+      "a NioMessage wrapping the reassembly buffer. Only applies to messages sent with send_offsets")
+    protected boolean deliver_nio_messages;
+
+    @Property(description="If true, and deliver_nio_messages is true, the reassembly buffer is allocated off-heap")
+    protected boolean use_direct_memory;
+
+    @Property(description="Messages with a byte[] array of at least this size are delivered as an ObjectMessage " +
+      "with an InputStream payload when the first fragment is received, and the stream is fed with the fragments as " +
+      "they are received. The stream cannot be serialized, so such a message cannot be sent (e.g. forwarded) " +
+      "as is. Only applies to messages sent with send_offsets. 0 disables streaming",
+      type=AttributeType.BYTES)
+    protected int stream_threshold;
+
+    public boolean sendOffsets()                    {return send_offsets;}
+    public FRAG4   sendOffsets(boolean b)           {this.send_offsets=b; return this;}
+    public boolean deliverNioMessages()             {return deliver_nio_messages;}
+    public FRAG4   deliverNioMessages(boolean b)    {this.deliver_nio_messages=b; return this;}
+    public boolean useDirectMemory()                {return use_direct_memory;}
+    public FRAG4   useDirectMemory(boolean b)       {this.use_direct_memory=b; return this;}
+    public int     streamThreshold()                {return stream_threshold;}
+    public FRAG4   streamThreshold(int t)           {this.stream_threshold=t; return this;}
+
+    @Override
+    public void clearFragmentsFor(Address mbr) {
+        if(mbr != null)
+            abortStreams(fragment_list.get(mbr), String.format("fragments of %s were removed", mbr));
+        super.clearFragmentsFor(mbr);
+    }
+
+    @Override
+    public void clearAllFragments() {
+        fragment_list.values().forEach(t -> abortStreams(t, "all fragments were removed"));
+        super.clearAllFragments();
+    }
+
 
-    protected void fragment(Message msg) {
+    protected Object fragment(Message msg) {
+        List<CompletableFuture<?>> futures=null;
         try {
             if(msg.getSrc() == null && local_addr != null)
                 msg.setSrc(local_addr);
@@ -58,19 +126,136 @@ public class FRAG4 extends FRAG2 {
                 Range r=fragments.get(i);
                 Message frag_msg=msg.hasArray()?
                   msg.copy(false, i == 0).setArray(msg.getArray(), (int)r.low, (int)r.high)
-                    .putHeader(this.id, new FragHeader(frag_id, i, num_frags))
+                    .putHeader(this.id, createHeader(frag_id, i, num_frags, length, (int)r.low - offset))
                   : new FragmentedMessage(msg, (int)r.low, (int)r.high).setDest(msg.getDest()).setSrc(msg.getSrc())
                   .setFlag(msg.getFlags(true), true)
                   .setFlag(msg.getFlags(false), false)
                   .putHeader(this.id, new FragHeader(frag_id, i, num_frags).setOriginalType(msg.getType()));
-                down_prot.down(frag_msg);
+                futures=addFuture(futures, down_prot.down(frag_msg));
             }
+            return combine(futures);
         }
         catch(Exception e) {
             log.error("%s: fragmentation failure: %s", local_addr, e);
+            return null;
+        }
+    }
+
+
+    /** Creates the header for a fragment of a byte[] array: a {@link Frag4Header} if send_offsets is true */
+    protected FragHeader createHeader(long frag_id, int frag, int num_frags, int original_length, int offset) {
+        return send_offsets? new Frag4Header(frag_id, frag, num_frags, original_length, offset)
+          : new FragHeader(frag_id, frag, num_frags);
+    }
+
+    @Override
+    protected void handleViewChange(View view) {
+        for(Address mbr: Util.determineLeftMembers(members, view.getMembers()))
+            abortStreams(fragment_list.get(mbr), String.format("%s left", mbr));
+        super.handleViewChange(view);
+    }
+
+    /**
+     * Copies the fragment of a byte[] array directly to its offset in the reassembly buffer. The copy is done outside
+     * the lock, as fragments are written to disjoint regions of the buffer. Fragments of other message types are
+     * handled by {@link FRAG2#unfragment(Message, FragHeader)}.<br/>
+     * Whether a message is streamed is decided once, when its entry is created, as stream_threshold can be changed
+     * while fragments are being received
+     */
+    @Override
+    protected Message unfragment(Message msg, FragHeader hdr) {
+        if(!(hdr instanceof Frag4Header))
+            return super.unfragment(msg, hdr);
+        Frag4Header h=(Frag4Header)hdr;
+        Address sender=msg.getSrc();
+        ConcurrentMap<Long,FragEntry> frag_table=getFragTable(sender);
+        num_frags_received.increment();
+        FragEntry e=frag_table.computeIfAbsent(h.id, k -> createEntry(h));
+        if(e instanceof StreamEntry)
+            return unfragmentStream(msg, h, (StreamEntry)e, frag_table);
+        BufferEntry entry=(BufferEntry)e;
+        entry.buf.put(h.offset, msg.getArray(), msg.getOffset(), msg.getLength());
+        entry.lock.lock();
+        try {
+            if(!entry.add(h.frag_id, msg))
+                return null;
+            frag_table.remove(h.id);
+        }
+        finally {
+            entry.lock.unlock();
+        }
+        Message assembled_msg=assembleMessage(entry);
+        if(log.isTraceEnabled())
+            log.trace("%s: unfragmented message from %s (size=%d) from %d fragments",
+                      local_addr, sender, assembled_msg.getLength(), entry.num_frags);
+        return assembled_msg;
+    }
+
+    /** Creates a {@link StreamEntry} if the message is at least stream_threshold bytes, else a {@link BufferEntry} */
+    protected FragEntry createEntry(Frag4Header hdr) {
+        int threshold=stream_threshold;
+        return threshold > 0 && hdr.original_length >= threshold? new StreamEntry(hdr.num_frags, hdr.original_length)
+          : new BufferEntry(hdr.num_frags, allocate(hdr.original_length));
+    }
+
+    /**
+     * Adds the fragment to the stream of its message. Returns the message with the stream as payload when the first
+     * fragment is received, or null
+     */
+    protected Message unfragmentStream(Message msg, Frag4Header hdr, StreamEntry entry,
+                                       ConcurrentMap<Long,FragEntry> frag_table) {
+        entry.lock.lock();
+        try {
+            if(!entry.add(hdr.frag_id, msg))
+                return null;
+            if(entry.isComplete()) {
+                frag_table.remove(hdr.id);
+                if(log.isTraceEnabled())
+                    log.trace("%s: streamed message from %s (size=%d) from %d fragments",
+                              local_addr, msg.getSrc(), entry.stream.length(), entry.fragments.length);
+            }
         }
+        finally {
+            entry.lock.unlock();
+        }
+        if(hdr.frag_id > 0)
+            return null;
+        return copyMetadata(msg, new ObjectMessage(msg.getDest())).setObject(entry.stream);
+    }
+
+    protected ConcurrentMap<Long,FragEntry> getFragTable(Address sender) {
+        return fragment_list.computeIfAbsent(sender, k -> Util.createConcurrentMap(16, .075f, 16));
+    }
+
+    protected static void abortStreams(Map<Long,FragEntry> frag_table, String cause) {
+        if(frag_table == null)
+            return;
+        for(FragEntry e: frag_table.values()) {
+            if(e instanceof StreamEntry)
+                ((StreamEntry)e).stream.abort(cause);
+        }
+    }
+
+    protected ByteBuffer allocate(int length) {
+        return deliver_nio_messages && use_direct_memory? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
     }
 
+    /** Creates the message from the headers of the first fragment and the reassembly buffer, without copying */
+    protected Message assembleMessage(BufferEntry entry) {
+        Message first=entry.first;
+        if(!deliver_nio_messages && entry.buf.hasArray())
+            return first.setArray(entry.buf.array(), 0, entry.buf.capacity());
+        if(first instanceof NioMessage)
+            return ((NioMessage)first).setBuf(entry.buf);
+        return copyMetadata(first, new NioMessage(first.getDest(), entry.buf));
+    }
+
+    /** Copies sender, flags and headers of a fragment to a message of a different type */
+    protected static <T extends Message> T copyMetadata(Message from, T to) {
+        to.setSrc(from.getSrc()).setFlag(from.getFlags(true), true).setFlag(from.getFlags(false), false);
+        from.getHeaders().forEach(to::putHeader);
+        return to;
+    }
 
     @Override
     protected Message assembleMessage(Message[] fragments, boolean needs_deserialization, FragHeader hdr) throws Exception {
@@ -104,6 +289,94 @@ public class FRAG4 extends FRAG2 {
         }
         return retval.setArray(combined_buffer, 0, combined_buffer.length);
     }
-}
 
+    /**
+     * Entry for a message whose fragments are copied into a buffer sized to the length of the original message.
+     * The first fragment is retained without its payload, in order to copy its headers and flags to the reassembled
+     * message
+     */
+    protected static class BufferEntry extends FragEntry {
+        protected final ByteBuffer      buf;
+        protected final int             num_frags;
+        protected final FixedSizeBitSet received;
+        protected int                   num_received;
+        protected Message               first;
+
+        protected BufferEntry(int num_frags, ByteBuffer buf) {
+            super(0, false); // fragments are not retained
+            this.num_frags=num_frags;
+            this.received=new FixedSizeBitSet(num_frags);
+            this.buf=buf;
+        }
+
+        /**
+         * Marks a fragment as received. Needs to be called with the lock held, after the fragment's payload has
+         * been copied into the buffer
+         * @return true if this fragment completed the message, false otherwise
+         */
+        protected boolean add(int frag_id, Message frag) {
+            // duplicate fragments (should not happen as reliable protocols below weed them out) are not counted
+            if(!received.set(frag_id))
+                return false;
+            if(frag_id == 0)
+                first=frag.copy(false, true);
+            return ++num_received == num_frags;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return num_received >= num_frags;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[tot_frags=%d, number_of_frags_recvd=%d, size=%d]", num_frags, num_received,
+                                 buf.capacity());
+        }
+    }
+
+    /**
+     * Entry for a message which is delivered as a stream. Fragments received out of order are kept until all
+     * preceding fragments have been added to the stream
+     */
+    protected static class StreamEntry extends FragEntry {
+        protected final FragmentInputStream stream;
+        protected int                       next; // the ID of the next fragment to be added to the stream
+
+        protected StreamEntry(int num_frags, int length) {
+            super(num_frags, false);
+            this.stream=new FragmentInputStream(length);
+        }
+
+        /**
+         * Adds a fragment, plus the fragments following it that were received before, to the stream. Needs to be
+         * called with the lock held
+         * @return false if the fragment is a duplicate, true otherwise
+         */
+        protected boolean add(int frag_id, Message frag) {
+            if(frag_id < next || fragments[frag_id] != null)
+                return false;
+            fragments[frag_id]=frag;
+            number_of_frags_recvd++;
+            while(next < fragments.length && fragments[next] != null) {
+                Message m=fragments[next];
+                fragments[next++]=null;
+                stream.add(m.getArray(), m.getOffset(), m.getLength());
+            }
+            if(next == fragments.length)
+                stream.done();
+            return true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return next == fragments.length;
+        }
 
+        @Override
+        public String toString() {
+            return String.format("[tot_frags=%d, number_of_frags_recvd=%d, next=%d, stream: %s]",
+                                 fragments.length, number_of_frags_recvd, next, stream);
+        }
+    }
+}
@@ -27,7 +27,10 @@ import static org.jgroups.conf.AttributeType.SCALAR;
  * to send). When the credits have been exhausted, the sender blocks. Each receiver also keeps track of
  * how many credits it has received from a sender. When credits for a sender fall below a threshold,
  * the receiver sends more credits to the sender.
- * 
+ * <p>
+ * If non_blocking is true, a sender is not blocked when credits have been exhausted; instead, the message is queued
+ * and a CompletableFuture is returned, which is completed when credits have been received and the message has been
+ * sent (see {@link JChannel#sendAsync(Message)}).
  * @author Bela Ban
  */
 @MBean(description="Simple flow control protocol based on a credit system")
@@ -62,6 +65,17 @@ public abstract class FlowControl extends Protocol {
      */
     @Property(description="Computed as max_credits x min_theshold unless explicitly set",type=AttributeType.BYTES)
     protected long           min_credits;
+
+    @Property(description="If true, a message for which there are not enough credits is queued rather than blocking " +
+      "the sender, and a CompletableFuture (completed when the message has been sent) is returned, e.g. to " +
+      "JChannel.sendAsync()")
+    protected boolean        non_blocking;
+
+    @Property(description="Max number of bytes to queue per destination when non_blocking is true. When exceeded, " +
+      "senders block until there is space (or drop the message if DONT_BLOCK is set), but for no longer than " +
+      "max_block_time ms. After that, the message is dropped and its future fails with a TimeoutException",
+      type=AttributeType.BYTES)
+    protected long           max_queue_size=10_000_000;
     
     @ManagedAttribute(description="Number of credit requests received",type=AttributeType.SCALAR)
     protected long           num_credit_requests_received;
@@ -103,6 +117,9 @@ public abstract class FlowControl extends Protocol {
 
     public abstract int              getNumberOfBlockings();
     public abstract double           getAverageTimeBlocked();
+    public abstract int              getQueueSize();
+    public abstract long             getNumberOfQueuings();
+    public abstract long             getNumberOfQueuedMessagesDropped();
     public long                      getMaxCredits()                      {return max_credits;}
     public <T extends FlowControl> T setMaxCredits(long m)                {max_credits=m; return (T)this;}
     public double                    getMinThreshold()                    {return min_threshold;}
@@ -111,6 +128,10 @@ public abstract class FlowControl extends Protocol {
     public <T extends FlowControl> T setMinCredits(long m)                {min_credits=m; return (T)this;}
     public long                      getMaxBlockTime()                    {return max_block_time;}
     public <T extends FlowControl> T setMaxBlockTime(long t)              {max_block_time=t; return (T)this;}
+    public boolean                   isNonBlocking()                      {return non_blocking;}
+    public <T extends FlowControl> T setNonBlocking(boolean b)            {non_blocking=b; return (T)this;}
+    public long                      getMaxQueueSize()                    {return max_queue_size;}
+    public <T extends FlowControl> T setMaxQueueSize(long s)              {max_queue_size=s; return (T)this;}
 
     /** Don't remove! https://issues.redhat.com/browse/JGRP-2814 */
     @ManagedAttribute(type=SCALAR) @Deprecated
@@ -339,7 +360,19 @@ public abstract class FlowControl extends Protocol {
         }
     }
 
-    
+
+    /** Runs a task on the transport's thread pool, or on the caller's thread if the task was rejected */
+    protected void execute(Runnable task) {
+        TP transport=getTransport();
+        if(transport == null || !transport.getThreadPool().execute(task))
+            task.run();
+    }
+
+    /**
+     * Sends a message if enough credits are available. Otherwise, the caller blocks until credits have been received,
+     * or - if non_blocking is true - the message is queued and a CompletableFuture is returned, which is completed
+     * when the message has been sent
+     */
     protected abstract Object handleDownMessage(final Message msg, int length);
 
 
@@ -0,0 +1,61 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Header;
+import org.jgroups.util.Bits;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Header used by {@link FRAG4} for fragments of messages with a byte[] array payload. In addition to the fields of
+ * {@link FragHeader}, it carries the length of the original payload and the offset of the fragment in it, so that
+ * the receiver can allocate the reassembly buffer when the first fragment arrives, and copy every fragment directly
+ * to its position.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class Frag4Header extends FragHeader {
+    protected int original_length; // the length of the original payload
+    protected int offset;          // offset of this fragment in the original payload; length is in Message.length()
+
+    public Frag4Header() {
+    } // used for externalization
+
+    public Frag4Header(long id, int frag_id, int num_frags, int original_length, int offset) {
+        super(id, frag_id, num_frags);
+        this.original_length=original_length;
+        this.offset=offset;
+    }
+
+    public short                      getMagicId()             {return 104;}
+    public Supplier<? extends Header> create()                 {return Frag4Header::new;}
+    public int                        getOriginalLength()      {return original_length;}
+    public Frag4Header                setOriginalLength(int l) {this.original_length=l; return this;}
+    public int                        getOffset()              {return offset;}
+    public Frag4Header                setOffset(int offset)    {this.offset=offset; return this;}
+
+    public String toString() {
+        return String.format("%s, orig-length=%d, offset=%d", super.toString(), original_length, offset);
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        super.writeTo(out);
+        Bits.writeIntCompressed(original_length, out);
+        Bits.writeIntCompressed(offset, out);
+    }
+
+    @Override
+    public int serializedSize() {
+        return super.serializedSize() + Bits.size(original_length) + Bits.size(offset);
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        super.readFrom(in);
+        original_length=Bits.readIntCompressed(in);
+        offset=Bits.readIntCompressed(in);
+    }
+}
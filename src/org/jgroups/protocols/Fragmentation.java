@@ -6,6 +6,9 @@ import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
 import org.jgroups.stack.Protocol;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -37,4 +40,19 @@ public class Fragmentation extends Protocol {
         num_frags_sent.reset();
         num_frags_received.reset();
     }
+
+    /** Adds the result of sending a fragment to the list if it is a future (e.g. from non-blocking flow control) */
+    protected static List<CompletableFuture<?>> addFuture(List<CompletableFuture<?>> futures, Object retval) {
+        if(retval instanceof CompletableFuture<?> f) {
+            if(futures == null)
+                futures=new ArrayList<>();
+            futures.add(f);
+        }
+        return futures;
+    }
+
+    /** Returns a future which completes when all fragments have been sent, or null if all were sent right away */
+    protected static Object combine(List<CompletableFuture<?>> futures) {
+        return futures == null? null : CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
 }
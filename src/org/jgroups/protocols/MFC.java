@@ -6,13 +6,17 @@ import org.jgroups.Message;
 import org.jgroups.annotations.MBean;
 import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
+import org.jgroups.util.AtomicCreditMap;
 import org.jgroups.util.CreditMap;
+import org.jgroups.util.CreditQueue;
 import org.jgroups.util.Tuple;
 
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 
@@ -32,6 +36,13 @@ import java.util.concurrent.TimeUnit;
 public class MFC extends FlowControl {
     protected final static FcHeader MFC_REPLENISH_HDR      = new FcHeader(FcHeader.REPLENISH);
     protected final static FcHeader MFC_CREDIT_REQUEST_HDR = new FcHeader(FcHeader.CREDIT_REQUEST);
+
+    /* -----------------------------------------    Properties     -------------------------------------------------- */
+
+    @Property(description="If true, credits are decremented with a CAS instead of acquiring a lock; a sender only " +
+      "acquires the lock when it has to block as the credits are exhausted. Reduces contention with many sender " +
+      "threads. Needs to be set before init()")
+    protected boolean lock_free_credits;
     
     
     /* --------------------------------------------- Fields ------------------------------------------------------ */
@@ -40,6 +51,8 @@ public class MFC extends FlowControl {
     /** Maintains credits per member */
     protected CreditMap credits;
 
+    /** Messages queued when non_blocking is true */
+    protected CreditQueue queue;
     
     /** Last time a credit request was sent. Used to prevent credit request storms */
     protected long last_credit_request; // ns
@@ -50,6 +63,7 @@ public class MFC extends FlowControl {
     @ManagedOperation(description="Unblock a sender")
     public void unblock() {
         credits.replenishAll();
+        queue.drainAsync();
     }
 
     @ManagedOperation(description="Replenishes credits for a given member")
@@ -78,6 +92,23 @@ public class MFC extends FlowControl {
         return credits.getAverageBlockTime();
     }
 
+    @ManagedAttribute(description="Number of messages currently queued (non_blocking mode)",type=AttributeType.SCALAR)
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @ManagedAttribute(description="Number of times a message was queued due to insufficient credits (non_blocking mode)",
+      type=AttributeType.SCALAR)
+    public long getNumberOfQueuings() {
+        return queue.numQueued();
+    }
+
+    @ManagedAttribute(description="Number of DONT_BLOCK messages dropped because the queue was full (non_blocking mode)",
+      type=AttributeType.SCALAR)
+    public long getNumberOfQueuedMessagesDropped() {
+        return queue.numDropped();
+    }
+
     protected boolean          handleMulticastMessage() {return true;}
     @Override protected Header getReplenishHeader()     {return MFC_REPLENISH_HDR;}
     @Override protected Header getCreditRequestHeader() {return MFC_CREDIT_REQUEST_HDR;}
@@ -86,20 +117,27 @@ public class MFC extends FlowControl {
     public void init() throws Exception {
         super.init();
         credits=createCreditMap(max_credits);
+        queue=new CreditQueue(len -> credits.decrement(null, (int)len, 0), m -> down_prot.down(m), () -> max_queue_size,
+                              () -> max_block_time).executor(this::execute);
     }
 
     public void stop() {
         super.stop();
         credits.clear();
+        queue.flush();
     }
 
     public void resetStats() {
         super.resetStats();
         credits.resetStats();
+        queue.resetStats();
     }
 
+    public boolean isLockFreeCredits()          {return lock_free_credits;}
+    public MFC     setLockFreeCredits(boolean b) {lock_free_credits=b; return this;}
+
     protected CreditMap createCreditMap(long max_creds) {
-        return new CreditMap(max_creds);
+        return lock_free_credits? new AtomicCreditMap(max_creds) : new CreditMap(max_creds);
     }
 
     @Override
@@ -109,16 +147,19 @@ public class MFC extends FlowControl {
             return down_prot.down(msg);
 
         boolean dont_block=msg.isFlagSet(Message.TransientFlag.DONT_BLOCK);
+        if(non_blocking) {
+            Object retval=queue.send(msg, length, dont_block);
+            if(retval instanceof CompletableFuture && needToSendCreditRequest())
+                sendCreditRequests();
+            return retval;
+        }
         while(running) {
             long timeout=dont_block? 0 : max_block_time; // timeout == 0 won't block the decrement() below
             boolean rc=credits.decrement(msg, length, timeout);
             if(rc || !running)
                 break;
-            if(needToSendCreditRequest()) {
-                List<Tuple<Address,Long>> targets=credits.getMembersWithCreditsLessThan(min_credits);
-                for(Tuple<Address,Long> tuple: targets)
-                    sendCreditRequest(tuple.val1(), Math.min(max_credits, max_credits - tuple.val2()));
-            }
+            if(needToSendCreditRequest())
+                sendCreditRequests();
             if(dont_block) {
                 num_msgs_dropped++;
                 return null;
@@ -130,6 +171,11 @@ public class MFC extends FlowControl {
 
 
 
+    protected void sendCreditRequests() {
+        List<Tuple<Address,Long>> targets=credits.getMembersWithCreditsLessThan(min_credits);
+        for(Tuple<Address,Long> tuple: targets)
+            sendCreditRequest(tuple.val1(), Math.min(max_credits, max_credits - tuple.val2()));
+    }
 
     protected boolean needToSendCreditRequest() {
         long current_time=System.nanoTime();
@@ -147,6 +193,7 @@ public class MFC extends FlowControl {
 
     protected void handleCredit(Address sender, long increase) {
         credits.replenish(sender, increase);
+        queue.drainAsync(); // don't send the queued messages on the thread which received the credits
         if(log.isTraceEnabled())
             log.trace("received %d credits from %s, new credits for %s: %d, min_credits=%d",
                       increase, sender, sender, credits.get(sender), credits.getMinCredits());
@@ -159,6 +206,7 @@ public class MFC extends FlowControl {
         Set<Address> keys=new HashSet<>(credits.keys());
         keys.stream().filter(key -> !mbrs.contains(key)).forEach(key -> credits.remove(key));
         mbrs.forEach(key -> credits.putIfAbsent(key));
+        queue.drainAsync(); // removal of a member may have increased the min credits
     }
 
 
@@ -1,8 +1,6 @@
 package org.jgroups.protocols;
 
-import org.jgroups.Address;
-import org.jgroups.EmptyMessage;
-import org.jgroups.Message;
+import org.jgroups.*;
 import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Preview;
@@ -12,13 +10,18 @@ import org.jgroups.util.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.IntBinaryOperator;
 import java.util.function.Predicate;
 
+import static org.jgroups.Message.Flag.NO_FC;
 import static org.jgroups.Message.Flag.OOB;
-import static org.jgroups.conf.AttributeType.SCALAR;
+import static org.jgroups.Message.TransientFlag.DONT_BLOCK;
+import static org.jgroups.Message.TransientFlag.DONT_LOOPBACK;
+import static org.jgroups.conf.AttributeType.*;
 
 /**
  * New multicast protocol based on fixed-size xmit windows and message ACKs<br/>
@@ -33,6 +36,11 @@ public class NAKACK4 extends ReliableMulticast {
     @Property(description="Size of the send/receive buffers, in messages",writable=false)
     protected int                     capacity=16384;
 
+    @Property(description="Max number of bytes (payload sizes) of the messages in a send or receive buffer. When " +
+      "exceeded, senders block and receivers drop messages (which will get retransmitted). The number of messages " +
+      "is still limited by capacity. 0 disables this. Ignored if dynamic_buffers is true",type=BYTES,writable=false)
+    protected long                    max_bytes;
+
     @Property(description="Number of ACKs to skip before one is sent. For example, a value of 500 means that only " +
       "every 500th ACk is sent; all others are dropped. If not set, defaulted to capacity/4",type=SCALAR)
     protected int                     ack_threshold;
@@ -41,9 +49,48 @@ public class NAKACK4 extends ReliableMulticast {
       "https://issues.redhat.com/browse/JGRP-2969",writable=false)
     protected boolean                 dynamic_buffers;
 
+    @Property(description="If true, ConcurrentFixedBuffers are used: adding messages doesn't acquire the buffer's " +
+      "lock (only when blocking on a full buffer), so threads adding messages don't contend with the thread " +
+      "delivering them. Ignored if dynamic_buffers is true",writable=false)
+    protected boolean                 concurrent_buffers;
+
+    @Property(description="If true, a receiver sends an ACK carrying the seqnos of missing messages (selective ACK) " +
+      "as soon as messages up to sack_threshold seqnos beyond a gap have been received. The sender retransmits the " +
+      "missing messages immediately, rather than waiting for a retransmit request")
+    protected boolean                 selective_acks;
+
+    @Property(description="The distance between the highest received seqno and the highest delivered seqno (or the " +
+      "highest seqno of the last selective ACK) at which a selective ACK is sent. Higher values tolerate more " +
+      "message reordering without triggering retransmissions",type=SCALAR)
+    protected int                     sack_threshold=16;
+
+    @Property(description="If true, ACKs are not sent to each sender separately, but collected and multicast as a " +
+      "single message with the ACKs for all senders, at most aggregate_ack_interval ms after an ACK became due. " +
+      "Reduces the number of ACKs when all members multicast. Requires all members to run a version which " +
+      "understands this message")
+    protected boolean                 aggregate_acks;
+
+    @Property(description="Max time (in ms) by which an ACK is delayed when aggregate_acks is enabled",type=TIME)
+    protected long                    aggregate_ack_interval=10;
+
     @ManagedAttribute(description="Number of ACKs received",type=SCALAR)
     protected final LongAdder         acks_received=new LongAdder();
 
+    @ManagedAttribute(description="Number of selective ACKs sent",type=SCALAR)
+    protected final LongAdder         sacks_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of selective ACKs received",type=SCALAR)
+    protected final LongAdder         sacks_received=new LongAdder();
+
+    @ManagedAttribute(description="Number of aggregated ACK messages sent",type=SCALAR)
+    protected final LongAdder         aggregated_acks_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of aggregated ACK messages received",type=SCALAR)
+    protected final LongAdder         aggregated_acks_received=new LongAdder();
+
+    // set when a task sending the pending ACKs (aggregate_acks) has been scheduled, but hasn't yet run
+    protected final AtomicBoolean     aggregated_acks_scheduled=new AtomicBoolean();
+
     protected final IntBinaryOperator add_acks=(current_acks_sent, acks_to_be_sent) -> {
         if(current_acks_sent+acks_to_be_sent >= ack_threshold)
             return 0;
@@ -51,11 +98,23 @@ public class NAKACK4 extends ReliableMulticast {
             return current_acks_sent + acks_to_be_sent;
     };
 
-    public int               capacity()                {return capacity;}
-    public NAKACK4           capacity(int c)           {capacity=c; return this;}
-    public int               ackThreshold()            {return ack_threshold;}
-    public NAKACK4           ackThreshold(int t)       {ack_threshold=t; return this;}
-    public boolean           dynamicBuffers()          {return dynamic_buffers;}
+    public int               capacity()                   {return capacity;}
+    public NAKACK4           capacity(int c)              {capacity=c; return this;}
+    public int               ackThreshold()               {return ack_threshold;}
+    public NAKACK4           ackThreshold(int t)          {ack_threshold=t; return this;}
+    public boolean           dynamicBuffers()             {return dynamic_buffers;}
+    public long              maxBytes()                   {return max_bytes;}
+    public NAKACK4           maxBytes(long b)             {max_bytes=b; return this;}
+    public boolean           concurrentBuffers()          {return concurrent_buffers;}
+    public NAKACK4           concurrentBuffers(boolean b) {concurrent_buffers=b; return this;}
+    public boolean           selectiveAcks()              {return selective_acks;}
+    public NAKACK4           selectiveAcks(boolean b)     {selective_acks=b; return this;}
+    public int               sackThreshold()              {return sack_threshold;}
+    public NAKACK4           sackThreshold(int t)         {sack_threshold=t; return this;}
+    public boolean           aggregateAcks()              {return aggregate_acks;}
+    public NAKACK4           aggregateAcks(boolean b)     {aggregate_acks=b; return this;}
+    public long              aggregateAckInterval()       {return aggregate_ack_interval;}
+    public NAKACK4           aggregateAckInterval(long i) {aggregate_ack_interval=i; return this;}
 
     @ManagedAttribute(type=SCALAR,gauge=true)
     public long getNumUnackedMessages() {
@@ -78,6 +137,17 @@ public class NAKACK4 extends ReliableMulticast {
         return retval;
     }
 
+    @ManagedAttribute(description="Number of bytes of the messages in all buffers (only computed if max_bytes > 0)",
+      type=BYTES)
+    public long getNumBytes() {
+        long retval=0;
+        for(Entry e: xmit_table.values()) {
+            if(e.buf() instanceof FixedBuffer<Message> fb)
+                retval+=fb.bytes();
+        }
+        return retval;
+    }
+
     @ManagedAttribute(description="The number of received messages dropped due to full capacity of the buffer",type=SCALAR)
     public long getNumDroppedMessages() {
         long retval=0;
@@ -106,7 +176,9 @@ public class NAKACK4 extends ReliableMulticast {
         if(dynamic_buffers)
             return new DynamicBuffer<>(xmit_table_num_rows, xmit_table_msgs_per_row,
                                        initial_seqno, xmit_table_resize_factor, xmit_table_max_compaction_time);
-        return new FixedBuffer<>(capacity, initial_seqno);
+        FixedBuffer<Message> buf=concurrent_buffers? new ConcurrentFixedBuffer<>(capacity, initial_seqno)
+          : new FixedBuffer<>(capacity, initial_seqno);
+        return max_bytes > 0? buf.maxBytes(max_bytes, Message::getLength) : buf;
     }
 
     @Override
@@ -118,6 +190,10 @@ public class NAKACK4 extends ReliableMulticast {
     public void resetStats() {
         super.resetStats();
         acks_received.reset();
+        sacks_sent.reset();
+        sacks_received.reset();
+        aggregated_acks_sent.reset();
+        aggregated_acks_received.reset();
         for(Entry e: xmit_table.values()) {
             Buffer<Message> buf=e.buf();
             buf.resetStats();
@@ -245,10 +321,129 @@ public class NAKACK4 extends ReliableMulticast {
 
     @Override
     protected void sendAck(Address to, Buffer<Message> win) {
+        if(aggregate_acks && !Objects.equals(to, local_addr)) {
+            Entry e=xmit_table.get(to);
+            if(e != null) {
+                e.sendAck(); // marks the ACK as pending; it is sent by sendAggregatedAcks()
+                scheduleAggregatedAcks();
+                return;
+            }
+        }
+        sendAck(to, win, null);
+    }
+
+    /** Sends an ACK for the highest delivered seqno. If missing is non-null, it is sent as payload (selective ACK) */
+    protected void sendAck(Address to, Buffer<Message> win, SeqnoList missing) {
         long hd=win.highestDelivered();
         if(is_trace)
-            log.trace("%s --> %s: ACK(%d)", local_addr, to, hd);
-        down_prot.down(new EmptyMessage(to).putHeader(id, NakAckHeader.createAckHeader(hd)).setFlag(OOB));
+            log.trace("%s --> %s: ACK(%d%s)", local_addr, to, hd, missing != null? ", missing=" + missing : "");
+        Message ack=missing != null? new ObjectMessage(to, missing) : new EmptyMessage(to);
+        down_prot.down(ack.putHeader(id, NakAckHeader.createAckHeader(hd)).setFlag(OOB));
+    }
+
+    /**
+     * Sends a selective ACK if there are missing messages and the highest received seqno is at least sack_threshold
+     * beyond the highest delivered seqno and the highest seqno of the previous selective ACK. Only missing seqnos
+     * higher than the latter are included, so every gap is reported at most once; if the retransmission is lost,
+     * the retransmit task will ask for it again
+     */
+    @Override
+    protected void sendSelectiveAck(Address to, Entry e) {
+        if(!selective_acks)
+            return;
+        Buffer<Message> win=e.buf();
+        long high=win.high(), sacked=e.sacked.get();
+        if(high - Math.max(win.highestDelivered(), sacked) < sack_threshold) // cheap check first; numMissing() locks
+            return;
+        if(win.numMissing() == 0 || !e.sacked.compareAndSet(sacked, high))
+            return;
+        SeqnoList missing=win.getMissing(max_xmit_req_size);
+        if(missing == null || missing.getLast() <= sacked)
+            return;
+        missing.removeLowerThan(sacked+1);
+        sendAck(to, win, missing);
+        sacks_sent.increment();
+    }
+
+    @Override
+    protected void handleSelectiveAck(Address sender, SeqnoList missing) {
+        if(missing == null)
+            return;
+        sacks_received.increment();
+        handleXmitReq(sender, missing, local_addr);
+    }
+
+    @Override
+    protected void handleAcks(Address sender, Message msg, NakAckHeader hdr) {
+        aggregated_acks_received.increment();
+        try {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(msg.getArray(), msg.getOffset(), msg.getLength());
+            int num=Bits.readIntCompressed(in);
+            for(int i=0; i < num; i++) {
+                Address mbr=Util.readAddress(in);
+                long ack=Bits.readLongCompressed(in);
+                if(Objects.equals(mbr, local_addr)) {
+                    handleAck(sender, ack);
+                    break;
+                }
+            }
+        }
+        catch(Exception ex) {
+            log.error("%s: failed reading ACKS from %s: %s", local_addr, sender, ex);
+        }
+    }
+
+    protected void scheduleAggregatedAcks() {
+        if(!aggregated_acks_scheduled.compareAndSet(false, true))
+            return;
+        if(aggregate_ack_interval > 0 && timer != null)
+            timer.schedule(this::sendAggregatedAcks, aggregate_ack_interval, TimeUnit.MILLISECONDS, false);
+        else
+            sendAggregatedAcks();
+    }
+
+    /**
+     * Multicasts the pending ACKs for all members in a single message, as a list of (member, highest delivered
+     * seqno) pairs. Every member picks the ACK for itself. Members are sent as addresses rather than indices into
+     * the view, so that ACKs are not lost when members (temporarily) have different views
+     */
+    protected void sendAggregatedAcks() {
+        aggregated_acks_scheduled.set(false); // ACKs becoming due from now on schedule a new task
+        Address[] mbrs=new Address[xmit_table.size()];
+        long[]    acks=new long[mbrs.length];
+        int       num=0, size=Global.INT_SIZE;
+        for(Map.Entry<Address,Entry> en: xmit_table.entrySet()) {
+            Address mbr=en.getKey();
+            Entry e=en.getValue();
+            if(num >= mbrs.length || Objects.equals(mbr, local_addr))
+                continue;
+            if(e.needToSendAck()) { // needToSendAck() resets send_ack to false
+                mbrs[num]=mbr;
+                acks[num]=e.buf().highestDelivered();
+                size+=Util.size(mbr) + Bits.size(acks[num]);
+                num++;
+            }
+        }
+        if(num == 0)
+            return;
+        try {
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(size);
+            Bits.writeIntCompressed(num, out);
+            for(int i=0; i < num; i++) {
+                Util.writeAddress(mbrs[i], out);
+                Bits.writeLongCompressed(acks[i], out);
+            }
+            Message msg=new BytesMessage(null, out.buffer(), 0, out.position())
+              .putHeader(id, NakAckHeader.createAcksHeader())
+              .setFlag(OOB, NO_FC).setFlag(DONT_BLOCK, DONT_LOOPBACK);
+            if(is_trace)
+                log.trace("%s --> ACKS(%d acks)", local_addr, num);
+            down_prot.down(msg);
+            aggregated_acks_sent.increment();
+        }
+        catch(Exception ex) {
+            log.error("%s: failed sending ACKS: %s", local_addr, ex);
+        }
     }
 
     @Override
@@ -4,6 +4,8 @@ package org.jgroups.protocols;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.Header;
+import org.jgroups.SeqnoHeader;
+import org.jgroups.View;
 import org.jgroups.util.Bits;
 import org.jgroups.util.Util;
 
@@ -18,16 +20,20 @@ import java.util.function.Supplier;
  * @author Bela Ban
  * @since 5.4
  */
-public class NakAckHeader extends Header {
+public class NakAckHeader extends Header implements SeqnoHeader {
     public static final byte MSG           = 1;  // regular msg
     public static final byte XMIT_REQ      = 2;  // retransmit request
     public static final byte XMIT_RSP      = 3;  // retransmit response (contains one or more messages)
     public static final byte HIGHEST_SEQNO = 4;  // the highest sent seqno
     public static final byte ACK           = 5;  // ack of the highest delivered seqno (send from receiver->sender)
+    public static final byte ACKS          = 6;  // acks for multiple senders (multicast), the acks are in the payload
 
     protected byte           type;
     protected long           seqno=-1;        // seqno of regular message (MSG, HIGHEST_SEQNO)
     protected Address        sender;          // the original sender of the message (for XMIT_REQ)
+    protected int            sender_index=-1; // index of sender in the view (XMIT_REQ), -1 if not used
+    protected long           view_id;         // the id of the view to which sender_index refers
+    protected int            creator_hash;    // the hash of the creator of that view
 
 
     public NakAckHeader() {
@@ -45,6 +51,21 @@ public class NakAckHeader extends Header {
         return new NakAckHeader(XMIT_REQ, orginal_sender);
     }
 
+    /**
+     * Creates an XMIT_REQ header which refers to the original sender by its index in view, if it is a member and
+     * this is more compact than the full address
+     */
+    public static NakAckHeader createXmitRequestHeader(Address orginal_sender, View view) {
+        NakAckHeader hdr=new NakAckHeader(XMIT_REQ, orginal_sender);
+        int index=view != null? view.indexOf(orginal_sender) : -1;
+        if(index >= 0 && Util.size(orginal_sender, index, view.getViewId().getId()) < Util.size(orginal_sender)) {
+            hdr.sender_index=index;
+            hdr.view_id=view.getViewId().getId();
+            hdr.creator_hash=Util.hash(view.getViewId());
+        }
+        return hdr;
+    }
+
     public static NakAckHeader createXmitResponseHeader() {
         return new NakAckHeader(XMIT_RSP, -1);
     }
@@ -53,6 +74,8 @@ public class NakAckHeader extends Header {
 
     public static NakAckHeader createAckHeader(long ack) {return new NakAckHeader(ACK, ack);}
 
+    public static NakAckHeader createAcksHeader() {return new NakAckHeader(ACKS, -1);}
+
 
     /** Constructor for regular messages or XMIT responses */
     private NakAckHeader(byte type, long seqno) {
@@ -70,7 +93,17 @@ public class NakAckHeader extends Header {
     public byte      getType()    {return type;}
     public byte      type()       {return type;}
     public long      getSeqno()   {return seqno;}
+    public long      seqno()      {return seqno;}
     public Address   getSender()  {return sender;}
+    public int       senderIndex(){return sender_index;}
+
+    /**
+     * Returns the sender, or - if the sender was sent as member index - the member at that index in view. Returns
+     * null if the view doesn't match the view the index refers to
+     */
+    public Address getSender(View view) {
+        return sender != null || sender_index < 0? sender : Util.memberAt(view, view_id, creator_hash, sender_index);
+    }
 
     @Override
     public void writeTo(DataOutput out) throws IOException {
@@ -83,7 +116,7 @@ public class NakAckHeader extends Header {
                 Bits.writeLongCompressed(seqno, out);
                 break;
             case XMIT_REQ:
-                Util.writeAddress(sender, out);
+                Util.writeAddress(sender, sender_index, view_id, creator_hash, out);
                 break;
         }
     }
@@ -99,7 +132,14 @@ public class NakAckHeader extends Header {
                 seqno=Bits.readLongCompressed(in);
                 break;
             case XMIT_REQ:
-                sender=Util.readAddress(in);
+                byte flags=in.readByte();
+                if(Util.isFlagSet(flags, Address.MEMBER_INDEX)) {
+                    view_id=Bits.readVarLong(in);
+                    creator_hash=in.readInt();
+                    sender_index=(int)Bits.readVarLong(in);
+                }
+                else
+                    sender=Util.readAddress(in, flags);
                 break;
         }
     }
@@ -109,7 +149,7 @@ public class NakAckHeader extends Header {
         int retval=Global.BYTE_SIZE; // type
         return switch(type) {
             case MSG, XMIT_RSP, HIGHEST_SEQNO, ACK -> retval + Bits.size(seqno);
-            case XMIT_REQ -> retval + Util.size(sender);
+            case XMIT_REQ -> retval + Util.size(sender, sender_index, view_id);
             default -> retval;
         };
     }
@@ -120,9 +160,20 @@ public class NakAckHeader extends Header {
         ret.type=type;
         ret.seqno=seqno;
         ret.sender=sender;
+        ret.sender_index=sender_index;
+        ret.view_id=view_id;
+        ret.creator_hash=creator_hash;
         return ret;
     }
 
+    public NakAckHeader copy(long seqno) {
+        return new NakAckHeader(type, seqno);
+    }
+
+    public boolean deltaCompatible(Header hdr) {
+        return (type == MSG || type == XMIT_RSP) && hdr instanceof NakAckHeader h && h.type == type;
+    }
+
 
     public static String type2Str(byte t) {
         return switch(t) {
@@ -131,6 +182,7 @@ public class NakAckHeader extends Header {
             case XMIT_RSP ->      "XMIT_RSP";
             case HIGHEST_SEQNO -> "HIGHEST_SEQNO";
             case ACK ->           "ACK";
+            case ACKS ->          "ACKS";
             default ->            "<undefined>";
         };
     }
@@ -151,6 +203,7 @@ public class NakAckHeader extends Header {
         }
 
         if(sender != null) ret.append(", sender=").append(sender);
+        else if(sender_index >= 0) ret.append(", sender-index=").append(sender_index).append(", view-id=").append(view_id);
         return ret.toString();
     }
 
@@ -6,7 +6,7 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
 import org.jgroups.stack.Protocol;
-import org.jgroups.util.Average;
+import org.jgroups.util.Histogram;
 import org.jgroups.util.MessageBatch;
 
 import java.util.concurrent.TimeUnit;
@@ -14,7 +14,7 @@ import java.util.concurrent.TimeUnit;
 /**
  * Protocol measuring latency between stacks. On {@link #down(org.jgroups.Message)}, a header is added to the
  * message with the ID of the PERF protocol, and the start time is set in the header.
- * On {@link #up(org.jgroups.Message)}, the time difference is computed and a rolling average is updated in PERF.
+ * On {@link #up(org.jgroups.Message)}, the time difference is computed and added to the latency histogram.
  * <p>
  * Note that we can have several measurements by inserting PERF protocols with different IDs (Protocol.id) into the stack.
  * <p>
@@ -25,25 +25,22 @@ import java.util.concurrent.TimeUnit;
  */
 @MBean(description="Measures latency between PERF instances")
 public class PERF extends Protocol {
-    protected Average avg;
+    @ManagedAttribute(description="Latency (min/avg/max and percentiles)",gauge=true)
+    protected final Histogram latency=new Histogram().unit(TimeUnit.NANOSECONDS);
 
-    @Property(description="Number of samples to maintain for rolling average")
-    protected int     avg_size=1024;
+    @Property(description="Number of samples to maintain for rolling average",deprecatedMessage="ignored, " +
+      "all latencies are recorded in a histogram")
+    protected int             avg_size=1024;
 
     @ManagedAttribute(description="Average latency in ns",type=AttributeType.TIME,unit=TimeUnit.NANOSECONDS,gauge=true)
-    public double latencyInNs() {return avg.average();}
+    public double latencyInNs() {return latency.average();}
 
     @ManagedAttribute(description="Average latency in ms",type=AttributeType.TIME,unit=TimeUnit.MILLISECONDS,gauge=true)
-    public double latencyInMs() {return avg.average() / 1000000.0;}
-
-    public void init() throws Exception {
-        super.init();
-        avg=new Average(avg_size);
-    }
+    public double latencyInMs() {return latency.average() / 1000000.0;}
 
     public void resetStats() {
         super.resetStats();
-        avg.clear();
+        latency.clear();
     }
 
     public Object down(Message msg) {
@@ -60,7 +57,7 @@ public class PERF extends Protocol {
             if(time <= 0)
                 log.error("%d: time is <= 0", time);
             else
-                avg.add(time);
+                latency.add(time);
         }
         return up_prot.up(msg);
     }
@@ -75,7 +72,7 @@ public class PERF extends Protocol {
                 if(time <= 0)
                     log.error("%d: time is <= 0", time);
                 else
-                    avg.add(time);
+                    latency.add(time);
             }
         }
 
@@ -122,7 +122,7 @@ public class PerDestinationBundler extends BaseBundler implements Runnable {
         Address dest=msg.dest() == null ? NULL : msg.dest();
         SendBuffer buf=dests.get(dest);
         if(buf == null) {
-            buf=dests.computeIfAbsent(dest, k -> new SendBuffer(msg.dest()));
+            buf=dests.computeIfAbsent(dest, k -> createSendBuffer(msg.dest()));
             // start() needs to be called here (*not* above): the lambda might be called multiple times, and we'd
             // have multiple zombie sender threads!
             buf.start();
@@ -163,6 +163,10 @@ public class PerDestinationBundler extends BaseBundler implements Runnable {
         }
     }
 
+    protected SendBuffer createSendBuffer(Address dest) {
+        return new SendBuffer(dest);
+    }
+
     protected void removeLeftMembers(final List<Address> left_mbrs) {
         for(Address left: left_mbrs) {
             SendBuffer send_buf=dests.remove(left);
@@ -173,15 +177,15 @@ public class PerDestinationBundler extends BaseBundler implements Runnable {
 
 
     protected class SendBuffer implements Runnable {
-        private final Address                   dest;
-        private final FastArray<Message>        msgs=new FastArray<Message>(32).increment(64);
-        private final Lock                      lock=new ReentrantLock(false);
-        private final BlockingQueue<Message>    queue;
-        private final FastArray<Message>        remove_queue;
-        private final ByteBufferOutputStream    output=new ByteBufferOutputStream(max_size + MSG_OVERHEAD, false,
+        protected final Address                 dest;
+        protected final FastArray<Message>      msgs=new FastArray<Message>(32).increment(64);
+        protected final Lock                    lock=new ReentrantLock(false);
+        protected final BlockingQueue<Message>  queue;
+        protected final FastArray<Message>      remove_queue;
+        protected final ByteBufferOutputStream  output=new ByteBufferOutputStream(max_size + MSG_OVERHEAD, false,
                                                                                   transport.useDirectMemory());
-        private Runner                          sendbuf_runner;
-        private long                            count;
+        protected Runner                        sendbuf_runner;
+        protected long                          count;
 
 
         public String dump() {
@@ -234,6 +238,12 @@ public class PerDestinationBundler extends BaseBundler implements Runnable {
         }
 
         protected void removeAndSend(boolean execute_only_once) {
+            drain(execute_only_once);
+            sendRemaining();
+        }
+
+        /** Removes messages from the queue and adds them to msgs, sending msgs when max_size has been exceeded */
+        protected void drain(boolean execute_only_once) {
             while(true) {
                 remove_queue.clear(false);
                 int num_msgs=queue.drainTo(remove_queue, remove_queue_capacity);
@@ -244,6 +254,10 @@ public class PerDestinationBundler extends BaseBundler implements Runnable {
                 if(execute_only_once)
                     break;
             }
+        }
+
+        /** Sends the accumulated messages (if any) */
+        protected void sendRemaining() {
             if(count > 0) {
                 if(transport.statsEnabled())
                     avg_fill_count.add(count);
@@ -0,0 +1,462 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.jgroups.Message.Flag.*;
+import static org.jgroups.Message.TransientFlag.DONT_BLOCK;
+import static org.jgroups.conf.AttributeType.*;
+
+/**
+ * Rate-based congestion control. Contrary to {@link RATE_LIMITER2}, the send rate is not fixed, but adjusted per
+ * destination, based on the measured round-trip time (RTT) and delivery rate:
+ * <ul>
+ *     <li>Every probe_interval ms, a probe is sent to each member, which echoes it back, together with the number of
+ *         bytes it has received from the sender so far. This yields an RTT sample, and a sample of the delivery rate
+ *         (bytes received by the member / time between 2 probe responses). The bottleneck bandwidth is the max
+ *         delivery rate of the last bw_window samples, the min RTT the lowest RTT seen in the last min_rtt_window ms
+ *     </li>
+ *     <li>If the RTT exceeds the min RTT by more than rtt_tolerance (queues are building up), the rate is decreased
+ *         by multiplying it with decrease_factor</li>
+ *     <li>Otherwise, if the sender used its rate, the rate is increased to the bottleneck bandwidth times probe_gain
+ *         (to probe for more bandwidth), or by at least additive_increase</li>
+ * </ul>
+ * Messages are paced according to the rate of their destination; multicast messages are paced according to the
+ * lowest rate of all members. A sender whose message exceeds the rate is delayed; messages with flag DONT_BLOCK
+ * are sent without delay.
+ * <p>
+ * Needs to be placed directly above the transport, so that retransmissions are paced, too.
+ * @author Bela Ban
+ * @since  5.6
+ */
+@MBean(description="Rate-based congestion control, adjusting the send rate per destination based on RTT and " +
+  "delivery rate")
+public class RATE_CONTROL extends Protocol {
+
+    @Property(description="The initial send rate (bytes/sec) to a destination",type=BYTES)
+    protected long    initial_rate=10_000_000;
+
+    @Property(description="The min send rate (bytes/sec)",type=BYTES)
+    protected long    min_rate=100_000;
+
+    @Property(description="The max send rate (bytes/sec). 0 sets no upper bound",type=BYTES)
+    protected long    max_rate;
+
+    @Property(description="Interval (ms) at which probes are sent to all members to measure RTT and delivery rate",
+      type=TIME)
+    protected long    probe_interval=100;
+
+    @Property(description="Time (ms) after which the min RTT expires and is re-measured, e.g. after a route change",
+      type=TIME)
+    protected long    min_rtt_window=10_000;
+
+    @Property(description="The number of delivery rate samples whose max is the bottleneck bandwidth",type=SCALAR)
+    protected int     bw_window=10;
+
+    @Property(description="Congestion is assumed when the RTT exceeds the min RTT by more than this fraction " +
+      "(and by more than min_rtt_increase)")
+    protected double  rtt_tolerance=0.5;
+
+    @Property(description="The min increase (ms) of the RTT over the min RTT to assume congestion. Prevents jitter " +
+      "on fast networks from being mistaken for congestion",type=TIME)
+    protected double  min_rtt_increase=1;
+
+    @Property(description="Factor by which the rate is multiplied on congestion")
+    protected double  decrease_factor=0.7;
+
+    @Property(description="Factor by which the bottleneck bandwidth is multiplied to probe for more bandwidth when " +
+      "there is no congestion")
+    protected double  probe_gain=1.25;
+
+    @Property(description="Min increase of the rate (bytes/sec) per probe interval when there is no congestion",
+      type=BYTES)
+    protected long    additive_increase=1_000_000;
+
+    @ManagedAttribute(description="Number of messages that were delayed to conform to the send rate",type=SCALAR)
+    protected final LongAdder     num_paced=new LongAdder();
+
+    @ManagedAttribute(description="Number of rate increases",type=SCALAR)
+    protected final LongAdder     num_increases=new LongAdder();
+
+    @ManagedAttribute(description="Number of rate decreases (congestion)",type=SCALAR)
+    protected final LongAdder     num_decreases=new LongAdder();
+
+    @ManagedAttribute(description="Time senders were delayed to conform to the send rate",unit=TimeUnit.NANOSECONDS)
+    protected final AverageMinMax avg_delay=new AverageMinMax().unit(TimeUnit.NANOSECONDS);
+
+    protected final Map<Address,Peer>      peers=Util.createConcurrentMap();
+    protected final Map<Address,LongAdder> received=Util.createConcurrentMap(); // bytes received per sender
+    protected final Bucket                 mcast_bucket=new Bucket(); // paces multicasts at the lowest member rate
+    protected TimeScheduler                timer;
+    protected Future<?>                    probe_task;
+
+    public long         initialRate()               {return initial_rate;}
+    public RATE_CONTROL initialRate(long r)         {initial_rate=r; return this;}
+    public long         minRate()                   {return min_rate;}
+    public RATE_CONTROL minRate(long r)             {min_rate=r; return this;}
+    public long         maxRate()                   {return max_rate;}
+    public RATE_CONTROL maxRate(long r)             {max_rate=r; return this;}
+    public long         probeInterval()             {return probe_interval;}
+    public RATE_CONTROL probeInterval(long i)       {probe_interval=i; return this;}
+    public double       decreaseFactor()            {return decrease_factor;}
+    public RATE_CONTROL decreaseFactor(double f)    {decrease_factor=f; return this;}
+    public double       probeGain()                 {return probe_gain;}
+    public RATE_CONTROL probeGain(double g)         {probe_gain=g; return this;}
+    public long         numPaced()                  {return num_paced.sum();}
+    public long         numIncreases()              {return num_increases.sum();}
+    public long         numDecreases()              {return num_decreases.sum();}
+
+    /** Returns the current send rate (bytes/sec) to a member, or 0 if not known */
+    public long rate(Address mbr) {
+        Peer p=peers.get(mbr);
+        return p != null? (long)p.bucket.rate() : 0;
+    }
+
+    /** Returns the min RTT (ns) to a member, or 0 if not known */
+    public long minRtt(Address mbr) {
+        Peer p=peers.get(mbr);
+        return p != null? p.min_rtt : 0;
+    }
+
+    @ManagedAttribute(description="The send rate (bytes/sec) for multicast messages",type=BYTES)
+    public long getMulticastRate() {
+        return (long)mcast_bucket.rate();
+    }
+
+    @ManagedOperation(description="Prints the send rate, bottleneck bandwidth and RTT of all members")
+    public String printRates() {
+        return peers.entrySet().stream().map(e -> String.format("%s: %s", e.getKey(), e.getValue()))
+          .collect(Collectors.joining("\n"));
+    }
+
+    @Override
+    public void init() throws Exception {
+        super.init();
+        if(min_rate <= 0 || initial_rate < min_rate)
+            throw new IllegalArgumentException(String.format("min_rate (%d) must be > 0 and <= initial_rate (%d)",
+                                                             min_rate, initial_rate));
+        if(decrease_factor <= 0 || decrease_factor >= 1)
+            throw new IllegalArgumentException(String.format("decrease_factor (%.2f) must be in (0..1)", decrease_factor));
+        if(bw_window < 1)
+            throw new IllegalArgumentException(String.format("bw_window (%d) must be >= 1", bw_window));
+    }
+
+    @Override
+    public void start() throws Exception {
+        super.start();
+        timer=Objects.requireNonNull(getTransport().getTimer());
+        probe_task=timer.scheduleWithFixedDelay(this::sendProbes, probe_interval, probe_interval, MILLISECONDS, false);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if(probe_task != null)
+            probe_task.cancel(false);
+        peers.clear();
+        received.clear();
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        Stream.of(num_paced, num_increases, num_decreases).forEach(LongAdder::reset);
+        avg_delay.clear();
+    }
+
+    @Override
+    public Object down(Event evt) {
+        if(evt.type() == Event.VIEW_CHANGE)
+            handleView(evt.getArg());
+        return down_prot.down(evt);
+    }
+
+    @Override
+    public Object down(Message msg) {
+        int len=msg.getLength();
+        if(len == 0 || msg.isFlagSet(NO_FC))
+            return down_prot.down(msg);
+        Address dest=msg.getDest();
+        Bucket bucket;
+        if(dest == null) {
+            peers.values().forEach(p -> p.sent.add(len)); // a multicast is received by all members
+            bucket=mcast_bucket;
+        }
+        else {
+            Peer p=peers.get(dest);
+            if(p == null)
+                return down_prot.down(msg);
+            p.sent.add(len);
+            bucket=p.bucket;
+        }
+        long delay=bucket.reserve(len);
+        if(delay > 0 && !msg.isFlagSet(DONT_BLOCK))
+            pace(delay);
+        return down_prot.down(msg);
+    }
+
+    @Override
+    public Object up(Message msg) {
+        RateControlHeader hdr=msg.getHeader(id);
+        if(hdr != null) {
+            handleHeader(msg.getSrc(), hdr);
+            return null;
+        }
+        count(msg.getSrc(), msg.getLength());
+        return up_prot.up(msg);
+    }
+
+    @Override
+    public void up(MessageBatch batch) {
+        int len=0;
+        for(Iterator<Message> it=batch.iterator(); it.hasNext();) {
+            Message msg=it.next();
+            RateControlHeader hdr=msg.getHeader(id);
+            if(hdr != null) {
+                it.remove();
+                handleHeader(batch.sender(), hdr);
+            }
+            else
+                len+=msg.getLength();
+        }
+        count(batch.sender(), len);
+        if(!batch.isEmpty())
+            up_prot.up(batch);
+    }
+
+    protected void handleView(View view) {
+        for(Address mbr: view.getMembers()) {
+            if(!Objects.equals(mbr, local_addr))
+                peers.computeIfAbsent(mbr, __ -> new Peer(initial_rate));
+        }
+        peers.keySet().retainAll(view.getMembers());
+        received.keySet().retainAll(view.getMembers());
+        updateMulticastRate();
+    }
+
+    protected void count(Address sender, int len) {
+        if(len > 0 && sender != null && !sender.equals(local_addr))
+            received.computeIfAbsent(sender, __ -> new LongAdder()).add(len);
+    }
+
+    protected void sendProbes() {
+        long now=System.nanoTime();
+        for(Address mbr: peers.keySet())
+            send(new EmptyMessage(mbr).putHeader(id, new RateControlHeader(RateControlHeader.PROBE, now, 0)));
+    }
+
+    protected void handleHeader(Address sender, RateControlHeader hdr) {
+        switch(hdr.type) {
+            case RateControlHeader.PROBE:
+                LongAdder r=received.get(sender);
+                long bytes=r != null? r.sum() : 0;
+                send(new EmptyMessage(sender)
+                       .putHeader(id, new RateControlHeader(RateControlHeader.PROBE_RSP, hdr.timestamp, bytes)));
+                break;
+            case RateControlHeader.PROBE_RSP:
+                Peer p=peers.get(sender);
+                if(p != null && update(p, hdr.timestamp, hdr.received))
+                    updateMulticastRate();
+                break;
+        }
+    }
+
+    /**
+     * Updates RTT and bottleneck bandwidth of a member with the samples from a probe response, and adjusts its rate
+     * @return True if the rate changed, false otherwise
+     */
+    protected boolean update(Peer p, long timestamp, long delivered) {
+        long now=System.nanoTime(), rtt=now - timestamp;
+        synchronized(p) {
+            double rate=p.bucket.rate();
+            if(p.min_rtt == 0 || rtt <= p.min_rtt || now - p.min_rtt_time > MILLISECONDS.toNanos(min_rtt_window)) {
+                p.min_rtt=rtt;
+                p.min_rtt_time=now;
+            }
+            p.rtts.add(rtt);
+            long sent=p.sent.sum(), elapsed=now - p.last_rsp;
+            boolean first=p.last_rsp == 0;
+            long delta_sent=sent - p.last_sent, delta_delivered=delivered - p.last_delivered;
+            p.last_rsp=now;
+            p.last_sent=sent;
+            p.last_delivered=delivered;
+            if(first || elapsed <= 0)
+                return false;
+            if(delta_delivered > 0)
+                p.addBandwidthSample(delta_delivered * 1_000_000_000.0 / elapsed);
+
+            double queueing_delay=rtt - p.min_rtt;
+            boolean congested=queueing_delay > p.min_rtt * rtt_tolerance
+              && queueing_delay > MILLISECONDS.toNanos(1) * min_rtt_increase;
+            double new_rate;
+            if(congested) {
+                new_rate=Math.max(min_rate, rate * decrease_factor);
+                num_decreases.increment();
+            }
+            else {
+                // only probe for more bandwidth if the sender used (at least half of) its rate
+                boolean app_limited=delta_sent < rate * elapsed / 1_000_000_000.0 / 2;
+                if(app_limited)
+                    return false;
+                new_rate=Math.max(rate + additive_increase, p.bottleneckBandwidth() * probe_gain);
+                if(max_rate > 0)
+                    new_rate=Math.min(max_rate, new_rate);
+                if(new_rate > rate)
+                    num_increases.increment();
+            }
+            if(new_rate == rate)
+                return false;
+            p.bucket.rate(new_rate);
+            return true;
+        }
+    }
+
+    protected void updateMulticastRate() {
+        double min=peers.values().stream().mapToDouble(p -> p.bucket.rate()).min().orElse(0);
+        mcast_bucket.rate(min);
+    }
+
+    protected void send(Message msg) {
+        msg.setFlag(OOB, DONT_BUNDLE, NO_FC, NO_RELIABILITY).setFlag(DONT_BLOCK);
+        down_prot.down(msg);
+    }
+
+    protected void pace(long delay) {
+        num_paced.increment();
+        avg_delay.add(delay);
+        long deadline=System.nanoTime() + delay;
+        for(long left=delay; left > 0 && isRunning(); left=deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    protected boolean isRunning() {
+        return probe_task != null && !probe_task.isDone();
+    }
+
+    /** The state (rate, RTT, bandwidth) for a member */
+    protected class Peer {
+        protected final Bucket        bucket;
+        protected final LongAdder     sent=new LongAdder(); // bytes sent to the member (unicasts and multicasts)
+        protected final AverageMinMax rtts=new AverageMinMax(64).unit(TimeUnit.NANOSECONDS);
+        protected long                min_rtt, min_rtt_time; // ns
+        protected long                last_rsp, last_sent, last_delivered; // at the time of the last probe response
+        protected final double[]      bw_samples=new double[bw_window];
+        protected int                 bw_index;
+
+        protected Peer(double rate) {
+            bucket=new Bucket().rate(rate);
+        }
+
+        protected void addBandwidthSample(double bw) {
+            bw_samples[bw_index++ % bw_samples.length]=bw;
+        }
+
+        /** The max delivery rate of the last bw_window samples */
+        protected double bottleneckBandwidth() {
+            double max=0;
+            for(double bw: bw_samples)
+                max=Math.max(max, bw);
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("rate=%s/s, btl-bw=%s/s, min-rtt=%s, rtt=%s", Util.printBytes(bucket.rate()),
+                                 Util.printBytes(bottleneckBandwidth()), Util.printTime(min_rtt, TimeUnit.NANOSECONDS),
+                                 Util.printTime(rtts.average(), TimeUnit.NANOSECONDS));
+        }
+    }
+
+    /**
+     * Token bucket pacing messages at a given rate. A sender reserves the bytes of its message, and is told how
+     * long it has to wait until the message can be sent. Bursts of up to 10 ms worth of the rate are sent without
+     * delay
+     */
+    protected static class Bucket {
+        protected double rate;      // bytes/sec; 0 disables pacing
+        protected double tokens;    // bytes that can be sent; negative if reserved by waiting senders
+        protected long   last_refill=System.nanoTime();
+
+        protected synchronized double rate()             {return rate;}
+        protected synchronized Bucket rate(double r)     {refill(System.nanoTime()); rate=r; return this;}
+
+        /** Reserves len bytes and returns the time (ns) until they can be sent (0: now) */
+        protected synchronized long reserve(int len) {
+            if(rate <= 0)
+                return 0;
+            refill(System.nanoTime());
+            tokens-=len;
+            return tokens >= 0? 0 : (long)(-tokens * 1_000_000_000 / rate);
+        }
+
+        protected void refill(long now) {
+            if(rate > 0)
+                tokens=Math.min(rate / 100, tokens + (now - last_refill) * rate / 1_000_000_000);
+            last_refill=now;
+        }
+    }
+
+    public static class RateControlHeader extends Header {
+        protected static final byte PROBE=1, PROBE_RSP=2;
+
+        protected byte type;
+        protected long timestamp; // the time (ns) a probe was sent (echoed in the response)
+        protected long received;  // PROBE_RSP: the number of bytes the member received from the prober
+
+        public RateControlHeader() {
+        }
+
+        public RateControlHeader(byte type, long timestamp, long received) {
+            this.type=type;
+            this.timestamp=timestamp;
+            this.received=received;
+        }
+
+        public short                      getMagicId() {return 103;}
+        public Supplier<? extends Header> create()     {return RateControlHeader::new;}
+
+        @Override
+        public int serializedSize() {
+            return Global.BYTE_SIZE + Global.LONG_SIZE + Bits.size(received);
+        }
+
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(type);
+            out.writeLong(timestamp); // nanoTime() can be negative: not compressed
+            Bits.writeLongCompressed(received, out);
+        }
+
+        @Override
+        public void readFrom(DataInput in) throws IOException {
+            type=in.readByte();
+            timestamp=in.readLong();
+            received=Bits.readLongCompressed(in);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s ts=%d received=%d", type == PROBE? "probe" : "probe-rsp", timestamp, received);
+        }
+    }
+}
@@ -97,6 +97,25 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
       "Description in doc/design/NAKACK4.txt ('misc')")
     protected boolean send_atomically;
 
+    @Property(description="Refer to the original sender in retransmit requests by its index in the current view " +
+      "rather than by its address, if that is smaller (e.g. for UUIDs). Requires all members to run a version " +
+      "which understands this encoding")
+    protected boolean use_member_index;
+
+    @Property(description="Retransmissions are scheduled rather than sent immediately: requests for the same " +
+      "messages are coalesced, messages retransmitted less than xmit_suppression_time ms ago are not retransmitted " +
+      "again and retransmissions are paced to max_xmit_rate. With use_mcast_xmit_req and use_mcast_xmit, members " +
+      "don't ask for messages requested by others in the last xmit_suppression_time ms")
+    protected boolean coalesce_xmits;
+
+    @Property(description="Max number of bytes/sec of retransmissions (coalesce_xmits has to be true). " +
+      "0 disables pacing",type=AttributeType.BYTES)
+    protected long    max_xmit_rate;
+
+    @Property(description="Time (ms) during which duplicate retransmissions (or retransmit requests) are suppressed " +
+      "(coalesce_xmits has to be true)",type=AttributeType.TIME)
+    protected long    xmit_suppression_time=200;
+
     @ManagedAttribute(description="True if sending a message can block at the transport level")
     protected boolean sends_can_block;
 
@@ -223,6 +242,7 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
     protected volatile boolean                   running;
     protected TimeScheduler                      timer;
     protected final LastSeqnoResender            last_seqno_resender=new LastSeqnoResender();
+    protected XmitScheduler                      xmit_scheduler; // created on start() if coalesce_xmits is true
 
     /** Keeps the last N stability messages */
     protected final BoundedList<String>          stability_msgs=new BoundedList<>(10);
@@ -243,6 +263,8 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
     public ReliableMulticast useMcastXmit(boolean u)                  {this.use_mcast_xmit=u; return this;}
     public boolean           useMcastXmitReq()                        {return use_mcast_xmit_req;}
     public ReliableMulticast useMcastXmitReq(boolean flag)            {this.use_mcast_xmit_req=flag; return this;}
+    public boolean           useMemberIndex()                         {return use_member_index;}
+    public ReliableMulticast useMemberIndex(boolean b)                {this.use_member_index=b; return this;}
     public ReliableMulticast xmitFromRandomMember(boolean ignored)    {return this;}
     public ReliableMulticast discardDeliveredMsgs(boolean ignored)    {return this;}
     public boolean           logDiscardMessages()                     {return log_discard_msgs;}
@@ -275,6 +297,23 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
     public ReliableMulticast setXmitTableResizeFactor(double x)       {this.xmit_table_resize_factor=x; return this;}
     public long              getXmitTableMaxCompactionTime()          {return xmit_table_max_compaction_time;}
     public ReliableMulticast setXmitTableMaxCompactionTime(long x)    {this.xmit_table_max_compaction_time=x; return this;}
+    public boolean           coalesceXmits()                          {return coalesce_xmits;}
+    public ReliableMulticast coalesceXmits(boolean c)                 {this.coalesce_xmits=c; return this;}
+    public long              maxXmitRate()                            {return max_xmit_rate;}
+    public ReliableMulticast maxXmitRate(long r)                      {this.max_xmit_rate=r; return this;}
+    public long              xmitSuppressionTime()                    {return xmit_suppression_time;}
+    public ReliableMulticast xmitSuppressionTime(long t)              {this.xmit_suppression_time=t; return this;}
+    public XmitScheduler     xmitScheduler()                          {return xmit_scheduler;}
+
+    @ManagedAttribute(description="Retransmission requests coalesced with pending ones (coalesce_xmits)",type=SCALAR)
+    public long getXmitsCoalesced() {return xmit_scheduler != null? xmit_scheduler.numCoalesced() : 0;}
+
+    @ManagedAttribute(description="Retransmissions (or retransmit requests) suppressed as duplicates (coalesce_xmits)",
+      type=SCALAR)
+    public long getXmitsSuppressed() {return xmit_scheduler != null? xmit_scheduler.numSuppressed() : 0;}
+
+    @ManagedAttribute(description="Number of times retransmissions were delayed by max_xmit_rate",type=SCALAR)
+    public long getXmitsPaced() {return xmit_scheduler != null? xmit_scheduler.numPaced() : 0;}
     public boolean           isTrace()                                {return is_trace;}
     public ReliableMulticast isTrace(boolean i)                       {this.is_trace=i; return this;}
 
@@ -389,6 +428,8 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
         stability_msgs.clear();
         digest_history.clear();
         avg_batch_size.clear();
+        if(xmit_scheduler != null)
+            xmit_scheduler.resetStats();
         Buffer<Message> table=sendBuf();
         if(table != null)
             table.resetStats();
@@ -441,6 +482,9 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
             throw new Exception("timer is null");
         running=true;
         leaving=false;
+        if(coalesce_xmits)
+            xmit_scheduler=new XmitScheduler(timer, this::getXmitMessage, this::sendXmitRsp)
+              .maxRate(max_xmit_rate).suppressionTime(xmit_suppression_time);
         startRetransmitTask();
     }
 
@@ -450,6 +494,8 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
         is_server=false;
         becomeServerQueue().clear();
         stopRetransmitTask();
+        if(xmit_scheduler != null)
+            xmit_scheduler.clear();
         xmit_task_map.clear();
         stable_xmit_map.clear();
         local_xmit_table=null; // fixes https://issues.redhat.com/browse/JGRP-2720
@@ -577,8 +623,12 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
             case NakAckHeader.XMIT_REQ -> {
                 try {
                     SeqnoList missing=msg.getObject();
-                    if(missing != null)
-                        handleXmitReq(msg.getSrc(), missing, hdr.sender);
+                    Address sender=xmitReqSender(msg.getSrc(), hdr);
+                    if(missing != null && sender != null) {
+                        if(msg.getDest() == null)
+                            xmitReqMulticast(msg.getSrc(), missing, sender);
+                        handleXmitReq(msg.getSrc(), missing, sender);
+                    }
                 }
                 catch(Exception e) {
                     log.error("failed deserializing retransmission list", e);
@@ -595,6 +645,12 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
             }
             case NakAckHeader.ACK -> {
                 handleAck(msg.src(), hdr.seqno);
+                if(msg.hasPayload()) // selective ACK
+                    handleSelectiveAck(msg.src(), msg.getObject());
+                return null;
+            }
+            case NakAckHeader.ACKS -> {
+                handleAcks(msg.src(), msg, hdr);
                 return null;
             }
             default -> {
@@ -631,8 +687,12 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
                     it.remove();
                     try {
                         SeqnoList missing=msg.getObject();
-                        if(missing != null)
-                            handleXmitReq(msg.getSrc(), missing, hdr.sender);
+                        Address sender=xmitReqSender(msg.getSrc(), hdr);
+                        if(missing != null && sender != null) {
+                            if(mb.dest() == null)
+                                xmitReqMulticast(msg.getSrc(), missing, sender);
+                            handleXmitReq(msg.getSrc(), missing, sender);
+                        }
                     }
                     catch(Exception e) {
                         log.error("failed deserializing retransmission list", e);
@@ -650,6 +710,12 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
                 case NakAckHeader.ACK:
                     it.remove();
                     highest_ack=Math.max(highest_ack, hdr.seqno);
+                    if(msg.hasPayload()) // selective ACK
+                        handleSelectiveAck(mb.sender(), msg.getObject());
+                    break;
+                case NakAckHeader.ACKS:
+                    it.remove();
+                    handleAcks(mb.sender(), msg, hdr);
                     break;
                 default:
                     log.error(Util.getMessage("HeaderTypeNotKnown"), local_addr, hdr.type);
@@ -796,6 +862,8 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
                 deliver(msg, sender, hdr.seqno, entry, "OOB message");
         }
         removeAndDeliver(win, entry, sender, loopback, null); // at most 1 thread will execute this at any given time
+        if(added && !loopback)
+            sendSelectiveAck(sender, entry);
     }
 
     protected void handleMessageBatch(MessageBatch mb) {
@@ -827,6 +895,8 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
             deliverBatch(oob_batch, entry);
         }
         removeAndDeliver(win, entry, sender, loopback, mb.clusterName()); // at most 1 thread will execute this at any given time
+        if(added && !loopback)
+            sendSelectiveAck(sender, entry);
         if(oob || loopback)
             mb.removeIf(HAS_HEADER, true);
     }
@@ -905,6 +975,11 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
             return;
         }
 
+        if(xmit_scheduler != null) {
+            xmit_scheduler.add(use_mcast_xmit? null : xmit_requester, original_sender, missing_msgs);
+            return;
+        }
+
         if(is_trace)
             log.trace("%s --> [all]: resending to %s %s", local_addr, original_sender, missing_msgs);
         for(long i: missing_msgs) {
@@ -920,6 +995,21 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
         }
     }
 
+    /**
+     * Called when a multicast XMIT_REQ has been received. If the retransmissions are multicast, too, they will be
+     * received by everyone, so members don't need to ask for the same messages themselves
+     */
+    protected void xmitReqMulticast(Address xmit_requester, SeqnoList missing_msgs, Address original_sender) {
+        if(xmit_scheduler != null && use_mcast_xmit && !Objects.equals(local_addr, xmit_requester))
+            xmit_scheduler.requested(original_sender, missing_msgs);
+    }
+
+    /** Returns the message with seqno from the retransmission buffer of original_sender, or null if not found */
+    protected Message getXmitMessage(Address original_sender, long seqno) {
+        Buffer<Message> win=getBuf(original_sender);
+        return win != null? win.get(seqno) : null;
+    }
+
     protected void deliver(Message msg, Address sender, long seqno, Entry entry, String error_msg) {
         if(is_trace)
             log.trace("%s <-- %s: #%d", local_addr, sender, seqno);
@@ -1064,6 +1154,18 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
     protected void sendAck(Address to, Buffer<Message> win) {
     }
 
+    /** Called after messages from a sender have been added to its receive buffer */
+    protected void sendSelectiveAck(Address to, Entry e) {
+    }
+
+    /** Called when an ACK carrying the seqnos of missing messages (sent by this member) has been received */
+    protected void handleSelectiveAck(Address sender, SeqnoList missing) {
+    }
+
+    /** Called when a multicast message with the ACKs of sender for multiple members has been received */
+    protected void handleAcks(Address sender, Message msg, NakAckHeader hdr) {
+    }
+
     protected Message msgFromXmitRsp(Message msg, NakAckHeader hdr) {
         if(msg == null)
             return null;
@@ -1275,7 +1377,8 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
     protected void retransmit(SeqnoList missing_msgs, final Address sender, boolean multicast_xmit_request) {
         Address dest=(multicast_xmit_request || this.use_mcast_xmit_req)? null : sender; // to whom do we send the XMIT request ?
         Message retransmit_msg=new ObjectMessage(dest, missing_msgs).setFlag(OOB, NO_FC).setFlag(DONT_BLOCK)
-          .putHeader(this.id, NakAckHeader.createXmitRequestHeader(sender));
+          .putHeader(this.id, use_member_index? NakAckHeader.createXmitRequestHeader(sender, view)
+                                                : NakAckHeader.createXmitRequestHeader(sender));
 
         if(is_trace)
             log.trace("%s --> %s: XMIT_REQ(%s)", local_addr, dest, missing_msgs);
@@ -1284,6 +1387,15 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
             xmit_reqs_sent.add(missing_msgs.size());
     }
 
+    /** Returns the original sender of an XMIT_REQ, resolving a member index against the current view if needed */
+    protected Address xmitReqSender(Address requester, NakAckHeader hdr) {
+        Address sender=hdr.getSender(view);
+        if(sender == null && is_trace)
+            log.trace("%s: dropped XMIT_REQ from %s: sender index %d cannot be resolved in view %s",
+                      local_addr, requester, hdr.senderIndex(), view);
+        return sender;
+    }
+
     protected void reset() {
         seqno.set(0);
         xmit_table.clear();
@@ -1346,7 +1458,11 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
                         long highest_deliverable=win.getHighestDeliverable(), first=missing.getFirst();
                         if(first < highest_deliverable)
                             missing.removeLowerThan(highest_deliverable + 1);
-                        retransmit(missing, target, false);
+                        // skip messages requested by other members: the (multicast) retransmissions will be received by us, too
+                        if(xmit_scheduler != null && use_mcast_xmit_req && use_mcast_xmit)
+                            xmit_scheduler.removeRequested(target, missing);
+                        if(!missing.isEmpty())
+                            retransmit(missing, target, false);
                     }
                 }
             }
@@ -1354,6 +1470,9 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
                 xmit_task_map.remove(target); // no current gaps for target
         }
 
+        if(xmit_scheduler != null)
+            xmit_scheduler.removeExpired();
+
         // Send the highest seqno added to the send-buffer; don't send the seqno.get(), as senders might have
         // incremented the seqno, but not yet added the message to the table: send the highest message in the send-buffer
         last_seqno_resender.execute();
@@ -1389,6 +1508,7 @@ public abstract class ReliableMulticast extends Protocol implements DiagnosticsH
         protected final Buffer<Message> buf;
         protected final AtomicInteger   num_acks_sent=new AtomicInteger();
         protected final AtomicBoolean   send_ack=new AtomicBoolean();
+        protected final AtomicLong      sacked=new AtomicLong(); // highest seqno at the time of the last selective ACK
 
         protected Entry(Buffer<Message> buf) {
             this.buf=Objects.requireNonNull(buf);
@@ -92,6 +92,22 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
       "Issue: https://issues.redhat.com/browse/JGRP-2547")
     protected boolean loopback;
 
+    @Property(description="If true, a receiver sends an ACK carrying the seqnos of missing messages (selective ACK) " +
+      "as soon as messages up to sack_threshold seqnos beyond a gap have been received. The sender retransmits the " +
+      "missing messages immediately, rather than waiting for a retransmit request")
+    protected boolean selective_acks;
+
+    @Property(description="The distance between the highest received seqno and the highest delivered seqno (or the " +
+      "highest seqno of the last selective ACK) at which a selective ACK is sent. Higher values tolerate more " +
+      "message reordering without triggering retransmissions",type=SCALAR)
+    protected int     sack_threshold=16;
+
+    @Property(description="Time (in ms) after which the buffer of an idle send or receive connection releases its " +
+      "memory, if all of its messages have been acked (send) or delivered (receive). The connection keeps its " +
+      "conn-id and seqnos, and re-acquires the memory when used again. Reduces memory with many mostly idle peers. " +
+      "0 disables this",type=AttributeType.TIME)
+    protected long    compact_idle_time;
+
     protected static final int DEFAULT_INITIAL_CAPACITY=128;
     protected static final int DEFAULT_INCREMENT=512;
 
@@ -107,6 +123,10 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     protected final LongAdder num_acks_received=new LongAdder();
     @ManagedAttribute(description="Number of retransmitted messages",type=SCALAR)
     protected final LongAdder num_xmits=new LongAdder();
+    @ManagedAttribute(description="Number of selective ACKs sent",type=SCALAR)
+    protected final LongAdder num_sacks_sent=new LongAdder();
+    @ManagedAttribute(description="Number of selective ACKs received",type=SCALAR)
+    protected final LongAdder num_sacks_received=new LongAdder();
 
     @ManagedAttribute(description="Number of retransmit requests received",type=SCALAR)
     protected final LongAdder  xmit_reqs_received=new LongAdder();
@@ -117,6 +137,9 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     @ManagedAttribute(description="Number of retransmit responses sent",type=SCALAR)
     protected final LongAdder  xmit_rsps_sent=new LongAdder();
 
+    @ManagedAttribute(description="Number of times the buffer of an idle connection was compacted",type=SCALAR)
+    protected final LongAdder  num_compactions=new LongAdder();
+
     @ManagedAttribute(description="Average batch size of messages delivered to the application",gauge=true)
     protected final AverageMinMax avg_delivery_batch_size=new AverageMinMax(1024);
 
@@ -236,6 +259,12 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     public ReliableUnicast sendAtomically(boolean f)             {send_atomically=f; return this;}
     public boolean         loopback()                            {return loopback;}
     public ReliableUnicast loopback(boolean b)                   {this.loopback=b; return this;}
+    public boolean         selectiveAcks()                       {return selective_acks;}
+    public ReliableUnicast selectiveAcks(boolean b)              {this.selective_acks=b; return this;}
+    public int             sackThreshold()                       {return sack_threshold;}
+    public ReliableUnicast sackThreshold(int t)                  {this.sack_threshold=t; return this;}
+    public long            compactIdleTime()                     {return compact_idle_time;}
+    public ReliableUnicast compactIdleTime(long t)               {this.compact_idle_time=t; return this;}
     public ReliableUnicast timeService(TimeService ts)           {this.time_service=ts; return this;}  // testing only!
     public ReliableUnicast lastSync(ExpiryCache<Address> c)      {this.last_sync_sent=c; return this;} // testing only!
 
@@ -326,6 +355,20 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
         return entry != null ? entry.buf.size() : 0;
     }
 
+    @ManagedAttribute(description="Number of send and receive connections whose buffers have been compacted",
+      type=SCALAR,gauge=true)
+    public int getNumCompactEntries() {
+        return (int)Stream.concat(send_table.values().stream(), recv_table.values().stream())
+          .filter(e -> e.buf().trimmed()).count();
+    }
+
+    @ManagedAttribute(description="Number of send and receive connections whose buffers are not compacted",
+      type=SCALAR,gauge=true)
+    public int getNumInflatedEntries() {
+        return (int)Stream.concat(send_table.values().stream(), recv_table.values().stream())
+          .filter(e -> !e.buf().trimmed()).count();
+    }
+
     @ManagedAttribute(description="Total number of undelivered messages in all receive windows",type=SCALAR,gauge=true)
     public int getXmitTableUndeliveredMessages() {
         return accumulate(Buffer::size, recv_table.values());
@@ -366,7 +409,8 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     public void resetStats() {
         avg_delivery_batch_size.clear();
         Stream.of(num_msgs_sent, num_msgs_received, num_acks_sent, num_acks_received, num_xmits,
-                xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent, num_loopbacks).forEach(LongAdder::reset);
+                num_sacks_sent, num_sacks_received, xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent, num_loopbacks,
+                  num_compactions).forEach(LongAdder::reset);
         send_table.values().stream().map(e -> e.buf).forEach(Buffer::resetStats);
         recv_table.values().stream().map(e -> e.buf).forEach(Buffer::resetStats);
     }
@@ -429,6 +473,8 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
                     throw new IllegalStateException("header of type DATA is not supposed to be handled by this method");
                 case UnicastHeader.ACK:   // received ACK for previously sent message
                     handleAckReceived(sender, hdr.seqno, hdr.conn_id, hdr.timestamp());
+                    if(msg.hasPayload()) // selective ACK
+                        handleSelectiveAck(sender, msg.getObject(), hdr.conn_id);
                     break;
                 case UnicastHeader.SEND_FIRST_SEQNO:
                     handleResendingOfFirstMessage(sender, hdr.timestamp());
@@ -797,6 +843,7 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
         }
         addMessage(entry, sender, seqno, msg);
         removeAndDeliver(entry, sender, null, 1);
+        sendSelectiveAck(sender, entry, msg.dest());
     }
 
     protected void addMessage(ReceiverEntry entry, Address sender, long seqno, Message msg) {
@@ -868,6 +915,7 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
             deliverBatch(oob_batch, entry, original_dest);
         }
         removeAndDeliver(entry, sender, null, msgs.size());
+        sendSelectiveAck(sender, entry, original_dest);
     }
 
 
@@ -1058,6 +1106,15 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
         }
     }
 
+    /** Retransmits the messages missing in a selective ACK, unless the ACK is for a different connection */
+    protected void handleSelectiveAck(Address sender, SeqnoList missing, short conn_id) {
+        SenderEntry entry=send_table.get(sender);
+        if(missing == null || entry == null || entry.connId() != conn_id)
+            return;
+        num_sacks_received.increment();
+        handleXmitRequest(sender, missing);
+    }
+
     protected void handleXmitRequest(Address sender, SeqnoList missing) {
         if(is_trace)
             log.trace("%s <-- %s: XMIT(#%s)", local_addr, sender, missing);
@@ -1102,7 +1159,7 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
             down_prot.down(msg); // if this fails, since msg is in sent_msgs, it can be retransmitted
             if(entry.state() == State.CLOSING)
                 entry.state(State.OPEN);
-            if(conn_expiry_timeout > 0)
+            if(conn_expiry_timeout > 0 || compact_idle_time > 0)
                 entry.update();
             if(dont_loopback_set)
                 buf.purge(buf.getHighestDeliverable());
@@ -1206,16 +1263,22 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     }
 
     protected void sendAck(Address dst, Entry entry, Address real_dest) { // real_dest required by RELAY3
+        sendAck(dst, entry, real_dest, null);
+    }
+
+    /** Sends an ACK for the highest delivered seqno. If missing is non-null, it is sent as payload (selective ACK) */
+    protected void sendAck(Address dst, Entry entry, Address real_dest, SeqnoList missing) {
         if(!running) // if we are disconnected, then don't send any acks which throw exceptions on shutdown
             return;
         long seqno=entry.buf.highestDelivered();
         short conn_id=entry.connId();
-        Message ack=new EmptyMessage(dst).setFlag(DONT_BLOCK).setFlag(NO_FC)
+        Message ack=(missing != null? new ObjectMessage(dst, missing) : new EmptyMessage(dst))
+          .setFlag(DONT_BLOCK).setFlag(NO_FC)
           .putHeader(this.id, UnicastHeader.createAckHeader(seqno, conn_id, timestamper.incrementAndGet()));
         if(real_dest != null && !Objects.equals(local_addr, real_dest))
             ack.setSrc(real_dest);
         if(is_trace)
-            log.trace("%s --> %s: ACK(#%d)", local_addr, dst, seqno);
+            log.trace("%s --> %s: ACK(#%d%s)", local_addr, dst, seqno, missing != null? ", missing=" + missing : "");
         try {
             down_prot.down(ack);
             num_acks_sent.increment();
@@ -1226,6 +1289,29 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     }
 
 
+    /**
+     * Sends a selective ACK if there are missing messages and the highest received seqno is at least sack_threshold
+     * beyond the highest delivered seqno and the highest seqno of the previous selective ACK. Only missing seqnos
+     * higher than the latter are included, so every gap is reported at most once; if the retransmission is lost,
+     * the retransmit task will ask for it again
+     */
+    protected void sendSelectiveAck(Address dst, ReceiverEntry entry, Address real_dest) {
+        if(!selective_acks)
+            return;
+        Buffer<Message> win=entry.buf;
+        long high=win.high(), sacked=entry.sacked.get();
+        if(high - Math.max(win.highestDelivered(), sacked) < sack_threshold) // cheap check first; numMissing() locks
+            return;
+        if(win.numMissing() == 0 || !entry.sacked.compareAndSet(sacked, high))
+            return;
+        SeqnoList missing=win.getMissing(max_xmit_req_size);
+        if(missing == null || missing.getLast() <= sacked)
+            return;
+        missing.removeLowerThan(sacked+1);
+        sendAck(dst, entry, real_dest, missing);
+        num_sacks_sent.increment();
+    }
+
     protected synchronized short getNewConnectionId() {
         short retval=last_conn_id;
         if(last_conn_id == Short.MAX_VALUE || last_conn_id < 0)
@@ -1283,6 +1369,21 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     }
 
 
+    @ManagedOperation(description="Compacts the buffers of connections that have been idle for more than " +
+      "compact_idle_time ms and have no unacked (send) or undelivered (receive) messages")
+    public int compactIdleConnections() {
+        int num_compacted=0;
+        for(Entry e: send_table.values())
+            if(compact(e))
+                num_compacted++;
+        for(Entry e: recv_table.values())
+            if(compact(e))
+                num_compacted++;
+        if(num_compacted > 0)
+            num_compactions.add(num_compacted);
+        return num_compacted;
+    }
+
     @ManagedOperation(description="Removes connections that have been closed for more than conn_close_timeout ms")
     public int removeExpiredConnections() {
         int num_removed=0;
@@ -1405,6 +1506,9 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
             }
         }
 
+        if(compact_idle_time > 0)
+            compactIdleConnections();
+
         // close idle connections
         if(conn_expiry_timeout > 0)
             closeIdleConnections();
@@ -1428,13 +1532,18 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
     }
 
     protected void update(Entry entry, int num_received) {
-        if(conn_expiry_timeout > 0)
+        if(conn_expiry_timeout > 0 || compact_idle_time > 0)
             entry.update();
         if(entry.state() == State.CLOSING)
             entry.state(State.OPEN);
         num_msgs_received.add(num_received);
     }
 
+    /** Compacts the buffer of an open connection if it has been idle for compact_idle_time ms */
+    protected boolean compact(Entry e) {
+        return e.state() == State.OPEN && !e.send_ack.get() && e.age() >= compact_idle_time && e.buf().trim();
+    }
+
     /** Compares 2 timestamps, handles numeric overflow */
     protected static int compare(int ts1, int ts2) {
         int diff=ts1 - ts2;
@@ -1564,7 +1673,8 @@ public abstract class ReliableUnicast extends Protocol implements AgeOutCache.Ha
 
     // public for unit testing
     public final class ReceiverEntry extends Entry {
-        private final Address real_dest ; // if real_dest != local_addr (https://issues.redhat.com/browse/JGRP-2729)
+        private final Address    real_dest ; // if real_dest != local_addr (https://issues.redhat.com/browse/JGRP-2729)
+        private final AtomicLong sacked=new AtomicLong(); // highest seqno at the time of the last selective ACK
 
         public ReceiverEntry(Buffer<Message> received_msgs, short recv_conn_id, Address real_dest) {
             super(recv_conn_id, received_msgs);
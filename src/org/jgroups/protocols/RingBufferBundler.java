@@ -0,0 +1,220 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.AttributeType;
+import org.jgroups.util.ConcurrentBlockingRingBuffer;
+import org.jgroups.util.FastArray;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bundler which adds messages to a lock-free ring buffer ({@link ConcurrentBlockingRingBuffer}), from which a single
+ * bundler thread removes and sends them. Contrary to {@link TransferQueueBundler}, neither producers nor the consumer
+ * ever acquire a lock: when the ring buffer is empty, the bundler thread waits according to {@link #wait_strategy}:
+ * <ul>
+ *     <li>spin: busy-spins (lowest latency, burns a core)</li>
+ *     <li>yield: spins for {@link #num_spins} iterations, then yields the CPU</li>
+ *     <li>park: spins for {@link #num_spins} iterations, then parks until woken up by a producer (default)</li>
+ * </ul>
+ * When the ring buffer is full, messages are dropped (as in {@link TransferQueueBundler}); they will get retransmitted.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class RingBufferBundler extends BaseBundler implements Runnable {
+    protected ConcurrentBlockingRingBuffer<Message> rb;
+    protected FastArray<Message>                    remove_queue;
+    protected volatile Thread                       bundler_thread;
+    protected volatile boolean                      running;
+    protected volatile boolean                      parked; // set by the bundler thread before parking
+    protected WaitStrategy                          wait_strategy_impl=WaitStrategy.park;
+    protected static final String                   THREAD_NAME="RingBufferBundler";
+
+    public enum WaitStrategy {
+        spin, yield, park;
+
+        /** Parses a wait strategy, ignoring case and surrounding whitespace */
+        public static WaitStrategy parse(String s) {
+            return valueOf(Objects.requireNonNull(s).trim().toLowerCase());
+        }
+    }
+
+    @Property(description="The strategy used by the bundler thread when no messages are available. " +
+      "Values are \"spin\", \"yield\" and \"park\"")
+    protected String                                wait_strategy=WaitStrategy.park.name();
+
+    @Property(description="Number of spins (Thread.onSpinWait()) before the bundler thread yields or parks " +
+      "(ignored by wait strategy \"spin\")")
+    protected int                                   num_spins=100;
+
+    @Property(description="Max time (ms) the bundler thread parks (if the wait strategy is \"park\"). A producer " +
+      "adding a message unparks the thread before this",type=AttributeType.TIME)
+    protected long                                  max_park_time=10;
+
+    @ManagedAttribute(description="Number of times the bundler thread was parked",type=AttributeType.SCALAR)
+    protected final LongAdder                       num_parks=new LongAdder();
+
+
+    public RingBufferBundler() {
+    }
+
+    public String            waitStrategy()           {return wait_strategy;}
+    public RingBufferBundler waitStrategy(String s)   {wait_strategy_impl=WaitStrategy.parse(s); wait_strategy=s; return this;}
+    public int               numSpins()               {return num_spins;}
+    public RingBufferBundler numSpins(int n)          {this.num_spins=n; return this;}
+    public long              maxParkTime()            {return max_park_time;}
+    public RingBufferBundler maxParkTime(long t)      {this.max_park_time=t; return this;}
+
+    @ManagedAttribute(description="Size of the ring buffer",type=AttributeType.SCALAR,gauge=true)
+    public int               getQueueSize()           {return rb != null? rb.size() : 0;}
+
+    @ManagedAttribute(description="Size of the remove-queue",type=AttributeType.SCALAR,gauge=true)
+    public int               removeQueueSize()        {return remove_queue != null? remove_queue.size() : 0;}
+
+    @ManagedAttribute(description="The number of unsent messages in the bundler",type=AttributeType.SCALAR,gauge=true)
+    public int size() {
+        return super.size() + removeQueueSize() + getQueueSize();
+    }
+
+    @Override
+    public void init(TP transport) {
+        super.init(transport);
+        wait_strategy_impl=WaitStrategy.parse(wait_strategy);
+        if(transport instanceof TCP tcp) {
+            tcp.useLockToSend(false); // https://issues.redhat.com/browse/JGRP-2901
+            int size=tcp.getBufferedOutputStreamSize();
+            if(size < max_size) { // https://issues.redhat.com/browse/JGRP-2903
+                int new_size=max_size + Integer.BYTES;
+                log.warn("buffered_output_stream_size adjusted from %,d -> %,d", size, new_size);
+                tcp.setBufferedOutputStreamSize(new_size);
+            }
+        }
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        num_parks.reset();
+    }
+
+    public synchronized void start() {
+        if(running)
+            stop();
+        rb=new ConcurrentBlockingRingBuffer<>(capacity, false, false); // never blocks: the consumer waits itself
+        if(remove_queue_capacity == 0)
+            remove_queue_capacity=Math.max(capacity/4, 1024);
+        remove_queue=new FastArray<>(remove_queue_capacity);
+        running=true;
+        bundler_thread=transport.getThreadFactory().newThread(this, THREAD_NAME);
+        bundler_thread.start();
+    }
+
+    public synchronized void stop() {
+        running=false;
+        Thread tmp=bundler_thread;
+        bundler_thread=null;
+        if(tmp != null) {
+            tmp.interrupt();
+            if(tmp.isAlive()) {
+                try {
+                    tmp.join(500);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        drain();
+    }
+
+    public void renameThread() {
+        transport.getThreadFactory().renameThread(THREAD_NAME, bundler_thread);
+    }
+
+    public void send(Message msg) throws Exception {
+        if(!running)
+            return;
+        if(!rb.offer(msg)) {
+            num_drops_on_full_queue.increment();
+            return;
+        }
+        // the bundler thread sets parked before checking the ring buffer a last time: either it sees our message,
+        // or we see parked == true
+        if(parked) {
+            Thread t=bundler_thread;
+            if(t != null)
+                LockSupport.unpark(t);
+        }
+    }
+
+    public void run() {
+        int spins=0;
+        while(running) {
+            remove_queue.clear(false);
+            int num_msgs=rb.drainTo(remove_queue, remove_queue_capacity);
+            if(num_msgs > 0) {
+                spins=0;
+                avg_remove_queue_size.add(num_msgs);
+                remove_queue.forEach(this::addAndSendIfSizeExceeded);
+                continue;
+            }
+            // no more messages: send what we have and wait for new messages
+            if(count > 0) {
+                if(transport.statsEnabled())
+                    avg_fill_count.add(count);
+                sendBundledMessages();
+                num_sends_because_no_msgs.increment();
+            }
+            spins=waitForMessages(spins);
+        }
+    }
+
+    /** Called by the bundler thread when the ring buffer is empty. Returns the updated number of spins */
+    protected int waitForMessages(int spins) {
+        if(wait_strategy_impl == WaitStrategy.spin || spins < num_spins) {
+            Thread.onSpinWait();
+            return spins+1;
+        }
+        if(wait_strategy_impl == WaitStrategy.yield) {
+            Thread.yield();
+            return spins;
+        }
+        parked=true;
+        try {
+            if(rb.isEmpty() && running) {
+                num_parks.increment();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(max_park_time));
+            }
+        }
+        finally {
+            parked=false;
+        }
+        return 0;
+    }
+
+    protected void addAndSendIfSizeExceeded(Message msg) {
+        int size=msg.size();
+        if(count + size > max_size) {
+            if(transport.statsEnabled())
+                avg_fill_count.add(count);
+            sendBundledMessages();
+            num_sends_because_full_queue.increment();
+        }
+        addMessage(msg, size);
+    }
+
+    /** Takes all messages from the ring buffer, adds them to the hashmap and then sends all bundled messages */
+    protected void drain() {
+        Message msg;
+        if(rb != null) {
+            while((msg=rb.poll()) != null)
+                addAndSendIfSizeExceeded(msg);
+        }
+        if(!msgs.isEmpty())
+            sendBundledMessages();
+    }
+}
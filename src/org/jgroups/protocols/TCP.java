@@ -121,6 +121,15 @@ public class TCP extends BasicTCP {
             srv.send(dest, data);
     }
 
+    @Override
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer[] bufs) throws Exception {
+        if(srv != null)
+            srv.send(dest, bufs);
+    }
+
+    @Override
+    public boolean supportsGatheringWrites() {return true;}
+
     public void retainAll(Collection<Address> members) {
         srv.retainAll(members, is_member);
     }
@@ -156,6 +165,7 @@ public class TCP extends BasicTCP {
           .log(this.log).logDetails(this.log_details)
           .addConnectionListener(this);
         srv.useLockToSend(this.use_lock_to_send);
+        srv.bufferPool(receive_buffer_pool);
 
         if(send_buf_size > 0)
             srv.sendBufferSize(send_buf_size);
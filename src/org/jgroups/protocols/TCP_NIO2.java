@@ -104,6 +104,22 @@ public class TCP_NIO2 extends BasicTCP {
         }
     }
 
+    @Override
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer[] bufs) throws Exception {
+        if(server != null) {
+            try {
+                server.send(dest, bufs);
+            }
+            catch(ClosedChannelException | CancelledKeyException ignored) {}
+            catch(Throwable ex) {
+                log.trace("%s: failed sending message to %s: %s", local_addr, dest, ex);
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsGatheringWrites() {return true;}
+
     public void retainAll(Collection<Address> members) {
         server.retainAll(members, is_member);
     }
@@ -6,6 +6,7 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.Property;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.AverageMinMax;
+import org.jgroups.util.Histogram;
 import org.jgroups.util.MessageBatch;
 
 import java.util.concurrent.TimeUnit;
@@ -22,17 +23,17 @@ import static org.jgroups.conf.AttributeType.SCALAR;
  */
 @MBean(description="Measures message delivery times")
 public class TIME extends Protocol {
-    @ManagedAttribute(description="Average delivery time (in microseconds) for single messages",gauge=true)
-    protected final AverageMinMax up_delivery_msgs=new AverageMinMax().unit(TimeUnit.NANOSECONDS);
+    @ManagedAttribute(description="Delivery time (in microseconds) for single messages",gauge=true)
+    protected final Histogram     up_delivery_msgs=new Histogram().unit(TimeUnit.NANOSECONDS);
 
-    @ManagedAttribute(description="Average delivery time (in microseconds) for message batches",gauge=true)
-    protected final AverageMinMax up_delivery_batches=new AverageMinMax().unit(TimeUnit.NANOSECONDS);
+    @ManagedAttribute(description="Delivery time (in microseconds) for message batches",gauge=true)
+    protected final Histogram     up_delivery_batches=new Histogram().unit(TimeUnit.NANOSECONDS);
 
     @ManagedAttribute(description="Average size of received message batches",gauge=true)
     protected final AverageMinMax avg_up_batch_size=new AverageMinMax();
 
-    @ManagedAttribute(description="Average down delivery time (in microseconds)",gauge=true)
-    protected final AverageMinMax down_delivery=new AverageMinMax().unit(TimeUnit.NANOSECONDS);
+    @ManagedAttribute(description="Down delivery time (in microseconds)",gauge=true)
+    protected final Histogram     down_delivery=new Histogram().unit(TimeUnit.NANOSECONDS);
 
     @Property(description="Enables or disables measuring times of messages sent down")
     protected boolean             down_msgs=true;
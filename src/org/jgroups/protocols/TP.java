@@ -45,6 +45,7 @@ import java.util.concurrent.TimeUnit;
 public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHandler {
     public static final    byte    LIST=1; // we have a list of messages rather than a single message when set
     public static final    byte    MULTICAST=2; // message is a multicast (versus a unicast) message when set
+    public static final    byte    COMPACT=4; // the message list uses the compact format (CompactMessageList)
     public static final    int     MSG_OVERHEAD=Global.SHORT_SIZE*2 + Global.BYTE_SIZE; // version + flags
     protected static final long    MIN_WAIT_BETWEEN_DISCOVERIES=TimeUnit.NANOSECONDS.convert(10, TimeUnit.SECONDS);  // ns
 
@@ -65,6 +66,20 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
      */
     public abstract void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception;
 
+    /**
+     * Sends a unicast message, consisting of multiple buffers, to a member. Transports which support gathering writes
+     * (see {@link #supportsGatheringWrites()}) override this to write the buffers without copying them; the default
+     * implementation copies them into a single buffer and calls {@link #sendUnicast(PhysicalAddress, ByteBuffer)}
+     * @param dest Must be a non-null physical unicast address (e.g. {@link org.jgroups.stack.IpAddress})
+     * @param bufs The buffers to be sent (in this order). These are not copies, so don't modify them
+     */
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer[] bufs) throws Exception {
+        sendUnicast(dest, merge(bufs));
+    }
+
+    /** Whether {@link #sendUnicast(PhysicalAddress, ByteBuffer[])} can write multiple buffers without copying them */
+    public boolean supportsGatheringWrites() {return false;}
+
     public String toString() {
         return local_addr != null? getName() + "(local address: " + local_addr + ')' : getName();
     }
@@ -99,6 +114,10 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
 
         who_has_cache=new ExpiryCache<>(who_has_cache_timeout);
 
+        if(receive_buffer_pool_size > 0)
+            receive_buffer_pool=new BufferPool(receive_buffer_pool_size, pooled_buffer_size)
+              .minPayloadSize(min_pooled_payload_size);
+
         if(suppress_time_different_version_warnings > 0)
             suppress_log_different_version=new SuppressLog<>(log, "VersionMismatch");
         if(suppress_time_different_cluster_warnings > 0)
@@ -463,6 +482,19 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
 
     /** Subclasses must call this method when a unicast or multicast message has been received */
     public void receive(Address sender, byte[] data, int offset, int length) {
+        receive(sender, data, offset, length, null);
+    }
+
+    /**
+     * Receives a message or message batch
+     * @param sender The sender of the message
+     * @param data The buffer containing the message
+     * @param offset The offset at which the message starts
+     * @param length The length of the message
+     * @param pooled If non-null, data belongs to this pooled buffer and payloads of received messages may point into
+     *               it (see {@link BufferPool}). The caller needs to release its own reference when this method returns
+     */
+    public void receive(Address sender, byte[] data, int offset, int length, PooledBuffer pooled) {
         if(data == null) return;
 
         // drop message from self; it has already been looped back up (https://issues.redhat.com/browse/JGRP-1765)
@@ -481,9 +513,9 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
         offset+=Global.BYTE_SIZE;
 
         boolean is_message_list=(flags & LIST) == LIST, multicast=(flags & MULTICAST) == MULTICAST;
-        ByteArrayDataInputStream in=new ByteArrayDataInputStream(data, offset, length);
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(data, offset, length).pooledBuffer(pooled);
         if(is_message_list) // used if message bundling is enabled
-            handleMessageBatch(in, multicast);
+            handleMessageBatch(in, multicast, (flags & COMPACT) == COMPACT);
         else
             handleSingleMessage(in, multicast);
     }
@@ -502,7 +534,7 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
 
         boolean is_message_list=(flags & LIST) == LIST, multicast=(flags & MULTICAST) == MULTICAST;
         if(is_message_list) // used if message bundling is enabled
-            handleMessageBatch(in, multicast);
+            handleMessageBatch(in, multicast, (flags & COMPACT) == COMPACT);
         else
             handleSingleMessage(in, multicast);
     }
@@ -514,6 +546,22 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
             sendToAll(buf);
     }
 
+    /**
+     * Sends a message consisting of multiple buffers, e.g. the headers of a message batch interleaved with the payloads
+     * of its messages. If the transport doesn't support gathering writes, or a local transport is used, the buffers
+     * are copied into a single buffer and sent via {@link #doSend(ByteBuffer, Address)}
+     */
+    public void doSend(ByteBuffer[] bufs, Address dest) throws Exception {
+        if(!supportsGatheringWrites() || local_transport != null) {
+            doSend(merge(bufs), dest);
+            return;
+        }
+        if(dest != null)
+            sendTo(dest, bufs);
+        else
+            sendToAll(bufs);
+    }
+
     public boolean unicastDestMismatch(Address dest) {
         return dest != null && !(Objects.equals(dest, local_addr) || Objects.equals(dest, local_physical_addr));
     }
@@ -526,9 +574,10 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
         return logical_addr != null? logical_addr_cache.get(logical_addr) : null;
     }
 
-    protected void handleMessageBatch(DataInput in, boolean multicast) {
+    protected void handleMessageBatch(DataInput in, boolean multicast, boolean compact) {
         try {
-            final MessageBatch[] batches=Util.readMessageBatch(in, multicast);
+            final MessageBatch[] batches=compact? CompactMessageList.readMessageBatch(in, multicast)
+              : Util.readMessageBatch(in, multicast);
             final MessageBatch regular=batches[0], oob=batches[1];
 
             // we need to update the stats *before* processing the batches: protocols can remove msgs from the batch
@@ -642,8 +691,37 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
         }
 
         List<PhysicalAddress> dests=new ArrayList<>(mbrs.size());
+        missing=getPhysicalAddresses(mbrs, local_send_successful && local_transport != null, dests);
+        if(!dests.isEmpty())
+            sendUnicasts(dests, buf);
+        if(missing != null)
+            fetchPhysicalAddrs(missing);
+    }
+
+    /** Same as {@link #sendToAll(ByteBuffer)}, but sends multiple buffers. Not used with a local transport */
+    protected void sendToAll(ByteBuffer[] bufs) throws Exception {
+        Set<Address> mbrs=members;
+        if(mbrs == null || mbrs.isEmpty())
+            mbrs=logical_addr_cache.keySet();
+        List<PhysicalAddress> dests=new ArrayList<>(mbrs.size());
+        List<Address> missing=getPhysicalAddresses(mbrs, false, dests);
+        if(!dests.isEmpty())
+            sendUnicasts(dests, bufs);
+        if(missing != null)
+            fetchPhysicalAddrs(missing);
+    }
+
+    /**
+     * Adds the physical addresses of all members (excluding self) to dests
+     * @param mbrs The members
+     * @param skip_local_mbrs Skips members reachable via the local transport
+     * @param dests The list to which the physical addresses are added
+     * @return A list of the members whose physical addresses are not known, or null if all are known
+     */
+    protected List<Address> getPhysicalAddresses(Set<Address> mbrs, boolean skip_local_mbrs, List<PhysicalAddress> dests) {
+        List<Address> missing=null;
         for(Address mbr: mbrs) {
-            if(local_send_successful && local_transport != null && local_transport.isLocalMember(mbr))
+            if(skip_local_mbrs && local_transport.isLocalMember(mbr))
                 continue; // skip if local transport sent the message successfully
 
             PhysicalAddress target=mbr instanceof PhysicalAddress? (PhysicalAddress)mbr : logical_addr_cache.get(mbr);
@@ -656,10 +734,15 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
             if(!Objects.equals(local_physical_addr, target))
                 dests.add(target);
         }
-        if(!dests.isEmpty())
-            sendUnicasts(dests, buf);
-        if(missing != null)
-            fetchPhysicalAddrs(missing);
+        return missing;
+    }
+
+    protected void sendTo(final Address dest, ByteBuffer[] bufs) throws Exception {
+        PhysicalAddress physical_dest=dest instanceof PhysicalAddress? (PhysicalAddress)dest : getPhysicalAddressFromCache(dest);
+        if(physical_dest != null)
+            sendUnicast(physical_dest, bufs);
+        else
+            sendTo(dest, merge(bufs)); // rare: asks the discovery protocol for the physical address
     }
 
     protected void sendUnicasts(List<PhysicalAddress> dests, ByteBuffer data) throws Exception {
@@ -683,6 +766,36 @@ public abstract class TP extends TPConfig implements DiagnosticsHandler.ProbeHan
         }
     }
 
+    protected void sendUnicasts(List<PhysicalAddress> dests, ByteBuffer[] bufs) throws Exception {
+        int[] positions=new int[bufs.length];
+        for(int i=0; i < bufs.length; i++)
+            positions[i]=bufs[i].position();
+        boolean first=true;
+        for(PhysicalAddress dest: dests) {
+            try {
+                if(!first) {
+                    for(int i=0; i < bufs.length; i++)
+                        bufs[i].position(positions[i]);
+                }
+                else
+                    first=false;
+                sendUnicast(dest, bufs);
+            }
+            catch(SocketException | SocketTimeoutException sock_ex) {
+                log.trace(Util.getMessage("FailureSendingToPhysAddr"), local_addr, dest, sock_ex);
+            }
+            catch(Throwable t) {
+                log.error(Util.getMessage("FailureSendingToPhysAddr"), local_addr, dest, t);
+            }
+        }
+    }
+
+    /** Copies a number of buffers into a single (heap-based) buffer */
+    protected static ByteBuffer merge(ByteBuffer[] bufs) {
+        ByteArray ba=Util.bufferToByteArray(bufs);
+        return ba != null? ByteBuffer.wrap(ba.array(), ba.offset(), ba.length()) : ByteBuffer.allocate(0);
+    }
+
     protected void fetchPhysicalAddrs(List<Address> missing) {
         long current_time=0;
         boolean do_send=false;
@@ -87,6 +87,23 @@ public class TPConfig extends Protocol {
       "This is sanity checked; e.g. enabling this when TCP is the transport makes no sense, and will generate a warning")
     protected boolean                 use_direct_memory;
 
+    @Property(description="Number of buffers in the receive buffer pool. When > 0, receiver threads (e.g. in UDP and " +
+      "TCP) read messages into pooled buffers, and the payloads of received BytesMessages and heap-based NioMessages " +
+      "point into these buffers instead of being copied. A buffer is returned to the pool when all messages pointing " +
+      "into it have been released. JChannel releases a message after Receiver.receive() returns, so an application " +
+      "holding on to a message after that (e.g. by queueing it) needs to call retain() (and release() when done), " +
+      "or detach() to copy the payload. Protocols storing received messages (e.g. NAKACK2 with " +
+      "discard_delivered_msgs=false, or FEC) detach or retain them. 0 disables the pool")
+    protected int                     receive_buffer_pool_size;
+
+    @Property(description="Size of a buffer in the receive buffer pool. Messages larger than this are not read into " +
+      "pooled buffers",type=AttributeType.BYTES)
+    protected int                     pooled_buffer_size=66000;
+
+    @Property(description="Payloads smaller than this are copied instead of pointing into a pooled receive buffer, " +
+      "so that a small message which is held on to doesn't pin an entire buffer",type=AttributeType.BYTES)
+    protected int                     min_pooled_payload_size=1024;
+
     @Property(description="If true, create virtual threads, otherwise create native threads")
     protected boolean                 use_vthreads=true;
 
@@ -121,8 +138,8 @@ public class TPConfig extends Protocol {
       "disables this.",type=AttributeType.TIME)
     protected long                    suppress_time_different_cluster_warnings=60000;
 
-    @Property(description="The type of bundler used (\"ring-buffer\", \"transfer-queue\" (default), \"sender-sends\" or " +
-      "\"no-bundler\") or the fully qualified classname of a Bundler implementation")
+    @Property(description="The type of bundler used (\"ring-buffer\", \"transfer-queue\", \"per-destination\" (default), " +
+      "\"adaptive\" or \"no-bundler\") or the fully qualified classname of a Bundler implementation")
     protected String                  bundler_type="per-destination";
 
     @ManagedAttribute(description="If enabled, the timer will run non-blocking tasks on its own (runner) thread, and " +
@@ -165,6 +182,9 @@ public class TPConfig extends Protocol {
 
     protected Future<?>               logical_addr_cache_reaper;
 
+    /** Pool of buffers into which receiver threads read messages (null if receive_buffer_pool_size is 0) */
+    protected BufferPool              receive_buffer_pool;
+
     @Component(name="msg_stats")
     protected MsgStats                msg_stats=new MsgStats();
 
@@ -213,6 +233,15 @@ public class TPConfig extends Protocol {
     public <T extends TP> T setLogicalAddrCacheExpiration(long l) {this.logical_addr_cache_expiration=l; return (T)this;}
     public long             getLogicalAddrCacheReaperInterval() {return logical_addr_cache_reaper_interval;}
     public <T extends TP> T setLogicalAddrCacheReaperInterval(long l) {this.logical_addr_cache_reaper_interval=l; return (T)this;}
+    public int              receiveBufferPoolSize()           {return receive_buffer_pool_size;}
+    public <T extends TP> T receiveBufferPoolSize(int s)      {this.receive_buffer_pool_size=s; return (T)this;}
+    public int              pooledBufferSize()                {return pooled_buffer_size;}
+    public <T extends TP> T pooledBufferSize(int s)           {this.pooled_buffer_size=s; return (T)this;}
+    public int              minPooledPayloadSize()            {return min_pooled_payload_size;}
+    public <T extends TP> T minPooledPayloadSize(int s)       {this.min_pooled_payload_size=s; return (T)this;}
+    public BufferPool       receiveBufferPool()               {return receive_buffer_pool;}
+    @ManagedAttribute(description="The receive buffer pool (if enabled)")
+    public String           getReceiveBufferPool()            {return receive_buffer_pool != null? receive_buffer_pool.toString() : "n/a";}
     public boolean          useDirectMemory()                 {return use_direct_memory;}
     public <T extends TP> T useDirectMemory(boolean b)        {this.use_direct_memory=b; return (T)this;}
     @Property
@@ -361,6 +390,9 @@ public class TPConfig extends Protocol {
             case "transfer-queue":
             case "tq":
                 return new TransferQueueBundler();
+            case "ring-buffer":
+            case "rb":
+                return new RingBufferBundler();
             case "no-bundler":
             case "nb":
                 return new NoBundler();
@@ -368,6 +400,8 @@ public class TPConfig extends Protocol {
             case "pdb":
             case "per-destination":
                 return new PerDestinationBundler();
+            case "adaptive":
+                return new AdaptiveBundler();
         }
         Class<Bundler> clazz=(Class<Bundler>)Util.loadClass(type, cl);
         return clazz.getDeclaredConstructor().newInstance();
@@ -390,6 +424,8 @@ public class TPConfig extends Protocol {
             msg_processing_policy=new PassAllMessagesUpDirectly();
         else if(policy.startsWith("unbatch"))
             msg_processing_policy=new UnbatchOOBBatches();
+        else if(policy.startsWith("partitioned"))
+            msg_processing_policy=new PartitionedPolicy();
         try {
             if(msg_processing_policy == null) {
                 Class<MessageProcessingPolicy> clazz=(Class<MessageProcessingPolicy>)Util.loadClass(policy, getClass());
@@ -484,6 +520,8 @@ public class TPConfig extends Protocol {
             local_transport.resetStats();
         thread_pool.resetStats();
         async_executor.resetStats();
+        if(receive_buffer_pool != null)
+            receive_buffer_pool.resetStats();
     }
 
     @ManagedAttribute(description="Is the logical_addr_cache reaper task running")
@@ -9,7 +9,9 @@ import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
 import org.jgroups.stack.IpAddress;
+import org.jgroups.util.BufferPool;
 import org.jgroups.util.ByteArray;
+import org.jgroups.util.PooledBuffer;
 import org.jgroups.util.SuppressLog;
 import org.jgroups.util.Util;
 
@@ -313,8 +315,7 @@ public class UDP extends TP {
                 try {
                     // if we have local members, we send the multicast through the local transport, and do *not* need
                     // to receive a copy on the local host
-                    sock.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
-                    mcast_sock.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+                    disableMulticastLoopback();
                 }
                 catch(IOException e) {
                     log.error("failed enabling loopback-mode to", e);
@@ -325,6 +326,11 @@ public class UDP extends TP {
     }
 
     public void init() throws Exception {
+        if(receive_buffer_pool_size > 0 && pooled_buffer_size < Global.MAX_DATAGRAM_PACKET_SIZE) {
+            log.warn("pooled_buffer_size (%d) is smaller than the max datagram size; setting it to %d",
+                     pooled_buffer_size, Global.MAX_DATAGRAM_PACKET_SIZE);
+            pooled_buffer_size=Global.MAX_DATAGRAM_PACKET_SIZE;
+        }
         super.init();
         if(bundler.getMaxSize() > Global.MAX_DATAGRAM_PACKET_SIZE)
             throw new IllegalArgumentException("bundler.max_size (" + bundler.getMaxSize() + ") cannot exceed the max " +
@@ -332,7 +338,7 @@ public class UDP extends TP {
         if(is_mac && suppress_time_out_of_buffer_space > 0)
             suppress_log_out_of_buffer_space=new SuppressLog<>(log, "FailureSendingToPhysAddr");
 
-        if(use_direct_memory) {
+        if(use_direct_memory && !supportsDirectMemory()) {
             log.warn("use_direct_memory=true makes no sense in %s; ByteBuffers will be converted to " +
                        "byte[] arrays, as DatagramSocket reads/writes only accept byte[] arrays",
                      this.getClass().getSimpleName());
@@ -349,9 +355,7 @@ public class UDP extends TP {
             destroySockets();
             throw ex;
         }
-        ucast_receivers=createReceivers(unicast_receiver_threads, sock, UCAST_NAME);
-        if(ip_mcast)
-            mcast_receivers=createReceivers(multicast_receiver_threads, mcast_sock, MCAST_NAME);
+        createReceivers();
     }
 
 
@@ -481,11 +485,28 @@ public class UDP extends TP {
     }
 
 
+    /** Whether or not ByteBuffers can be sent and received without converting them to byte[] arrays first */
+    protected boolean supportsDirectMemory() {
+        return false;
+    }
+
+    protected void disableMulticastLoopback() throws IOException {
+        sock.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+        mcast_sock.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+    }
+
     protected void destroySockets() {
         closeMulticastSocket();
         closeUnicastSocket();
     }
 
+    /** Creates (but doesn't start) the unicast and multicast receivers */
+    protected void createReceivers() {
+        ucast_receivers=createReceivers(unicast_receiver_threads, sock, UCAST_NAME);
+        if(ip_mcast)
+            mcast_receivers=createReceivers(multicast_receiver_threads, mcast_sock, MCAST_NAME);
+    }
+
     protected PacketReceiver[] createReceivers(int num, DatagramSocket sock, String name) {
         PacketReceiver[] receivers=new PacketReceiver[num];
         for(int i=0; i < num; i++)
@@ -801,21 +822,27 @@ public class UDP extends TP {
 
 
         public void run() {
+            final BufferPool     pool=receive_buffer_pool;
             final byte[]         receive_buf=new byte[66000]; // to be on the safe side (IPv6 == 65575 bytes, IPv4 = 65535)
             final DatagramPacket packet=new DatagramPacket(receive_buf, receive_buf.length);
 
             while(Thread.currentThread().equals(thread)) {
+                PooledBuffer pooled=null;
                 try {
+                    if(pool != null) { // payloads of received messages will point into the pooled buffer
+                        pooled=pool.acquire();
+                        packet.setData(pooled.array());
+                    }
+                    byte[] buf=packet.getData();
                     // solves Android ISSUE #24748 - DatagramPacket truncated UDP in ICS
                     if(is_android)
-                        packet.setLength(receive_buf.length);
+                        packet.setLength(buf.length);
 
                     receiver_socket.receive(packet);
                     int len=packet.getLength();
-                    if(len > receive_buf.length && log.isErrorEnabled())
-                        log.error(Util.getMessage("SizeOfTheReceivedPacket"), len, receive_buf.length, receive_buf.length);
-                    receive(new IpAddress(packet.getAddress(), packet.getPort()),
-                            receive_buf, packet.getOffset(), len);
+                    if(len > buf.length && log.isErrorEnabled())
+                        log.error(Util.getMessage("SizeOfTheReceivedPacket"), len, buf.length, buf.length);
+                    receive(new IpAddress(packet.getAddress(), packet.getPort()), buf, packet.getOffset(), len, pooled);
                 }
                 catch(SocketException sock_ex) {
                     if(receiver_socket.isClosed()) {
@@ -827,6 +854,10 @@ public class UDP extends TP {
                 catch(Throwable ex) {
                     log.error(Util.getMessage("FailedReceivingPacket"), ex);
                 }
+                finally {
+                    if(pooled != null)
+                        pooled.release();
+                }
             }
             if(log.isDebugEnabled()) log.debug(name + " thread terminated");
         }
@@ -0,0 +1,443 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.AttributeType;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.ByteBufferInputStream;
+import org.jgroups.util.SuppressLog;
+import org.jgroups.util.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP transport based on NIO {@link DatagramChannel}s. Contrary to {@link UDP}, which uses {@link MulticastSocket}s
+ * and therefore needs to convert everything to byte[] arrays, UDP_NIO sends {@link ByteBuffer}s as-is and receives
+ * datagrams into direct {@link ByteBuffer}s: every receiver thread owns a direct buffer which is reused for all
+ * datagrams received by it. Messages are unmarshalled directly from that buffer; {@link org.jgroups.NioMessage}
+ * payloads are copied directly from it without going through an intermediate byte[] array.
+ * <p>
+ * The configuration is the same as for {@link UDP}.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class UDP_NIO extends UDP {
+
+    @Property(description="Size (in bytes) of the direct buffer into which each receiver thread reads datagrams. " +
+      "Needs to be at least the max datagram size (65535 bytes for IPv4, 65575 for IPv6)",type=AttributeType.BYTES)
+    protected int                 receive_buf_size=66000;
+
+    /** Channel for sending unicasts and multicasts, and for receiving unicasts (equivalent to {@link UDP#sock}) */
+    protected DatagramChannel     ucast_ch;
+
+    /** Channel for receiving multicasts (equivalent to {@link UDP#mcast_sock}) */
+    protected DatagramChannel     mcast_ch;
+
+    protected final List<MembershipKey> mcast_memberships=new ArrayList<>();
+
+    protected ChannelReceiver[]   ucast_ch_receivers, mcast_ch_receivers;
+
+    @ManagedAttribute(description="Number of datagrams received",type=AttributeType.SCALAR)
+    protected final LongAdder     num_datagrams_received=new LongAdder();
+
+
+    public int     getReceiveBufSize()      {return receive_buf_size;}
+    public UDP_NIO setReceiveBufSize(int s) {this.receive_buf_size=s; return this;}
+
+    @Override
+    public <T extends UDP> T setMulticastTTL(int ttl) {
+        this.ip_ttl=ttl;
+        setOption(ucast_ch, StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        return (T)this;
+    }
+
+    @Override
+    public <T extends UDP> T setUcastReceiverThreads(int num) {
+        if(unicast_receiver_threads != num) {
+            unicast_receiver_threads=num;
+            if(ucast_ch_receivers != null) {
+                Util.close(ucast_ch_receivers);
+                ucast_ch_receivers=createReceivers(unicast_receiver_threads, ucast_ch, UCAST_NAME);
+                start(ucast_ch_receivers);
+            }
+        }
+        return (T)this;
+    }
+
+    @Override
+    public <T extends UDP> T setMcastReceiverThreads(int num) {
+        if(multicast_receiver_threads != num) {
+            multicast_receiver_threads=num;
+            if(mcast_ch_receivers != null) {
+                Util.close(mcast_ch_receivers);
+                mcast_ch_receivers=createReceivers(multicast_receiver_threads, mcast_ch, MCAST_NAME);
+                start(mcast_ch_receivers);
+            }
+        }
+        return (T)this;
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        num_datagrams_received.reset();
+    }
+
+    @Override
+    public void sendToAll(ByteBuffer buf) throws Exception {
+        if(ip_mcast && mcast_addr != null) {
+            if(local_transport != null) {
+                try {
+                    local_transport.sendToAll(buf);
+                }
+                catch(Exception ex) {
+                    log.warn("failed sending group message via local transport, sending it via regular transport", ex);
+                }
+            }
+            _send(mcast_addr, buf);
+        }
+        else
+            super.sendToAll(buf);
+    }
+
+    @Override
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        _send(dest, buf);
+    }
+
+    protected void _send(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        DatagramChannel ch=ucast_ch;
+        if(ch == null)
+            return;
+        // send() advances the buffer's position; the buffer may be sent again (e.g. when sending it to all members)
+        int pos=buf.position();
+        try {
+            ch.send(buf, dest.getSocketAddress());
+        }
+        catch(ClosedChannelException ignored) {
+        }
+        catch(IOException ex) {
+            if(suppress_log_out_of_buffer_space != null)
+                suppress_log_out_of_buffer_space.log(SuppressLog.Level.warn, dest.getIpAddress(),
+                                                     suppress_time_out_of_buffer_space,
+                                                     local_addr, dest, ex);
+            else
+                throw ex;
+        }
+        finally {
+            buf.position(pos);
+        }
+    }
+
+    @Override
+    protected boolean supportsDirectMemory() {
+        return true;
+    }
+
+    @Override
+    protected void disableMulticastLoopback() throws IOException {
+        if(ucast_ch != null)
+            ucast_ch.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+        if(mcast_ch != null)
+            mcast_ch.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+    }
+
+    @Override
+    protected void createSockets() throws Exception {
+        if(bind_addr == null)
+            throw new IllegalArgumentException("bind_addr cannot be null");
+        Util.checkIfValidAddress(bind_addr, getName());
+        if(log.isDebugEnabled()) log.debug("channels will use interface " + bind_addr.getHostAddress());
+
+        ProtocolFamily family=bind_addr instanceof Inet6Address? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+        NetworkInterface nic=NetworkInterface.getByInetAddress(bind_addr);
+
+        ucast_ch=createUnicastChannel(family, nic);
+        if(ip_mcast) {
+            mcast_ch=getSocketFactory().createDatagramChannel("jgroups.udp.mcast_sock", family);
+            mcast_ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            // binding to mcast_addr:mcast_port drops multicasts to different multicast addresses (see UDP)
+            InetSocketAddress sa=Util.can_bind_to_mcast_addr? new InetSocketAddress(mcast_group_addr, mcast_port)
+              : new InetSocketAddress(mcast_port);
+            mcast_ch.bind(sa);
+            if(nic != null)
+                setOption(mcast_ch, StandardSocketOptions.IP_MULTICAST_IF, nic);
+            if(disable_loopback)
+                disableMulticastLoopback();
+            if(tos > 0)
+                setOption(mcast_ch, StandardSocketOptions.IP_TOS, tos);
+
+            mcast_addr=new IpAddress(mcast_group_addr, mcast_port);
+
+            // check that we're not using the same mcast address and port as the diagnostics socket
+            if(diag_handler.isEnabled() && diag_handler.getMcastAddress().equals(mcast_group_addr)
+              && diag_handler.getPort() == mcast_port)
+                throw new IllegalArgumentException("diagnostics_addr:diagnostics_port and mcast_addr:mcast_port " +
+                                                     "have to be different");
+
+            for(NetworkInterface intf: mcastInterfaces(nic)) {
+                try {
+                    mcast_memberships.add(mcast_ch.join(mcast_group_addr, intf));
+                    log.debug("joined %s on %s", mcast_addr, intf.getName());
+                }
+                catch(IOException e) {
+                    log.warn(Util.getMessage("InterfaceJoinFailed"), mcast_addr, intf.getName());
+                }
+            }
+        }
+        setBufferSizes();
+        log.debug("channel information:\n%s", dumpSocketInfo());
+    }
+
+    /**
+     * Returns the interfaces on which to join the multicast group. DatagramChannel.join() needs an interface, so all
+     * interfaces are used if the interface of bind_addr is null (e.g. if bind_addr is not assigned to an interface)
+     */
+    protected List<NetworkInterface> mcastInterfaces(NetworkInterface nic) throws SocketException {
+        if(receive_interfaces != null && !receive_interfaces.isEmpty())
+            return receive_interfaces;
+        return receive_on_all_interfaces || nic == null? Util.getAllAvailableInterfaces() : List.of(nic);
+    }
+
+    /** Creates the unicast channel, trying ports [bind_port .. bind_port+port_range] if bind_port > 0 */
+    protected DatagramChannel createUnicastChannel(ProtocolFamily family, NetworkInterface nic) throws Exception {
+        int port=bind_port, max_port=bind_port > 0? bind_port + port_range : 0;
+        Exception saved_exception=null;
+        while(port <= max_port) {
+            DatagramChannel ch=getSocketFactory().createDatagramChannel("jgroups.udp.sock", family);
+            try {
+                ch.setOption(StandardSocketOptions.SO_REUSEADDR, false); // conflict when binding to the same port
+                ch.bind(new InetSocketAddress(bind_addr, port));
+                if(nic != null)
+                    setOption(ch, StandardSocketOptions.IP_MULTICAST_IF, nic);
+                setOption(ch, StandardSocketOptions.IP_MULTICAST_TTL, ip_ttl);
+                if(disable_loopback)
+                    ch.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+                if(tos > 0)
+                    setOption(ch, StandardSocketOptions.IP_TOS, tos);
+                return ch;
+            }
+            catch(IOException | SecurityException ex) {
+                getSocketFactory().close(ch);
+                saved_exception=ex;
+                port++;
+            }
+        }
+        throw new Exception(String.format("failed to open a port in range %d-%d (last exception: %s, bind_addr: %s)",
+                                          bind_port, max_port, saved_exception, bind_addr));
+    }
+
+    @Override
+    protected void destroySockets() {
+        for(MembershipKey key: mcast_memberships)
+            key.drop();
+        mcast_memberships.clear();
+        if(mcast_ch != null) {
+            getSocketFactory().close(mcast_ch); // causes the mcast receiver threads to break out of their loops
+            mcast_ch=null;
+            mcast_addr=null;
+            log.debug("%s: multicast channel closed", local_addr);
+        }
+        if(ucast_ch != null) {
+            getSocketFactory().close(ucast_ch);
+            ucast_ch=null;
+        }
+    }
+
+    @Override
+    protected void createReceivers() {
+        ucast_ch_receivers=createReceivers(unicast_receiver_threads, ucast_ch, UCAST_NAME);
+        if(ip_mcast)
+            mcast_ch_receivers=createReceivers(multicast_receiver_threads, mcast_ch, MCAST_NAME);
+    }
+
+    protected ChannelReceiver[] createReceivers(int num, DatagramChannel ch, String name) {
+        ChannelReceiver[] receivers=new ChannelReceiver[num];
+        for(int i=0; i < num; i++)
+            receivers[i]=new ChannelReceiver(ch, name);
+        return receivers;
+    }
+
+    @Override
+    protected void startThreads() throws Exception {
+        start(ucast_ch_receivers);
+        start(mcast_ch_receivers);
+    }
+
+    @Override
+    protected void stopThreads() {
+        Util.close(mcast_ch_receivers);
+        Util.close(ucast_ch_receivers);
+    }
+
+    protected static void start(ChannelReceiver[] receivers) {
+        if(receivers != null)
+            for(ChannelReceiver r: receivers)
+                r.start();
+    }
+
+    @Override
+    protected IpAddress createLocalAddress() {
+        if(ucast_ch == null || !ucast_ch.isOpen())
+            return null;
+        try {
+            InetSocketAddress sa=(InetSocketAddress)ucast_ch.getLocalAddress();
+            if(external_addr != null)
+                return new IpAddress(external_addr, external_port > 0? external_port : sa.getPort());
+            return new IpAddress(sa.getAddress(), sa.getPort());
+        }
+        catch(IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    void setBufferSizes() throws SocketException {
+        int max_size=Global.MAX_DATAGRAM_PACKET_SIZE + MSG_OVERHEAD;
+        if(ucast_ch != null) {
+            setBufferSize(ucast_ch, ucast_send_buf_size, ucast_recv_buf_size, max_size);
+            if(ucast_send_buf_size <= 0)
+                ucast_send_buf_size=getOption(ucast_ch, StandardSocketOptions.SO_SNDBUF);
+            if(ucast_recv_buf_size <= 0)
+                ucast_recv_buf_size=getOption(ucast_ch, StandardSocketOptions.SO_RCVBUF);
+        }
+        if(mcast_ch != null) {
+            setBufferSize(mcast_ch, mcast_send_buf_size, mcast_recv_buf_size, max_size);
+            if(mcast_send_buf_size <= 0)
+                mcast_send_buf_size=getOption(mcast_ch, StandardSocketOptions.SO_SNDBUF);
+            if(mcast_recv_buf_size <= 0)
+                mcast_recv_buf_size=getOption(mcast_ch, StandardSocketOptions.SO_RCVBUF);
+        }
+    }
+
+    protected void setBufferSize(DatagramChannel ch, int send_buf_size, int recv_buf_size, int min_size) {
+        for(SocketOption<Integer> opt: List.of(StandardSocketOptions.SO_SNDBUF, StandardSocketOptions.SO_RCVBUF)) {
+            boolean send=opt == StandardSocketOptions.SO_SNDBUF;
+            int size=send? send_buf_size : recv_buf_size;
+            if(size > 0) {
+                setOption(ch, opt, size);
+                int actual_size=getOption(ch, opt);
+                if(actual_size < size && log.isWarnEnabled())
+                    log.warn(Util.getMessage("IncorrectBufferSize"), send? "send" : "receive",
+                             ch.getClass().getSimpleName(), Util.printBytes(size), Util.printBytes(actual_size));
+            }
+            if(getOption(ch, opt) < min_size) {
+                log.warn("%s: setting %s buffer size (%s) to %s (size of the max datagram packet)", local_addr,
+                         send? "send" : "receive", Util.printBytes(getOption(ch, opt)), Util.printBytes(min_size));
+                setOption(ch, opt, min_size);
+            }
+        }
+    }
+
+    @Override
+    protected String dumpSocketInfo() throws Exception {
+        StringBuilder sb=new StringBuilder(128);
+        Formatter formatter=new Formatter(sb);
+        formatter.format("mcast_addr=%s, bind_addr=%s, ttl=%d", mcast_addr, bind_addr, ip_ttl);
+        if(ucast_ch != null)
+            formatter.format("\nucast_ch: bound to %s, receive buffer size=%d, send buffer size=%d",
+                             ucast_ch.getLocalAddress(), getOption(ucast_ch, StandardSocketOptions.SO_RCVBUF),
+                             getOption(ucast_ch, StandardSocketOptions.SO_SNDBUF));
+        if(mcast_ch != null)
+            formatter.format("\nmcast_ch: bound to %s, send buffer size=%d, receive buffer size=%d",
+                             mcast_ch.getLocalAddress(), getOption(mcast_ch, StandardSocketOptions.SO_SNDBUF),
+                             getOption(mcast_ch, StandardSocketOptions.SO_RCVBUF));
+        return sb.toString();
+    }
+
+    protected <V> void setOption(DatagramChannel ch, SocketOption<V> opt, V value) {
+        if(ch == null)
+            return;
+        try {
+            ch.setOption(opt, value);
+        }
+        catch(Throwable ex) {
+            log.error("failed setting %s to %s: %s", opt.name(), value, ex);
+        }
+    }
+
+    protected static int getOption(DatagramChannel ch, SocketOption<Integer> opt) {
+        try {
+            return ch.getOption(opt);
+        }
+        catch(IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Receives datagrams from a {@link DatagramChannel} into a (reused) direct {@link ByteBuffer}. The thread is not
+     * interrupted on {@link #stop()}, as this would close the channel; instead it terminates when the channel is
+     * closed, or when it receives the next datagram after having been stopped.
+     */
+    protected class ChannelReceiver implements Runnable, Closeable {
+        protected volatile Thread         thread;
+        protected final DatagramChannel   ch;
+        protected final String            name;
+        protected final ByteBuffer        buf;
+
+        public ChannelReceiver(DatagramChannel ch, String name) {
+            this.ch=ch;
+            this.name=name;
+            this.buf=ByteBuffer.allocateDirect(receive_buf_size);
+        }
+
+        public synchronized void start() {
+            if(thread == null || !thread.isAlive()) {
+                thread=getThreadFactory().newThread(this, name);
+                thread.start();
+            }
+        }
+
+        public synchronized void stop() {
+            thread=null;
+        }
+
+        public void close() throws IOException {stop();}
+
+        public void run() {
+            while(Thread.currentThread().equals(thread)) {
+                try {
+                    buf.clear();
+                    SocketAddress sender=ch.receive(buf);
+                    if(sender == null)
+                        continue;
+                    buf.flip();
+                    num_datagrams_received.increment();
+                    InetSocketAddress sa=(InetSocketAddress)sender;
+                    receive(new IpAddress(sa.getAddress(), sa.getPort()), new ByteBufferInputStream(buf), buf.remaining());
+                }
+                catch(ClosedChannelException closed) {
+                    log.debug("%s: receiver channel is closed (%s)", local_addr, closed.getClass().getSimpleName());
+                    break;
+                }
+                catch(Throwable ex) {
+                    log.error(Util.getMessage("FailedReceivingPacket"), ex);
+                }
+            }
+            if(log.isDebugEnabled()) log.debug(name + " thread terminated");
+        }
+
+        public String toString() {
+            try {
+                return String.valueOf(ch.getLocalAddress());
+            }
+            catch(IOException e) {
+                return "n/a";
+            }
+        }
+    }
+}
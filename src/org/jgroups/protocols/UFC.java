@@ -8,11 +8,13 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.conf.AttributeType;
 import org.jgroups.util.Credit;
+import org.jgroups.util.CreditQueue;
 import org.jgroups.util.Util;
 
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -39,6 +41,9 @@ public class UFC extends FlowControl {
      */
     protected final Map<Address,? extends Credit> sent=Util.createConcurrentMap();
 
+    /** Messages queued per member when non_blocking is true */
+    protected final Map<Address,CreditQueue>      queues=Util.createConcurrentMap();
+
     public Map<Address,? extends Credit> sent() {return sent;}
 
     @ManagedOperation(description="Print sender credits")
@@ -62,6 +67,7 @@ public class UFC extends FlowControl {
     public void unblock() {
         super.unblock();
         sent.values().forEach(cred -> cred.increment(max_credits, max_credits));
+        queues.values().forEach(CreditQueue::drainAsync);
     }
 
     public long getSenderCreditsFor(Address mbr) {
@@ -83,16 +89,34 @@ public class UFC extends FlowControl {
         return sent.values().stream().mapToDouble(c -> c.getAverageBlockTime() / 1_000_000).average().orElse(0.0);
     }
 
+    @ManagedAttribute(description="Number of messages currently queued (non_blocking mode)",type=AttributeType.SCALAR)
+    public int getQueueSize() {
+        return queues.values().stream().mapToInt(CreditQueue::size).sum();
+    }
+
+    @ManagedAttribute(description="Number of times a message was queued due to insufficient credits (non_blocking mode)",
+      type=AttributeType.SCALAR)
+    public long getNumberOfQueuings() {
+        return queues.values().stream().mapToLong(CreditQueue::numQueued).sum();
+    }
+
+    @ManagedAttribute(description="Number of DONT_BLOCK messages dropped because the queue was full (non_blocking mode)",
+      type=AttributeType.SCALAR)
+    public long getNumberOfQueuedMessagesDropped() {
+        return queues.values().stream().mapToLong(CreditQueue::numDropped).sum();
+    }
 
     public void stop() {
         super.stop();
         unblock();
         sent.values().forEach(Credit::reset);
+        queues.values().forEach(CreditQueue::flush);
     }
 
     public void resetStats() {
         super.resetStats();
         sent.values().forEach(Credit::resetStats);
+        queues.values().forEach(CreditQueue::resetStats);
     }
 
     @Override
@@ -107,6 +131,14 @@ public class UFC extends FlowControl {
         if(cred == null)
             return down_prot.down(msg);
 
+        CreditQueue queue=non_blocking? queues.get(dest) : null;
+        if(queue != null) {
+            Object retval=queue.send(msg, length, msg.isFlagSet(Message.TransientFlag.DONT_BLOCK));
+            if(retval instanceof CompletableFuture && cred.needToSendCreditRequest(max_block_time))
+                sendCreditRequest(dest, Math.max(0, max_credits - cred.get()));
+            return retval;
+        }
+
         while(running && sent.containsKey(dest)) {
             boolean rc=cred.decrementIfEnoughCredits(msg, length, max_block_time);
             if(rc || !running)
@@ -126,7 +158,10 @@ public class UFC extends FlowControl {
         if(mbrs == null) return;
 
         // add members not in membership to received and sent hashmap (with full credits)
-        mbrs.stream().filter(addr -> !sent.containsKey(addr)).forEach(addr -> sent.put(addr, createCredit((int)max_credits)));
+        mbrs.stream().filter(addr -> !sent.containsKey(addr)).forEach(addr -> {
+            sent.put(addr, createCredit((int)max_credits));
+            queues.put(addr, createQueue(sent.get(addr)));
+        });
 
         // remove members that left
         Iterator<? extends Map.Entry<Address,? extends Credit>> it=sent.entrySet().iterator();
@@ -137,6 +172,9 @@ public class UFC extends FlowControl {
                 Credit cred=entry.getValue();
                 cred.reset();
                 it.remove();
+                CreditQueue queue=queues.remove(addr);
+                if(queue != null) // sends the queued messages, same as unblocking blocked senders
+                    queue.flush();
             }
         }
         // sent.keySet().retainAll(mbrs);
@@ -153,11 +191,19 @@ public class UFC extends FlowControl {
             log.trace("received %d credits from %s, old credits: %s, new credits: %d", increase, sender, cred, new_credit);
         }
         cred.increment(increase, max_credits);
+        CreditQueue queue=queues.get(sender);
+        if(queue != null) // don't send the queued messages on the thread which received the credits
+            queue.drainAsync();
     }
 
     protected <T extends Credit> T createCredit(int initial_credits) {
         return (T)new Credit(initial_credits);
     }
+
+    protected CreditQueue createQueue(Credit cred) {
+        return new CreditQueue(len -> cred.decrementIfEnoughCredits(null, (int)len, 0), m -> down_prot.down(m),
+                               () -> max_queue_size, () -> max_block_time).executor(this::execute);
+    }
     
 
 }
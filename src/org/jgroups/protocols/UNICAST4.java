@@ -7,10 +7,12 @@ import org.jgroups.annotations.Preview;
 import org.jgroups.annotations.Property;
 import org.jgroups.util.AverageMinMax;
 import org.jgroups.util.Buffer;
+import org.jgroups.util.ConcurrentFixedBuffer;
 import org.jgroups.util.FixedBuffer;
 
 import java.util.function.IntBinaryOperator;
 
+import static org.jgroups.conf.AttributeType.BYTES;
 import static org.jgroups.conf.AttributeType.SCALAR;
 
 /**
@@ -24,10 +26,20 @@ public class UNICAST4 extends ReliableUnicast {
     @Property(description="Size of the send/receive buffers, in messages",writable=false)
     protected int capacity=2048;
 
+    @Property(description="Max number of bytes (payload sizes) of the messages in a send or receive buffer. When " +
+      "exceeded, senders block and receivers drop messages (which will get retransmitted). The number of messages " +
+      "is still limited by capacity. 0 disables this",type=BYTES,writable=false)
+    protected long max_bytes;
+
     @Property(description="Number of ACKs to skip before one is sent. For example, a value of 500 means that only " +
       "every 500th ACk is sent; all others are dropped. If not set, defaulted to capacity/4",type=SCALAR)
     protected int ack_threshold;
 
+    @Property(description="If true, ConcurrentFixedBuffers are used: adding messages doesn't acquire the buffer's " +
+      "lock (only when blocking on a full buffer), so threads adding messages don't contend with the thread " +
+      "delivering them",writable=false)
+    protected boolean concurrent_buffers;
+
     protected final IntBinaryOperator add_acks=(current_acks_sent, acks_to_be_sent) -> {
         if(current_acks_sent+acks_to_be_sent >= ack_threshold)
             return 0;
@@ -45,6 +57,17 @@ public class UNICAST4 extends ReliableUnicast {
         return total;
     }
 
+    @ManagedAttribute(description="Number of bytes of the messages in all send and receive buffers (only computed " +
+      "if max_bytes > 0)",type=BYTES)
+    public long getNumBytes() {
+        long total=0;
+        for(Entry e: send_table.values())
+            total+=((FixedBuffer<Message>)e.buf()).bytes();
+        for(Entry e: recv_table.values())
+            total+=((FixedBuffer<Message>)e.buf()).bytes();
+        return total;
+    }
+
     @ManagedAttribute(description="Average time blocked",gauge=true)
     public AverageMinMax getAvgTimeBlocked() {
         AverageMinMax first=null;
@@ -76,11 +99,18 @@ public class UNICAST4 extends ReliableUnicast {
     }
 
     @Override
-    protected Buffer<Message> createBuffer(long s) {return new FixedBuffer<>(capacity, s);}
-    public int                capacity()           {return capacity;}
-    public UNICAST4           capacity(int c)      {capacity=c; return this;}
-    public int                ackThreshold()       {return ack_threshold;}
-    public UNICAST4           ackThreshold(int t)  {ack_threshold=t; return this;}
+    protected Buffer<Message> createBuffer(long s) {
+        FixedBuffer<Message> buf=concurrent_buffers? new ConcurrentFixedBuffer<>(capacity, s) : new FixedBuffer<>(capacity, s);
+        return max_bytes > 0? buf.maxBytes(max_bytes, Message::getLength) : buf;
+    }
+    public int                capacity()                   {return capacity;}
+    public UNICAST4           capacity(int c)              {capacity=c; return this;}
+    public int                ackThreshold()               {return ack_threshold;}
+    public UNICAST4           ackThreshold(int t)          {ack_threshold=t; return this;}
+    public long               maxBytes()                   {return max_bytes;}
+    public UNICAST4           maxBytes(long b)             {max_bytes=b; return this;}
+    public boolean            concurrentBuffers()          {return concurrent_buffers;}
+    public UNICAST4           concurrentBuffers(boolean b) {concurrent_buffers=b; return this;}
 
     @Override
     public void init() throws Exception {
@@ -2,6 +2,7 @@ package org.jgroups.protocols;
 
 import org.jgroups.Global;
 import org.jgroups.Header;
+import org.jgroups.SeqnoHeader;
 import org.jgroups.util.Bits;
 
 import java.io.DataInput;
@@ -14,7 +15,7 @@ import java.util.function.Supplier;
  * @author Bela Ban
  * @since  5.4
  */
-public class UnicastHeader extends Header {
+public class UnicastHeader extends Header implements SeqnoHeader {
     public static final byte DATA             = 0;
     public static final byte ACK              = 1;
     public static final byte SEND_FIRST_SEQNO = 2;
@@ -126,6 +127,14 @@ public class UnicastHeader extends Header {
         return new UnicastHeader(type, seqno, conn_id, first);
     }
 
+    public UnicastHeader copy(long seqno) {
+        return new UnicastHeader(type, seqno, conn_id, first);
+    }
+
+    public boolean deltaCompatible(Header hdr) {
+        return type == DATA && hdr instanceof UnicastHeader h && h.type == type && h.conn_id == conn_id && h.first == first;
+    }
+
     /**
      * The following types and fields are serialized:
      * <pre>
@@ -0,0 +1,220 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.util.ExpiryCache;
+import org.jgroups.util.SeqnoList;
+import org.jgroups.util.TimeScheduler;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Schedules the retransmissions requested by XMIT_REQs, used by {@link ReliableMulticast} and
+ * {@link org.jgroups.protocols.pbcast.NAKACK2}:
+ * <ul>
+ *     <li>Requests for the same message to the same destination (null when retransmissions are multicast) are
+ *         coalesced while they are pending, e.g. when many receivers lost the same messages</li>
+ *     <li>A message that was retransmitted to the same destination less than suppression_time ms ago is not
+ *         retransmitted again</li>
+ *     <li>Retransmissions are paced: no more than max_rate bytes/sec are sent (0 disables pacing)</li>
+ *     <li>Seqnos requested by other members via multicast XMIT_REQs are recorded, so that a member can skip
+ *         requesting messages that are already being retransmitted (to everyone)</li>
+ * </ul>
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class XmitScheduler {
+    protected final TimeScheduler                    timer;
+    protected final BiFunction<Address,Long,Message> lookup;   // (original sender,seqno) -> message (or null)
+    protected final BiConsumer<Address,Message>      sender;   // (destination,message): sends a retransmission
+    protected long                                   max_rate; // max bytes/sec, 0 disables pacing
+    protected final ExpiryCache<Xmit>                sent;     // recently retransmitted messages
+    protected final ExpiryCache<Xmit>                requested; // messages recently requested by other members
+
+    // pending retransmissions: key is (destination,original sender), value the seqnos to be retransmitted
+    protected final Map<Key,NavigableSet<Long>>      pending=new LinkedHashMap<>();
+    protected final AtomicBoolean                    scheduled=new AtomicBoolean();
+    protected long                                   tokens;      // bytes that can be sent before pacing kicks in
+    protected long                                   last_refill; // time (ns) of the last refill of tokens
+
+    protected final LongAdder                        num_coalesced=new LongAdder();
+    protected final LongAdder                        num_suppressed=new LongAdder();
+    protected final LongAdder                        num_paced=new LongAdder();
+
+    /**
+     * Creates a new scheduler
+     * @param timer The timer used to run the retransmissions
+     * @param lookup Returns the message for a given original sender and seqno, or null if not found
+     * @param sender Sends a message (retransmission) to a destination (null: multicast)
+     */
+    public XmitScheduler(TimeScheduler timer, BiFunction<Address,Long,Message> lookup, BiConsumer<Address,Message> sender) {
+        this.timer=Objects.requireNonNull(timer);
+        this.lookup=Objects.requireNonNull(lookup);
+        this.sender=Objects.requireNonNull(sender);
+        this.sent=new ExpiryCache<>(100);
+        this.requested=new ExpiryCache<>(100);
+        this.last_refill=System.nanoTime();
+    }
+
+    public long          maxRate()                {return max_rate;}
+    public long          suppressionTime()        {return sent.getTimeout();}
+    public XmitScheduler suppressionTime(long t)  {sent.setTimeout(t); requested.setTimeout(t); return this;}
+    public long          numCoalesced()           {return num_coalesced.sum();}
+    public long          numSuppressed()          {return num_suppressed.sum();}
+    public long          numPaced()               {return num_paced.sum();}
+
+    public synchronized XmitScheduler maxRate(long r) {
+        max_rate=r;
+        tokens=burst();
+        return this;
+    }
+
+    public synchronized int numPending() {
+        return pending.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public void resetStats() {
+        num_coalesced.reset();
+        num_suppressed.reset();
+        num_paced.reset();
+    }
+
+    public synchronized void clear() {
+        pending.clear();
+        sent.clear();
+        requested.clear();
+    }
+
+    /**
+     * Adds the seqnos of messages from original_sender to be retransmitted to dest
+     * @param dest The destination of the retransmissions; null if retransmissions are multicast
+     * @param original_sender The original sender of the messages
+     * @param seqnos The seqnos of the requested messages
+     */
+    public void add(Address dest, Address original_sender, SeqnoList seqnos) {
+        if(seqnos == null || seqnos.isEmpty())
+            return;
+        int added=0;
+        synchronized(this) {
+            NavigableSet<Long> set=pending.computeIfAbsent(new Key(dest, original_sender), __ -> new TreeSet<>());
+            for(long seqno: seqnos) {
+                if(set.add(seqno))
+                    added++;
+                else
+                    num_coalesced.increment();
+            }
+        }
+        if(added > 0)
+            schedule(0);
+    }
+
+    /** Records the seqnos from original_sender requested by another member via a multicast XMIT_REQ */
+    public void requested(Address original_sender, SeqnoList seqnos) {
+        for(long seqno: seqnos)
+            requested.addIfAbsentOrExpired(new Xmit(null, original_sender, seqno));
+    }
+
+    /**
+     * Removes the seqnos from missing which were requested by other members in the last suppression_time ms
+     * @return The number of removed seqnos
+     */
+    public int removeRequested(Address original_sender, SeqnoList missing) {
+        if(requested.size() == 0)
+            return 0;
+        int removed=0;
+        for(Iterator<Long> it=missing.iterator(); it.hasNext();) {
+            Xmit x=new Xmit(null, original_sender, it.next());
+            if(requested.contains(x) && !requested.hasExpired(x)) {
+                it.remove();
+                removed++;
+            }
+        }
+        if(removed > 0)
+            num_suppressed.add(removed);
+        return removed;
+    }
+
+    /** Removes expired entries; should be called periodically, e.g. by the retransmit task */
+    public void removeExpired() {
+        sent.removeExpiredElements();
+        requested.removeExpiredElements();
+    }
+
+    /** Sends the pending retransmissions until none are left, or until pacing requires a delay */
+    protected void drain() {
+        scheduled.set(false);
+        for(;;) {
+            Key key;
+            long seqno;
+            synchronized(this) {
+                Iterator<Map.Entry<Key,NavigableSet<Long>>> it=pending.entrySet().iterator();
+                if(!it.hasNext())
+                    return;
+                Map.Entry<Key,NavigableSet<Long>> e=it.next();
+                NavigableSet<Long> set=e.getValue();
+                Long s=set.pollFirst();
+                if(set.isEmpty()) // move on to the next key
+                    it.remove();
+                if(s == null)
+                    continue;
+                key=e.getKey();
+                seqno=s;
+                long delay=delay();
+                if(delay > 0) { // put the seqno back and try again after delay ns
+                    pending.computeIfAbsent(key, __ -> new TreeSet<>()).add(seqno);
+                    num_paced.increment();
+                    schedule(delay);
+                    return;
+                }
+            }
+            if(!sent.addIfAbsentOrExpired(new Xmit(key.dest, key.sender, seqno))) {
+                num_suppressed.increment();
+                continue;
+            }
+            Message msg=lookup.apply(key.sender, seqno);
+            if(msg == null)
+                continue;
+            consume(msg.size());
+            sender.accept(key.dest, msg);
+        }
+    }
+
+    protected void schedule(long delay_ns) {
+        if(scheduled.compareAndSet(false, true))
+            timer.schedule(this::drain, delay_ns, TimeUnit.NANOSECONDS, true);
+    }
+
+    /** Refills the tokens and returns the time (in ns) until the next retransmission can be sent (0: now) */
+    protected synchronized long delay() {
+        if(max_rate <= 0)
+            return 0;
+        long now=System.nanoTime(), elapsed=Math.min(now - last_refill, TimeUnit.SECONDS.toNanos(1));
+        tokens=Math.min(burst(), tokens + elapsed * max_rate / TimeUnit.SECONDS.toNanos(1));
+        last_refill=now;
+        return tokens > 0? 0 : Math.max(1, -tokens * TimeUnit.SECONDS.toNanos(1) / max_rate);
+    }
+
+    protected synchronized void consume(int size) {
+        if(max_rate > 0)
+            tokens-=size;
+    }
+
+    /** The max number of bytes that can be sent at once (10 ms worth of max_rate) */
+    protected long burst() {
+        return Math.max(1, max_rate / 100);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pending=%d, coalesced=%d, suppressed=%d, paced=%d",
+                             numPending(), numCoalesced(), numSuppressed(), numPaced());
+    }
+
+    protected record Key(Address dest, Address sender) {}
+    protected record Xmit(Address dest, Address sender, long seqno) {}
+}
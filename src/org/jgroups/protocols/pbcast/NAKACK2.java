@@ -7,6 +7,7 @@ import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
 import org.jgroups.protocols.TP;
+import org.jgroups.protocols.XmitScheduler;
 import org.jgroups.stack.DiagnosticsHandler;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.*;
@@ -126,6 +127,25 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @Property(description="Max number of times the last seqno is resent before acquiescing if last seqno isn't incremented")
     protected int     resend_last_seqno_max_times=1;
 
+    @Property(description="Refer to the original sender in retransmit requests by its index in the current view " +
+      "rather than by its address, if that is smaller (e.g. for UUIDs). Requires all members to run a version " +
+      "which understands this encoding")
+    protected boolean use_member_index;
+
+    @Property(description="Retransmissions are scheduled rather than sent immediately: requests for the same " +
+      "messages are coalesced, messages retransmitted less than xmit_suppression_time ms ago are not retransmitted " +
+      "again and retransmissions are paced to max_xmit_rate. With use_mcast_xmit_req and use_mcast_xmit, members " +
+      "don't ask for messages requested by others in the last xmit_suppression_time ms")
+    protected boolean coalesce_xmits;
+
+    @Property(description="Max number of bytes/sec of retransmissions (coalesce_xmits has to be true). " +
+      "0 disables pacing",type=AttributeType.BYTES)
+    protected long    max_xmit_rate;
+
+    @Property(description="Time (ms) during which duplicate retransmissions (or retransmit requests) are suppressed " +
+      "(coalesce_xmits has to be true)",type=AttributeType.TIME)
+    protected long    xmit_suppression_time=200;
+
     @ManagedAttribute(description="True if sending a message can block at the transport level. Probabably only needed " +
       "if NoBundler is used as bundler type, as the default bundler(s) never block.")
     protected boolean sends_can_block;
@@ -240,6 +260,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     protected volatile boolean          running;
     protected TimeScheduler             timer;
     protected LastSeqnoResender         last_seqno_resender;
+    protected XmitScheduler             xmit_scheduler; // created on start() if coalesce_xmits is true
 
     /** Keeps the last N stability messages */
     protected final BoundedList<String> stability_msgs=new BoundedList<>(10);
@@ -261,6 +282,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     public NAKACK2 useMcastXmit(boolean u)                 {this.use_mcast_xmit=u; return this;}
     public boolean useMcastXmitReq()                       {return use_mcast_xmit_req;}
     public NAKACK2 useMcastXmitReq(boolean flag)           {this.use_mcast_xmit_req=flag; return this;}
+    public boolean useMemberIndex()                        {return use_member_index;}
+    public NAKACK2 useMemberIndex(boolean b)               {this.use_member_index=b; return this;}
     public boolean xmitFromRandomMember()                  {return xmit_from_random_member;}
     public NAKACK2 xmitFromRandomMember(boolean x)         {this.xmit_from_random_member=x; return this;}
     public boolean discardDeliveredMsgs()                  {return discard_delivered_msgs;}
@@ -273,6 +296,23 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     public int     getResendLastSeqnoMaxTimes()            {return resend_last_seqno_max_times;}
     public NAKACK2 setXmitFromRandomMember(boolean r)      {this.xmit_from_random_member=r; return this;}
     public NAKACK2 setDiscardDeliveredMsgs(boolean d)      {this.discard_delivered_msgs=d;return this;}
+    public boolean coalesceXmits()                         {return coalesce_xmits;}
+    public NAKACK2 coalesceXmits(boolean c)                {this.coalesce_xmits=c; return this;}
+    public long    maxXmitRate()                           {return max_xmit_rate;}
+    public NAKACK2 maxXmitRate(long r)                     {this.max_xmit_rate=r; return this;}
+    public long    xmitSuppressionTime()                   {return xmit_suppression_time;}
+    public NAKACK2 xmitSuppressionTime(long t)             {this.xmit_suppression_time=t; return this;}
+    public XmitScheduler xmitScheduler()                   {return xmit_scheduler;}
+
+    @ManagedAttribute(description="Retransmission requests coalesced with pending ones (coalesce_xmits)",type=AttributeType.SCALAR)
+    public long getXmitsCoalesced() {return xmit_scheduler != null? xmit_scheduler.numCoalesced() : 0;}
+
+    @ManagedAttribute(description="Retransmissions (or retransmit requests) suppressed as duplicates (coalesce_xmits)",
+      type=AttributeType.SCALAR)
+    public long getXmitsSuppressed() {return xmit_scheduler != null? xmit_scheduler.numSuppressed() : 0;}
+
+    @ManagedAttribute(description="Number of times retransmissions were delayed by max_xmit_rate",type=AttributeType.SCALAR)
+    public long getXmitsPaced() {return xmit_scheduler != null? xmit_scheduler.numPaced() : 0;}
 
     public long getXmitInterval() {return xmit_interval;}
     public NAKACK2 setXmitInterval(long x) {this.xmit_interval=x; return this;}
@@ -480,6 +520,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         stability_msgs.clear();
         digest_history.clear();
         avg_batch_size.clear();
+        if(xmit_scheduler != null)
+            xmit_scheduler.resetStats();
         Table<Message> table=local_addr != null? xmit_table.get(local_addr) : null;
         if(table != null)
             table.resetStats();
@@ -542,6 +584,9 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             throw new Exception("timer is null");
         running=true;
         leaving=false;
+        if(coalesce_xmits)
+            xmit_scheduler=new XmitScheduler(timer, this::getXmitMessage, this::sendXmitRsp)
+              .maxRate(max_xmit_rate).suppressionTime(xmit_suppression_time);
         startRetransmitTask();
     }
 
@@ -551,6 +596,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         is_server=false;
         become_server_queue.clear();
         stopRetransmitTask();
+        if(xmit_scheduler != null)
+            xmit_scheduler.clear();
         xmit_task_map.clear();
         stable_xmit_map.clear();
         local_xmit_table=null; // fixes https://issues.redhat.com/browse/JGRP-2720
@@ -656,8 +703,12 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             case NakAckHeader2.XMIT_REQ -> {
                 try {
                     SeqnoList missing=msg.getObject();
-                    if(missing != null)
-                        handleXmitReq(msg.getSrc(), missing, hdr.sender);
+                    Address sender=xmitReqSender(msg.getSrc(), hdr);
+                    if(missing != null && sender != null) {
+                        if(msg.getDest() == null)
+                            xmitReqMulticast(msg.getSrc(), missing, sender);
+                        handleXmitReq(msg.getSrc(), missing, sender);
+                    }
                 }
                 catch(Exception e) {
                     log.error("failed deserializing retransmission list", e);
@@ -705,8 +756,12 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                     it.remove();
                     try {
                         SeqnoList missing=msg.getObject();
-                        if(missing != null)
-                            handleXmitReq(msg.getSrc(), missing, hdr.sender);
+                        Address sender=xmitReqSender(msg.getSrc(), hdr);
+                        if(missing != null && sender != null) {
+                            if(mb.dest() == null)
+                                xmitReqMulticast(msg.getSrc(), missing, sender);
+                            handleXmitReq(msg.getSrc(), missing, sender);
+                        }
                     }
                     catch(Exception e) {
                         log.error("failed deserializing retransmission list", e);
@@ -848,6 +903,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         // If the message was sent by myself, then it is already in the table and we don't need to add it. If not,
         // and the message is OOB, insert a dummy message (same msg, saving space), deliver it and drop it later on
         // removal. Else insert the real message
+        if(!loopback && !discard_delivered_msgs && !msg.isFlagSet(OOB))
+            detach(msg);
         boolean added=loopback || buf.add(hdr.seqno, msg.isFlagSet(OOB)? DUMMY_OOB_MSG : msg);
 
         // OOB msg is passed up. When removed, we discard it. Affects ordering: https://issues.redhat.com/browse/JGRP-379
@@ -864,6 +921,15 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     }
 
 
+    /**
+     * Delivered messages are kept in the table when discard_delivered_msgs is false. Their payloads must therefore
+     * not point into a pooled receive buffer (which is released after delivery), so they are copied
+     */
+    protected static void detach(Message msg) {
+        if(msg instanceof Refcountable)
+            ((Refcountable<?>)msg).detach();
+    }
+
     protected void handleMessageBatch(MessageBatch mb) {
         Address        sender=mb.sender();
         Table<Message> buf=xmit_table.get(sender);
@@ -875,6 +941,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         int size=mb.size();
         num_messages_received+=size;
         boolean loopback=local_addr.equals(sender), oob=mb.mode() == MessageBatch.Mode.OOB;
+        if(!loopback && !discard_delivered_msgs && !oob)
+            mb.forEach(NAKACK2::detach);
         boolean added=loopback || buf.add(mb, SEQNO_GETTER, !oob, oob? DUMMY_OOB_MSG : null);
 
         // OOB msg is passed up. When removed, we discard it. Affects ordering: https://issues.redhat.com/browse/JGRP-379
@@ -966,6 +1034,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             return;
         }
 
+        if(xmit_scheduler != null) {
+            xmit_scheduler.add(use_mcast_xmit? null : xmit_requester, original_sender, missing_msgs);
+            return;
+        }
+
         if(is_trace)
             log.trace("%s --> [all]: resending to %s %s", local_addr, original_sender, missing_msgs);
         for(long i: missing_msgs) {
@@ -979,6 +1052,21 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         }
     }
 
+    /**
+     * Called when a multicast XMIT_REQ has been received. If the retransmissions are multicast, too, they will be
+     * received by everyone, so members don't need to ask for the same messages themselves
+     */
+    protected void xmitReqMulticast(Address xmit_requester, SeqnoList missing_msgs, Address original_sender) {
+        if(xmit_scheduler != null && use_mcast_xmit && !Objects.equals(local_addr, xmit_requester))
+            xmit_scheduler.requested(original_sender, missing_msgs);
+    }
+
+    /** Returns the message with seqno from the retransmission table of original_sender, or null if not found */
+    protected Message getXmitMessage(Address original_sender, long seqno) {
+        Table<Message> buf=xmit_table.get(original_sender);
+        return buf != null? buf.get(seqno) : null;
+    }
+
     protected void deliver(Message msg, Address sender, long seqno, String error_msg) {
         if(is_trace)
             log.trace("%s <-- %s: #%d", local_addr, sender, seqno);
@@ -1333,7 +1421,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         }
 
         Message retransmit_msg=new ObjectMessage(dest, missing_msgs).setFlag(OOB, NO_FC).setFlag(DONT_BLOCK)
-          .putHeader(this.id, NakAckHeader2.createXmitRequestHeader(sender));
+          .putHeader(this.id, use_member_index? NakAckHeader2.createXmitRequestHeader(sender, view)
+                                                : NakAckHeader2.createXmitRequestHeader(sender));
 
         if(is_trace)
             log.trace("%s --> %s: XMIT_REQ(%s)", local_addr, dest, missing_msgs);
@@ -1342,6 +1431,15 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             xmit_reqs_sent.add(missing_msgs.size());
     }
 
+    /** Returns the original sender of an XMIT_REQ, resolving a member index against the current view if needed */
+    protected Address xmitReqSender(Address requester, NakAckHeader2 hdr) {
+        Address sender=hdr.getSender(view);
+        if(sender == null && is_trace)
+            log.trace("%s: dropped XMIT_REQ from %s: sender index %d cannot be resolved in view %s",
+                      local_addr, requester, hdr.senderIndex(), view);
+        return sender;
+    }
+
 
     protected void reset() {
         seqno.set(0);
@@ -1407,13 +1505,19 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                         long highest_deliverable=buf.getHighestDeliverable(), first=missing.getFirst();
                         if(first < highest_deliverable)
                             missing.removeLowerThan(highest_deliverable + 1);
-                        retransmit(missing, target, false);
+                        // skip messages requested by other members: the (multicast) retransmissions will be received by us, too
+                        if(xmit_scheduler != null && use_mcast_xmit_req && use_mcast_xmit)
+                            xmit_scheduler.removeRequested(target, missing);
+                        if(!missing.isEmpty())
+                            retransmit(missing, target, false);
                     }
                 }
             }
             else if(!xmit_task_map.isEmpty())
                 xmit_task_map.remove(target); // no current gaps for target
         }
+        if(xmit_scheduler != null)
+            xmit_scheduler.removeExpired();
         if(resend_last_seqno && last_seqno_resender != null)
             last_seqno_resender.execute(seqno.get());
     }
@@ -4,6 +4,8 @@ package org.jgroups.protocols.pbcast;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.Header;
+import org.jgroups.SeqnoHeader;
+import org.jgroups.View;
 import org.jgroups.util.Bits;
 import org.jgroups.util.Util;
 
@@ -17,7 +19,7 @@ import java.util.function.Supplier;
  * Header used by {@link org.jgroups.protocols.pbcast.NAKACK2}
  * @author Bela Ban
  */
-public class NakAckHeader2 extends Header {
+public class NakAckHeader2 extends Header implements SeqnoHeader {
     public static final byte MSG           = 1;  // regular msg
     public static final byte XMIT_REQ      = 2;  // retransmit request
     public static final byte XMIT_RSP      = 3;  // retransmit response (contains one or more messages)
@@ -26,6 +28,9 @@ public class NakAckHeader2 extends Header {
     byte      type;
     long      seqno=-1;        // seqno of regular message (MSG, HIGHEST_SEQNO)
     Address   sender;          // the original sender of the message (for XMIT_REQ)
+    int       sender_index=-1; // index of sender in the view (XMIT_REQ), -1 if not used
+    long      view_id;         // the id of the view to which sender_index refers
+    int       creator_hash;    // the hash of the creator of that view
 
 
     public NakAckHeader2() {
@@ -43,6 +48,21 @@ public class NakAckHeader2 extends Header {
         return new NakAckHeader2(XMIT_REQ, orginal_sender);
     }
 
+    /**
+     * Creates an XMIT_REQ header which refers to the original sender by its index in view, if it is a member and
+     * this is more compact than the full address
+     */
+    public static NakAckHeader2 createXmitRequestHeader(Address orginal_sender, View view) {
+        NakAckHeader2 hdr=new NakAckHeader2(XMIT_REQ, orginal_sender);
+        int index=view != null? view.indexOf(orginal_sender) : -1;
+        if(index >= 0 && Util.size(orginal_sender, index, view.getViewId().getId()) < Util.size(orginal_sender)) {
+            hdr.sender_index=index;
+            hdr.view_id=view.getViewId().getId();
+            hdr.creator_hash=Util.hash(view.getViewId());
+        }
+        return hdr;
+    }
+
     public static NakAckHeader2 createXmitResponseHeader() {
         return new NakAckHeader2(XMIT_RSP, -1);
     }
@@ -69,7 +89,17 @@ public class NakAckHeader2 extends Header {
 
     public byte      getType()    {return type;}
     public long      getSeqno()   {return seqno;}
+    public long      seqno()      {return seqno;}
     public Address   getSender()  {return sender;}
+    public int       senderIndex(){return sender_index;}
+
+    /**
+     * Returns the sender, or - if the sender was sent as member index - the member at that index in view. Returns
+     * null if the view doesn't match the view the index refers to
+     */
+    public Address getSender(View view) {
+        return sender != null || sender_index < 0? sender : Util.memberAt(view, view_id, creator_hash, sender_index);
+    }
 
     @Override
     public void writeTo(DataOutput out) throws IOException {
@@ -81,7 +111,7 @@ public class NakAckHeader2 extends Header {
                 Bits.writeLongCompressed(seqno, out);
                 break;
             case XMIT_REQ:
-                Util.writeAddress(sender, out);
+                Util.writeAddress(sender, sender_index, view_id, creator_hash, out);
                 break;
         }
     }
@@ -96,7 +126,14 @@ public class NakAckHeader2 extends Header {
                 seqno=Bits.readLongCompressed(in);
                 break;
             case XMIT_REQ:
-                sender=Util.readAddress(in);
+                byte flags=in.readByte();
+                if(Util.isFlagSet(flags, Address.MEMBER_INDEX)) {
+                    view_id=Bits.readVarLong(in);
+                    creator_hash=in.readInt();
+                    sender_index=(int)Bits.readVarLong(in);
+                }
+                else
+                    sender=Util.readAddress(in, flags);
                 break;
         }
     }
@@ -106,7 +143,7 @@ public class NakAckHeader2 extends Header {
         int retval=Global.BYTE_SIZE; // type
         return switch(type) {
             case MSG, XMIT_RSP, HIGHEST_SEQNO -> retval + Bits.size(seqno);
-            case XMIT_REQ -> retval+Util.size(sender);
+            case XMIT_REQ -> retval + Util.size(sender, sender_index, view_id);
             default -> retval;
         };
     }
@@ -116,9 +153,20 @@ public class NakAckHeader2 extends Header {
         ret.type=type;
         ret.seqno=seqno;
         ret.sender=sender;
+        ret.sender_index=sender_index;
+        ret.view_id=view_id;
+        ret.creator_hash=creator_hash;
         return ret;
     }
 
+    public NakAckHeader2 copy(long seqno) {
+        return new NakAckHeader2(type, seqno);
+    }
+
+    public boolean deltaCompatible(Header hdr) {
+        return (type == MSG || type == XMIT_RSP) && hdr instanceof NakAckHeader2 h && h.type == type;
+    }
+
     public static String type2Str(byte t) {
         return switch(t) {
             case MSG ->           "MSG";
@@ -144,6 +192,7 @@ public class NakAckHeader2 extends Header {
         }
 
         if(sender != null) ret.append(", sender=").append(sender);
+        else if(sender_index >= 0) ret.append(", sender-index=").append(sender_index).append(", view-id=").append(view_id);
         ret.append(']');
         return ret.toString();
     }
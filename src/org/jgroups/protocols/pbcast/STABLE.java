@@ -10,15 +10,13 @@ import org.jgroups.util.*;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongBinaryOperator;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -43,6 +41,8 @@ import static org.jgroups.conf.AttributeType.SCALAR;
 @MBean(description="Computes the broadcast messages that are stable")
 public class STABLE extends Protocol {
     protected static final long MAX_SUSPEND_TIME=200000;
+    // -1 means the seqno hasn't been set yet
+    protected static final LongBinaryOperator MIN_HD=(my_hd, hd) -> my_hd == -1? hd : Math.min(my_hd, hd);
 
     /* ------------------------------------------ Properties  ------------------------------------------ */
 
@@ -61,6 +61,21 @@ public class STABLE extends Protocol {
       type=AttributeType.BYTES)
     protected long   max_bytes=2000000;
 
+    @Property(description="Omit the members from STABLE and STABILITY digests if they are the same as the members of " +
+      "the current view: the receiver reconstructs them from its view (if the view-ids match). Requires all members " +
+      "to run a version which understands this encoding")
+    protected boolean use_member_index;
+
+    @Property(description="If true, a member sends only the entries of its digest which changed since its last STABLE " +
+      "message (a delta digest) to the coordinator, which applies it to the last digest received from that member. " +
+      "Requires all members to run a version which understands this encoding")
+    protected boolean delta_digests;
+
+    @Property(description="When delta_digests is enabled, every full_digest_interval-th STABLE message contains the " +
+      "full digest. Besides, the coordinator asks a member for a full digest when it cannot apply a delta, e.g. " +
+      "after a view change or a lost STABLE message",type=SCALAR)
+    protected int     full_digest_interval=10;
+
 
     /* --------------------------------------------- JMX  ---------------------------------------------- */
     @ManagedAttribute(description="Number of stable messages sent",type= SCALAR)
@@ -71,6 +86,13 @@ public class STABLE extends Protocol {
     protected final LongAdder num_stability_msgs_sent=new LongAdder();
     @ManagedAttribute(description="Number of stability messages received",type= SCALAR)
     protected final LongAdder num_stability_msgs_received=new LongAdder();
+    @ManagedAttribute(description="Number of stable messages sent as delta digests",type= SCALAR)
+    protected final LongAdder num_delta_msgs_sent=new LongAdder();
+    @ManagedAttribute(description="Number of stable messages received as delta digests",type= SCALAR)
+    protected final LongAdder num_delta_msgs_received=new LongAdder();
+    @ManagedAttribute(description="Number of requests for a full digest sent by the coordinator, because a delta " +
+      "digest could not be applied",type= SCALAR)
+    protected final LongAdder num_full_digest_requests=new LongAdder();
 
     
     /* --------------------------------------------- Fields ------------------------------------------------------ */
@@ -86,6 +108,22 @@ public class STABLE extends Protocol {
     @GuardedBy("lock")
     protected FixedSizeBitSet     votes;
 
+    /** The last digest received from a member; delta digests are applied to it */
+    @GuardedBy("lock")
+    protected final Map<Address,Base> last_digests=new HashMap<>();
+
+    /** The seqnos of the last STABLE message sent, its view-id and destination; used to compute delta digests */
+    @GuardedBy("lock")
+    protected long[]              last_sent;
+    @GuardedBy("lock")
+    protected ViewId              last_sent_view_id;
+    @GuardedBy("lock")
+    protected Address             last_sent_dest;
+    @GuardedBy("lock")
+    protected int                 deltas_sent; // number of delta digests sent since the last full digest
+    @GuardedBy("lock")
+    protected int                 last_sent_id; // ID of the last STABLE message sent; a delta is based on ID-1
+
     protected final Lock          lock=new ReentrantLock();
 
     @GuardedBy("stable_task_lock")
@@ -124,6 +162,15 @@ public class STABLE extends Protocol {
     public STABLE setDesiredAverageGossip(long g) {desired_avg_gossip=g; return this;}
     public long   getMaxBytes()                   {return max_bytes;}
     public STABLE setMaxBytes(long m)             {this.max_bytes=m; return this;}
+    public boolean useMemberIndex()               {return use_member_index;}
+    public STABLE useMemberIndex(boolean b)       {this.use_member_index=b; return this;}
+    public boolean deltaDigests()                 {return delta_digests;}
+    public STABLE deltaDigests(boolean b)         {this.delta_digests=b; return this;}
+    public int    fullDigestInterval()            {return full_digest_interval;}
+    public STABLE fullDigestInterval(int i)       {this.full_digest_interval=i; return this;}
+    public long   numDeltaMsgsSent()              {return num_delta_msgs_sent.sum();}
+    public long   numDeltaMsgsReceived()          {return num_delta_msgs_received.sum();}
+    public long   numFullDigestRequests()         {return num_full_digest_requests.sum();}
 
     // @ManagedAttribute(name="bytes_received")
     public long getBytes() {return num_bytes_received;}
@@ -169,7 +216,8 @@ public class STABLE extends Protocol {
 
     public void resetStats() {
         super.resetStats();
-        Stream.of(num_stability_msgs_received,num_stability_msgs_sent,num_stable_msgs_sent,num_stable_msgs_received)
+        Stream.of(num_stability_msgs_received,num_stability_msgs_sent,num_stable_msgs_sent,num_stable_msgs_received,
+                  num_delta_msgs_sent,num_delta_msgs_received,num_full_digest_requests)
           .forEach(LongAdder::reset);
     }
 
@@ -233,7 +281,8 @@ public class STABLE extends Protocol {
             handleRegularMessage(msg);
             return up_prot.up(msg);
         }
-        return handle(hdr, msg.getSrc(), msg.getObject()); // don't pass STABLE or STABILITY messages up the stack
+        Address sender=msg.getSrc();
+        return handle(hdr, sender, readDigest(sender, msg, hdr)); // don't pass STABLE or STABILITY messages up the stack
     }
 
     public void up(MessageBatch batch) {
@@ -242,7 +291,7 @@ public class STABLE extends Protocol {
             Message msg=it.next();
             if((hdr=msg.getHeader(id)) != null) {
                 it.remove();
-                handle(hdr, batch.sender(), msg.getObject());
+                handle(hdr, batch.sender(), readDigest(batch.sender(), msg, hdr));
             }
         }
 
@@ -286,6 +335,8 @@ public class STABLE extends Protocol {
 
 
     protected Object handle(StableHeader hdr, Address sender, Digest digest) {
+        if(digest == null && (hdr.members_omitted || hdr.delta)) // view mismatch or no base digest, logged by readDigest()
+            return null;
         switch(hdr.type) {
             case StableHeader.STABLE_GOSSIP:
                 handleStableMessage(digest, sender, hdr.view_id);
@@ -293,6 +344,9 @@ public class STABLE extends Protocol {
             case StableHeader.STABILITY:
                 handleStabilityMessage(digest, sender, hdr.view_id);
                 break;
+            case StableHeader.FULL_DIGEST_REQ:
+                handleFullDigestRequest(sender, hdr.view_id);
+                break;
             default:
                 log.error("%s: StableHeader type %s not known", local_addr, hdr.type);
         }
@@ -329,6 +383,8 @@ public class STABLE extends Protocol {
             this.view=v;
             coordinator=v.getCoord();
             resetDigest();
+            last_digests.clear();
+            last_sent=null;
             if(!initialized)
                 initialized=true;
         }
@@ -348,24 +404,9 @@ public class STABLE extends Protocol {
             sb=new StringBuilder().append(local_addr).append(": handling digest from ").append(sender).append(":\nmine:   ")
               .append(printDigest(digest)).append("\nsender: ").append(printDigest(d));
 
-        for(Digest.Entry entry: d) {
-            Address mbr=entry.member();
-            long hd=entry.hd(), hr=entry.hr();
-
-            // compute the minimum of the highest seqnos deliverable (for garbage collection)
-            long[] seqnos=digest.get(mbr);
-            if(seqnos == null)
-                continue;
-            long my_hd=seqnos[0];
-            long my_hr=seqnos[1]; // (for retransmission of last missing message)
-
-            if(my_hd == -1) // -1 means the seqno hasn't been set yet
-                my_hd=hd;
-
-            long new_hd=Math.min(my_hd, hd);
-            long new_hr=Math.max(my_hr, hr);
-            digest.set(mbr, new_hd, new_hr);
-        }
+        // the minimum of the highest seqnos deliverable (for garbage collection) and the maximum of the highest
+        // seqnos received (for retransmission of last missing message)
+        digest.merge(d, MIN_HD, Math::max);
         if(sb != null) // implies log.isTraceEnabled() == true
             log.trace(sb.append("\nresult: ").append(printDigest(digest)).append("\n"));
     }
@@ -589,9 +630,7 @@ public class STABLE extends Protocol {
             return;
         }
         log.trace("%s: sending stable msg to %s: %s", local_addr, dest, printDigest(d));
-        final ObjectMessage msg=new ObjectMessage(dest, d);
-        msg.setFlag(OOB, NO_RELIABILITY, NO_FC)
-          .putHeader(this.id, new StableHeader(StableHeader.STABLE_GOSSIP, current_view.getViewId()));
+        final Message msg=createStableMessage(dest, d, current_view).setFlag(OOB, NO_RELIABILITY, NO_FC);
         try {
             if(!send_in_background) {
                 num_stable_msgs_sent.increment();
@@ -632,9 +671,8 @@ public class STABLE extends Protocol {
         // https://issues.redhat.com/browse/JGRP-1638: we reverted to sending the STABILITY message *unreliably*,
         // but clear votes *before* sending it
         try {
-            Message msg=new ObjectMessage(null, d)
-              .setFlag(OOB, NO_RELIABILITY, NO_RELAY, NO_FC).setFlag(DONT_LOOPBACK,DONT_BLOCK)
-              .putHeader(id, new StableHeader(StableHeader.STABILITY, view_id));
+            Message msg=createDigestMessage(null, d, view, new StableHeader(StableHeader.STABILITY, view_id))
+              .setFlag(OOB, NO_RELIABILITY, NO_RELAY, NO_FC).setFlag(DONT_LOOPBACK,DONT_BLOCK);
             log.trace("%s: sending stability msg %s", local_addr, printDigest(d));
             num_stability_msgs_sent.increment();
             num_stability_msgs_received.increment(); // since we don't receive this message
@@ -649,6 +687,226 @@ public class STABLE extends Protocol {
         return (Digest)down_prot.down(Event.GET_DIGEST_EVT);
     }
 
+    /**
+     * Creates a STABLE message containing digest d. If delta_digests is enabled, only the entries which changed since
+     * the last STABLE message (sent in the same view to the same destination) are sent, except for every
+     * full_digest_interval-th message, which contains the full digest. The messages are numbered, so that the
+     * coordinator can detect a delta whose base (the previous message) it didn't receive
+     */
+    protected Message createStableMessage(Address dest, Digest d, View v) {
+        StableHeader hdr=new StableHeader(StableHeader.STABLE_GOSSIP, v.getViewId());
+        if(!delta_digests)
+            return createDigestMessage(dest, d, v, hdr);
+        long[] seqnos=seqnos(d), prev;
+        lock.lock();
+        try {
+            prev=last_sent;
+            boolean full=prev == null || prev.length != seqnos.length || !v.getViewId().equals(last_sent_view_id)
+              || !Objects.equals(dest, last_sent_dest) || deltas_sent + 1 >= full_digest_interval;
+            deltas_sent=full? 0 : deltas_sent + 1;
+            hdr.digest_id=++last_sent_id;
+            last_sent=seqnos;
+            last_sent_view_id=v.getViewId();
+            last_sent_dest=dest;
+            if(full)
+                return createDigestMessage(dest, d, v, hdr);
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            Message msg=createDeltaMessage(dest, prev, seqnos, hdr);
+            num_delta_msgs_sent.increment();
+            return msg;
+        }
+        catch(IOException ex) { // cannot happen with an in-memory stream; send the full digest
+            hdr.delta=false;
+            return createDigestMessage(dest, d, v, hdr);
+        }
+    }
+
+    /** Creates a message with the indices and seqnos of the entries which are different in prev and seqnos */
+    protected Message createDeltaMessage(Address dest, long[] prev, long[] seqnos, StableHeader hdr) throws IOException {
+        int num=0, size=Global.INT_SIZE;
+        for(int i=0; i < seqnos.length; i+=2) {
+            if(seqnos[i] != prev[i] || seqnos[i+1] != prev[i+1]) {
+                num++;
+                size+=Bits.size(i/2) + Bits.size(seqnos[i], seqnos[i+1]);
+            }
+        }
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(size);
+        Bits.writeIntCompressed(num, out);
+        for(int i=0; i < seqnos.length; i+=2) {
+            if(seqnos[i] != prev[i] || seqnos[i+1] != prev[i+1]) {
+                Bits.writeIntCompressed(i/2, out);
+                Bits.writeLongSequence(seqnos[i], seqnos[i+1], out);
+            }
+        }
+        hdr.delta=true;
+        return new BytesMessage(dest, out.buffer(), 0, out.position()).putHeader(id, hdr);
+    }
+
+    /**
+     * Creates a message containing digest d. If use_member_index is true and the digest's members are the members of
+     * view v (with the view-id of the header), the members are omitted: the receiver gets them from its own view
+     */
+    protected Message createDigestMessage(Address dest, Digest d, View v, StableHeader hdr) {
+        if(use_member_index && v != null && v.getViewId().equals(hdr.view_id)
+          && Arrays.equals(d.getMembersRaw(), v.getMembersRaw())) {
+            try {
+                ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(d.serializedSize(false));
+                d.writeTo(out, false);
+                hdr.members_omitted=true;
+                return new BytesMessage(dest, out.buffer(), 0, out.position()).putHeader(id, hdr);
+            }
+            catch(IOException ex) { // cannot happen with an in-memory stream; send the digest with members
+                hdr.members_omitted=false;
+            }
+        }
+        return new ObjectMessage(dest, d).putHeader(id, hdr);
+    }
+
+    /**
+     * Reads the digest from a message. A delta digest is applied to the last digest received from sender. If
+     * delta_digests is enabled, a full digest in a STABLE message is recorded as the last digest of sender
+     */
+    protected Digest readDigest(Address sender, Message msg, StableHeader hdr) {
+        if(hdr.type == StableHeader.FULL_DIGEST_REQ)
+            return null;
+        if(hdr.delta)
+            return applyDelta(sender, msg, hdr);
+        Digest d=readDigest(msg, hdr);
+        if(d != null && delta_digests && hdr.type == StableHeader.STABLE_GOSSIP)
+            setLastDigest(sender, d, hdr);
+        return d;
+    }
+
+    protected void setLastDigest(Address sender, Digest d, StableHeader hdr) {
+        lock.lock();
+        try {
+            View v=view;
+            if(sender != null && v != null && v.getViewId().equals(hdr.view_id)
+              && Arrays.equals(d.getMembersRaw(), v.getMembersRaw()))
+                last_digests.put(sender, new Base(seqnos(d), hdr.digest_id));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the delta digest in msg to the last digest received from sender and returns a copy of the result.
+     * Returns null if the view-ids don't match. If no full digest has been received from sender in this view, or
+     * the previous message (the base of the delta) was lost, a full digest is requested from sender
+     */
+    protected Digest applyDelta(Address sender, Message msg, StableHeader hdr) {
+        num_delta_msgs_received.increment();
+        boolean request_full_digest=false;
+        lock.lock();
+        try {
+            View v=view;
+            if(v == null || !v.getViewId().equals(hdr.view_id)) {
+                log.trace("%s: discarded delta digest from %s with different view-id %s (my view-id=%s)",
+                          local_addr, sender, hdr.view_id, v != null? v.getViewId() : null);
+                return null;
+            }
+            Base base=last_digests.get(sender);
+            if(base == null || base.id() != hdr.digest_id - 1) {
+                log.trace("%s: discarded delta digest %d from %s: base %d not received; requesting a full digest",
+                          local_addr, hdr.digest_id, sender, hdr.digest_id - 1);
+                last_digests.remove(sender);
+                request_full_digest=true;
+                return null;
+            }
+            long[] seqnos=base.seqnos();
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(msg.getArray(), msg.getOffset(), msg.getLength());
+            int num=Bits.readIntCompressed(in);
+            for(int i=0; i < num; i++) {
+                int index=Bits.readIntCompressed(in);
+                Bits.readLongSequence(in, seqnos, index * 2);
+            }
+            last_digests.put(sender, new Base(seqnos, hdr.digest_id));
+            return new Digest(v.getMembersRaw(), Arrays.copyOf(seqnos, seqnos.length));
+        }
+        catch(Exception ex) {
+            log.error("%s: failed applying delta digest from %s: %s", local_addr, sender, ex);
+            last_digests.remove(sender); // may have been partially applied
+            request_full_digest=true;
+            return null;
+        }
+        finally {
+            lock.unlock();
+            if(request_full_digest)
+                sendFullDigestRequest(sender, hdr.view_id);
+        }
+    }
+
+    /** Asks a member to send its full digest, as a delta digest could not be applied */
+    protected void sendFullDigestRequest(Address dest, ViewId view_id) {
+        Message msg=new EmptyMessage(dest).putHeader(id, new StableHeader(StableHeader.FULL_DIGEST_REQ, view_id))
+          .setFlag(OOB, NO_RELIABILITY, NO_FC).setFlag(DONT_BLOCK);
+        num_full_digest_requests.increment();
+        try {
+            down_prot.down(msg);
+        }
+        catch(Throwable t) {
+            log.warn("%s: failed sending full digest request to %s: %s", local_addr, dest, t);
+        }
+    }
+
+    /** The coordinator couldn't apply a delta digest: sends the full digest right away */
+    protected void handleFullDigestRequest(Address sender, ViewId view_id) {
+        lock.lock();
+        try {
+            View v=view;
+            if(v == null || !v.getViewId().equals(view_id) || !Objects.equals(sender, coordinator))
+                return;
+            last_sent=null; // the next STABLE message contains the full digest
+        }
+        finally {
+            lock.unlock();
+        }
+        sendStableMessage(true);
+    }
+
+    /**
+     * Reads the digest from a message. If the members were omitted, they're taken from the current view; if its
+     * view-id doesn't match the one in the header, null is returned
+     */
+    protected Digest readDigest(Message msg, StableHeader hdr) {
+        if(!hdr.members_omitted)
+            return msg.getObject();
+        View v=view;
+        if(v == null || !v.getViewId().equals(hdr.view_id)) {
+            log.trace("%s: discarded %s message with different view-id %s (my view-id=%s)",
+                      local_addr, StableHeader.type2String(hdr.type), hdr.view_id, v != null? v.getViewId() : null);
+            return null;
+        }
+        try {
+            Digest d=new Digest(v.getMembersRaw());
+            d.readFrom(new ByteArrayDataInputStream(msg.getArray(), msg.getOffset(), msg.getLength()), false);
+            return d;
+        }
+        catch(Exception ex) {
+            log.error("%s: failed reading digest from %s: %s", local_addr, msg.getSrc(), ex);
+            return null;
+        }
+    }
+
+    /** The seqnos (indexed by rank) of the last digest received from a member and the ID of its STABLE message */
+    protected record Base(long[] seqnos, int id) {}
+
+    /** Returns the seqnos (highest delivered and received) of all members of d, in the order of d's members */
+    protected static long[] seqnos(Digest d) {
+        long[] seqnos=new long[d.capacity() * 2];
+        int i=0;
+        for(Digest.Entry e: d) {
+            seqnos[i++]=e.hd();
+            seqnos[i++]=e.hr();
+        }
+        return seqnos;
+    }
+
     protected String printDigest(final Digest digest) {
         if(digest == null)
             return null;
@@ -666,9 +924,16 @@ public class STABLE extends Protocol {
     public static class StableHeader extends Header {
         public static final byte STABLE_GOSSIP=1;
         public static final byte STABILITY=2;
+        public static final byte FULL_DIGEST_REQ=3;         // the coordinator asks a member for its full digest
+        protected static final byte MEMBERS_OMITTED=1 << 6; // flag in the type byte: the digest has no members
+        protected static final byte DELTA=1 << 5;           // flag in the type byte: the message has a delta digest
+        protected static final byte NUMBERED=1 << 4;        // flag in the type byte: digest_id is present
 
-        protected byte   type;
-        protected ViewId view_id;
+        protected byte    type;
+        protected ViewId  view_id;
+        protected boolean members_omitted; // the digest's members are those of view_id's view
+        protected boolean delta;           // only the entries which changed since the last STABLE message are sent
+        protected int     digest_id;       // ID of a STABLE message when delta_digests is enabled, 0 otherwise
 
         public StableHeader() {
         }
@@ -686,30 +951,48 @@ public class STABLE extends Protocol {
             return switch(t) {
                 case STABLE_GOSSIP -> "STABLE_GOSSIP";
                 case STABILITY ->     "STABILITY";
+                case FULL_DIGEST_REQ -> "FULL_DIGEST_REQ";
                 default ->            "<unknown>";
             };
         }
 
         public String toString() {
-            return String.format("[%s] view-id= %s", type2String(type), view_id);
+            return String.format("[%s] view-id= %s%s%s%s", type2String(type), view_id,
+                                 members_omitted? " (no members)" : "", delta? " (delta)" : "",
+                                 digest_id > 0? " id=" + digest_id : "");
         }
 
         @Override
         public int serializedSize() {
             return Global.BYTE_SIZE // type
-              + Util.size(view_id);
+              + Util.size(view_id)
+              + (digest_id > 0? Bits.size(digest_id) : 0);
         }
 
         @Override
         public void writeTo(DataOutput out) throws IOException {
-            out.writeByte(type);
+            int b=type;
+            if(members_omitted)
+                b|=MEMBERS_OMITTED;
+            if(delta)
+                b|=DELTA;
+            if(digest_id > 0)
+                b|=NUMBERED;
+            out.writeByte(b);
             Util.writeViewId(view_id, out);
+            if(digest_id > 0)
+                Bits.writeIntCompressed(digest_id, out);
         }
 
         @Override
         public void readFrom(DataInput in) throws IOException, ClassNotFoundException {
-            type=in.readByte();
+            byte b=in.readByte();
+            type=(byte)(b & ~(MEMBERS_OMITTED | DELTA | NUMBERED));
+            members_omitted=(b & MEMBERS_OMITTED) != 0;
+            delta=(b & DELTA) != 0;
             view_id=Util.readViewId(in);
+            if((b & NUMBERED) != 0)
+                digest_id=Bits.readIntCompressed(in);
         }
     }
 
@@ -0,0 +1,233 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CreditMap} where decrementing credits doesn't acquire a lock. Instead of the credits left for each member
+ * (which have to be decremented on every send), the total number of bytes granted by each member and the total number
+ * of bytes sent are maintained. The credits left for a member are its granted bytes minus the bytes sent, so a send
+ * only needs to compare the bytes sent against the lowest number of granted bytes, and increment the bytes sent with
+ * a CAS.
+ * <br/>
+ * The lock is only acquired when credits are replenished, when members are added or removed, or when a sender has to
+ * block because the credits are exhausted.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class AtomicCreditMap extends CreditMap {
+    protected final AtomicLong sent=new AtomicLong(); // total number of bytes sent
+    protected volatile long    min_granted;           // the lowest number of bytes granted by any member
+
+    public AtomicCreditMap(long max_credits) {
+        super(max_credits);
+        this.min_granted=max_credits;
+    }
+
+    @Override public long getMinCredits() {return Math.max(0, min_granted - sent.get());}
+
+    @Override
+    public Long get(Address member) {
+        lock.lock();
+        try {
+            Long granted=credits.get(member);
+            return granted != null? left(granted) : null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Long remove(Address key) {
+        lock.lock();
+        try {
+            Long retval=credits.remove(key);
+            updateMinGranted();
+            return retval != null? left(retval) : null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Long putIfAbsent(Address key) {
+        lock.lock();
+        try {
+            Long granted=credits.get(key);
+            if(granted != null)
+                return left(granted);
+            credits.put(key, sent.get() + max_credits);
+            updateMinGranted();
+            return null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Address> getMembersWithInsufficientCredits(long credit_needed) {
+        List<Address> retval=new LinkedList<>();
+        lock.lock();
+        try {
+            if(credit_needed > getMinCredits()) {
+                credits.entrySet().stream().filter(e -> left(e.getValue()) < credit_needed)
+                  .forEach(e -> retval.add(e.getKey()));
+            }
+            return retval;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Tuple<Address,Long>> getMembersWithCreditsLessThan(long min_credits) {
+        List<Tuple<Address,Long>> retval=new LinkedList<>();
+        lock.lock();
+        try {
+            for(Map.Entry<Address,Long> e: credits.entrySet()) {
+                long left=left(e.getValue());
+                if(left <= min_credits)
+                    retval.add(new Tuple<>(e.getKey(), left));
+            }
+            return retval;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decrements credits bytes from all members. Doesn't acquire the lock if enough credits are available; otherwise
+     * blocks for timeout ms (if greater than 0) until credits have been received
+     */
+    @Override
+    public boolean decrement(final Message msg, int credits, long timeout) {
+        if(done)
+            return false;
+        if(decrement(credits))
+            return true;
+        if(timeout <= 0)
+            return false;
+        lock.lock();
+        try {
+            if(done)
+                return false;
+            if(decrement(credits)) // credits may have been replenished (under the lock) since the first attempt
+                return true;
+            long start=System.nanoTime();
+            try {
+                credits_available.await(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e) {
+            }
+            if(done)
+                return false;
+            num_blockings++;
+            avg_block_time.add(System.nanoTime() - start);
+            return decrement(credits);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replenish(Address sender, long new_credits) {
+        if(sender == null)
+            return;
+        lock.lock();
+        try {
+            Long granted=credits.get(sender);
+            if(granted == null)
+                return;
+            credits.put(sender, Math.min(granted + new_credits, sent.get() + max_credits));
+            updateMinGranted();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replenishAll() {
+        lock.lock();
+        try {
+            long granted=sent.get() + max_credits;
+            for(Map.Entry<Address,Long> e: credits.entrySet())
+                e.setValue(granted);
+            updateMinGranted();
+            credits_available.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            super.clear();
+            updateMinGranted();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long computeLowestCreditWithAccumulated() {
+        return getMinCredits();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb=new StringBuilder();
+        lock.lock();
+        try {
+            for(Map.Entry<Address,Long> e: credits.entrySet())
+                sb.append(e.getKey()).append(": ").append(left(e.getValue())).append("\n");
+            sb.append("min_credits=" + getMinCredits() + ", sent=" + sent.get());
+        }
+        finally {
+            lock.unlock();
+        }
+        return sb.toString();
+    }
+
+    /** Increments the number of bytes sent by credits if all members granted enough credits; doesn't need the lock */
+    @Override
+    protected boolean decrement(long credits) {
+        for(;;) {
+            long current=sent.get();
+            if(current + credits > min_granted)
+                return false;
+            if(sent.compareAndSet(current, current + credits))
+                return true;
+        }
+    }
+
+    /** Recomputes the lowest number of granted bytes and wakes up blocked senders if it increased. Called with lock held */
+    protected void updateMinGranted() {
+        long min=sent.get() + max_credits;
+        for(long granted: credits.values())
+            min=Math.min(min, granted);
+        if(min > min_granted)
+            credits_available.signalAll();
+        min_granted=min;
+    }
+
+    protected long left(long granted) {
+        return Math.max(0, granted - sent.get());
+    }
+}
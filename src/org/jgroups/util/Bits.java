@@ -287,6 +287,49 @@ public final class Bits {
     }
 
 
+    /**
+     * Writes a long as <a href="https://protobuf.dev/programming-guides/encoding/#varints">varint</a>: 7 bits per
+     * byte, the high bit is set if more bytes follow. Values &lt; 128 need only 1 byte, negative values 10 bytes,
+     * so negative numbers should be zigzag-encoded first ({@link #zigzag(long)})
+     */
+    public static void writeVarLong(long num, DataOutput out) throws IOException {
+        while((num & ~0x7FL) != 0) {
+            out.write((int)((num & 0x7F) | 0x80));
+            num>>>=7;
+        }
+        out.write((int)num);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long retval=0;
+        for(int shift=0; shift < 64; shift+=7) {
+            byte b=in.readByte();
+            retval|=(long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return retval;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /** Returns the number of bytes needed by {@link #writeVarLong(long, DataOutput)} */
+    public static int sizeVarLong(long num) {
+        int retval=1;
+        while((num & ~0x7FL) != 0) {
+            retval++;
+            num>>>=7;
+        }
+        return retval;
+    }
+
+    /** Maps signed to unsigned longs, so that numbers with a small absolute value have a small varint encoding */
+    public static long zigzag(long num) {
+        return (num << 1) ^ (num >> 63);
+    }
+
+    public static long unzigzag(long num) {
+        return (num >>> 1) ^ -(num & 1);
+    }
+
     /**
      * Computes the size of a variable-length encoded long.  Note that this is <em>not</em> currently using
      * variable-length encoding (will be implemented later).
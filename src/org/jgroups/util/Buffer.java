@@ -57,6 +57,16 @@ public abstract class Buffer<T> implements Iterable<T>, Closeable {
      * (e.g. {@link FixedBuffer}), but can change in a dynamic buffer ({@link DynamicBuffer}) */
     public abstract int  capacity();
     public void          resetStats() {}
+
+    /**
+     * Releases the memory held by an empty buffer; it is re-acquired when the next element is added. The seqnos
+     * (low, hd, high) are not changed.
+     * @return True if the buffer was trimmed, false otherwise (e.g. not empty or not supported)
+     */
+    public boolean       trim()    {return false;}
+
+    /** Whether the buffer's memory has been released by {@link #trim()} */
+    public boolean       trimmed() {return false;}
     public void          open(boolean b) {}
     @Override
     public void          close() {open(false);}
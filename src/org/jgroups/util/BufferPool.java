@@ -0,0 +1,73 @@
+package org.jgroups.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of fixed-size, reference-counted buffers ({@link PooledBuffer}). {@link #acquire()} returns a buffer
+ * from the pool, or allocates a new one if the pool is empty. When the reference count of a buffer drops to 0, it is
+ * returned to the pool; if the pool is full, the buffer is dropped and garbage collected.
+ * <p>
+ * Buffers which are never released are not returned to the pool (but garbage collected), so forgetting to release a
+ * buffer only reduces the efficiency of the pool.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class BufferPool {
+    protected final BlockingQueue<PooledBuffer> pool;
+    protected final int                         buffer_size;
+    protected int                               min_payload_size; // smaller payloads are copied, not referenced
+    protected final LongAdder                   num_acquired=new LongAdder();
+    protected final LongAdder                   num_allocated=new LongAdder();
+
+    /**
+     * Creates a pool
+     * @param capacity The max number of buffers kept in the pool
+     * @param buffer_size The size of each buffer
+     */
+    public BufferPool(int capacity, int buffer_size) {
+        if(capacity <= 0 || buffer_size <= 0)
+            throw new IllegalArgumentException(String.format("capacity (%d) and buffer_size (%d) must be > 0",
+                                                             capacity, buffer_size));
+        this.pool=new ArrayBlockingQueue<>(capacity);
+        this.buffer_size=buffer_size;
+    }
+
+    public int        bufferSize()          {return buffer_size;}
+    public int        minPayloadSize()      {return min_payload_size;}
+    /** Payloads smaller than this are copied rather than pointing into a pooled buffer (which they would pin) */
+    public BufferPool minPayloadSize(int s) {this.min_payload_size=s; return this;}
+    public int        capacity()            {return pool.size() + pool.remainingCapacity();}
+    /** The number of buffers currently available in the pool */
+    public int        size()                {return pool.size();}
+    public long       numAcquired()         {return num_acquired.sum();}
+    public long       numAllocated()        {return num_allocated.sum();}
+
+    /** Returns a buffer with a reference count of 1. The caller needs to {@link PooledBuffer#release()} it when done */
+    public PooledBuffer acquire() {
+        num_acquired.increment();
+        PooledBuffer buf=pool.poll();
+        if(buf == null) {
+            num_allocated.increment();
+            buf=new PooledBuffer(new byte[buffer_size], this);
+        }
+        return buf.acquired();
+    }
+
+    /** Returns a buffer to the pool. Called when the reference count of the buffer dropped to 0 */
+    protected void put(PooledBuffer buf) {
+        if(buf.capacity() == buffer_size)
+            pool.offer(buf);
+    }
+
+    public void resetStats() {
+        num_acquired.reset();
+        num_allocated.reset();
+    }
+
+    public String toString() {
+        return String.format("%d/%d buffers of %s (acquired: %d, allocated: %d)", size(), capacity(),
+                             Util.printBytes(buffer_size), numAcquired(), numAllocated());
+    }
+}
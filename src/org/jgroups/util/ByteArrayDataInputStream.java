@@ -18,6 +18,9 @@ public class ByteArrayDataInputStream extends InputStream implements DataInput {
     protected final int    limit;
     protected static final ByteBuffer EMPTY=ByteBuffer.allocate(0);
 
+    // if non-null, buf belongs to this pooled buffer and payloads may point into it rather than being copied
+    protected PooledBuffer pooled_buf;
+
     public ByteArrayDataInputStream(byte[] buf) {
         this(buf, 0, buf != null? buf.length : 0);
     }
@@ -55,6 +58,9 @@ public class ByteArrayDataInputStream extends InputStream implements DataInput {
         this.pos=checkBounds(pos); return this;
     }
 
+    public PooledBuffer             pooledBuffer()               {return pooled_buf;}
+    public ByteArrayDataInputStream pooledBuffer(PooledBuffer b) {this.pooled_buf=b; return this;}
+
     public byte[]     buffer()     {return buf;}
     public ByteArray  getBuffer()  {return new ByteArray(buf, pos, limit-pos);}
     public ByteBuffer byteBuffer() {return ByteBuffer.wrap(buf, pos, limit-pos);}
@@ -0,0 +1,176 @@
+package org.jgroups.util;
+
+import org.jgroups.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import static org.jgroups.protocols.TP.*;
+
+/**
+ * Compact wire format for message lists (batches). Headers which are present in all messages of a list are written
+ * only once, and per-message seqnos are delta-encoded:
+ * <ul>
+ *     <li>SAME: all messages have the same header instance (e.g. the transport's TpHeader): the header is written
+ *     once and the messages don't carry it</li>
+ *     <li>DELTA: the headers are {@link SeqnoHeader}s which only differ in the seqno (e.g. {@link SeqnoHeader#deltaCompatible(Header)}
+ *     returns true): the header of the first message is written once (template), and each message only carries the
+ *     (zigzag/varint encoded) difference between its seqno and the seqno of the template, typically 1 byte</li>
+ * </ul>
+ * Format:
+ * <pre>
+ * List:    | version | flags (LIST|COMPACT[|MULTICAST]) | format-version | dest | src | cluster-name | num-msgs |
+ *          | num-shared | [id | kind | header]* | Message* |
+ * Message: | type | [seqno-delta]* | leading | flags | [src] | num-hdrs (varint) | [id | header]* | payload |
+ * </pre>
+ * The seqno-deltas are written in the order of the DELTA shared headers.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public final class CompactMessageList {
+    /** Version of the compact format; incremented on incompatible changes */
+    public static final byte    FORMAT_VERSION=1;
+    protected static final byte SAME=1, DELTA=2;
+    protected static final int  MAX_SHARED=Byte.MAX_VALUE;
+
+    private CompactMessageList() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /** Writes a list of messages with the *same* destination and src addresses in the compact format */
+    public static void writeMessageList(Address dest, Address src, byte[] cluster_name, List<Message> msgs,
+                                        DataOutput out, boolean multicast) throws IOException {
+        out.writeShort(Version.version);
+        byte flags=LIST | COMPACT;
+        if(multicast)
+            flags|=MULTICAST;
+        out.writeByte(flags);
+        out.writeByte(FORMAT_VERSION);
+        Util.writeAddress(dest, out);
+        Util.writeAddress(src, out);
+        out.writeShort(cluster_name != null? cluster_name.length : -1);
+        if(cluster_name != null)
+            out.write(cluster_name);
+        int num_msgs=msgs.size();
+        out.writeInt(num_msgs);
+
+        // find the headers shared by all messages
+        Header[] hdrs=num_msgs > 1 && msgs.get(0) instanceof BaseMessage m? m.headers() : null;
+        Header[] shared=null;
+        byte[] kinds=null;
+        int num_shared=0, num_deltas=0;
+        if(hdrs != null) {
+            for(Header hdr: hdrs) {
+                if(hdr == null || num_shared >= MAX_SHARED)
+                    break;
+                byte kind=kind(hdr, msgs);
+                if(kind == 0)
+                    continue;
+                if(shared == null) {
+                    shared=new Header[hdrs.length];
+                    kinds=new byte[hdrs.length];
+                }
+                shared[num_shared]=hdr;
+                kinds[num_shared++]=kind;
+                if(kind == DELTA)
+                    num_deltas++;
+            }
+        }
+        out.writeByte(num_shared);
+        short[] excluded_ids=num_shared > 0? new short[num_shared] : null;
+        for(int i=0; i < num_shared; i++) {
+            Header hdr=shared[i];
+            out.writeShort(excluded_ids[i]=hdr.getProtId());
+            out.writeByte(kinds[i]);
+            Headers.writeHeader(hdr, out);
+        }
+
+        for(Message msg: msgs) {
+            out.writeShort(msg.getType());
+            if(num_deltas > 0) {
+                for(int i=0; i < num_shared; i++) {
+                    if(kinds[i] != DELTA)
+                        continue;
+                    SeqnoHeader template=(SeqnoHeader)shared[i];
+                    SeqnoHeader hdr=msg.getHeader(shared[i].getProtId());
+                    Bits.writeVarLong(Bits.zigzag(hdr.seqno() - template.seqno()), out);
+                }
+            }
+            ((BaseMessage)msg).writeToCompact(src, out, excluded_ids);
+        }
+    }
+
+    /**
+     * Reads a list of messages written by {@link #writeMessageList(Address, Address, byte[], List, DataOutput, boolean)}
+     * into 2 MessageBatches, the version and flags have already been read
+     * @return an array of 2 MessageBatches: regular (index 0) and OOB (index 1)
+     */
+    public static MessageBatch[] readMessageBatch(DataInput in, boolean multicast) throws IOException, ClassNotFoundException {
+        byte format_version=in.readByte();
+        if(format_version != FORMAT_VERSION)
+            throw new IOException(String.format("compact message list format version %d is not supported (expected: %d)",
+                                                format_version, FORMAT_VERSION));
+        MessageBatch[] batches=new MessageBatch[2]; // [0]: reg, [1]: OOB
+        Address dest=Util.readAddress(in);
+        Address src=Util.readAddress(in);
+        short length=in.readShort();
+        byte[] cluster_name=length >= 0? new byte[length] : null;
+        if(cluster_name != null)
+            in.readFully(cluster_name, 0, cluster_name.length);
+        int len=in.readInt();
+
+        int num_shared=in.readByte();
+        Header[] shared=num_shared > 0? new Header[num_shared] : null;
+        byte[] kinds=num_shared > 0? new byte[num_shared] : null;
+        int num_deltas=0;
+        for(int i=0; i < num_shared; i++) {
+            short id=in.readShort();
+            kinds[i]=in.readByte();
+            shared[i]=Headers.readHeader(in).setProtId(id);
+            if(kinds[i] == DELTA)
+                num_deltas++;
+        }
+        long[] seqnos=num_deltas > 0? new long[num_shared] : null;
+        AsciiString cname=cluster_name != null? new AsciiString(cluster_name) : null;
+
+        for(int i=0; i < len; i++) {
+            short type=in.readShort();
+            for(int j=0; j < num_shared && num_deltas > 0; j++) {
+                if(kinds[j] == DELTA)
+                    seqnos[j]=((SeqnoHeader)shared[j]).seqno() + Bits.unzigzag(Bits.readVarLong(in));
+            }
+            BaseMessage msg=(BaseMessage)MessageFactory.create(type).setDest(dest).setSrc(src);
+            msg.readFromCompact(in, num_shared);
+            for(int j=0; j < num_shared; j++) {
+                Header hdr=kinds[j] == DELTA? ((SeqnoHeader)shared[j]).copy(seqnos[j]) : shared[j];
+                msg.putHeader(shared[j].getProtId(), hdr);
+            }
+            boolean oob=msg.isFlagSet(Message.Flag.OOB);
+            int index=oob? 1 : 0;
+            if(batches[index] == null)
+                batches[index]=new MessageBatch(dest, src, cname, multicast, oob? MessageBatch.Mode.OOB : MessageBatch.Mode.REG, len);
+            batches[index].add(msg);
+        }
+        return batches;
+    }
+
+    /** Returns SAME or DELTA if hdr (of the first message) is shared by all messages, or 0 otherwise */
+    protected static byte kind(Header hdr, List<Message> msgs) {
+        short id=hdr.getProtId();
+        boolean same=true, delta=hdr instanceof SeqnoHeader sh && sh.deltaCompatible(hdr);
+        for(Message msg: msgs) {
+            Header h=msg.getHeader(id);
+            if(h == null)
+                return 0;
+            if(h != hdr)
+                same=false;
+            if(delta && !((SeqnoHeader)hdr).deltaCompatible(h))
+                delta=false;
+            if(!same && !delta)
+                return 0;
+        }
+        return same? SAME : DELTA;
+    }
+}
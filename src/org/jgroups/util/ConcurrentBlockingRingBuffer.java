@@ -148,13 +148,15 @@ public class ConcurrentBlockingRingBuffer<T> implements BlockingQueue<T> {
         T val=array.get(ri);
         if(val == null)
             return null;
-        int old_size=size.getAndUpdate(DECR); // decrement by 1
-        if(old_size == 0)
-            return null;
         // we need to null the element: if we didn't, a producer could update size but not yet write the
-        // element to the array, and so the consumer would read an old element
+        // element to the array, and so the consumer would read an old element. This has to be done *before*
+        // decrementing size: if the queue was full (ri == wi), a producer could otherwise write its element to
+        // array[ri] after size was decremented, and the consumer would then null it (losing the element)
         array.set(ri, null);
+        int old_size=size.getAndUpdate(DECR); // decrement by 1
         ri=advance(ri);
+        if(old_size == 0)
+            return null;
         if(block_on_full && old_size >= capacity)
             signalNotFull();
         return val;
@@ -0,0 +1,423 @@
+package org.jgroups.util;
+
+import org.jgroups.annotations.GuardedBy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A {@link FixedBuffer} whose add methods don't acquire the lock: an element is published by a CAS of its slot
+ * from null to the element, followed by CAS-ing high and incrementing size. The lock is only acquired when an
+ * adder needs to block on a full buffer.<br/>
+ * Removal (remove(), removeMany(), purge(), forEach() with nullify) still acquires the lock, so removers are
+ * serialized with each other, but not with adders. Removers move low past a slot <em>before</em> nulling it, and
+ * both happen with the lock held. Adders count an element in size and bytes as soon as it has been published, and read
+ * low before and after publishing it. This way, an adder which CASes an element (e.g. a retransmission of an already
+ * delivered message) into a slot that was just nulled always sees the new low; it then acquires the lock and removes
+ * (and uncounts) the element again, unless a remover consumed it in the meantime.<br/>
+ * An adder whose CAS fails acquires the lock before reporting a duplicate, as the slot may still hold an element
+ * which is below low, but which has not yet been nulled by the remover. An add can still fail spuriously if the slot
+ * is occupied by a stale duplicate which a concurrent adder is about to remove again; this can only happen with
+ * duplicates (e.g. retransmissions on a receiver), and the element will be retransmitted.
+ * <p>
+ * This means that multiple threads adding messages (or batches) and the thread removing and delivering messages
+ * don't contend on the lock, as they do in {@link FixedBuffer}.
+ * <p>
+ * {@link #changeCapacity(int)} must not be called while elements are being added.
+ * @param <T> T
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class ConcurrentFixedBuffer<T> extends FixedBuffer<T> {
+    protected static final VarHandle SLOTS=MethodHandles.arrayElementVarHandle(Object[].class);
+    protected static final VarHandle LOW, HIGH, SIZE, BYTES;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup=MethodHandles.lookup();
+            LOW=lookup.findVarHandle(Buffer.class, "low", long.class);
+            HIGH=lookup.findVarHandle(Buffer.class, "high", long.class);
+            SIZE=lookup.findVarHandle(Buffer.class, "size", int.class);
+            BYTES=lookup.findVarHandle(FixedBuffer.class, "bytes", long.class);
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public ConcurrentFixedBuffer() {
+        this(0);
+    }
+
+    public ConcurrentFixedBuffer(long offset) {
+        this(32, offset);
+    }
+
+    public ConcurrentFixedBuffer(int capacity, long offset) {
+        super(capacity, offset);
+    }
+
+    @Override public long low()   {return (long)LOW.getAcquire(this);}
+    @Override public long high()  {return (long)HIGH.getAcquire(this);}
+    @Override public int  size()  {return (int)SIZE.getAcquire(this);}
+    @Override public long bytes() {return (long)BYTES.getAcquire(this);}
+
+    @Override public boolean isEmpty() {return size() <= 0;}
+
+    /** Not supported, as elements are added without acquiring the lock */
+    @Override public boolean trim()    {return false;}
+
+    @Override
+    public boolean add(long seqno, T element, Predicate<T> remove_filter, boolean block_if_full) {
+        int element_size=sizeOf(element);
+        for(;;) {
+            long dist=seqno - low();
+            if(dist <= 0)
+                return false; // message already purged
+            if(isFull(seqno, element_size)) {
+                if(block_if_full && blockUntilNotFull(seqno, element_size))
+                    continue;
+                num_dropped_msgs.increment();
+                return false;
+            }
+            int index=index(seqno);
+            if(!SLOTS.compareAndSet(buf, index, null, element)) {
+                if(isOccupied(index))
+                    return false; // message already present
+                continue;         // the slot held an element <= low, which has been nulled in the meantime
+            }
+            // count the element before checking low: a remover may already have removed it and decremented size
+            SIZE.getAndAdd(this, 1);
+            if(element_size > 0)
+                BYTES.getAndAdd(this, (long)element_size);
+            if(seqno - low() <= 0) // low was moved past seqno while we were adding it
+                return !undoAdd(index, element, element_size);
+            for(long h; seqno - (h=high()) > 0 && !HIGH.compareAndSet(this, h, seqno);)
+                ;
+            if(remove_filter != null)
+                removeConsecutive(remove_filter);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean add(MessageBatch batch, Function<T,Long> seqno_getter, boolean remove_from_batch, T const_value) {
+        if(batch == null || batch.isEmpty())
+            return false;
+        Objects.requireNonNull(seqno_getter);
+        boolean retval=false;
+        for(Iterator<?> it=batch.iterator(); it.hasNext(); ) {
+            T msg=(T)it.next();
+            long seqno=seqno_getter.apply(msg);
+            if(seqno < 0)
+                continue;
+            T element=const_value != null? const_value : msg;
+            boolean added=add(seqno, element, null, false);
+            retval=retval || added;
+            if(!added || remove_from_batch)
+                it.remove();
+        }
+        return retval;
+    }
+
+    @Override
+    public boolean add(final List<LongTuple<T>> list, boolean remove_added_elements, T const_value) {
+        if(list == null || list.isEmpty())
+            return false;
+        boolean added=false;
+        for(Iterator<LongTuple<T>> it=list.iterator(); it.hasNext();) {
+            LongTuple<T> tuple=it.next();
+            long seqno=tuple.getVal1();
+            T element=const_value != null? const_value : tuple.getVal2();
+            if(add(seqno, element, null, false))
+                added=true;
+            else if(remove_added_elements)
+                it.remove();
+        }
+        return added;
+    }
+
+    @Override
+    public T remove(boolean nullify) {
+        lock.lock();
+        try {
+            long tmp=hd + 1;
+            if(tmp - high() > 0)
+                return null;
+            int index=index(tmp);
+            T element=(T)SLOTS.getAcquire(buf, index);
+            if(element != null) {
+                hd=tmp;
+                SIZE.getAndAdd(this, -1);
+                if(nullify) {
+                    if(hd - low > 0) // move low first, so that an adder which CASes into the nulled slot undoes it
+                        LOW.setRelease(this, hd);
+                    SLOTS.setRelease(buf, index, null);
+                    releaseBytes(element);
+                }
+                buffer_full.signalAll();
+            }
+            return element;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <R> R removeMany(boolean nullify, int max_results, Predicate<T> filter, Supplier<R> result_creator,
+                            BiConsumer<R,T> accumulator) {
+        Remover<R> remover=new ConcurrentRemover<>(max_results, filter, result_creator, accumulator);
+        lock.lock();
+        try {
+            forEach(remover, nullify);
+            return remover.getResult();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T get(long seqno) {
+        if(seqno - low() <= 0 || seqno - high() > 0)
+            return null;
+        return (T)SLOTS.getAcquire(buf, index(seqno));
+    }
+
+    @Override
+    public T _get(long seqno) {
+        int index=index(seqno);
+        return index < 0? null : (T)SLOTS.getAcquire(buf, index);
+    }
+
+    @Override
+    public int purge(long seqno, boolean force) {
+        int purged=0;
+        lock.lock();
+        try {
+            if(seqno - low <= 0)  // ignore if seqno <= low
+                return 0;
+            long hi=high();
+            if(force) {
+                if(seqno - hi > 0)
+                    seqno=hi;
+            }
+            else {
+                if(seqno - hd > 0) // we cannot be higher than the highest removed seqno
+                    seqno=hd;
+            }
+            long tmp=low;
+            for(long from=low+1; from - seqno <= 0; from++) {
+                int index=index(from);
+                LOW.setRelease(this, from); // before nulling the slot (see class javadoc)
+                T element=(T)SLOTS.getAndSet(buf, index, null);
+                if(element != null) {
+                    releaseBytes(element);
+                    purged++;
+                    if(force && from - hd > 0) // only elements > hd are counted in size
+                        SIZE.getAndAdd(this, -1);
+                }
+            }
+            hd=Math.max(hd, low);
+            if(low - tmp > 0)
+                buffer_full.signalAll();
+            return purged;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(long from, long to, Visitor<T> visitor, boolean nullify, boolean respect_stop) {
+        if(from - to > 0) // same as if(from > to), but prevents long overflow
+            return;
+        int distance=(int)(to - from +1);
+        lock.lock();
+        try {
+            long start=low;
+            for(int i=0; i < distance; i++) {
+                int index=index(from);
+                T element=(T)SLOTS.getAcquire(buf, index);
+                boolean stop=visitor != null && !visitor.visit(from, element);
+                if(stop && respect_stop)
+                    break;
+                if(nullify && element != null) {
+                    if(from - low > 0) // before nulling the slot (see class javadoc)
+                        LOW.setRelease(this, from);
+                    SLOTS.setRelease(buf, index, null);
+                    releaseBytes(element);
+                }
+                if(stop)
+                    break;
+                from++;
+            }
+            if(low - start > 0)
+                buffer_full.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int numMissing() {
+        lock.lock();
+        try {
+            return (int)(high() - hd - size());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public SeqnoList getMissing(int max_msgs) {
+        lock.lock();
+        try {
+            if(isEmpty())
+                return null;
+            long start_seqno=getHighestDeliverable() + 1, hi=high();
+            int capacity=(int)(hi - start_seqno);
+            int max_size=max_msgs > 0? Math.min(max_msgs, capacity) : capacity;
+            if(max_size <= 0)
+                return null;
+            Missing missing=new Missing(start_seqno, max_size);
+            long to=Math.min(start_seqno + max_size - 1, hi - 1);
+            forEach(start_seqno, to, missing, false);
+            return missing.getMissingElements();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long[] getDigest() {
+        lock.lock();
+        try {
+            return new long[]{hd, high()};
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%,d | %,d | %,d] (size: %,d, missing: %,d)", low(), hd, high(), size(), numMissing());
+    }
+
+    /**
+     * Called when the CAS of an element into a slot failed. Waits until removers which moved low past the occupant of
+     * the slot have nulled it, then returns true if the slot is still occupied (a duplicate), or false if it is empty
+     */
+    protected boolean isOccupied(int index) {
+        lock.lock();
+        try {
+            return SLOTS.getAcquire(buf, index) != null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by an adder which published an element and counted it, but then found low moved past its seqno. This
+     * happens if the element was removed in the meantime, or if it was a duplicate of an element which had already
+     * been removed, CASed into the nulled slot. A remover moving low past a slot nulls it before releasing the lock, so
+     * if the slot still holds the element once the lock has been acquired, it is the latter: the element is removed
+     * again and uncounted. Otherwise, the remover consumed it (and uncounted it).
+     * @return true if the element was removed again (was not added), false if it was consumed by a remover
+     */
+    protected boolean undoAdd(int index, T element, int element_size) {
+        lock.lock();
+        try {
+            if(!SLOTS.compareAndSet(buf, index, element, null))
+                return false;
+            SIZE.getAndAdd(this, -1);
+            if(element_size > 0)
+                BYTES.getAndAdd(this, (long)-element_size);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes all consecutive elements (from hd+1) that pass the filter. Used by adds with a remove filter */
+    protected void removeConsecutive(Predicate<T> filter) {
+        lock.lock();
+        try {
+            Visitor<T> v=(seq,msg) -> {
+                if(msg == null || !filter.test(msg))
+                    return false;
+                if(seq - hd > 0)
+                    hd=seq;
+                SIZE.getAndAdd(this, -1);
+                return true;
+            };
+            forEach(hd+1, high(), v, false, true);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Adding an element to the buffer reads bytes without holding the lock, so max_bytes may be exceeded by the
+     * sizes of elements added concurrently */
+    @Override
+    protected boolean isFull(long seqno, int element_size) {
+        return seqno - low() > capacity()
+          || (max_bytes > 0 && seqno - low() > 1 && bytes() + element_size > max_bytes);
+    }
+
+    protected void releaseBytes(T element) {
+        int element_size=sizeOf(element);
+        if(element_size > 0)
+            BYTES.getAndAdd(this, (long)-element_size);
+    }
+
+    /** Blocks until seqno fits into the buffer. Returns false if the buffer was closed, else true */
+    protected boolean blockUntilNotFull(long seqno, int element_size) {
+        lock.lock();
+        try {
+            return block(seqno, element_size);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Same as {@link Remover}, but decrements size atomically, as adders change it without holding the lock */
+    protected class ConcurrentRemover<R> extends Remover<R> {
+        public ConcurrentRemover(int max_results, Predicate<T> filter, Supplier<R> creator, BiConsumer<R,T> accumulator) {
+            super(max_results, filter, creator, accumulator);
+        }
+
+        @Override
+        @GuardedBy("lock")
+        public boolean visit(long seqno, T element) {
+            if(element == null)
+                return false;
+            if(filter == null || filter.test(element)) {
+                if(result == null)
+                    result=result_creator.get();
+                result_accumulator.accept(result, element);
+                num_results++;
+            }
+            SIZE.getAndAdd(ConcurrentFixedBuffer.this, -1);
+            if(seqno - hd > 0)
+                hd=seqno;
+            return max_results == 0 || num_results < max_results;
+        }
+    }
+}
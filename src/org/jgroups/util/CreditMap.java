@@ -25,7 +25,7 @@ public class CreditMap {
     protected final Condition         credits_available;
     protected int                     num_blockings;
     protected final Average           avg_block_time=new Average(512).unit(TimeUnit.NANOSECONDS); // in ns
-    protected boolean                 done;
+    protected volatile boolean        done;
 
 
     public CreditMap(long max_credits) {
@@ -0,0 +1,240 @@
+package org.jgroups.util;
+
+import org.jgroups.Message;
+import org.jgroups.annotations.GuardedBy;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Queues messages which cannot be sent due to a lack of credits, used by flow control in non-blocking mode. Instead
+ * of blocking the sender, a message is added to the queue and a future is returned, which is completed when the
+ * message has been sent. A message is also queued when other messages are queued (or being sent), so that messages
+ * are sent in the order in which they were added.
+ * <br/>
+ * When credits are received, {@link #drain()} sends queued messages (in FIFO order) until the queue is empty, or
+ * the credits are insufficient for the next message. {@link #drainAsync()} does this on a thread of the executor, so
+ * that the thread which received the credits is not used to send the queued messages.
+ * <br/>
+ * When more than max_size bytes are queued, senders block until the queue has space again, but for no longer than
+ * max_block_time ms. After that, the message is dropped and the returned future fails with a {@link TimeoutException}.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class CreditQueue {
+    protected final Lock                     lock=new ReentrantLock();
+    protected final Condition                not_full=lock.newCondition();
+    @GuardedBy("lock")
+    protected final Deque<Entry>             queue=new ArrayDeque<>();
+    protected final LongPredicate            credits;  // decrements credits (without blocking) if enough are available
+    protected final Function<Message,Object> sender;   // sends a message down the stack
+    protected final LongSupplier             max_size; // max number of bytes to be queued
+    protected final LongSupplier             max_block_time; // max ms to block when the queue is full (0: forever)
+    protected Executor                       executor; // used by drainAsync(); drains on the caller's thread if null
+    protected long                           size;     // number of bytes currently queued
+    protected boolean                        draining; // true while a thread is sending queued messages
+    protected boolean                        flush;    // sends all queued messages, regardless of credits
+    protected final LongAdder                num_queued=new LongAdder();
+    protected final LongAdder                num_dropped=new LongAdder();
+
+    /**
+     * Creates a new queue
+     * @param credits Tries to decrement the given number of credits without blocking; returns true if successful
+     * @param sender Sends a message (down the stack) and returns the result
+     * @param max_size The max number of bytes to be queued
+     * @param max_block_time The max time (in ms) a sender blocks when the queue is full. 0 blocks until there is space
+     */
+    public CreditQueue(LongPredicate credits, Function<Message,Object> sender, LongSupplier max_size,
+                       LongSupplier max_block_time) {
+        this.credits=Objects.requireNonNull(credits);
+        this.sender=Objects.requireNonNull(sender);
+        this.max_size=Objects.requireNonNull(max_size);
+        this.max_block_time=Objects.requireNonNull(max_block_time);
+    }
+
+    public long        numQueued()           {return num_queued.sum();}
+    public long        numDropped()          {return num_dropped.sum();}
+    public void        resetStats()          {num_queued.reset(); num_dropped.reset();}
+    public Executor    executor()            {return executor;}
+    public CreditQueue executor(Executor e)  {this.executor=e; return this;}
+
+    /** The number of messages currently queued */
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** The number of bytes currently queued */
+    public long bytes() {
+        lock.lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message if no other messages are queued and enough credits are available, or queues it otherwise
+     * @param msg The message
+     * @param length The number of credits needed to send the message
+     * @param dont_block If true and the queue is full, the message is dropped rather than blocking the caller
+     * @return The result of sending the message if it was sent, a future which is completed with the result of
+     * sending the message if it was queued, null if the message was dropped (dont_block), or a failed future if
+     * the queue was still full after max_block_time ms
+     */
+    public Object send(Message msg, int length, boolean dont_block) {
+        Entry entry;
+        lock.lock();
+        try {
+            if(!draining && queue.isEmpty() && credits.test(length))
+                entry=null;
+            else {
+                long timeout=max_block_time.getAsLong(), deadline=System.nanoTime() + MILLISECONDS.toNanos(timeout);
+                // a single message larger than max_size is queued when the queue is empty
+                while(!flush && !queue.isEmpty() && size + length > max_size.getAsLong()) {
+                    if(dont_block) {
+                        num_dropped.increment();
+                        return null;
+                    }
+                    try {
+                        if(timeout <= 0)
+                            not_full.await();
+                        else {
+                            long remaining=deadline - System.nanoTime();
+                            if(remaining <= 0) {
+                                num_dropped.increment();
+                                return CompletableFuture.failedFuture(
+                                  new TimeoutException(String.format("queue (%d bytes) still full after %d ms",
+                                                                     size, timeout)));
+                            }
+                            not_full.awaitNanos(remaining);
+                        }
+                    }
+                    catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                queue.add(entry=new Entry(msg, length, new CompletableFuture<>()));
+                size+=length;
+                num_queued.increment();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        if(entry == null)
+            return sender.apply(msg);
+        // credits may have been received (or flush() called) while queueing, but drain() returned as draining was true
+        drain();
+        return entry.future;
+    }
+
+    /**
+     * Sends queued messages as long as there are enough credits. Needs to be called when credits have been received.
+     * Only one thread sends at any given time; other threads return immediately
+     */
+    public void drain() {
+        lock.lock();
+        try {
+            if(draining || queue.isEmpty())
+                return;
+            draining=true;
+        }
+        finally {
+            lock.unlock();
+        }
+        for(;;) {
+            Entry entry;
+            lock.lock();
+            try {
+                entry=queue.peekFirst();
+                if(entry == null || !(flush || credits.test(entry.length))) {
+                    draining=false;
+                    if(entry == null)
+                        flush=false;
+                    return;
+                }
+                queue.pollFirst();
+                size-=entry.length;
+                not_full.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                entry.future.complete(sender.apply(entry.msg));
+            }
+            catch(Throwable t) {
+                entry.future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #drain()}, but sends the queued messages on a thread of the executor (if set), e.g. when called
+     * by the thread which received credits
+     */
+    public void drainAsync() {
+        lock.lock();
+        try {
+            if(draining || queue.isEmpty())
+                return;
+        }
+        finally {
+            lock.unlock();
+        }
+        if(executor == null)
+            drain();
+        else
+            executor.execute(this::drain);
+    }
+
+    /** Sends all queued messages, regardless of credits. Called when a member left, or on stop() */
+    public void flush() {
+        lock.lock();
+        try {
+            if(queue.isEmpty())
+                return;
+            flush=true;
+            not_full.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("%d msgs (%d bytes) queued", queue.size(), size);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    protected record Entry(Message msg, int length, CompletableFuture<Object> future) {}
+}
@@ -99,6 +99,11 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
         return false;
     }
 
+    /** Returns true if d has the same members as this digest, in the same order (the seqnos are index-aligned) */
+    public boolean sameMembers(Digest d) {
+        return d != null && (members == d.members || Arrays.equals(members, d.members));
+    }
+
     public boolean containsAll(Address ... members) {
         for(Address member: members)
             if(!contains(member))
@@ -240,6 +245,14 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
     }
 
 
+    /** Same as {@link #find(Address)}, but checks index hint first; faster when both digests have the same order */
+    protected int find(Address mbr, int hint) {
+        if(mbr != null && members != null && hint >= 0 && hint < members.length && mbr.equals(members[hint]))
+            return hint;
+        return find(mbr);
+    }
+
+
     protected void createArrays(Map<Address,long[]> map) {
         int size=map.size();
         members=new Address[size];
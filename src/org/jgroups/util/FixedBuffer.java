@@ -10,6 +10,7 @@ import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -36,6 +37,21 @@ public class FixedBuffer<T> extends Buffer<T> {
     /** Number of received messages dropped due to full buffer */
     protected final LongAdder     num_dropped_msgs=new LongAdder();
 
+    /** Max number of bytes of all elements in the buffer (0 disables it). The capacity still limits the number of
+     * elements. The first element (low+1) is always accepted, even if it exceeds max_bytes */
+    protected long                max_bytes;
+
+    /** Computes the size (in bytes) of an element; needs to return the same value for the same element */
+    protected ToIntFunction<T>    sizer;
+
+    /** The sum of the sizes of all non-null elements; only maintained if max_bytes > 0 */
+    protected long                bytes;
+
+    /** The capacity to be restored on the next add if the array has been released by {@link #trim()}, else 0 */
+    protected int                 trimmed_capacity;
+
+    protected static final Object[] EMPTY=new Object[0];
+
 
     public FixedBuffer() {
         this(0);
@@ -58,10 +74,33 @@ public class FixedBuffer<T> extends Buffer<T> {
         this.low=this.hd=this.high=this.offset=offset;
     }
 
-    @Override public int capacity()           {return buf.length;}
+    @Override public int capacity()           {return trimmed_capacity > 0? trimmed_capacity : buf.length;}
     public long          numBlockings()       {return num_blockings.sum();}
     public AverageMinMax avgTimeBlocked()     {return avg_time_blocked;}
     public long          numDroppedMessages() {return num_dropped_msgs.sum();}
+    public long          maxBytes()           {return max_bytes;}
+    public long          bytes()              {return bytes;}
+
+    /**
+     * Limits the buffer by the number of bytes of its elements, in addition to the number of elements
+     * @param max_bytes The max number of bytes. 0 disables the limit
+     * @param sizer Computes the size of an element. Needs to return the same size for the same element every time
+     */
+    public <B extends FixedBuffer<T>> B maxBytes(long max_bytes, ToIntFunction<T> sizer) {
+        if(max_bytes > 0)
+            Objects.requireNonNull(sizer);
+        lock.lock();
+        try {
+            this.max_bytes=max_bytes;
+            this.sizer=sizer;
+            bytes=max_bytes > 0? computeBytes() : 0;
+            buffer_full.signalAll();
+            return (B)this;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
 
     @Override
     public boolean add(long seqno, T element, Predicate<T> remove_filter, boolean block_if_full) {
@@ -71,16 +110,20 @@ public class FixedBuffer<T> extends Buffer<T> {
             if(dist <= 0)
                 return false; // message already purged
 
-            if(dist > capacity() && (!block_if_full || !block(seqno))) { // buffer is full
+            int element_size=sizeOf(element);
+            if(isFull(seqno, element_size) && (!block_if_full || !block(seqno, element_size))) { // buffer is full
                 num_dropped_msgs.increment();
                 return false;
             }
 
+            if(trimmed_capacity > 0)
+                inflate();
             int index=index(seqno);
             if(buf[index] != null)
                 return false; // message already present
             buf[index]=element;
             size++;
+            bytes+=element_size;
 
             // see if high needs to be moved forward
             if(seqno - high > 0)
@@ -171,6 +214,7 @@ public class FixedBuffer<T> extends Buffer<T> {
                 size=Math.max(size-1, 0); // cannot be < 0 (well that would be a bug, but let's have this 2nd line of defense !)
                 if(nullify) {
                     buf[index]=null;
+                    bytes-=sizeOf(element);
                     if(hd - low > 0)
                         low=hd;
                 }
@@ -220,7 +264,7 @@ public class FixedBuffer<T> extends Buffer<T> {
         int index=index(seqno);
         lock.lock();
         try {
-            return index < 0? null : buf[index];
+            return index < 0 || index >= buf.length? null : buf[index];
         }
         finally {
             lock.unlock();
@@ -248,8 +292,10 @@ public class FixedBuffer<T> extends Buffer<T> {
             int distance=(int)(seqno - from +1);
             for(int i=0; i < distance; i++) {
                 int index=index(from);
-                if(buf[index] != null) {
+                T element=buf[index];
+                if(element != null) {
                     buf[index]=null;
+                    bytes-=sizeOf(element);
                     purged++;
                 }
                 low++; from++;
@@ -273,7 +319,9 @@ public class FixedBuffer<T> extends Buffer<T> {
             return;
         lock.lock();
         try {
-            if(new_capacity < buf.length)
+            if(trimmed_capacity > 0)
+                trimmed_capacity=new_capacity;
+            else if(new_capacity < buf.length)
                 decreaseCapacity(new_capacity);
             else
                 increaseCapacity(new_capacity);
@@ -294,6 +342,8 @@ public class FixedBuffer<T> extends Buffer<T> {
         int distance=(int)(to - from +1);
         lock.lock();
         try {
+            if(trimmed_capacity > 0) // low == hd == high: there are no elements
+                return;
             long start=low;
             for(int i=0; i < distance; i++) {
                 int index=index(from);
@@ -303,6 +353,7 @@ public class FixedBuffer<T> extends Buffer<T> {
                     break;
                 if(nullify && element != null) {
                     buf[index]=null;
+                    bytes-=sizeOf(element);
                     if(from - low > 0)
                         low=from;
                 }
@@ -373,9 +424,32 @@ public class FixedBuffer<T> extends Buffer<T> {
         //return (int)((seqno - offset - 1) & (capacity() - 1));
     }
 
+    /** Returns true if an element of the given size cannot be added at seqno: seqno is beyond the capacity, or adding
+     * it would exceed max_bytes */
+    protected boolean isFull(long seqno, int element_size) {
+        return seqno - low > capacity()
+          || (max_bytes > 0 && seqno - low > 1 && bytes + element_size > max_bytes);
+    }
+
+    protected int sizeOf(T element) {
+        return max_bytes > 0 && element != null? sizer.applyAsInt(element) : 0;
+    }
+
+    /** Sums up the sizes of all elements in range [low+1 .. high] */
+    @GuardedBy("lock")
+    protected long computeBytes() {
+        long total=0;
+        for(long i=low+1; i - high <= 0; i++) {
+            T element=buf[index(i)];
+            if(element != null)
+                total+=sizer.applyAsInt(element);
+        }
+        return total;
+    }
+
     @GuardedBy("lock")
-    protected boolean block(long seqno) {
-        while(open && seqno - low > capacity()) {
+    protected boolean block(long seqno, int element_size) {
+        while(open && isFull(seqno, element_size)) {
             num_blockings.increment();
             long start=System.nanoTime();
             try {
@@ -391,6 +465,37 @@ public class FixedBuffer<T> extends Buffer<T> {
         return open;
     }
 
+    /**
+     * Releases the array if the buffer is empty and all elements have been removed (low == hd == high). The array
+     * is re-allocated on the next add. Used to reduce the memory of idle buffers.
+     * @return True if the array was released, false otherwise
+     */
+    @Override
+    public boolean trim() {
+        lock.lock();
+        try {
+            if(trimmed_capacity > 0 || size > 0 || low != high || hd != high)
+                return false;
+            trimmed_capacity=buf.length;
+            buf=(T[])EMPTY;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean trimmed() {
+        return trimmed_capacity > 0;
+    }
+
+    @GuardedBy("lock")
+    protected void inflate() {
+        buf=(T[])new Object[trimmed_capacity];
+        trimmed_capacity=0;
+    }
+
     @GuardedBy("lock")
     protected void increaseCapacity(int new_cap) {
         T[] tmp=(T[])new Object[new_cap];
@@ -407,6 +512,7 @@ public class FixedBuffer<T> extends Buffer<T> {
         Visitor<T> v=(seqno,el) -> list.add(new Tuple<>(seqno, el));
         forEach(v, false);
         this.buf=(T[])new Object[new_cap];
+        bytes=0;
         list.forEach(t -> add(t.val1(), t.val2()));
         size=computeSize();
     }
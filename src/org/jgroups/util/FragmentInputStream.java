@@ -0,0 +1,227 @@
+package org.jgroups.util;
+
+import org.jgroups.annotations.GuardedBy;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Input stream over the payload of a fragmented message, fed with fragments (in order) as they are received. The
+ * fragments are not copied; a fragment is released as soon as it has been read. A reader blocks until more bytes
+ * have been added, or the stream has been completed or aborted.
+ * <br/>
+ * Implements {@link SizeStreamable} so that it can be the payload of an {@link org.jgroups.ObjectMessage}; the size
+ * is the length of the entire message. The stream cannot be serialized though: {@link #writeTo(DataOutput)} and
+ * {@link #readFrom(DataInput)} throw an {@link IOException}.
+ * <br/>
+ * This class is for only 1 producer and 1 consumer.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class FragmentInputStream extends InputStream implements SizeStreamable {
+    protected final int              length;      // the length of the entire message
+    protected final Deque<ByteArray> fragments=new ArrayDeque<>();
+    protected int                    pos;         // read position in the first fragment
+    protected int                    available;   // number of bytes added, but not yet read
+    protected boolean                done;        // set when all fragments have been added
+    protected boolean                closed;      // set when closed by the reader
+    protected String                 abort_cause; // set when the stream was aborted, e.g. because the sender left
+    protected final Lock             lock=new ReentrantLock();
+    protected final Condition        not_empty=lock.newCondition();
+
+    public FragmentInputStream(int length) {
+        this.length=length;
+    }
+
+    public int length() {return length;}
+
+    /** Appends a fragment to the end of the stream. The array must not be modified afterwards */
+    public FragmentInputStream add(byte[] buf, int offset, int len) {
+        if(len <= 0)
+            return this;
+        lock.lock();
+        try {
+            if(closed || done || abort_cause != null)
+                return this;
+            fragments.add(new ByteArray(buf, offset, len));
+            available+=len;
+            not_empty.signalAll();
+            return this;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Marks the end of the stream: a reader gets EOF after the remaining bytes have been read */
+    public FragmentInputStream done() {
+        lock.lock();
+        try {
+            done=true;
+            not_empty.signalAll();
+            return this;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Aborts the stream: the remaining bytes are discarded and a reader gets an {@link EOFException} */
+    public FragmentInputStream abort(String cause) {
+        lock.lock();
+        try {
+            if(!done && abort_cause == null) {
+                abort_cause=cause;
+                clearFragments();
+                not_empty.signalAll();
+            }
+            return this;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isDone() {
+        lock.lock();
+        try {return done;} finally {lock.unlock();}
+    }
+
+    public int read() throws IOException {
+        lock.lock();
+        try {
+            if(!waitForBytes())
+                return -1;
+            ByteArray first=fragments.peekFirst();
+            int retval=first.array()[first.offset() + pos] & 0xff;
+            consumed(first, 1);
+            return retval;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reads at least 1 byte (blocking until available) and at most len bytes, or returns -1 on EOF */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(b == null)
+            throw new NullPointerException("buffer is null");
+        if(off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException(String.format("offset: %d, length: %d, buffer length: %d",
+                                                              off, len, b.length));
+        if(len == 0)
+            return 0;
+        lock.lock();
+        try {
+            if(!waitForBytes())
+                return -1;
+            int bytes_read=0;
+            while(bytes_read < len && available > 0) {
+                ByteArray first=fragments.peekFirst();
+                int bytes_to_read=Math.min(len - bytes_read, first.length() - pos);
+                System.arraycopy(first.array(), first.offset() + pos, b, off + bytes_read, bytes_to_read);
+                bytes_read+=bytes_to_read;
+                consumed(first, bytes_to_read);
+            }
+            return bytes_read;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int available() throws IOException {
+        lock.lock();
+        try {
+            return available;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Closes the stream; fragments that are added afterwards are discarded */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed=true;
+            clearFragments();
+            not_empty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int serializedSize() {
+        return length;
+    }
+
+    /** Always throws an exception: the stream is only delivered locally, and cannot be sent (e.g. forwarded) */
+    public void writeTo(DataOutput out) throws IOException {
+        throw new IOException(String.format("%s cannot be serialized: read the stream and send its contents instead",
+                                            getClass().getSimpleName()));
+    }
+
+    public void readFrom(DataInput in) throws IOException, ClassNotFoundException {
+        throw new IOException(getClass().getSimpleName() + " cannot be deserialized");
+    }
+
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("length=%d, available=%d, fragments=%d%s%s%s", length, available, fragments.size(),
+                                 done? " (done)" : "", closed? " (closed)" : "",
+                                 abort_cause != null? " (aborted: " + abort_cause + ")" : "");
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Blocks until bytes are available. Returns false on EOF, throws an exception if closed or aborted */
+    @GuardedBy("lock")
+    protected boolean waitForBytes() throws IOException {
+        for(;;) {
+            if(closed)
+                throw new IOException("stream closed");
+            if(abort_cause != null)
+                throw new EOFException(abort_cause);
+            if(available > 0)
+                return true;
+            if(done)
+                return false;
+            try {
+                not_empty.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for fragments", e);
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    protected void consumed(ByteArray first, int num_bytes) {
+        pos+=num_bytes;
+        available-=num_bytes;
+        if(pos >= first.length()) {
+            fragments.pollFirst(); // releases the fragment
+            pos=0;
+        }
+    }
+
+    @GuardedBy("lock")
+    protected void clearFragments() {
+        fragments.clear();
+        available=pos=0;
+    }
+}
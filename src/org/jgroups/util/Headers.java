@@ -167,6 +167,48 @@ public final class Headers {
         return headers;
     }
 
+    /**
+     * Writes the headers except the ones whose IDs are in excluded_ids, used by compact message batches
+     * ({@link CompactMessageList}). The number of headers is written as varint
+     */
+    public static void writeHeadersCompact(Header[] hdrs, DataOutput out, short[] excluded_ids) throws IOException {
+        int size=0;
+        if(hdrs != null) {
+            for(Header hdr: hdrs) {
+                if(hdr == null)
+                    break;
+                if(!contains(excluded_ids, hdr.getProtId()))
+                    size++;
+            }
+        }
+        Bits.writeVarLong(size, out);
+        if(size > 0) {
+            for(Header hdr: hdrs) {
+                if(hdr == null)
+                    break;
+                short id=hdr.getProtId();
+                if(contains(excluded_ids, id))
+                    continue;
+                out.writeShort(id);
+                writeHeader(hdr, out);
+            }
+        }
+    }
+
+    /**
+     * Reads headers written by {@link #writeHeadersCompact(Header[], DataOutput, short[])}. The returned array has
+     * extra_capacity free slots, for headers added after reading (e.g. the headers shared by all messages of a batch)
+     */
+    public static Header[] readHeadersCompact(DataInput in, int extra_capacity) throws IOException, ClassNotFoundException {
+        int len=(int)Bits.readVarLong(in);
+        Header[] headers=new Header[Math.max(len + extra_capacity, Util.DEFAULT_HEADERS)];
+        for(int i=0; i < len; i++) {
+            short id=in.readShort();
+            headers[i]=readHeader(in).setProtId(id);
+        }
+        return headers;
+    }
+
     /** Increases the capacity of the array and copies the contents of the old into the new array */
     public static Header[] resize(final Header[] headers) {
         int new_capacity=headers.length + RESIZE_INCR;
@@ -208,17 +250,26 @@ public final class Headers {
         return retval;
     }
 
-    private static void writeHeader(Header hdr, DataOutput out) throws IOException {
+    public static void writeHeader(Header hdr, DataOutput out) throws IOException {
         short magic_number=hdr.getMagicId();
         out.writeShort(magic_number);
         hdr.writeTo(out);
     }
 
-    private static Header readHeader(DataInput in) throws IOException, ClassNotFoundException {
+    public static Header readHeader(DataInput in) throws IOException, ClassNotFoundException {
         short magic_number=in.readShort();
         Header hdr=ClassConfigurator.create(magic_number);
         hdr.readFrom(in);
         return hdr;
     }
 
+    protected static boolean contains(short[] ids, short id) {
+        if(ids != null) {
+            for(short i: ids)
+                if(i == id)
+                    return true;
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,275 @@
+package org.jgroups.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jgroups.util.Util.printTime;
+
+/**
+ * Log-bucketed histogram of positive (>= 0) values, providing percentiles in addition to min, average and max.<br/>
+ * Every power of 2 is divided into 2^precision linear sub-buckets, so a value is recorded with a relative error
+ * of at most 1/2^(precision+1) (~3% for the default precision of 4), independent of its magnitude. Values smaller
+ * than 2^precision are recorded exactly.
+ * <p>
+ * Contrary to {@link AverageMinMax}, all values are counted (not only a sample), the average is exact, and adding a
+ * value is thread-safe and doesn't allocate memory, so a histogram can be used on the hot path. Histograms can be
+ * merged, e.g. to aggregate the values of different threads, members or stages.
+ * <p>
+ * A histogram can be used wherever an {@link AverageMinMax} is used; however, {@link #values()} returns null, as
+ * individual values are not kept.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class Histogram extends AverageMinMax {
+    protected int                 precision;  // number of sub-bucket bits
+    protected AtomicLongArray     buckets;
+    protected final LongAdder     num=new LongAdder(), sum=new LongAdder();
+    protected final AtomicLong    lowest=new AtomicLong(Long.MAX_VALUE), highest=new AtomicLong(-1);
+    protected static final int    DEFAULT_PRECISION=4, MAX_PRECISION=10;
+
+    public Histogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a histogram
+     * @param precision The number of bits of each value (after the highest bit) that are used to select the sub-bucket.
+     *                  Needs to be in range [1 .. 10]. A higher precision reduces the error, but doubles the memory
+     *                  needed (2^precision * (64-precision) buckets of 8 bytes each) with every increment
+     */
+    public Histogram(int precision) {
+        super(0);
+        if(precision < 1 || precision > MAX_PRECISION)
+            throw new IllegalArgumentException(String.format("precision (%d) needs to be in range [1 .. %d]",
+                                                             precision, MAX_PRECISION));
+        this.precision=precision;
+        this.buckets=new AtomicLongArray(numBuckets(precision));
+    }
+
+    public int                  precision()             {return precision;}
+    @Override public int        capacity()              {return buckets.length();}
+    @Override public long       min()                   {long l=lowest.get(); return l == Long.MAX_VALUE? 0 : l;}
+    @Override public long       max()                   {return Math.max(highest.get(), 0);}
+    @Override public int        count()                 {return (int)Math.min(num.sum(), Integer.MAX_VALUE);}
+    @Override public long       total()                 {return sum.sum();}
+    @Override public boolean    isEmpty()               {return num.sum() == 0;}
+    @Override public boolean    usePercentiles()        {return true;}
+    @Override public Histogram  usePercentiles(int cap) {return this;} // percentiles are always available
+    @Override public List<Long> values()                {return null;}
+    @Override public Histogram  sort()                  {return this;}
+
+    @Override
+    public <T extends Average> T add(long val) {
+        if(val < 0)
+            return (T)this;
+        buckets.incrementAndGet(index(val, precision));
+        num.increment();
+        sum.add(val);
+        updateMinMax(val, val);
+        return (T)this;
+    }
+
+    /** Merges the values of another {@link Average}: histograms are merged bucket by bucket */
+    @Override
+    public <T extends Average> T merge(T other) {
+        if(other == null || other == this || other.isEmpty())
+            return (T)this;
+        if(other instanceof Histogram h) {
+            if(h.precision == precision) {
+                for(int i=0; i < buckets.length(); i++) {
+                    long cnt=h.buckets.get(i);
+                    if(cnt > 0)
+                        buckets.addAndGet(i, cnt);
+                }
+            }
+            else {
+                for(int i=0; i < h.buckets.length(); i++) {
+                    long cnt=h.buckets.get(i);
+                    if(cnt > 0)
+                        buckets.addAndGet(index(h.valueAt(i), precision), cnt);
+                }
+            }
+            num.add(h.num.sum());
+            sum.add(h.sum.sum());
+            updateMinMax(h.min(), h.max());
+            return (T)this;
+        }
+        if(other instanceof AverageMinMax a && a.values() != null) {
+            for(long val: a.values())
+                add(val);
+            return (T)this;
+        }
+        for(long val: other.samples)
+            add(val);
+        if(other instanceof AverageMinMax a)
+            updateMinMax(a.min(), a.max());
+        return (T)this;
+    }
+
+    /** Returns the exact average of all values */
+    @Override
+    public double average() {
+        long cnt=num.sum();
+        return cnt == 0? 0.0 : sum.sum() / (double)cnt;
+    }
+
+    /**
+     * Returns the value at the given percentile, e.g. 99.9 for p999; the result has the error determined by
+     * {@link #precision()}. Returns -1 if the histogram is empty.
+     */
+    @Override
+    public double p(double percentile) {
+        if(percentile <= 0)
+            return isEmpty()? -1 : min();
+        if(percentile >= 100)
+            return isEmpty()? -1 : max();
+        long cnt=0;
+        for(int i=0; i < buckets.length(); i++)
+            cnt+=buckets.get(i);
+        if(cnt == 0)
+            return -1;
+        long rank=Math.max(1, (long)Math.ceil(cnt * (percentile / 100.0))), acc=0;
+        for(int i=0; i < buckets.length(); i++) {
+            if((acc+=buckets.get(i)) >= rank)
+                return Math.max(min(), Math.min(max(), valueAt(i)));
+        }
+        return max(); // concurrent adds
+    }
+
+    @Override
+    public double stddev() {
+        long cnt=0;
+        double av=average(), total=0;
+        for(int i=0; i < buckets.length(); i++) {
+            long c=buckets.get(i);
+            if(c > 0) {
+                double diff=valueAt(i) - av;
+                total+=diff * diff * c;
+                cnt+=c;
+            }
+        }
+        return cnt == 0? 0.0 : Math.sqrt(total / cnt);
+    }
+
+    @Override
+    public void clear() {
+        for(int i=0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        num.reset();
+        sum.reset();
+        lowest.set(Long.MAX_VALUE);
+        highest.set(-1);
+    }
+
+    @Override
+    public String percentiles() {
+        if(isEmpty())
+            return "n/a";
+        return String.format("stddev: %s, 50: %s, 90: %s, 99: %s, 99.9: %s, 99.99: %s, 99.999: %s, 100: %s\n",
+                             print(stddev()), print(p(50)), print(p(90)), print(p(99)), print(p(99.9)),
+                             print(p(99.99)), print(p(99.999)), print(p(100)));
+    }
+
+    @Override
+    public String toString() {
+        return unit != null? toString(unit) : isEmpty()? "n/a" :
+          String.format("min/avg/max=%,d/%,.2f/%,d (p90=%,.0f p99=%,.0f p99.9=%,.0f)",
+                        min(), average(), max(), p(90), p(99), p(99.9));
+    }
+
+    @Override
+    public String toString(TimeUnit u) {
+        if(isEmpty())
+            return "n/a";
+        return String.format("%s/%s/%s (p90=%s p99=%s p99.9=%s)",
+                             printTime(min(), u), printTime(average(), u), printTime(max(), u),
+                             printTime(p(90), u), printTime(p(99), u), printTime(p(99.9), u));
+    }
+
+    /** Writes the non-empty buckets only */
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        Bits.writeLongCompressed(num.sum(), out);
+        Bits.writeLongCompressed(sum.sum(), out);
+        Bits.writeLongCompressed(min(), out);
+        Bits.writeLongCompressed(max(), out);
+        int non_empty=0;
+        for(int i=0; i < buckets.length(); i++)
+            if(buckets.get(i) > 0)
+                non_empty++;
+        Bits.writeIntCompressed(non_empty, out);
+        for(int i=0, prev=0; i < buckets.length() && non_empty > 0; i++) {
+            long cnt=buckets.get(i);
+            if(cnt > 0) {
+                Bits.writeIntCompressed(i - prev, out); // delta-encoded index
+                Bits.writeLongCompressed(cnt, out);
+                prev=i;
+                non_empty--;
+            }
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        precision=in.readByte();
+        buckets=new AtomicLongArray(numBuckets(precision));
+        clear();
+        num.add(Bits.readLongCompressed(in));
+        sum.add(Bits.readLongCompressed(in));
+        long mn=Bits.readLongCompressed(in), mx=Bits.readLongCompressed(in);
+        if(num.sum() > 0)
+            updateMinMax(mn, mx);
+        int non_empty=Bits.readIntCompressed(in);
+        for(int i=0, idx=0; i < non_empty; i++) {
+            idx+=Bits.readIntCompressed(in);
+            buckets.set(idx, Bits.readLongCompressed(in));
+        }
+    }
+
+    /** Returns the index of the bucket for a given value */
+    protected static int index(long val, int precision) {
+        int sub=1 << precision;
+        if(val < sub)
+            return (int)val;
+        int exp=63 - Long.numberOfLeadingZeros(val), shift=exp - precision;
+        return (shift+1) * sub + (int)((val >>> shift) & (sub-1));
+    }
+
+    /** Returns the lowest value of the bucket at index idx */
+    protected static long lowestValueAt(int idx, int precision) {
+        int sub=1 << precision, group=idx >>> precision;
+        if(group == 0)
+            return idx;
+        return (long)(sub + (idx & (sub-1))) << (group-1);
+    }
+
+    /** Returns the value representing all values of a bucket: the middle of the bucket's range */
+    protected long valueAt(int idx) {
+        int group=idx >>> precision;
+        long low=lowestValueAt(idx, precision);
+        return group <= 1? low : low + ((1L << (group-1)) - 1) / 2;
+    }
+
+    protected static int numBuckets(int precision) {
+        return (64 - precision) << precision;
+    }
+
+    protected void updateMinMax(long mn, long mx) {
+        long l;
+        while(mn < (l=lowest.get()) && !lowest.compareAndSet(l, mn))
+            ;
+        while(mx > (l=highest.get()) && !highest.compareAndSet(l, mx))
+            ;
+    }
+
+    protected String print(double val) {
+        return unit != null? printTime(val, unit) : String.format("%,.2f", val);
+    }
+}
@@ -37,6 +37,8 @@ public class Metrics {
         return false;
     };
     public static final Predicate<AccessibleObject> IS_MANAGED_ATTRIBUTE=obj -> obj.getAnnotation(ManagedAttribute.class) != null;
+    /** The percentiles exported for attributes of type {@link Histogram}, e.g. "avg_send_time.p99" */
+    protected static final Map<String,Double>       PERCENTILES=Map.of("p50", 50.0, "p90", 90.0, "p99", 99.0, "p999", 99.9);
 
 
     public record Entry<T>(AccessibleObject type, String description, Supplier<T> supplier) {
@@ -143,6 +145,14 @@ public class Metrics {
                 tmp=new Entry<>(en.type(), en.description(),
                         () -> Optional.ofNullable((AverageMinMax)en.supplier().get()).map(AverageMinMax::max).orElse(null));
                 retval.put(e.getKey() + ".max", tmp);
+                if(Histogram.class.isAssignableFrom(cl)) {
+                    for(Map.Entry<String,Double> p: PERCENTILES.entrySet()) {
+                        double percentile=p.getValue();
+                        tmp=new Entry<>(en.type(), en.description(),
+                                        () -> Optional.ofNullable((Histogram)en.supplier().get()).map(h -> h.p(percentile)).orElse(null));
+                        retval.put(e.getKey() + "." + p.getKey(), tmp);
+                    }
+                }
             }
             else if(Average.class.isAssignableFrom(cl)) {
                 Entry<Number> tmp=new Entry<>(en.type(), en.description(),
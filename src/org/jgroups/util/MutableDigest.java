@@ -2,7 +2,10 @@ package org.jgroups.util;
 
 import org.jgroups.Address;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.function.LongBinaryOperator;
 import java.util.function.Supplier;
 
 /**
@@ -62,8 +65,17 @@ public class MutableDigest extends Digest {
     public MutableDigest set(Digest digest) {
         if(digest == null)
             return this;
-        for(Entry entry: digest)
-            set(entry.member(), entry.hd(), entry.hr());
+        if(sameMembers(digest)) {
+            System.arraycopy(digest.seqnos, 0, seqnos, 0, seqnos.length);
+            return this;
+        }
+        for(int i=0; i < digest.capacity(); i++) {
+            int index=find(digest.members[i], i);
+            if(index >= 0) {
+                seqnos[index * 2]=digest.seqnos[i * 2];
+                seqnos[index * 2 +1]=digest.seqnos[i * 2 +1];
+            }
+        }
         return this;
     }
 
@@ -72,10 +84,55 @@ public class MutableDigest extends Digest {
      * Adds a digest to this digest. For each sender in the other digest, the merge() method will be called.
      */
     public MutableDigest merge(Digest digest) {
+        return merge(digest, Math::max, Math::max);
+    }
+
+    /**
+     * Merges a digest into this digest: for each member of digest which is also a member of this digest, the new
+     * highest delivered seqno is hd_op(this.hd, digest.hd) and the new highest received seqno is
+     * hr_op(this.hr, digest.hr). Doesn't allocate memory, and is linear if both digests have the same members
+     */
+    public MutableDigest merge(Digest digest, LongBinaryOperator hd_op, LongBinaryOperator hr_op) {
         if(digest == null)
             return this;
-        for(Entry entry: digest)
-            merge(entry.member(), entry.hd(), entry.hr());
+        boolean same_mbrs=sameMembers(digest);
+        for(int i=0; i < digest.capacity(); i++) {
+            int index=same_mbrs? i : find(digest.members[i], i);
+            if(index >= 0) {
+                seqnos[index * 2]=hd_op.applyAsLong(seqnos[index * 2], digest.seqnos[i * 2]);
+                seqnos[index * 2 +1]=hr_op.applyAsLong(seqnos[index * 2 +1], digest.seqnos[i * 2 +1]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Reads a digest written by {@link Digest#writeTo(java.io.DataOutput,boolean)} from a stream and merges it into
+     * this digest (same as {@link #merge(Digest)}), without creating an intermediate digest. If read_addrs is false,
+     * the digest must have been written with the same members (in the same order) as this digest
+     */
+    public MutableDigest merge(DataInput in, boolean read_addrs) throws IOException, ClassNotFoundException {
+        Address[] mbrs=null;
+        int num_mbrs;
+        if(read_addrs) {
+            mbrs=Util.readAddresses(in);
+            num_mbrs=mbrs != null? mbrs.length : 0;
+        }
+        else {
+            num_mbrs=in.readShort();
+            if(num_mbrs != capacity())
+                throw new IOException(String.format("digest in stream has %d members, but %d were expected",
+                                                    num_mbrs, capacity()));
+        }
+        long[] tmp=new long[2];
+        for(int i=0; i < num_mbrs; i++) {
+            Bits.readLongSequence(in, tmp, 0);
+            int index=mbrs == null? i : find(mbrs[i], i);
+            if(index >= 0) {
+                seqnos[index * 2]=Math.max(seqnos[index * 2], tmp[0]);
+                seqnos[index * 2 +1]=Math.max(seqnos[index * 2 +1], tmp[1]);
+            }
+        }
         return this;
     }
 
@@ -88,12 +145,12 @@ public class MutableDigest extends Digest {
      * </ol>
      */
     public MutableDigest merge(final Address member, final long highest_delivered_seqno, final long highest_received_seqno) {
-        if(member == null)
-            return this;
-        long[] entry=get(member);
-        long hd=entry == null? highest_delivered_seqno : Math.max(entry[0],highest_delivered_seqno);
-        long hr=entry == null? highest_received_seqno  : Math.max(entry[1],highest_received_seqno);
-        return set(member, hd, hr);
+        int index=find(member);
+        if(index >= 0) {
+            seqnos[index * 2]=Math.max(seqnos[index * 2], highest_delivered_seqno);
+            seqnos[index * 2 +1]=Math.max(seqnos[index * 2 +1], highest_received_seqno);
+        }
+        return this;
     }
 
 
@@ -0,0 +1,254 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.Receiver;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.blocks.RequestCorrelator;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.TP;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+
+import static org.jgroups.conf.AttributeType.SCALAR;
+
+/**
+ * {@link org.jgroups.stack.MessageProcessingPolicy} which hashes the senders of <em>regular</em> messages and message
+ * batches onto a fixed set of worker threads. Each worker drains its own queue, so messages from the same sender are
+ * always processed by the same thread, in the order in which they were received. OOB messages and batches are passed
+ * to the thread pool, as in {@link SubmitToThreadPool}.
+ * <p>
+ * RPC responses (messages with a {@link RequestCorrelator.Header} of the default request correlator) are also passed
+ * to the thread pool: a synchronous RPC made by a worker thread (e.g. in {@link Receiver#receive(Message)}) would
+ * otherwise deadlock when the response is hashed onto the caller's worker. Responses of request correlators with a
+ * different ID are not detected, so RPCs made inside receive() through such a correlator need to be OOB.
+ * <p>
+ * Compared to {@link MaxOneThreadPerSender}, there is no per-sender table (and no lock), and a given sender's messages
+ * are always processed by the same thread (better cache locality). The downside is that a sender whose messages take
+ * a long time to process delays the other senders which hash to the same worker.
+ * <p>
+ * The queues are {@link ConcurrentBlockingRingBuffer}s (multiple producers, e.g. the unicast and multicast receiver
+ * threads in UDP, and a single consumer). When a queue is full, receiver threads block until space is available.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class PartitionedPolicy extends SubmitToThreadPool {
+
+    @Property(description="Number of worker threads. 0 uses the number of cores",writable=false)
+    protected int             num_workers;
+
+    @Property(description="Capacity of the queue of each worker thread",writable=false)
+    protected int             queue_capacity=1024;
+
+    @Property(description="Max number of elements removed from a worker's queue in one go")
+    protected int             remove_queue_capacity=256;
+
+    protected Worker[]        workers;
+    protected volatile boolean stopped; // set by destroy(): no more work is accepted
+
+    protected static final String THREAD_NAME="partitioned-policy";
+    protected static final short  CORR_ID=ClassConfigurator.getProtocolId(RequestCorrelator.class);
+
+    public int               numWorkers()                {return num_workers;}
+    public PartitionedPolicy numWorkers(int n)           {this.num_workers=n; return this;}
+    public int               queueCapacity()             {return queue_capacity;}
+    public PartitionedPolicy queueCapacity(int c)        {this.queue_capacity=c; return this;}
+
+    @ManagedAttribute(description="Number of messages and batches processed by the worker threads",type=SCALAR)
+    public long numProcessed() {
+        return workers == null? 0 : Arrays.stream(workers).mapToLong(w -> w.processed).sum();
+    }
+
+    @ManagedOperation(description="Prints the queue sizes and processed messages/batches of all workers")
+    public String dump() {
+        return workers == null? "n/a" : Arrays.stream(workers).map(Worker::toString).collect(Collectors.joining("\n"));
+    }
+
+    public void init(TP transport) {
+        super.init(transport);
+        if(workers != null)
+            return;
+        int num=num_workers > 0? num_workers : Runtime.getRuntime().availableProcessors();
+        workers=new Worker[num];
+        for(int i=0; i < num; i++)
+            workers[i]=new Worker(i);
+    }
+
+    public void reset() {
+        if(workers != null)
+            Arrays.stream(workers).forEach(w -> w.processed=0);
+    }
+
+    public void destroy() {
+        stopped=true;
+        if(workers != null)
+            Arrays.stream(workers).forEach(Worker::stop);
+    }
+
+    public boolean loopback(Message msg, boolean oob) {
+        if(oob || isResponse(msg))
+            return super.loopback(msg, oob);
+        return !stopped && worker(msg.getSrc()).add(new Loopback(msg));
+    }
+
+    public boolean loopback(MessageBatch batch, boolean oob) {
+        if(oob)
+            return super.loopback(batch, oob);
+        MessageBatch rsps=removeResponses(batch);
+        if(rsps != null)
+            super.loopback(rsps, false);
+        return batch.isEmpty() || !stopped && worker(batch.sender()).add(new Loopback(batch));
+    }
+
+    public boolean process(Message msg, boolean oob) {
+        if(oob || isResponse(msg))
+            return super.process(msg, oob);
+        Address sender=msg.getSrc();
+        return sender != null && !stopped && worker(sender).add(msg);
+    }
+
+    public boolean process(MessageBatch batch, boolean oob) {
+        if(oob)
+            return super.process(batch, oob);
+        MessageBatch rsps=removeResponses(batch);
+        if(rsps != null)
+            super.process(rsps, false);
+        return batch.isEmpty() || !stopped && worker(batch.sender()).add(batch);
+    }
+
+    protected Worker worker(Address sender) {
+        int index=sender == null? 0 : Math.floorMod(sender.hashCode(), workers.length);
+        return workers[index].start();
+    }
+
+    /** Whether the message is an RPC response, which must not be processed by the worker of its sender */
+    protected static boolean isResponse(Message msg) {
+        return msg.getHeader(CORR_ID) instanceof RequestCorrelator.Header hdr && hdr.type != RequestCorrelator.Header.REQ;
+    }
+
+    /** Removes the RPC responses from a batch and returns them in a new batch, or returns null if there are none */
+    protected static MessageBatch removeResponses(MessageBatch batch) {
+        MessageBatch rsps=null;
+        for(Iterator<Message> it=batch.iterator(); it.hasNext();) {
+            Message msg=it.next();
+            if(isResponse(msg)) {
+                if(rsps == null)
+                    rsps=new MessageBatch(batch.dest(), batch.sender(), batch.clusterName(), batch.multicast(),
+                                          batch.mode(), 4);
+                rsps.add(msg);
+                it.remove();
+            }
+        }
+        return rsps;
+    }
+
+
+    /** Wraps a message or batch which is looped back (not received from the network) */
+    protected record Loopback(Object msg_or_batch) {}
+
+
+    protected class Worker implements Runnable {
+        protected final int                   index;
+        protected final BlockingQueue<Object> queue; // Messages, MessageBatches or Loopback instances
+        protected final FastArray<Object>     remove_queue;
+        protected volatile Runner             runner;
+        protected volatile long               processed; // only incremented by the worker thread
+
+        protected Worker(int index) {
+            this.index=index;
+            this.queue=new ConcurrentBlockingRingBuffer<>(queue_capacity, true, true);
+            this.remove_queue=new FastArray<>(remove_queue_capacity);
+        }
+
+        protected Worker start() {
+            if(stopped)
+                return this;
+            Runner r=runner;
+            if(r == null || !r.isRunning())
+                startRunner();
+            return this;
+        }
+
+        protected synchronized void startRunner() {
+            if(stopped) // destroy() may have been called concurrently
+                return;
+            if(runner == null) // created lazily: the transport's thread factory is not available in init()
+                runner=new Runner(tp.getThreadFactory(), THREAD_NAME + "-" + index, this, null).joinTimeout(0);
+            runner.start();
+        }
+
+        protected synchronized void stop() {
+            Util.close(runner);
+            queue.clear();
+        }
+
+        protected boolean add(Object obj) {
+            if(stopped)
+                return false;
+            if(queue.offer(obj))
+                return true;
+            Runner r=runner;
+            if(r != null && Thread.currentThread() == r.getThread()) {
+                // the worker itself adds an element (e.g. a message to self sent by the application while being
+                // delivered a message): blocking would deadlock, so we process the element directly
+                handle(obj);
+                return true;
+            }
+            try {
+                queue.put(obj);
+                return true;
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        public void run() {
+            try {
+                handle(queue.take());
+                for(;;) {
+                    remove_queue.clear(false);
+                    int num=queue.drainTo(remove_queue, remove_queue_capacity);
+                    if(num <= 0)
+                        break;
+                    remove_queue.forEach(this::handle);
+                }
+            }
+            catch(InterruptedException ignored) {
+            }
+        }
+
+        protected void handle(Object obj) {
+            try {
+                boolean loopback=obj instanceof Loopback;
+                if(loopback)
+                    obj=((Loopback)obj).msg_or_batch();
+                if(obj instanceof Message) {
+                    Message msg=(Message)obj;
+                    tp.passMessageUp(msg, !loopback, msg.getDest() == null, !loopback);
+                }
+                else {
+                    MessageBatch batch=(MessageBatch)obj;
+                    if(!batch.isEmpty() && (batch.multicast() || !tp.unicastDestMismatch(batch.dest())))
+                        tp.passBatchUp(batch, !loopback, !loopback);
+                }
+            }
+            catch(Throwable t) {
+                log.failSafeError("failed processing message or batch", t);
+            }
+            finally {
+                processed++;
+            }
+        }
+
+        public String toString() {
+            return String.format("%s-%d: queue size=%d, processed=%,d", THREAD_NAME, index, queue.size(), processed);
+        }
+    }
+}
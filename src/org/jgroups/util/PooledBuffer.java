@@ -0,0 +1,62 @@
+package org.jgroups.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A byte array which is returned to its {@link BufferPool} when the reference count drops to 0. Receiver threads
+ * acquire a buffer from the pool, read data into it and release their reference when done. Messages whose payloads
+ * point into the buffer hold a reference each (see {@link org.jgroups.BytesMessage#readPayload(java.io.DataInput)}).
+ * <p>
+ * The array must not be accessed after the last reference has been released, as it may be reused by a different
+ * receiver thread.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class PooledBuffer implements Refcountable<PooledBuffer> {
+    protected final byte[]        buf;
+    protected final BufferPool    pool;
+    protected final AtomicInteger refs=new AtomicInteger();
+
+    public PooledBuffer(byte[] buf, BufferPool pool) {
+        this.buf=buf;
+        this.pool=pool;
+    }
+
+    public byte[]       array()    {return buf;}
+    public int          capacity() {return buf.length;}
+    public int          refCount() {return refs.get();}
+
+    /**
+     * Whether a payload of the given length may point into this buffer. Small payloads are copied instead, so that
+     * a small message which is held on to doesn't pin an entire buffer
+     */
+    public boolean canReference(int len) {
+        return pool == null || len >= pool.minPayloadSize();
+    }
+
+    public PooledBuffer retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    public boolean release() {
+        int count=refs.decrementAndGet();
+        if(count > 0)
+            return false;
+        if(count < 0)
+            throw new IllegalStateException(String.format("buffer was released too many times (refs=%d)", count));
+        if(pool != null)
+            pool.put(this);
+        return true;
+    }
+
+    /** Called by the pool when the buffer is handed out */
+    protected PooledBuffer acquired() {
+        refs.set(1);
+        return this;
+    }
+
+    public String toString() {
+        return String.format("%d bytes (refs=%d)", buf.length, refs.get());
+    }
+}
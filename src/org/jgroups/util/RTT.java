@@ -96,7 +96,7 @@ public class RTT {
         if(exclude_self)
             targets.remove(transport.addr());
         for(Address addr: targets) {
-            rtts.put(addr, new AverageMinMax(1024).usePercentiles(128).unit(TimeUnit.NANOSECONDS));
+            rtts.put(addr, new Histogram().unit(TimeUnit.NANOSECONDS));
             times.put(addr, new long[num_reqs]);
         }
         AsciiString cluster=transport.getClusterNameAscii();
@@ -152,8 +152,7 @@ public class RTT {
     }
 
     protected static String percentiles(AverageMinMax avg, int num_reqs) {
-        List<Long> values=avg.values();
-        int received=values.size(), non_received=num_reqs - received;
+        int received=avg.count(), non_received=num_reqs - received;
         double failure_rate=non_received == 0? 0.0 : (double)non_received / received;
         String failures=non_received == 0? "" : String.format(" (failure rate: %.2f)", failure_rate);
         return String.format("p90=%s p99=%s p99.9=%s%s", Util.printTime(avg.p(90), avg.unit()),
@@ -0,0 +1,31 @@
+package org.jgroups.util;
+
+/**
+ * An object holding a resource which is released when the reference count drops to 0
+ * @author Bela Ban
+ * @since  5.6
+ */
+public interface Refcountable<T> {
+
+    /** Increments the reference count */
+    T retain();
+
+    /**
+     * Decrements the reference count
+     * @return True if the reference count dropped to 0 and the resource was released, false otherwise
+     */
+    boolean release();
+
+    /** The current reference count */
+    int refCount();
+
+    /**
+     * Makes the object independent of the shared resource, e.g. by copying the data it points to, and releases its
+     * reference. Needs to be called before the object is stored beyond the lifetime of the resource. The default
+     * implementation does nothing
+     */
+    @SuppressWarnings("unchecked")
+    default T detach() {
+        return (T)this;
+    }
+}
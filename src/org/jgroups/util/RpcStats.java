@@ -156,7 +156,7 @@ public class RpcStats {
 
     protected static class Result {
         protected long                sync, async;
-        protected final AverageMinMax avg=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram     avg=new Histogram().unit(NANOSECONDS);
         protected long                sync()  {return sync;}
         protected long                async() {return async;}
         protected double              min()   {return avg.min();}
@@ -179,19 +179,19 @@ public class RpcStats {
 
     protected static class RTTStat {
         // RTT for a sync request
-        protected final Average total_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram total_time=new Histogram().unit(NANOSECONDS);
         // send until the req is serialized
-        protected final Average down_req_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram down_req_time=new Histogram().unit(NANOSECONDS);
         // serialization of req until deserialization
-        protected final Average network_req_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram network_req_time=new Histogram().unit(NANOSECONDS);
         // serialization of rsp until deserialization
-        protected final Average network_rsp_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram network_rsp_time=new Histogram().unit(NANOSECONDS);
         // deserialization of req until dispatching to app
-        protected final Average req_up_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram req_up_time=new Histogram().unit(NANOSECONDS);
         // deserialization of rsp until after dispatching to app
-        protected final Average rsp_up_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram rsp_up_time=new Histogram().unit(NANOSECONDS);
         // time between reception of req and sending of rsp
-        protected final Average processing_time=new AverageMinMax().unit(NANOSECONDS);
+        protected final Histogram processing_time=new Histogram().unit(NANOSECONDS);
 
         protected void add(RTTHeader hdr) {
             if(hdr == null)
@@ -198,7 +198,10 @@ public class SeqnoList extends FixedSizeBitSet implements SizeStreamable, Iterab
             return seqno(next_index);
         }
 
-        public void remove() { // not supported
+        /** Removes the seqno returned by the last call to {@link #next()} */
+        public void remove() {
+            if(index > 0)
+                clear(index-1);
         }
     }
 }
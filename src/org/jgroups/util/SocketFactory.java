@@ -3,12 +3,14 @@ package org.jgroups.util;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.ProtocolFamily;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
@@ -68,6 +70,11 @@ public interface SocketFactory {
         return createServerSocketChannel(service_name).bind(new InetSocketAddress(bindAddr, port), backlog);
     }
 
+    /** Creates an unbound {@link DatagramChannel} of the given protocol family (e.g. used by UDP_NIO) */
+    default DatagramChannel createDatagramChannel(String service_name, ProtocolFamily family) throws IOException {
+        return getSelectorProvider().openDatagramChannel(family);
+    }
+
     DatagramSocket createDatagramSocket(String service_name) throws SocketException;
     DatagramSocket createDatagramSocket(String service_name, SocketAddress bindaddr) throws SocketException;
     DatagramSocket createDatagramSocket(String service_name, int port) throws SocketException;
@@ -86,4 +93,7 @@ public interface SocketFactory {
     default void close(ServerSocketChannel channel) {
         Util.close(channel);
     }
+    default void close(DatagramChannel channel) {
+        Util.close(channel);
+    }
 }
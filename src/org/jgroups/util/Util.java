@@ -51,6 +51,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static org.jgroups.protocols.TP.COMPACT;
 import static org.jgroups.protocols.TP.LIST;
 import static org.jgroups.protocols.TP.MULTICAST;
 
@@ -1319,8 +1320,8 @@ public class Util {
         for(ByteBuffer b: bufs) {
             if(b == null)
                 continue;
-            int offset=b.hasArray()? b.arrayOffset() + b.position() : b.position(), len=b.remaining();
-            b.get(offset, tmp, index, len);
+            int len=b.remaining();
+            b.get(b.position(), tmp, index, len); // absolute get: index is relative to the buffer, not the array
             index+=len;
         }
         return new ByteArray(tmp, 0, tmp.length);
@@ -1758,7 +1759,8 @@ public class Util {
                 boolean is_message_list=(flags & LIST) == LIST;
                 boolean multicast=(flags & MULTICAST) == MULTICAST;
                 if(is_message_list) { // used if message bundling is enabled
-                    final MessageBatch[] batches=Util.readMessageBatch(dis,multicast);
+                    final MessageBatch[] batches=(flags & COMPACT) == COMPACT?
+                      CompactMessageList.readMessageBatch(dis, multicast) : Util.readMessageBatch(dis,multicast);
                     for(MessageBatch batch: batches) {
                         if(batch == null)
                             continue;
@@ -1817,7 +1819,8 @@ public class Util {
             boolean is_message_list=(flags & LIST) == LIST;
             boolean multicast=(flags & MULTICAST) == MULTICAST;
             if(is_message_list) {
-                final MessageBatch[] batches=Util.readMessageBatch(in, multicast);
+                final MessageBatch[] batches=(flags & COMPACT) == COMPACT?
+                  CompactMessageList.readMessageBatch(in, multicast) : Util.readMessageBatch(in, multicast);
                 for(MessageBatch batch: batches) {
                     if(batch == null)
                         continue;
@@ -1913,8 +1916,54 @@ public class Util {
             writeOtherAddress(addr,out);
     }
 
+    /**
+     * Writes an address as index into the members of a view, if index >= 0. The view is identified by its numeric id
+     * and the hash of its creator ({@link #hash(ViewId)}), which is more compact than the full view-id. Otherwise, the
+     * address is written as with {@link #writeAddress(Address, DataOutput)}. The reader
+     * ({@link #readAddress(DataInput, byte)}) needs to check the flags for {@link Address#MEMBER_INDEX}.
+     * @see #memberAt(View, long, int, int)
+     */
+    public static void writeAddress(Address addr, int index, long view_id, int creator_hash, DataOutput out)
+      throws IOException {
+        if(index < 0) {
+            writeAddress(addr, out);
+            return;
+        }
+        out.writeByte(Address.MEMBER_INDEX);
+        Bits.writeVarLong(view_id, out);
+        out.writeInt(creator_hash);
+        Bits.writeVarLong(index, out);
+    }
+
+    public static int size(Address addr, int index, long view_id) {
+        return index < 0? size(addr) : Global.BYTE_SIZE + Bits.sizeVarLong(view_id) + Global.INT_SIZE
+          + Bits.sizeVarLong(index);
+    }
+
+    /** Returns the hash of the creator of a view-id, used to tell views with the same numeric id apart */
+    public static int hash(ViewId view_id) {
+        Address creator=view_id != null? view_id.getCreator() : null;
+        return creator != null? creator.hashCode() : 0;
+    }
+
+    /**
+     * Returns the member at the given index in view, or null if the view's numeric id or the hash of its creator
+     * don't match, or the index is out of range. The creator is compared, as the views of different partitions can
+     * have the same numeric id
+     */
+    public static Address memberAt(View view, long view_id, int creator_hash, int index) {
+        if(view == null || view.getViewId().getId() != view_id || hash(view.getViewId()) != creator_hash)
+            return null;
+        Address[] mbrs=view.getMembersRaw();
+        return index >= 0 && index < mbrs.length? mbrs[index] : null;
+    }
+
     public static Address readAddress(DataInput in) throws IOException, ClassNotFoundException {
-        byte flags=in.readByte();
+        return readAddress(in, in.readByte());
+    }
+
+    /** Reads an address whose flags have already been read */
+    public static Address readAddress(DataInput in, byte flags) throws IOException, ClassNotFoundException {
         if(Util.isFlagSet(flags,Address.NULL))
             return null;
 
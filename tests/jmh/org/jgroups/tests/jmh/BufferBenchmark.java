@@ -0,0 +1,69 @@
+package org.jgroups.tests.jmh;
+
+import org.jgroups.EmptyMessage;
+import org.jgroups.Message;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.ConcurrentFixedBuffer;
+import org.jgroups.util.DynamicBuffer;
+import org.jgroups.util.FixedBuffer;
+import org.jgroups.util.Table;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding messages to and removing them from the retransmission buffers used by NAKACK2 ({@link Table}),
+ * NAKACK3/UNICAST4 ({@link DynamicBuffer}) and NAKACK4/UNICAST4 ({@link FixedBuffer}, {@link ConcurrentFixedBuffer}).
+ * Each invocation adds {@link #batch} messages, looks up all of them, then removes and purges them. The results are
+ * per message.
+ * @author Bela Ban
+ * @since  5.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+@OperationsPerInvocation(BufferBenchmark.BATCH)
+public class BufferBenchmark {
+    protected static final int BATCH=100;
+    protected static final Message MSG=new EmptyMessage(null);
+
+    @Param({"fixed", "concurrent", "dynamic", "table"})
+    protected String          type;
+
+    protected int             batch=BATCH;
+    protected Buffer<Message> buf;   // FixedBuffer, ConcurrentFixedBuffer or DynamicBuffer
+    protected Table<Message>  table;
+    protected long            seqno; // the last added seqno
+
+    @Setup
+    public void setup() {
+        switch(type) {
+            case "fixed"      -> buf=new FixedBuffer<>(8192, 0);
+            case "concurrent" -> buf=new ConcurrentFixedBuffer<>(8192, 0);
+            case "dynamic"    -> buf=new DynamicBuffer<>(0);
+            case "table"      -> table=new Table<>(0);
+            default           -> throw new IllegalArgumentException("type " + type + " not known");
+        }
+    }
+
+    @Benchmark
+    public void addAndRemove(Blackhole bh) {
+        long from=seqno+1, to=seqno+batch;
+        for(long i=from; i <= to; i++)
+            bh.consume(buf != null? buf.add(i, MSG) : table.add(i, MSG));
+        for(long i=from; i <= to; i++)
+            bh.consume(buf != null? buf.get(i) : table.get(i));
+        List<Message> list=buf != null? buf.removeMany(true, batch) : table.removeMany(true, batch);
+        bh.consume(list);
+        if(buf != null)
+            buf.purge(to);
+        else
+            table.purge(to);
+        seqno=to;
+    }
+}
@@ -0,0 +1,73 @@
+package org.jgroups.tests.jmh;
+
+import org.jgroups.*;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the send path through the bundlers: a number of threads send messages from A to B (unicast) or to all
+ * members (multicast) over {@link SHARED_LOOPBACK}, so that the protocols, serialization and bundling, but no
+ * networking, are measured. The number of messages received is only used to check that messages are actually delivered.
+ * @author Bela Ban
+ * @since  5.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+@Threads(4)
+public class BundlerBenchmark {
+    @Param({"transfer-queue", "per-destination", "ring-buffer", "adaptive", "no-bundler"})
+    protected String         bundler;
+
+    @Param({"100", "1000"})
+    protected int            msg_size;
+
+    @Param({"true", "false"})
+    protected boolean        unicast;
+
+    protected JChannel       a, b;
+    protected Address        dest;
+    protected byte[]         payload;
+    protected final LongAdder received=new LongAdder();
+
+    @Setup
+    public void setup() throws Exception {
+        a=create("A").connect(BundlerBenchmark.class.getSimpleName());
+        b=create("B").connect(BundlerBenchmark.class.getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        b.setReceiver(new Receiver() {
+            public void receive(Message msg) {received.increment();}
+        });
+        dest=unicast? b.getAddress() : null;
+        payload=new byte[msg_size];
+    }
+
+    @TearDown
+    public void destroy() {
+        if(received.sum() == 0)
+            throw new IllegalStateException("B didn't receive any messages");
+        Util.close(b, a);
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        a.send(new BytesMessage(dest, payload).setFlag(Message.TransientFlag.DONT_LOOPBACK));
+    }
+
+    protected JChannel create(String name) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK().setBundlerType(bundler), new SHARED_LOOPBACK_PING(),
+                            new NAKACK2(), new UNICAST3(), new STABLE(), new GMS()).name(name);
+    }
+}
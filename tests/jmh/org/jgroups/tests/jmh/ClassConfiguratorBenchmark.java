@@ -0,0 +1,48 @@
+package org.jgroups.tests.jmh;
+
+import org.jgroups.Header;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups in {@link ClassConfigurator} done for every header that is read or written: magic number
+ * -&gt; instance, class -&gt; magic number and protocol class -&gt; protocol ID
+ * @author Bela Ban
+ * @since  5.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ClassConfiguratorBenchmark {
+    protected short magic;
+
+    @Setup
+    public void setup() {
+        magic=ClassConfigurator.getMagicNumber(NakAckHeader2.class);
+        if(magic < 0)
+            throw new IllegalStateException(NakAckHeader2.class.getSimpleName() + " has no magic number");
+    }
+
+    @Benchmark
+    public Header create() throws Exception {
+        return ClassConfigurator.create(magic);
+    }
+
+    @Benchmark
+    public short getMagicNumber() {
+        return ClassConfigurator.getMagicNumber(NakAckHeader2.class);
+    }
+
+    @Benchmark
+    public short getProtocolId() {
+        return (short)(ClassConfigurator.getProtocolId(NAKACK2.class) + ClassConfigurator.getProtocolId(UNICAST3.class));
+    }
+}
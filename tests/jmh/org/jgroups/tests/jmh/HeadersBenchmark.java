@@ -0,0 +1,74 @@
+package org.jgroups.tests.jmh;
+
+import org.jgroups.BaseMessage;
+import org.jgroups.BytesMessage;
+import org.jgroups.Header;
+import org.jgroups.protocols.FragHeader;
+import org.jgroups.protocols.TpHeader;
+import org.jgroups.protocols.UnicastHeader3;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Headers;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Headers#writeHeaders(Header[], java.io.DataOutput)} and {@link Headers#readHeaders(java.io.DataInput)}
+ * with the headers of a typical (unicast or multicast) application message
+ * @author Bela Ban
+ * @since  5.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class HeadersBenchmark {
+    protected static final short TP_ID=1, NAKACK_ID=57, UNICAST_ID=58, FRAG_ID=60;
+
+    @Param({"mcast", "ucast", "frag"})
+    protected String                    type;
+
+    protected Header[]                  hdrs;
+    protected ByteArrayDataOutputStream out;
+    protected byte[]                    buf;
+    protected int                       length;
+
+    @Setup
+    public void setup() throws Exception {
+        BaseMessage msg=new BytesMessage(null, new byte[100]);
+        msg.putHeader(TP_ID, new TpHeader("cluster"));
+        switch(type) {
+            case "mcast" -> msg.putHeader(NAKACK_ID, NakAckHeader2.createMessageHeader(322649));
+            case "ucast" -> msg.putHeader(UNICAST_ID, UnicastHeader3.createDataHeader(322649, (short)3, false));
+            case "frag"  -> msg.putHeader(NAKACK_ID, NakAckHeader2.createMessageHeader(322649))
+              .putHeader(FRAG_ID, new FragHeader(1234, 2, 10));
+            default      -> throw new IllegalArgumentException("type " + type + " not known");
+        }
+        hdrs=msg.headers();
+        out=new ByteArrayDataOutputStream(256);
+        Headers.writeHeaders(hdrs, out);
+        buf=out.buffer();
+        length=out.position();
+    }
+
+    @Benchmark
+    public int writeHeaders() throws Exception {
+        out.position(0);
+        Headers.writeHeaders(hdrs, out);
+        return out.position();
+    }
+
+    @Benchmark
+    public Header[] readHeaders() throws Exception {
+        return Headers.readHeaders(new ByteArrayDataInputStream(buf, 0, length));
+    }
+
+    @Benchmark
+    public Header getHeader() {
+        return Headers.getHeader(hdrs, NAKACK_ID);
+    }
+}
@@ -0,0 +1,110 @@
+package org.jgroups.tests.jmh;
+
+import org.jgroups.*;
+import org.jgroups.protocols.TpHeader;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.util.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the (de)serialization of message lists ({@link Util#writeMessageList(Address, Address, byte[], List, java.io.DataOutput, boolean)},
+ * {@link Util#readMessageBatch(java.io.DataInput, boolean)} and the compact format of {@link CompactMessageList}),
+ * and common {@link MessageBatch} operations. The results are per batch.
+ * @author Bela Ban
+ * @since  5.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class MessageBatchBenchmark {
+    protected static final short   TP_ID=1, NAKACK_ID=57;
+    protected static final byte[]  CLUSTER="cluster".getBytes();
+    protected static final Address SRC=Util.createRandomAddress("A");
+
+    @Param({"10", "100"})
+    protected int                       num_msgs;
+
+    @Param({"100", "1000"})
+    protected int                       msg_size;
+
+    protected List<Message>             msgs;
+    protected ByteArrayDataOutputStream out;
+    protected byte[]                    buf, compact_buf;
+    protected int                       length, compact_length;
+
+    @Setup
+    public void setup() throws Exception {
+        TpHeader tp_hdr=new TpHeader(CLUSTER);
+        msgs=new ArrayList<>(num_msgs);
+        for(int i=1; i <= num_msgs; i++)
+            msgs.add(new BytesMessage(null, new byte[msg_size]).setSrc(SRC)
+                       .putHeader(TP_ID, tp_hdr).putHeader(NAKACK_ID, NakAckHeader2.createMessageHeader(i)));
+        out=new ByteArrayDataOutputStream(num_msgs * (msg_size + 100));
+        Util.writeMessageList(null, SRC, CLUSTER, msgs, out, true);
+        buf=out.buffer().clone();
+        length=out.position();
+        out.position(0);
+        CompactMessageList.writeMessageList(null, SRC, CLUSTER, msgs, out, true);
+        compact_buf=out.buffer().clone();
+        compact_length=out.position();
+    }
+
+    @Benchmark
+    public int writeMessageList() throws Exception {
+        out.position(0);
+        Util.writeMessageList(null, SRC, CLUSTER, msgs, out, true);
+        return out.position();
+    }
+
+    @Benchmark
+    public int writeMessageListCompact() throws Exception {
+        out.position(0);
+        CompactMessageList.writeMessageList(null, SRC, CLUSTER, msgs, out, true);
+        return out.position();
+    }
+
+    @Benchmark
+    public MessageBatch[] readMessageBatch() throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, 0, length);
+        in.readShort(); // version
+        in.readByte();  // flags
+        return Util.readMessageBatch(in, true);
+    }
+
+    @Benchmark
+    public MessageBatch[] readMessageBatchCompact() throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(compact_buf, 0, compact_length);
+        in.readShort(); // version
+        in.readByte();  // flags
+        return CompactMessageList.readMessageBatch(in, true);
+    }
+
+    /** Creates a batch, adds all messages, iterates over them and removes every other message */
+    @Benchmark
+    public MessageBatch addIterateRemove(Blackhole bh) {
+        MessageBatch batch=new MessageBatch(null, SRC, null, true, MessageBatch.Mode.REG, 16);
+        for(Message msg: msgs)
+            batch.add(msg);
+        for(Message msg: batch)
+            bh.consume(msg.getHeader(NAKACK_ID));
+        batch.removeIf(m -> ((NakAckHeader2)m.getHeader(NAKACK_ID)).getSeqno() % 2 == 0, true);
+        bh.consume(batch.length());
+        return batch;
+    }
+
+    /** Transfers all messages from one batch into another one, as done when messages are delivered */
+    @Benchmark
+    public int transfer() {
+        MessageBatch from=new MessageBatch(null, SRC, null, true, MessageBatch.Mode.REG, num_msgs).add(msgs),
+          to=new MessageBatch(null, SRC, null, true, MessageBatch.Mode.REG, num_msgs);
+        return to.transferFrom(from, true);
+    }
+}
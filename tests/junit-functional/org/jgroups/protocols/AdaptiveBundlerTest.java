@@ -0,0 +1,136 @@
+package org.jgroups.protocols;
+
+import org.jgroups.BytesMessage;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Tests {@link AdaptiveBundler}. The decisions are tested with synthetic windows, so they don't depend on timing
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class AdaptiveBundlerTest {
+    protected JChannel                           a, b;
+    protected AdaptiveBundler                    bundler;
+    protected AdaptiveBundler.AdaptiveSendBuffer buf;
+    protected static final long                  TARGET=200_000, MAX_LINGER=TARGET/2; // ns
+    protected static final int                   MAX_SIZE=64_000, MIN_SIZE=1500;
+    protected static final String                CLUSTER=AdaptiveBundlerTest.class.getSimpleName();
+
+    @BeforeMethod protected void createBuffer() {
+        bundler=new AdaptiveBundler().latencyTarget(200).minBundleSize(MIN_SIZE).window(100);
+        bundler.setMaxSize(MAX_SIZE);
+        bundler.transport=new SHARED_LOOPBACK();
+        buf=bundler.new AdaptiveSendBuffer(Util.createRandomAddress("B"));
+    }
+
+    @AfterMethod protected void destroy() {Util.closeReverse(a, b);}
+
+    /** More violations than allowed by the percentile halve the bundle size, down to min_bundle_size */
+    public void testBundleSizeDecreases() {
+        assert buf.bundle_size == MAX_SIZE;
+        window(100, 1000, 2, 300_000, 10_000_000); // 1 violation per 100 bundles is allowed at 99%
+        assert buf.bundle_size == MAX_SIZE / 2 && bundler.num_decreases.sum() == 1;
+        for(int i=0; i < 10; i++)
+            window(100, 1000, 50, 300_000, 10_000_000);
+        assert buf.bundle_size == MIN_SIZE;
+    }
+
+    /** The allowed number of violations changes neither bundle size nor linger time */
+    public void testAllowedViolations() {
+        window(100, 1000, 1, 300_000, 10_000_000);
+        assert buf.bundle_size == MAX_SIZE && buf.linger == 0;
+        assert bundler.num_decreases.sum() == 0 && bundler.num_increases.sum() == 0;
+    }
+
+    /** Without violations, the bundle size grows back to max_size */
+    public void testBundleSizeIncreases() {
+        buf.bundle_size=MIN_SIZE;
+        window(100, 10, 0, 1000, 1_000_000_000);
+        assert buf.bundle_size == 2 * MIN_SIZE && bundler.num_increases.sum() == 1;
+        for(int i=0; i < 100; i++)
+            window(100, 10, 0, 1000, 1_000_000_000);
+        assert buf.bundle_size == MAX_SIZE;
+    }
+
+    /** At a high rate, lingering is enabled, and the linger time doubles up to half the latency target */
+    public void testLingerAtHighRate() {
+        assert buf.linger == 0;
+        window(100, 10_000, 0, 10_000, 10_000_000); // 1M msgs/sec: 1 message every us
+        assert buf.rate == 1_000_000 && buf.linger == 2_000 : buf.decisions();
+        window(100, 10_000, 0, 10_000, 10_000_000);
+        assert buf.linger == 4_000 : buf.decisions();
+        for(int i=0; i < 20; i++)
+            window(100, 10_000, 0, 10_000, 10_000_000);
+        assert buf.linger == MAX_LINGER : buf.decisions();
+    }
+
+    /** At a low rate, lingering is disabled again */
+    public void testNoLingerAtLowRate() {
+        window(100, 10_000, 0, 10_000, 10_000_000);
+        assert buf.linger > 0;
+        window(100, 100, 0, 10_000, 1_000_000_000); // 100 msgs/sec
+        assert buf.rate == 100 && buf.linger == 0 : buf.decisions();
+    }
+
+    /** The linger time is not increased if the max delay plus the additional lingering would exceed the target */
+    public void testLingerLimitedByTarget() {
+        window(100, 10_000, 0, TARGET - 1000, 10_000_000);
+        assert buf.linger == 0 : buf.decisions();
+        window(100, 10_000, 0, 10_000, 10_000_000);
+        assert buf.linger == 2_000;
+        window(100, 10_000, 0, TARGET - 1000, 10_000_000);
+        assert buf.linger == 2_000 : buf.decisions();
+    }
+
+    /** Violations halve the linger time */
+    public void testLingerDecreases() {
+        for(int i=0; i < 3; i++)
+            window(100, 10_000, 0, 10_000, 10_000_000);
+        assert buf.linger == 8_000;
+        window(100, 10_000, 10, 300_000, 10_000_000);
+        assert buf.linger == 4_000 && buf.bundle_size == MAX_SIZE / 2;
+    }
+
+    /** Sends messages through a live cluster using the bundler; only checks that all messages are received */
+    public void testSendAndReceive() throws Exception {
+        a=create("A").connect(CLUSTER);
+        b=create("B").connect(CLUSTER);
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        MyReceiver<byte[]> rb=new MyReceiver<>();
+        b.setReceiver(rb);
+        for(int i=0; i < 10_000; i++)
+            a.send(new BytesMessage(b.address(), new byte[1000]));
+        Util.waitUntil(10000, 100, () -> rb.size() == 10_000, () -> String.format("B received %d messages", rb.size()));
+    }
+
+    /** Simulates the end of a window with the given number of bundles, messages, violations and max delay */
+    protected void window(int bundles, int msgs, int exceeded, long max_delay, long elapsed) {
+        buf.bundles=bundles;
+        buf.msgs_in_window=msgs;
+        buf.exceeded=exceeded;
+        buf.max_delay=max_delay;
+        buf.decide(elapsed);
+        assert buf.bundles == 0 && buf.msgs_in_window == 0 && buf.exceeded == 0 && buf.max_delay == 0;
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        AdaptiveBundler bundler=new AdaptiveBundler().latencyTarget(200).window(10);
+        TP transport=new SHARED_LOOPBACK().setBundler(bundler);
+        List<Protocol> prots=List.of(transport, new SHARED_LOOPBACK_PING(), new NAKACK2(), new UNICAST3(),
+                                     new STABLE(), new GMS());
+        return new JChannel(prots).name(name);
+    }
+}
@@ -0,0 +1,163 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.BufferPool;
+import org.jgroups.util.ByteArray;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.PooledBuffer;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests {@link FEC}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class FECTest {
+    protected JChannel            a, b;
+    protected MyReceiver<Integer> rb;
+    protected DROP                drop;
+    protected static final int    GROUP_SIZE=10;
+    protected static final String CLUSTER=FECTest.class.getSimpleName();
+
+    @BeforeMethod
+    protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        b.setReceiver(rb=new MyReceiver<>());
+        drop=new DROP();
+        b.stack().insertProtocol(drop, ProtocolStack.Position.ABOVE, TP.class); // below FEC
+        for(JChannel ch: new JChannel[]{a, b}) // lost messages must be reconstructed by FEC
+            ((NAKACK4)ch.stack().findProtocol(NAKACK4.class)).stopRetransmitTask();
+    }
+
+    @AfterMethod
+    protected void destroy() {
+        Util.closeReverse(a, b);
+    }
+
+    /** Drops 1 message of every group: all lost messages are reconstructed */
+    public void testRecovery() throws Exception {
+        final int NUM=100;
+        Set<Long> dropped=ConcurrentHashMap.newKeySet();
+        drop.addUpFilter(dropData((group, index) -> index == group % GROUP_SIZE && dropped.add(group)));
+        send(NUM);
+        Util.waitUntil(5000, 100, () -> rb.size() == NUM, () -> String.format("B received %d messages", rb.size()));
+        List<Integer> expected=IntStream.rangeClosed(1, NUM).boxed().collect(Collectors.toList());
+        assert expected.equals(rb.list()) : String.format("expected %s, got %s", expected, rb.list());
+        assert !dropped.isEmpty();
+        // the parity message (OOB) may overtake the last message of a group, which is then reconstructed, too
+        assert fec(b).numRecovered() >= dropped.size();
+        double redundancy=fec(a).getRedundancy();
+        System.out.printf("-- recovered %d messages, redundancy: %.2f\n", fec(b).numRecovered(), redundancy);
+        assert redundancy > 0;
+    }
+
+    /** The last message of a burst is lost; the parity message for the incomplete group is sent after max_delay */
+    public void testRecoveryOfIncompleteGroup() throws Exception {
+        drop.addUpFilter(dropData((group, index) -> group == 2 && index == 2));
+        send(GROUP_SIZE + 3);
+        Util.waitUntil(5000, 100, () -> rb.size() == GROUP_SIZE + 3,
+                       () -> String.format("B received %d messages", rb.size()));
+        assert fec(b).numRecovered() >= 1 : String.format("recovered %d messages", fec(b).numRecovered());
+    }
+
+    /**
+     * With 2 messages of a group lost, FEC cannot recover them, but retransmission by NAKACK4 does. Once one of them
+     * has been retransmitted, FEC may reconstruct the other one
+     */
+    public void testNoRecoveryOfMultipleLosses() throws Exception {
+        ((NAKACK4)b.stack().findProtocol(NAKACK4.class)).startRetransmitTask();
+        drop.addUpFilter(dropData((group, index) -> group == 1 && (index == 3 || index == 4)));
+        send(GROUP_SIZE);
+        Util.waitUntil(5000, 100, () -> rb.size() == GROUP_SIZE,
+                       () -> String.format("B received %d messages", rb.size()));
+        assert fec(b).numRecovered() <= 1;
+    }
+
+    public void testEncoding() throws Exception {
+        short id=fec(a).getId();
+        Message msg=new ObjectMessage(null, "hello world").setFlag(Message.Flag.OOB)
+          .putHeader((short)2000, NakAckHeader.createMessageHeader(322649))
+          .putHeader(id, FEC.FecHeader.createDataHeader(1, 2))
+          .putHeader((short)1000, NakAckHeader.createAckHeader(5));
+        ByteArray buf=FEC.encode(msg, id);
+        Message copy=FEC.decode(buf.getArray(), buf.getOffset(), buf.getLength());
+        assert copy.getHeader(id) == null;
+        assert copy.isFlagSet(Message.Flag.OOB);
+        assert "hello world".equals(copy.getObject());
+        assert ((NakAckHeader)copy.getHeader((short)2000)).getSeqno() == 322649;
+        // the encoding doesn't depend on the order of the headers
+        Message reordered=new ObjectMessage(null, "hello world").setFlag(Message.Flag.OOB)
+          .putHeader((short)1000, NakAckHeader.createAckHeader(5))
+          .putHeader((short)2000, NakAckHeader.createMessageHeader(322649));
+        ByteArray buf2=FEC.encode(reordered, id);
+        assert Arrays.equals(buf.getArray(), buf.getOffset(), buf.getOffset() + buf.getLength(),
+                             buf2.getArray(), buf2.getOffset(), buf2.getOffset() + buf2.getLength());
+    }
+
+    /** Messages are retained while their group may still need them for recovery, and released when it is done */
+    public void testGroupRetainsMessages() throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(128);
+        for(int i=0; i < 2; i++)
+            new BytesMessage(null, new byte[10]).writeTo(out);
+        PooledBuffer buf=new BufferPool(1, 1024).acquire();
+        System.arraycopy(out.buffer(), 0, buf.array(), 0, out.position());
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf.array(), 0, out.position()).pooledBuffer(buf);
+        BytesMessage m1=new BytesMessage(), m2=new BytesMessage();
+        m1.readFrom(in);
+        m2.readFrom(in);
+        FEC.Group g=new FEC.Group(1);
+        assert g.add(0, m1) && g.add(1, m2);
+        m1.release(); m2.release(); // delivered
+        assert buf.refCount() == 3 : buf; // 1 for the receiver thread and 1 per message in the group
+        g.parity(FEC.FecHeader.createParityHeader(1, new int[]{10, 10}, new int[]{0, 0}), new BytesMessage(null, new byte[10]));
+        assert g.done && buf.refCount() == 1 : buf;
+    }
+
+    protected void send(int num) throws Exception {
+        for(int i=1; i <= num; i++)
+            a.send(null, i);
+    }
+
+    /** Drops the data messages from A accepted by the predicate; retransmissions (same group and index) are passed */
+    protected Predicate<Message> dropData(GroupPredicate p) {
+        short id=fec(b).getId();
+        Address sender=a.address();
+        Set<Long> dropped=ConcurrentHashMap.newKeySet();
+        return msg -> sender.equals(msg.getSrc()) && msg.getHeader(id) instanceof FEC.FecHeader h
+          && h.type == FEC.FecHeader.DATA && p.test(h.group, h.index) && dropped.add(h.group * GROUP_SIZE + h.index);
+    }
+
+    protected static FEC fec(JChannel ch) {
+        return ch.stack().findProtocol(FEC.class);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStackNew()).name(name);
+        FEC fec=new FEC().groupSize(GROUP_SIZE);
+        ch.stack().insertProtocol(fec, ProtocolStack.Position.ABOVE, TP.class);
+        fec.init();
+        return ch.connect(CLUSTER);
+    }
+
+    @FunctionalInterface
+    protected interface GroupPredicate {
+        boolean test(long group, int index);
+    }
+}
@@ -0,0 +1,107 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Tests sending of message batches via gathering writes ({@link TP#sendUnicast(PhysicalAddress, java.nio.ByteBuffer[])})
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="transports")
+public class GatheringWriteTest {
+    protected JChannel                  a, b;
+    protected final MyReceiver<Message> ra=new MyReceiver<Message>().rawMsgs(true),
+                                        rb=new MyReceiver<Message>().rawMsgs(true);
+    protected static final int          NUM=500, SMALL=100, LARGE=5000;
+
+    @DataProvider
+    static Object[][] transports() {
+        return new Object[][]{{TCP.class},{TCP_NIO2.class}};
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    public void testUnicasts(Class<? extends TP> cl) throws Exception {
+        setup(cl);
+        for(int i=1; i <= NUM; i++)
+            a.send(create(b.getAddress(), i));
+        Util.waitUntil(10000, 100, () -> rb.size() == NUM, () -> String.format("B: %d", rb.size()));
+        check(rb.list());
+        assert ra.size() == 0;
+        assertGatheringWrites(a);
+    }
+
+    public void testMulticasts(Class<? extends TP> cl) throws Exception {
+        setup(cl);
+        for(int i=1; i <= NUM; i++)
+            a.send(create(null, i));
+        Util.waitUntil(10000, 100, () -> ra.size() == NUM && rb.size() == NUM,
+                       () -> String.format("A: %d, B: %d", ra.size(), rb.size()));
+        check(ra.list());
+        check(rb.list());
+        assertGatheringWrites(a);
+    }
+
+    /** max_gather_payloads=0 disables gathering writes */
+    public void testGatheringDisabled(Class<? extends TP> cl) throws Exception {
+        setup(cl);
+        BaseBundler bundler=(BaseBundler)a.stack().getTransport().getBundler();
+        bundler.maxGatherPayloads(0);
+        for(int i=1; i <= NUM; i++)
+            a.send(create(b.getAddress(), i));
+        Util.waitUntil(10000, 100, () -> rb.size() == NUM, () -> String.format("B: %d", rb.size()));
+        check(rb.list());
+        assert bundler.num_gathering_writes.sum() == 0;
+    }
+
+    /** Every other message is large; the first and last byte of the payload are the message number */
+    protected static Message create(Address dest, int num) {
+        byte[] buf=new byte[num % 2 == 0? LARGE : SMALL];
+        buf[0]=buf[buf.length-1]=(byte)num;
+        return new BytesMessage(dest, buf);
+    }
+
+    protected static void check(List<Message> list) {
+        for(int i=1; i <= NUM; i++) {
+            Message msg=list.get(i-1);
+            byte[] buf=msg.getArray();
+            int expected_size=i % 2 == 0? LARGE : SMALL;
+            assert msg.getLength() == expected_size : String.format("expected %d, but got %d", expected_size, msg.getLength());
+            assert buf[msg.getOffset()] == (byte)i && buf[msg.getOffset()+msg.getLength()-1] == (byte)i;
+        }
+    }
+
+    protected static void assertGatheringWrites(JChannel ch) {
+        BaseBundler bundler=(BaseBundler)ch.stack().getTransport().getBundler();
+        long num=bundler.num_gathering_writes.sum();
+        assert num > 0 : "expected gathering writes, but got none";
+    }
+
+    protected void setup(Class<? extends TP> cl) throws Exception {
+        a=create("A", cl).connect(GatheringWriteTest.class.getSimpleName());
+        b=create("B", cl).connect(GatheringWriteTest.class.getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        a.setReceiver(ra.reset());
+        b.setReceiver(rb.reset());
+    }
+
+    protected static JChannel create(String name, Class<? extends TP> cl) throws Exception {
+        TP transport=cl.getDeclaredConstructor().newInstance().setBindAddress(InetAddress.getLoopbackAddress());
+        Protocol[] prots={
+          transport, new LOCAL_PING(), new NAKACK2(), new UNICAST3(), new STABLE(), new GMS(), new FRAG2()
+        };
+        return new JChannel(prots).name(name);
+    }
+}
@@ -13,8 +13,10 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -91,6 +93,27 @@ public class MFC_Test {
     }
 
 
+    /** With non_blocking=true, A queues the messages rather than blocking. When C is removed, they're sent */
+    public void testNonBlockingAndViewChange(Class<MFC> clazz) throws Exception {
+        inject(clazz, a,b,d); // C has no MFC, won't send any credits
+        MFC mfc=a.getProtocolStack().findProtocol(MFC.class);
+        mfc.setNonBlocking(true);
+        for(JChannel ch: Arrays.asList(a,b,d))
+            send(ch, null, 9950); // uses up the 10'000 initial credits, so the next messages are queued
+        List<CompletableFuture<Object>> futures=new ArrayList<>();
+        for(int i=0; i < 10; i++)
+            futures.add(a.sendAsync(new BytesMessage(null, new byte[MSG_SIZE])));
+        assert futures.stream().noneMatch(CompletableFuture::isDone);
+        assert mfc.getQueueSize() == 10 && mfc.getNumberOfBlockings() == 0;
+
+        // install a new view in A excluding C (this should send the queued messages):
+        View v=View.create(a.getAddress(), a.getView().getViewId().getId() +1, a.getAddress(), b.getAddress(), d.getAddress());
+        for(JChannel ch: Arrays.asList(a,b,d))
+            ((GMS)ch.getProtocolStack().findProtocol(GMS.class)).installView(v);
+        Util.waitUntil(10000, 100, () -> futures.stream().allMatch(CompletableFuture::isDone),
+                       () -> String.format("queue size: %d", mfc.getQueueSize()));
+    }
+
     /** A blocks threads on sending messages to C. When A is stopped, the threads should unblock */
     public void testBlockingAndStop(Class<MFC> clazz) throws Exception {
         inject(clazz, a,b,d); // C has no MFC, won't send any credits -> this will make threads in A (sending to C) block
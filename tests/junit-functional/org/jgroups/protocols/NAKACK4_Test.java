@@ -9,8 +9,12 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
- * Tests sender blocked on spurious ACK by non-member (https://issues.redhat.com/browse/JGRP-2904)
+ * Tests sender blocked on spurious ACK by non-member (https://issues.redhat.com/browse/JGRP-2904) and aggregated ACKs
  * @author Bela Ban
  * @since  5.5.0
  */
@@ -65,6 +69,41 @@ public class NAKACK4_Test {
         System.out.printf("-- coord received %,d messages\n", capacity+100);
     }
 
+    /** All members multicast; the senders would block (ack_threshold=1, capacity=512) if ACKs weren't received */
+    public void testAggregatedAcks() throws Exception {
+        List<MyReceiver<Integer>> receivers=new ArrayList<>();
+        for(JChannel ch: channels) {
+            ((NAKACK4)ch.stack().findProtocol(NAKACK4.class)).aggregateAcks(true);
+            MyReceiver<Integer> r=new MyReceiver<>();
+            receivers.add(r);
+            ch.setReceiver(r);
+        }
+        final int NUM=1000, TOTAL=NUM * channels.length;
+        Thread[] senders=new Thread[channels.length];
+        for(int i=0; i < senders.length; i++) {
+            JChannel ch=channels[i];
+            senders[i]=new Thread(() -> {
+                for(int j=1; j <= NUM; j++) {
+                    try {
+                        ch.send(null, j);
+                    }
+                    catch(Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            senders[i].start();
+        }
+        Util.waitUntil(10000, 100, () -> receivers.stream().allMatch(r -> r.size() == TOTAL),
+                       () -> receivers.stream().map(r -> String.valueOf(r.size())).collect(Collectors.joining(", ")));
+        for(JChannel ch: channels) {
+            NAKACK4 nak=ch.stack().findProtocol(NAKACK4.class);
+            Util.waitUntil(5000, 100, () -> nak.getNumUnackedMessages() == 0,
+                           () -> String.format("%s: %d unacked messages", ch.address(), nak.getNumUnackedMessages()));
+            assert nak.aggregated_acks_sent.sum() > 0 && nak.aggregated_acks_received.sum() > 0;
+        }
+    }
+
     protected static JChannel create(String name) throws Exception {
         JChannel ch=new JChannel(Util.getTestStackNew()).name(name);
         NAKACK4 nak=ch.stack().findProtocol(NAKACK4.class);
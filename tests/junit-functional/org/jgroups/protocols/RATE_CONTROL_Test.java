@@ -0,0 +1,110 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.BytesMessage;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link RATE_CONTROL}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class RATE_CONTROL_Test {
+    protected JChannel            a, b;
+    protected MyReceiver<Message> rb;
+    protected static final int    SIZE=10_000;
+    protected static final String CLUSTER=RATE_CONTROL_Test.class.getSimpleName();
+
+    @BeforeMethod
+    protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        b.setReceiver(rb=new MyReceiver<Message>().rawMsgs(true));
+    }
+
+    @AfterMethod
+    protected void destroy() {
+        Util.closeReverse(a, b);
+    }
+
+    /**
+     * With a fixed rate of 1MB/s, sending 2MB takes at least ~1 second. A doesn't send probes, so RTT spikes cannot
+     * change the rate
+     */
+    public void testPacing() throws Exception {
+        Util.close(a);
+        a=create("A", 60_000);
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        RATE_CONTROL rc=rc(a);
+        rc.maxRate(1_000_000).initialRate(1_000_000).peers.clear();
+        rc.handleView(a.view());
+        Address target=b.address();
+        long start=System.nanoTime();
+        for(int i=0; i < 200; i++)
+            a.send(new BytesMessage(target, new byte[SIZE]));
+        long time=TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Util.waitUntil(5000, 100, () -> rb.size() == 200);
+        System.out.printf("-- sent 2MB in %d ms (%d messages paced)\n", time, rc.numPaced());
+        assert time >= 1500 : String.format("time: %d ms", time);
+        assert rc.numPaced() > 0;
+        assert rc.rate(target) == 1_000_000;
+    }
+
+    /** Without congestion, the rate to a member increases when it is used */
+    public void testRateIncrease() throws Exception {
+        RATE_CONTROL rc=rc(a);
+        Address target=b.address();
+        long initial_rate=rc.rate(target);
+        long end=System.currentTimeMillis() + 2000;
+        while(System.currentTimeMillis() < end)
+            a.send(new BytesMessage(target, new byte[SIZE]));
+        System.out.printf("-- rates:\n%s\n", rc.printRates());
+        assert rc.numIncreases() > 0;
+        assert rc.rate(target) > initial_rate : String.format("rate: %d, initial rate: %d", rc.rate(target), initial_rate);
+        assert rc.minRtt(target) > 0;
+    }
+
+    /** An increase of the RTT (e.g. due to queueing) decreases the rate */
+    public void testRateDecreaseOnCongestion() throws Exception {
+        DELAY delay=new DELAY();
+        b.stack().insertProtocol(delay, ProtocolStack.Position.ABOVE, TP.class);
+        delay.init();
+        RATE_CONTROL rc=rc(a);
+        Address target=b.address();
+        Util.waitUntil(5000, 100, () -> rc.minRtt(target) > 0); // the min RTT has been measured
+        long rate=rc.rate(target);
+        delay.setOutDelay(200); // delays the probe responses of B
+        Util.waitUntil(5000, 100, () -> rc.numDecreases() > 0 && rc.rate(target) < rate,
+                       () -> String.format("decreases: %d, rates:\n%s", rc.numDecreases(), rc.printRates()));
+        delay.setOutDelay(0);
+        delay.destroy();
+    }
+
+    protected static RATE_CONTROL rc(JChannel ch) {
+        return ch.stack().findProtocol(RATE_CONTROL.class);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return create(name, 50);
+    }
+
+    protected static JChannel create(String name, long probe_interval) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStackNew()).name(name);
+        RATE_CONTROL rc=new RATE_CONTROL().probeInterval(probe_interval);
+        ch.stack().insertProtocol(rc, ProtocolStack.Position.ABOVE, TP.class);
+        rc.init();
+        return ch.connect(CLUSTER);
+    }
+}
@@ -0,0 +1,107 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.BufferPool;
+import org.jgroups.util.Refcountable;
+import org.jgroups.util.Table;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests receiving of messages into pooled buffers ({@link TP#receiveBufferPoolSize(int)})
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="transports")
+public class ReceiveBufferPoolTest {
+    protected JChannel             a, b;
+    protected PayloadChecker       rb;
+    protected static final int     NUM=1000;
+
+    @DataProvider
+    static Object[][] transports() {
+        return new Object[][]{{UDP.class},{TCP.class}};
+    }
+
+    @BeforeMethod protected void init()    {rb=new PayloadChecker();}
+    @AfterMethod  protected void destroy() {Util.close(b, a);}
+
+    public void testReceive(Class<? extends TP> cl) throws Exception {
+        a=create("A", cl).connect(ReceiveBufferPoolTest.class.getSimpleName());
+        b=create("B", cl).connect(ReceiveBufferPoolTest.class.getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        b.setReceiver(rb);
+        for(int i=1; i <= NUM; i++)
+            a.send(new BytesMessage(null, String.valueOf(i).getBytes()));
+        for(int i=1; i <= NUM; i++)
+            a.send(new BytesMessage(b.getAddress(), String.valueOf(i).getBytes()));
+        Util.waitUntil(10000, 100, () -> rb.count.get() == NUM*2 || rb.errors.get() > 0,
+                       () -> String.format("B: %d", rb.count.get()));
+        assert rb.errors.get() == 0 : String.format("%d messages had incorrect payloads", rb.errors.get());
+        BufferPool pool=b.stack().getTransport().receiveBufferPool();
+        System.out.printf("pool: %s\n", pool);
+        assert pool.numAllocated() < pool.numAcquired() : String.format("buffers were not reused: %s", pool);
+    }
+
+    /** Delivered messages kept for retransmission must not point into pooled buffers, which are reused */
+    public void testKeepDeliveredMessages(Class<? extends TP> cl) throws Exception {
+        a=create("A", cl).connect(ReceiveBufferPoolTest.class.getSimpleName());
+        b=create("B", cl);
+        ((NAKACK2)b.stack().findProtocol(NAKACK2.class)).discardDeliveredMsgs(false);
+        b.connect(ReceiveBufferPoolTest.class.getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        b.setReceiver(rb);
+        for(int i=1; i <= NUM; i++)
+            a.send(new BytesMessage(null, String.valueOf(i).getBytes()));
+        Util.waitUntil(10000, 100, () -> rb.count.get() == NUM || rb.errors.get() > 0,
+                       () -> String.format("B: %d", rb.count.get()));
+        assert rb.errors.get() == 0 : String.format("%d messages had incorrect payloads", rb.errors.get());
+        // more traffic to reuse the pooled buffers
+        for(int i=1; i <= NUM; i++)
+            a.send(new BytesMessage(b.getAddress(), "x".repeat(10).getBytes()));
+        Util.waitUntil(10000, 100, () -> rb.count.get() == NUM*2);
+        Table<Message> win=((NAKACK2)b.stack().findProtocol(NAKACK2.class)).getWindow(a.getAddress());
+        int found=0;
+        for(long seqno=win.getLow(); seqno <= win.getHighestDelivered(); seqno++) {
+            Message msg=win.get(seqno);
+            if(msg == null || !msg.hasPayload())
+                continue;
+            assert ((Refcountable<?>)msg).refCount() == 0 : String.format("%s points into a pooled buffer", msg);
+            found++;
+        }
+        assert found > 0;
+    }
+
+    protected static JChannel create(String name, Class<? extends TP> cl) throws Exception {
+        TP transport=cl.getDeclaredConstructor().newInstance().setBindAddress(InetAddress.getLoopbackAddress())
+          .receiveBufferPoolSize(32).minPooledPayloadSize(0);
+        Protocol[] prots={
+          transport, new LOCAL_PING(), new NAKACK2(), new UNICAST3(), new STABLE(), new GMS(), new FRAG2()
+        };
+        return new JChannel(prots).name(name);
+    }
+
+    /** Checks the payload on delivery, as the buffer is reused after receive() returns */
+    protected static class PayloadChecker implements Receiver {
+        protected final AtomicInteger mcasts=new AtomicInteger(), ucasts=new AtomicInteger(),
+          count=new AtomicInteger(), errors=new AtomicInteger();
+
+        public void receive(Message msg) {
+            int expected=msg.getDest() == null? mcasts.incrementAndGet() : ucasts.incrementAndGet();
+            String s=new String(msg.getArray(), msg.getOffset(), msg.getLength());
+            if(!s.equals(String.valueOf(expected)) && !s.equals("x".repeat(10)))
+                errors.incrementAndGet();
+            count.incrementAndGet();
+        }
+    }
+}
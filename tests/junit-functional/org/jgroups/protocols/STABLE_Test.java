@@ -6,6 +6,7 @@ import org.jgroups.JChannel;
 import org.jgroups.Message;
 import org.jgroups.protocols.pbcast.NAKACK2;
 import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.ProtocolStack;
 import org.jgroups.util.MyReceiver;
 import org.jgroups.util.Table;
 import org.jgroups.util.Util;
@@ -14,6 +15,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 /**
@@ -64,6 +66,57 @@ public class STABLE_Test {
         }
     }
 
+    public void testDeltaDigests() throws Exception {
+        List<STABLE> stables=Stream.of(a, b, c).map(ch -> (STABLE)ch.getProtocolStack().findProtocol(STABLE.class))
+          .toList();
+        stables.forEach(s -> s.deltaDigests(true).fullDigestInterval(5));
+        for(int i=1; i <= 10; i++) {
+            b.send(new BytesMessage(null, new byte[100]));
+            final int expected=i;
+            Util.waitUntil(5000, 100, () -> Stream.of(r1, r2, r3).allMatch(r -> r.size() == expected));
+            stables.forEach(STABLE::gc);
+        }
+        // the last STABLE round which included all 10 messages may have been a delta digest
+        Util.waitUntilTrue(5000, 500, () -> {
+            stables.forEach(STABLE::gc);
+            return Stream.of(a, b, c)
+              .map(ch -> ((NAKACK2)ch.getProtocolStack().findProtocol(NAKACK2.class)).getWindow(b.getAddress()))
+              .allMatch(t -> t.getLow() == 10);
+        });
+        for(JChannel ch: List.of(a, b, c)) {
+            Table<Message> t=((NAKACK2)ch.getProtocolStack().findProtocol(NAKACK2.class)).getWindow(b.getAddress());
+            assert t.getLow() == 10 : String.format("table for %s is %s", ch.getName(), t);
+        }
+        STABLE coord=stables.get(0);
+        assert stables.get(1).numDeltaMsgsSent() > 0 && stables.get(2).numDeltaMsgsSent() > 0;
+        assert coord.numDeltaMsgsReceived() > 0 && coord.numDeltaMsgsSent() == 0;
+    }
+
+    /** The coordinator requests a full digest when it cannot apply a delta, e.g. because the full digest was lost */
+    public void testFullDigestRequest() throws Exception {
+        List<STABLE> stables=Stream.of(a, b, c).map(ch -> (STABLE)ch.getProtocolStack().findProtocol(STABLE.class))
+          .toList();
+        stables.forEach(s -> s.deltaDigests(true).fullDigestInterval(100));
+        STABLE coord=stables.get(0), stable_b=stables.get(1);
+        short stable_id=coord.getId();
+        AtomicBoolean dropped=new AtomicBoolean();
+        DROP drop=new DROP().addDownFilter(m -> m.getHeader(stable_id) != null && dropped.compareAndSet(false, true));
+        b.getProtocolStack().insertProtocol(drop, ProtocolStack.Position.ABOVE, TP.class);
+
+        stable_b.gc(); // the full digest is dropped
+        assert dropped.get() && stable_b.numDeltaMsgsSent() == 0;
+        long sent=stable_b.getStableSent();
+        stable_b.gc(); // the delta cannot be applied: the coordinator requests a full digest, which B sends
+        Util.waitUntil(5000, 100, () -> coord.numFullDigestRequests() == 1 && stable_b.getStableSent() == sent + 2);
+        assert stable_b.numDeltaMsgsSent() == 1;
+        Util.sleep(200); // the full digest is sent in the background
+
+        stable_b.gc(); // the delta is now applied to the full digest
+        Util.waitUntil(5000, 100, () -> coord.numDeltaMsgsReceived() == 2);
+        Util.sleep(500);
+        assert coord.numFullDigestRequests() == 1;
+    }
+
     protected static JChannel create(String name) throws Exception {
         JChannel ch=new JChannel(Util.getTestStack()).name(name);
         STABLE stable=ch.getProtocolStack().findProtocol(STABLE.class);
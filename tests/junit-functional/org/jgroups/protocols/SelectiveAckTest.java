@@ -0,0 +1,87 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Tests selective ACKs in {@link NAKACK4} and {@link UNICAST4}: a lost message is retransmitted by the sender on
+ * reception of a selective ACK, without the retransmit task running
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SelectiveAckTest {
+    protected JChannel            a, b;
+    protected MyReceiver<Integer> rb;
+    protected DROP                drop;
+    protected static final int    NUM=100, LOST=5;
+    protected static final String CLUSTER=SelectiveAckTest.class.getSimpleName();
+
+    @BeforeMethod
+    protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        b.setReceiver(rb=new MyReceiver<>());
+        drop=new DROP();
+        b.stack().insertProtocol(drop, ProtocolStack.Position.ABOVE, TP.class);
+        for(JChannel ch: new JChannel[]{a, b}) { // retransmission must only be triggered by selective ACKs
+            ((NAKACK4)ch.stack().findProtocol(NAKACK4.class)).stopRetransmitTask();
+            ((UNICAST4)ch.stack().findProtocol(UNICAST4.class)).stopRetransmitTask();
+        }
+    }
+
+    @AfterMethod
+    protected void destroy() {
+        Util.closeReverse(a, b);
+    }
+
+    public void testMulticast() throws Exception {
+        NAKACK4 nak_a=a.stack().findProtocol(NAKACK4.class), nak_b=b.stack().findProtocol(NAKACK4.class);
+        drop.addUpFilter(dropOnce(nak_b.getId(), true));
+        for(int i=1; i <= NUM; i++)
+            a.send(null, i);
+        Util.waitUntil(5000, 100, () -> rb.size() == NUM, () -> String.format("B received %d messages", rb.size()));
+        assert nak_b.sacks_sent.sum() > 0;
+        assert nak_a.sacks_received.sum() > 0;
+    }
+
+    public void testUnicast() throws Exception {
+        UNICAST4 uni_a=a.stack().findProtocol(UNICAST4.class), uni_b=b.stack().findProtocol(UNICAST4.class);
+        drop.addUpFilter(dropOnce(uni_b.getId(), false));
+        Address target=b.address();
+        for(int i=1; i <= NUM; i++)
+            a.send(target, i);
+        Util.waitUntil(5000, 100, () -> rb.size() == NUM, () -> String.format("B received %d messages", rb.size()));
+        assert uni_b.num_sacks_sent.sum() > 0;
+        assert uni_a.num_sacks_received.sum() > 0;
+    }
+
+    /** Drops the message with seqno LOST the first time it is received */
+    protected static Predicate<Message> dropOnce(short id, boolean multicast) {
+        AtomicBoolean dropped=new AtomicBoolean();
+        return msg -> {
+            long seqno=multicast? msg.getHeader(id) instanceof NakAckHeader h && h.getType() == NakAckHeader.MSG? h.getSeqno() : -1
+              : msg.getHeader(id) instanceof UnicastHeader h && h.type() == UnicastHeader.DATA? h.seqno() : -1;
+            return seqno == LOST && dropped.compareAndSet(false, true);
+        };
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStackNew()).name(name);
+        ((NAKACK4)ch.stack().findProtocol(NAKACK4.class)).selectiveAcks(true).sackThreshold(4);
+        ((UNICAST4)ch.stack().findProtocol(UNICAST4.class)).selectiveAcks(true).sackThreshold(4);
+        return ch.connect(CLUSTER);
+    }
+}
@@ -0,0 +1,95 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Tests {@link UDP_NIO}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="multicast")
+public class UDP_NIO_Test {
+    protected JChannel                  a, b;
+    protected final MyReceiver<Message> ra=new MyReceiver<Message>().rawMsgs(true),
+                                        rb=new MyReceiver<Message>().rawMsgs(true);
+    protected static final int          NUM=100;
+
+    @DataProvider
+    static Object[][] multicast() {
+        return new Object[][]{{true},{false}};
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    public void testMulticast(boolean ip_mcast) throws Exception {
+        setup(ip_mcast);
+        for(int i=1; i <= NUM; i++)
+            a.send(new BytesMessage(null, i));
+        Util.waitUntil(5000, 100, () -> ra.size() == NUM && rb.size() == NUM,
+                       () -> String.format("A: %d, B: %d", ra.size(), rb.size()));
+    }
+
+    public void testUnicast(boolean ip_mcast) throws Exception {
+        setup(ip_mcast);
+        for(int i=1; i <= NUM; i++)
+            a.send(new BytesMessage(b.getAddress(), i));
+        Util.waitUntil(5000, 100, () -> rb.size() == NUM, () -> String.format("B: %d", rb.size()));
+        assert ra.size() == 0;
+    }
+
+    /** Tests that NioMessages (heap-based and direct) are read correctly from the direct receive buffer */
+    public void testNioMessages(boolean ip_mcast) throws Exception {
+        setup(ip_mcast);
+        for(int i=1; i <= NUM; i++) {
+            ByteBuffer buf=ByteBuffer.wrap(String.valueOf(i).getBytes());
+            a.send(new NioMessage(b.getAddress(), buf).useDirectMemory(i % 2 == 0));
+        }
+        Util.waitUntil(5000, 100, () -> rb.size() == NUM, () -> String.format("B: %d", rb.size()));
+        List<Message> list=rb.list();
+        for(int i=1; i <= NUM; i++) {
+            NioMessage msg=(NioMessage)list.get(i-1);
+            assert msg.isDirect() == (i % 2 == 0);
+            String s=new String(msg.getArray(), msg.getOffset(), msg.getLength());
+            assert s.equals(String.valueOf(i)) : String.format("expected %d, but got %s", i, s);
+        }
+    }
+
+    /** If bind_addr has no interface (null), the multicast group is joined on all interfaces */
+    public void testMcastInterfaces(boolean receive_on_all_interfaces) throws Exception {
+        UDP_NIO udp=new UDP_NIO().receiveOnAllInterfaces(receive_on_all_interfaces);
+        List<NetworkInterface> all=Util.getAllAvailableInterfaces();
+        assert udp.mcastInterfaces(null).equals(all);
+        NetworkInterface lo=NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        assert udp.mcastInterfaces(lo).equals(receive_on_all_interfaces? all : List.of(lo));
+    }
+
+    protected void setup(boolean ip_mcast) throws Exception {
+        a=create("A", ip_mcast).connect(UDP_NIO_Test.class.getSimpleName());
+        b=create("B", ip_mcast).connect(UDP_NIO_Test.class.getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        a.setReceiver(ra.reset());
+        b.setReceiver(rb.reset());
+    }
+
+    protected static JChannel create(String name, boolean ip_mcast) throws Exception {
+        Protocol[] prots={
+          new UDP_NIO().setMulticasting(ip_mcast).setBindAddress(InetAddress.getLoopbackAddress()),
+          new LOCAL_PING(), new NAKACK2(), new UNICAST3(), new STABLE(), new GMS(), new FRAG2()
+        };
+        return new JChannel(prots).name(name);
+    }
+}
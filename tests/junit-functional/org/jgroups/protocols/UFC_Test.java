@@ -9,7 +9,10 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -114,10 +117,45 @@ public class UFC_Test {
 
 
 
+    /** With non_blocking=true, messages to C are queued rather than blocking the sender; futures complete on a view change */
+    public void testNonBlockingAndViewChange(Class<UFC> clazz) throws Exception {
+        inject(clazz, true, a,b,d); // C has no UFC and won't send any credits
+        List<CompletableFuture<Object>> futures=new ArrayList<>();
+        for(int i=0; i < 10; i++)
+            futures.add(a.sendAsync(new BytesMessage(c.getAddress(), new byte[MSG_SIZE])));
+        UFC ufc=a.getProtocolStack().findProtocol(UFC.class);
+        assert futures.stream().noneMatch(CompletableFuture::isDone);
+        assert ufc.getQueueSize() == 10 && ufc.getNumberOfBlockings() == 0;
+
+        // install a new view in A excluding C (this should send the queued messages):
+        View v=View.create(a.getAddress(), a.getView().getViewId().getId() +1, a.getAddress(), b.getAddress(), d.getAddress());
+        for(JChannel ch: Arrays.asList(a,b,d))
+            ((GMS)ch.getProtocolStack().findProtocol(GMS.class)).installView(v);
+        Util.waitUntil(10000, 100, () -> futures.stream().allMatch(CompletableFuture::isDone));
+        assert ufc.getQueueSize() == 0;
+    }
+
+    /** With non_blocking=true, queued messages are sent when credits are received */
+    public void testNonBlockingAndCredits(Class<UFC> clazz) throws Exception {
+        inject(clazz, true, a,b,d);
+        List<CompletableFuture<Object>> futures=new ArrayList<>();
+        for(int i=0; i < 10; i++)
+            futures.add(a.sendAsync(new BytesMessage(b.getAddress(), new byte[MAX_CREDITS / 2])));
+        // B receives the (queued) messages after sending credits to A, in response to A's credit requests
+        Util.waitUntil(10000, 100, () -> futures.stream().allMatch(CompletableFuture::isDone));
+        UFC ufc=a.getProtocolStack().findProtocol(UFC.class);
+        assert ufc.getQueueSize() == 0 && ufc.getNumberOfQueuings() > 0 && ufc.getNumberOfBlockings() == 0;
+    }
+
     protected static void inject(Class<UFC> clazz, JChannel ... channels) throws Exception {
+        inject(clazz, false, channels);
+    }
+
+    protected static void inject(Class<UFC> clazz, boolean non_blocking, JChannel ... channels) throws Exception {
         for(JChannel ch: channels) {
             UFC ufc=clazz.getConstructor().newInstance();
             ufc.setMaxCredits(MAX_CREDITS).setMaxBlockTime(60000);
+            ufc.setNonBlocking(non_blocking);
             ProtocolStack stack=ch.getProtocolStack();
             stack.removeProtocol(UFC.class); // just in case we already have a UFC protocol
             stack.insertProtocol(ufc, ProtocolStack.Position.ABOVE, GMS.class);
@@ -232,6 +232,32 @@ public class UNICAST_ConnectionTests {
         assert !(Boolean)hasSendConnectionTo.invoke(prot, target);
     }
 
+    /** Idle connections are compacted, and re-inflated when used again, keeping their conn-ids and seqnos */
+    @Test(dataProvider="configProvider")
+    public void testCompactIdleConnections(Class<? extends Protocol> unicast) throws Exception {
+        if(!ReliableUnicast.class.isAssignableFrom(unicast))
+            return;
+        setup(unicast);
+        ReliableUnicast ua=(ReliableUnicast)u1, ub=(ReliableUnicast)u2;
+        for(ReliableUnicast u: List.of(ua, ub))
+            u.compactIdleTime(100).setConnExpiryTimeout(0);
+        sendAndCheck(a, b_addr, 10, r2);
+        short conn_id=ua._getSenderEntry(b_addr).connId();
+        Util.waitUntil(5000, 100, () -> {
+            ua.compactIdleConnections();
+            ub.compactIdleConnections();
+            return ua._getSenderEntry(b_addr).buf().trimmed() && ub.getNumCompactEntries() == 1;
+        }, () -> String.format("A: %s\nB: %s", ua.printConnections(), ub.printConnections()));
+        assert ua.getNumCompactEntries() == 1 && ua.getNumInflatedEntries() == 0;
+
+        for(ReliableUnicast u: List.of(ua, ub)) // prevents the retransmit task from compacting the entries again
+            u.compactIdleTime(60_000);
+        sendAndCheck(a, b_addr, 10, r2);
+        assert ua._getSenderEntry(b_addr).connId() == conn_id;
+        assert ua._getSenderEntry(b_addr).buf().high() == 20;
+        assert ua.getNumInflatedEntries() == 1 && ub.getNumInflatedEntries() == 1;
+    }
+
     protected static Header createDataHeader(Protocol unicast, long seqno, short conn_id, boolean first) {
         if(unicast instanceof UNICAST3)
             return UnicastHeader3.createDataHeader(seqno, conn_id, first);
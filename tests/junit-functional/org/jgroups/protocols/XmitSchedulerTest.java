@@ -0,0 +1,155 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests {@link XmitScheduler}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class XmitSchedulerTest {
+    protected TimeScheduler                timer;
+    protected XmitScheduler                sched;
+    protected final List<Long>             sent=new CopyOnWriteArrayList<>();
+    protected final Map<Long,Message>      msgs=new ConcurrentHashMap<>();
+    protected static final Address         A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B"),
+                                           C=Util.createRandomAddress("C");
+
+    @BeforeMethod
+    protected void setup() {
+        timer=new TimeScheduler3();
+        sent.clear();
+        msgs.clear();
+        for(long i=1; i <= 100; i++)
+            msgs.put(i, new BytesMessage(null, new byte[1000]).putHeader((short)1, NakAckHeader.createMessageHeader(i)));
+        sched=new XmitScheduler(timer, (sender, seqno) -> msgs.get(seqno),
+                                (dest, msg) -> sent.add(((NakAckHeader)msg.getHeader((short)1)).getSeqno()));
+    }
+
+    @AfterMethod
+    protected void destroy() {
+        timer.stop();
+    }
+
+    /** 3 receivers ask for the same messages: each message is retransmitted (multicast) only once */
+    public void testCoalescing() throws TimeoutException {
+        for(int i=0; i < 3; i++)
+            sched.add(null, A, list(1, 10));
+        Util.waitUntil(2000, 10, () -> sent.size() >= 10);
+        Util.sleep(100);
+        assert sent.equals(seqnos(1, 10)) : String.format("sent: %s", sent);
+        // the duplicate requests were either coalesced with the pending ones, or suppressed after being sent
+        assert sched.numCoalesced() + sched.numSuppressed() == 20 : sched;
+        assert sched.numPending() == 0;
+    }
+
+    public void testUnicastRetransmissionsAreNotCoalesced() throws TimeoutException {
+        sched.add(B, A, list(1, 5));
+        sched.add(C, A, list(1, 5));
+        Util.waitUntil(2000, 10, () -> sent.size() == 10, () -> String.format("sent: %s", sent));
+        assert sched.numCoalesced() == 0 && sched.numSuppressed() == 0 : sched;
+    }
+
+    public void testSuppressionTime() throws TimeoutException {
+        sched.suppressionTime(500);
+        sched.add(null, A, list(1, 5));
+        Util.waitUntil(2000, 10, () -> sent.size() == 5);
+        sched.add(null, A, list(1, 5)); // suppressed
+        Util.waitUntil(2000, 10, () -> sched.numSuppressed() == 5);
+        assert sent.size() == 5;
+        Util.sleep(600);
+        sched.add(null, A, list(1, 5)); // suppression time has elapsed
+        Util.waitUntil(2000, 10, () -> sent.size() == 10, () -> String.format("sent: %s", sent));
+    }
+
+    public void testPacing() throws TimeoutException {
+        sched.maxRate(100_000); // 100 messages of 1000 bytes: ~1 sec
+        long start=System.nanoTime();
+        sched.add(null, A, list(1, 100));
+        Util.waitUntil(5000, 10, () -> sent.size() == 100, () -> String.format("sent %d messages", sent.size()));
+        long time=TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        System.out.printf("-- sent 100 messages in %d ms, paced %d times\n", time, sched.numPaced());
+        assert time >= 800 : String.format("time: %d ms", time);
+        assert sched.numPaced() > 0;
+        assert sent.equals(seqnos(1, 100));
+    }
+
+    public void testRemoveRequested() {
+        sched.suppressionTime(500);
+        sched.requested(A, list(3, 6));
+        SeqnoList missing=list(1, 10);
+        int removed=sched.removeRequested(A, missing);
+        assert removed == 4;
+        List<Long> list=new ArrayList<>();
+        missing.forEach(list::add);
+        assert list.equals(List.of(1L, 2L, 7L, 8L, 9L, 10L)) : String.format("missing: %s", missing);
+        // seqnos requested for a different sender don't affect missing
+        missing=list(1, 10);
+        assert sched.removeRequested(B, missing) == 0 && missing.size() == 10;
+        Util.sleep(600);
+        missing=list(1, 10);
+        assert sched.removeRequested(A, missing) == 0 : "requests should have expired";
+    }
+
+    /** Messages dropped at B are retransmitted by A via the scheduler */
+    public void testRetransmission() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create("A");
+            b=create("B");
+            Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+            MyReceiver<Integer> rb=new MyReceiver<>();
+            b.setReceiver(rb);
+            DROP drop=new DROP();
+            b.stack().insertProtocol(drop, ProtocolStack.Position.ABOVE, TP.class);
+            NAKACK4 nak_a=a.stack().findProtocol(NAKACK4.class);
+            short id=nak_a.getId();
+            AtomicBoolean dropped=new AtomicBoolean();
+            drop.addUpFilter(m -> m.getHeader(id) instanceof NakAckHeader h && h.getType() == NakAckHeader.MSG
+              && h.getSeqno() >= 5 && h.getSeqno() <= 10 && !dropped.get());
+            for(int i=1; i <= 20; i++)
+                a.send(null, i);
+            Util.sleep(200);
+            dropped.set(true); // from now on, retransmissions are received
+            Util.waitUntil(5000, 100, () -> rb.size() == 20, () -> String.format("B received %d messages", rb.size()));
+            assert rb.list().equals(IntStream.rangeClosed(1, 20).boxed().collect(Collectors.toList()));
+            assert nak_a.getXmitResponsesSent() > 0;
+            assert nak_a.xmitScheduler() != null;
+        }
+        finally {
+            Util.closeReverse(a, b);
+        }
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStackNew()).name(name);
+        NAKACK4 nak=ch.stack().findProtocol(NAKACK4.class);
+        nak.coalesceXmits(true).maxXmitRate(1_000_000).setXmitInterval(100);
+        return ch.connect(XmitSchedulerTest.class.getSimpleName());
+    }
+
+    protected static SeqnoList list(long from, long to) {
+        return new SeqnoList((int)(to - from + 1), from).add(from, to);
+    }
+
+    protected static List<Long> seqnos(long from, long to) {
+        return IntStream.rangeClosed((int)from, (int)to).mapToObj(i -> (long)i).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,121 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.util.AtomicCreditMap;
+import org.jgroups.util.Util;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests {@link AtomicCreditMap}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class AtomicCreditMapTest {
+    protected static final Address A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B"),
+                                   C=Util.createRandomAddress("C");
+    protected static final int     MAX_CREDITS=1000;
+    protected AtomicCreditMap      map;
+
+    @BeforeMethod
+    protected void create() {
+        map=new AtomicCreditMap(MAX_CREDITS);
+        for(Address addr: Arrays.asList(A, B, C))
+            map.putIfAbsent(addr);
+    }
+
+    public void testDecrement() {
+        assert map.decrement(null, 200, 0);
+        assert map.decrement(null, 300, 0);
+        assert map.getMinCredits() == 500;
+        assert map.get(A) == 500 && map.get(B) == 500 && map.get(C) == 500;
+        assert !map.decrement(null, 600, 0);
+        assert map.decrement(null, 500, 0);
+        assert map.getMinCredits() == 0 && !map.decrement(null, 1, 0);
+    }
+
+    public void testReplenish() {
+        assert map.decrement(null, 800, 0);
+        map.replenish(A, 800);
+        map.replenish(B, 300);
+        assert map.get(A) == MAX_CREDITS && map.get(B) == 500 && map.get(C) == 200;
+        assert map.getMinCredits() == 200;
+        map.replenish(C, 5000); // credits are capped at max_credits
+        assert map.get(C) == MAX_CREDITS && map.getMinCredits() == 500;
+        List<Address> list=map.getMembersWithInsufficientCredits(600);
+        assert list.equals(List.of(B)) : String.format("list: %s", list);
+        assert map.getMembersWithCreditsLessThan(500).size() == 1;
+    }
+
+    public void testAddAndRemoveMember() {
+        assert map.decrement(null, 800, 0);
+        Address d=Util.createRandomAddress("D");
+        assert map.putIfAbsent(d) == null;
+        assert map.get(d) == MAX_CREDITS && map.getMinCredits() == 200;
+        map.replenish(A, 800);
+        map.replenish(B, 800);
+        map.remove(C);
+        assert map.getMinCredits() == MAX_CREDITS;
+    }
+
+    public void testBlockingDecrementAndReplenish() throws Exception {
+        assert map.decrement(null, MAX_CREDITS, 0);
+        CountDownLatch latch=new CountDownLatch(1);
+        Thread t=new Thread(() -> {
+            if(map.decrement(null, 500, 10_000))
+                latch.countDown();
+        });
+        t.start();
+        Util.waitUntil(5000, 10, () -> t.getState() == Thread.State.TIMED_WAITING);
+        map.replenish(A, 500);
+        map.replenish(B, 500);
+        assert latch.getCount() == 1;
+        map.replenish(C, 500);
+        Util.waitUntil(5000, 10, () -> latch.getCount() == 0);
+        assert map.getMinCredits() == 0 && map.getNumBlockings() == 1;
+    }
+
+    public void testReset() throws TimeoutException {
+        assert map.decrement(null, MAX_CREDITS, 0);
+        Thread t=new Thread(() -> map.decrement(null, 100, 60_000));
+        t.start();
+        Util.waitUntil(5000, 10, () -> t.getState() == Thread.State.TIMED_WAITING);
+        map.reset();
+        Util.waitUntil(5000, 10, () -> t.getState() == Thread.State.TERMINATED);
+        assert !map.decrement(null, 1, 0);
+    }
+
+    /** Many threads decrement concurrently: the bytes sent never exceed the credits granted */
+    public void testConcurrentDecrement() throws Exception {
+        final int NUM_THREADS=16, SIZE=10;
+        final long GRANTED=MAX_CREDITS * 50L;
+        AtomicLong sent=new AtomicLong();
+        Thread[] threads=new Thread[NUM_THREADS];
+        for(int i=0; i < threads.length; i++) {
+            threads[i]=new Thread(() -> {
+                while(map.decrement(null, SIZE, 1000))
+                    sent.addAndGet(SIZE);
+            });
+            threads[i].start();
+        }
+        long replenished=0;
+        while(replenished < GRANTED - MAX_CREDITS) {
+            Util.sleep(1);
+            for(Address addr: Arrays.asList(A, B, C))
+                map.replenish(addr, 100);
+            replenished+=100;
+        }
+        for(Thread t: threads)
+            t.join(10_000);
+        assert sent.get() <= MAX_CREDITS + replenished : String.format("sent: %d, granted: %d", sent.get(), replenished);
+        assert map.getMinCredits() < SIZE : map;
+    }
+}
@@ -30,6 +30,23 @@ public class BitsTest {
         }
     }
 
+    public void testWriteAndReadVarLong() throws Exception {
+        long[] values={Long.MIN_VALUE, -322649, -100, -1, 0, 1, 2, 63, 64, 127, 128, 250, 16383, 16384, Short.MAX_VALUE,
+          Integer.MIN_VALUE, 322649, Integer.MAX_VALUE, (long)Integer.MAX_VALUE + 100, Long.MAX_VALUE - 10, Long.MAX_VALUE};
+        for(long val: values) {
+            for(long v: new long[]{val, Bits.zigzag(val)}) {
+                ByteArrayOutputStream output=new ByteArrayOutputStream();
+                Bits.writeVarLong(v, new DataOutputStream(output));
+                byte[] buf=output.toByteArray();
+                assert buf.length == Bits.sizeVarLong(v);
+                long new_val=Bits.readVarLong(new DataInputStream(new ByteArrayInputStream(buf)));
+                assert v == new_val : String.format("expected %d, but got %d", v, new_val);
+            }
+            assert Bits.unzigzag(Bits.zigzag(val)) == val;
+        }
+        assert Bits.sizeVarLong(Bits.zigzag(-1)) == 1 && Bits.sizeVarLong(Bits.zigzag(63)) == 1;
+    }
+
     public void testWriteAndReadLongByteBuffer() throws Exception {
         long[] values={Long.MIN_VALUE, -322649, -100, -1, 0, 1, 2, 4, 8, 9, 250, 260, Short.MAX_VALUE, Integer.MIN_VALUE, 322649,
           Integer.MAX_VALUE, (long)Integer.MAX_VALUE + 100, Long.MAX_VALUE - 10, Long.MAX_VALUE};
@@ -0,0 +1,130 @@
+package org.jgroups.tests;
+
+import org.jgroups.BytesMessage;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.util.*;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link BufferPool} and {@link PooledBuffer}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class BufferPoolTest {
+
+    public void testAcquireAndRelease() {
+        BufferPool pool=new BufferPool(2, 1024);
+        PooledBuffer buf=pool.acquire();
+        assert buf.refCount() == 1 && buf.capacity() == 1024;
+        assert pool.size() == 0 && pool.numAllocated() == 1;
+        assert buf.release();
+        assert pool.size() == 1;
+        PooledBuffer buf2=pool.acquire();
+        assert buf2 == buf && buf2.refCount() == 1;
+        assert pool.numAcquired() == 2 && pool.numAllocated() == 1;
+    }
+
+    public void testRetain() {
+        BufferPool pool=new BufferPool(2, 1024);
+        PooledBuffer buf=pool.acquire().retain();
+        assert buf.refCount() == 2;
+        assert !buf.release();
+        assert pool.size() == 0;
+        assert buf.release();
+        assert pool.size() == 1;
+    }
+
+    public void testReleaseTooOften() {
+        BufferPool pool=new BufferPool(2, 1024);
+        PooledBuffer buf=pool.acquire();
+        buf.release();
+        try {
+            buf.release();
+            assert false : "releasing a buffer too many times should throw an exception";
+        }
+        catch(IllegalStateException ex) {
+            System.out.printf("caught exception as expected: %s\n", ex);
+        }
+    }
+
+    public void testCapacity() {
+        BufferPool pool=new BufferPool(2, 1024);
+        List<PooledBuffer> list=new ArrayList<>();
+        for(int i=0; i < 5; i++)
+            list.add(pool.acquire());
+        assert pool.numAllocated() == 5;
+        list.forEach(PooledBuffer::release);
+        assert pool.size() == 2; // the other 3 buffers are garbage collected
+    }
+
+    /** Tests that the payloads of messages point into the pooled buffer and release it when all are released */
+    public void testMessagesPointingIntoPooledBuffer() throws IOException, ClassNotFoundException {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(128);
+        for(int i=1; i <= 3; i++)
+            new BytesMessage(null, ("hello-" + i).getBytes()).writeTo(out);
+
+        BufferPool pool=new BufferPool(2, 1024);
+        PooledBuffer buf=pool.acquire();
+        System.arraycopy(out.buffer(), 0, buf.array(), 0, out.position());
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf.array(), 0, out.position()).pooledBuffer(buf);
+        List<BytesMessage> msgs=new ArrayList<>();
+        for(int i=1; i <= 3; i++) {
+            BytesMessage msg=new BytesMessage();
+            msg.readFrom(in);
+            assert msg.getArray() == buf.array(); // no copy
+            assert new String(msg.getArray(), msg.getOffset(), msg.getLength()).equals("hello-" + i);
+            msgs.add(msg);
+        }
+        assert buf.refCount() == 4;
+        Message copy=msgs.get(0).copy(true, true);
+        assert buf.refCount() == 5;
+        buf.release(); // the receiver thread is done with the buffer
+        msgs.forEach(BytesMessage::release);
+        assert buf.refCount() == 1 && pool.size() == 0;
+        ((BytesMessage)copy).release();
+        assert buf.refCount() == 0 && pool.size() == 1;
+    }
+
+    /** Detaching a message copies its payload and releases its reference to the pooled buffer */
+    public void testDetach() throws IOException, ClassNotFoundException {
+        BufferPool pool=new BufferPool(2, 1024);
+        PooledBuffer buf=pool.acquire();
+        BytesMessage msg=read(new BytesMessage(null, "hello".getBytes()), buf);
+        assert msg.getArray() == buf.array() && buf.refCount() == 2;
+        assert msg.detach() == msg;
+        assert msg.getArray() != buf.array() && msg.refCount() == 0 && buf.refCount() == 1;
+        assert new String(msg.getArray(), msg.getOffset(), msg.getLength()).equals("hello");
+        assert !msg.release(); // no-op after detach
+        buf.release();
+        assert pool.size() == 1;
+    }
+
+    /** Payloads smaller than the min payload size of the pool are copied rather than pinning the pooled buffer */
+    public void testSmallPayloadsAreCopied() throws IOException, ClassNotFoundException {
+        BufferPool pool=new BufferPool(2, 1024).minPayloadSize(100);
+        PooledBuffer buf=pool.acquire();
+        BytesMessage small=read(new BytesMessage(null, "hello".getBytes()), buf);
+        assert small.getArray() != buf.array() && small.refCount() == 0 && buf.refCount() == 1;
+        assert new String(small.getArray(), small.getOffset(), small.getLength()).equals("hello");
+
+        buf=pool.acquire();
+        BytesMessage large=read(new BytesMessage(null, new byte[100]), buf);
+        assert large.getArray() == buf.array() && buf.refCount() == 2;
+    }
+
+    protected static BytesMessage read(Message msg, PooledBuffer buf) throws IOException, ClassNotFoundException {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(128);
+        msg.writeTo(out);
+        System.arraycopy(out.buffer(), 0, buf.array(), 0, out.position());
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf.array(), 0, out.position()).pooledBuffer(buf);
+        BytesMessage retval=new BytesMessage();
+        retval.readFrom(in);
+        return retval;
+    }
+}
@@ -12,7 +12,11 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -38,10 +42,21 @@ public class BufferTest {
     static Object[][] windowCreator() {
         return new Object[][]{
           // {new DynamicBuffer<>(0)},
-          {new FixedBuffer<>(0)}
+          {new FixedBuffer<>(0)},
+          {new ConcurrentFixedBuffer<>(0)}
         };
     }
 
+    /** Creates a {@link ConcurrentFixedBuffer} if type is one, else a {@link FixedBuffer} */
+    protected static <T> FixedBuffer<T> createFixedBuffer(Buffer<?> type, int capacity, long offset) {
+        return type instanceof ConcurrentFixedBuffer? new ConcurrentFixedBuffer<>(capacity, offset)
+          : new FixedBuffer<>(capacity, offset);
+    }
+
+    protected static <T> FixedBuffer<T> createFixedBuffer(Buffer<?> type, long offset) {
+        return createFixedBuffer(type, 32, offset);
+    }
+
     static {
         NAKACK3_ID=ClassConfigurator.getProtocolId(NAKACK3.class);
         SEQNO_GETTER=m -> {
@@ -142,14 +157,14 @@ public class BufferTest {
     public void testAddMessageBatchWithFullBuffer(Buffer<Message> buf) {
         if(buf instanceof DynamicBuffer)
             return;
-        buf=new FixedBuffer<>(10,0);
+        buf=createFixedBuffer(buf, 10,0);
         addMessageBatchWithFullBuffer(buf, false);
     }
 
     public void testAddMessageBatchWithFullBufferOOB(Buffer<Message> buf) {
         if(buf instanceof DynamicBuffer)
             return;
-        buf=new FixedBuffer<>(10,0);
+        buf=createFixedBuffer(buf, 10,0);
         addMessageBatchWithFullBuffer(buf, true);
     }
 
@@ -238,7 +253,7 @@ public class BufferTest {
     public void testAdditionWithOffset(Buffer<Integer> type) {
         final long offset=100;
         Buffer<Integer> buf=type instanceof DynamicBuffer?
-          new DynamicBuffer<>(offset) : new FixedBuffer<>(32, offset);
+          new DynamicBuffer<>(offset) : createFixedBuffer(type, 32, offset);
         addAndGet(buf, 101,105,109,110,111,119,120,129);
         System.out.println("buf: " + buf.dump());
         assert buf.size() == 8;
@@ -248,7 +263,7 @@ public class BufferTest {
     public void testAdditionListWithOffset(Buffer<Integer> type) {
         final long offset=100;
         Buffer<Integer> buf=type instanceof DynamicBuffer?
-          new DynamicBuffer<>(offset) : new FixedBuffer<>(32, offset);
+          new DynamicBuffer<>(offset) : createFixedBuffer(type, 32, offset);
         long[] seqnos={101,105,109,110,111,119,120,129};
         List<LongTuple<Integer>> msgs=createList(seqnos);
         System.out.println("buf: " + buf.dump());
@@ -262,7 +277,7 @@ public class BufferTest {
     public void testAdditionMessageBatchWithOffset(Buffer<Message> type) {
         final long offset=100;
         Buffer<Message> buf=type instanceof DynamicBuffer?
-          new DynamicBuffer<>(offset) : new FixedBuffer<>(32, offset);
+          new DynamicBuffer<>(offset) : createFixedBuffer(type, 32, offset);
         long[] seqnos={101,105,109,110,111,119,120,129};
         MessageBatch mb=createMessageBatch(seqnos);
         System.out.println("buf: " + buf.dump());
@@ -326,7 +341,7 @@ public class BufferTest {
 
     public void testAdditionWithOffset2(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 2)
-          : new FixedBuffer<>(1029, 2);
+          : createFixedBuffer(type, 1029, 2);
         addAndGet(buf, 1000,1001);
         if(buf instanceof DynamicBuffer)
             ((DynamicBuffer<Integer>)buf).compact();
@@ -338,7 +353,7 @@ public class BufferTest {
 
     public void testAddWithWrapAround(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 5) :
-          new FixedBuffer<>(5);
+          createFixedBuffer(type, 5);
         for(int i=6; i <=15; i++)
             assert buf.add(i, i) : "addition of seqno " + i + " failed";
         System.out.println("buf = " + buf);
@@ -374,7 +389,7 @@ public class BufferTest {
 
     public void testAddWithWrapAroundAndRemoveMany(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 5) :
-          new FixedBuffer<>(16, 5);
+          createFixedBuffer(type, 16, 5);
         for(int i=6; i <= 15; i++)
             assert buf.add(i, i) : "addition of seqno " + i + " failed";
         System.out.println("buf = " + buf);
@@ -403,7 +418,7 @@ public class BufferTest {
 
     public void testAddAndWrapAround(Buffer<Integer> type) {
         long seqno=Long.MAX_VALUE-10;
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(seqno) : new FixedBuffer<>(16, seqno);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(seqno) : createFixedBuffer(type, 16, seqno);
         for(int i=1; i <= 16; i++)
             buf.add(seqno+i,i);
         assert buf.size() == 16;
@@ -467,7 +482,7 @@ public class BufferTest {
 
     public void testAddWithInvalidSeqno(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 20)
-          : new FixedBuffer<>(20);
+          : createFixedBuffer(type, 20);
         boolean success=buf.add(10, 0);
         assert !success;
         success=buf.add(20, 0);
@@ -478,7 +493,7 @@ public class BufferTest {
     /** Runs NUM adders, each adds 1 unique seqno. When all adders are done, we should have NUM elements in the buf */
     public void testConcurrentAdd(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(100, 0);
+            buf=createFixedBuffer(buf, 100, 0);
         final int NUM=100;
         CountDownLatch latch=new CountDownLatch(1);
         Adder[] adders=new Adder[NUM];
@@ -504,6 +519,158 @@ public class BufferTest {
         assert buf.size() == NUM;
     }
 
+    /** Multiple threads add the same (overlapping) seqnos while another thread removes them; each seqno has to be
+     * removed exactly once and in order */
+    public void testConcurrentAddsAndRemoval(Buffer<Integer> buf) throws Exception {
+        if(buf instanceof FixedBuffer)
+            buf=createFixedBuffer(buf, 64, 0);
+        final int NUM_ADDERS=4, NUM=50_000;
+        final Buffer<Integer> b=buf;
+        CountDownLatch latch=new CountDownLatch(1);
+        Thread[] adders=new Thread[NUM_ADDERS];
+        for(int i=0; i < adders.length; i++) {
+            adders[i]=new Thread(() -> {
+                try {
+                    latch.await();
+                    for(int seqno=1; seqno <= NUM; seqno++) {
+                        while(seqno - b.low() > b.capacity()) // full: wait for the remover
+                            Thread.onSpinWait();
+                        b.add(seqno, seqno, null, false);
+                    }
+                }
+                catch(InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            adders[i].start();
+        }
+        latch.countDown();
+        List<Integer> removed=new ArrayList<>(NUM);
+        long deadline=System.currentTimeMillis() + 20_000;
+        while(removed.size() < NUM && System.currentTimeMillis() < deadline) {
+            List<Integer> list=b.removeMany(true, 0);
+            if(list != null)
+                removed.addAll(list);
+        }
+        for(Thread t: adders)
+            t.join(5000);
+        assert removed.size() == NUM : String.format("expected %d elements, got %d", NUM, removed.size());
+        for(int i=0; i < NUM; i++)
+            assert removed.get(i) == i+1 : String.format("expected %d, got %d", i+1, removed.get(i));
+        assert b.isEmpty() : String.format("buf: %s", b);
+        assert b.low() == NUM && b.hd() == NUM && b.high() == NUM;
+    }
+
+    /**
+     * Multiple threads keep re-adding seqnos around low (duplicates of delivered and not yet delivered elements),
+     * while another thread removes the elements, with nulling (removeMany(true)), or without nulling followed by a
+     * purge. Each element has to be removed exactly once and in order, and size and bytes have to be 0 at the end
+     */
+    public void testConcurrentDuplicateAddsAndRemoval(Buffer<Integer> type) throws Exception {
+        for(int mode=0; mode < 3; mode++) {
+            final FixedBuffer<Integer> buf=BufferTest.<Integer>createFixedBuffer(type, 16, 0).maxBytes(1_000_000, i -> 10);
+            final int NUM_ADDERS=2, NUM=10_000;
+            final AtomicBoolean done=new AtomicBoolean();
+            Thread[] adders=new Thread[NUM_ADDERS];
+            for(int i=0; i < adders.length; i++) {
+                adders[i]=new Thread(() -> {
+                    while(!done.get()) {
+                        long low=buf.low();
+                        for(long seqno=Math.max(1, low - 8); seqno <= Math.min(NUM, low + buf.capacity()); seqno++)
+                            buf.add(seqno, (int)seqno, null, false);
+                        Thread.yield();
+                    }
+                });
+                adders[i].start();
+            }
+            List<Integer> removed=new ArrayList<>(NUM);
+            long deadline=System.currentTimeMillis() + 20_000;
+            while(removed.size() < NUM && System.currentTimeMillis() < deadline) {
+                switch(mode) {
+                    case 0 -> {
+                        List<Integer> list=buf.removeMany(true, 0);
+                        if(list != null)
+                            removed.addAll(list);
+                    }
+                    case 1 -> {
+                        List<Integer> list=buf.removeMany(false, 0);
+                        if(list != null)
+                            removed.addAll(list);
+                        buf.purge(buf.hd());
+                    }
+                    case 2 -> {
+                        Integer el=buf.remove(true);
+                        if(el != null)
+                            removed.add(el);
+                    }
+                }
+            }
+            done.set(true);
+            for(Thread t: adders)
+                t.join(5000);
+            assert removed.size() == NUM : String.format("mode %d: expected %d elements, got %d", mode, NUM, removed.size());
+            for(int i=0; i < NUM; i++)
+                assert removed.get(i) == i+1 : String.format("mode %d: expected %d, got %d", mode, i+1, removed.get(i));
+            assert buf.low() == NUM && buf.hd() == NUM && buf.high() == NUM : String.format("mode %d: %s", mode, buf);
+            assert buf.size() == 0 && buf.bytes() == 0
+              : String.format("mode %d: size=%d, bytes=%d: %s", mode, buf.size(), buf.bytes(), buf);
+        }
+    }
+
+    /**
+     * Multiple threads add unique seqnos (as senders do), blocking when the buffer is full, while another thread
+     * removes the elements with nulling (removeMany(true) or remove(true)), or without nulling followed by a purge.
+     * Adders of seqnos which map to the slots being nulled must neither fail nor corrupt size or bytes
+     */
+    public void testConcurrentAddsAndPurge(Buffer<Integer> type) throws Exception {
+        for(int mode=0; mode < 3; mode++) {
+            final FixedBuffer<Integer> buf=BufferTest.<Integer>createFixedBuffer(type, 16, 0).maxBytes(1_000_000, i -> 10);
+            final int NUM_ADDERS=4, NUM=20_000;
+            final AtomicLong seqnos=new AtomicLong();
+            final AtomicInteger failed_adds=new AtomicInteger();
+            Thread[] adders=new Thread[NUM_ADDERS];
+            for(int i=0; i < adders.length; i++) {
+                adders[i]=new Thread(() -> {
+                    for(long seqno; (seqno=seqnos.incrementAndGet()) <= NUM;) {
+                        if(!buf.add(seqno, (int)seqno, null, true))
+                            failed_adds.incrementAndGet();
+                    }
+                });
+                adders[i].start();
+            }
+            List<Integer> removed=new ArrayList<>(NUM);
+            long deadline=System.currentTimeMillis() + 20_000;
+            while(removed.size() < NUM && failed_adds.get() == 0 && System.currentTimeMillis() < deadline) {
+                switch(mode) {
+                    case 0 -> {
+                        List<Integer> list=buf.removeMany(true, 0);
+                        if(list != null)
+                            removed.addAll(list);
+                    }
+                    case 1 -> {
+                        List<Integer> list=buf.removeMany(false, 0);
+                        if(list != null)
+                            removed.addAll(list);
+                        buf.purge(buf.hd());
+                    }
+                    case 2 -> {
+                        Integer el=buf.remove(true);
+                        if(el != null)
+                            removed.add(el);
+                    }
+                }
+            }
+            for(Thread t: adders)
+                t.join(5000);
+            assert failed_adds.get() == 0 : String.format("mode %d: %d adds failed: %s", mode, failed_adds.get(), buf);
+            assert removed.size() == NUM : String.format("mode %d: expected %d elements, got %d", mode, NUM, removed.size());
+            for(int i=0; i < NUM; i++)
+                assert removed.get(i) == i+1 : String.format("mode %d: expected %d, got %d", mode, i+1, removed.get(i));
+            assert buf.size() == 0 && buf.bytes() == 0
+              : String.format("mode %d: size=%d, bytes=%d: %s", mode, buf.size(), buf.bytes(), buf);
+        }
+    }
+
     public void testAddAndRemove(Buffer<Message> buf) {
         buf.add(1, msg(1));
         buf.add(2, msg(2));
@@ -542,7 +709,7 @@ public class BufferTest {
 
     public void testAddAndRemove3(Buffer<Message> type) {
         Buffer<Message> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 3)
-          : new FixedBuffer<>(3);
+          : createFixedBuffer(type, 3);
         buf.add(5, msg(5, true), dont_loopback_filter, true);
         buf.add(6, msg(6, true), dont_loopback_filter, true);
         buf.add(4, msg(4, true), dont_loopback_filter, true);
@@ -554,7 +721,7 @@ public class BufferTest {
 
     public void testAddAndRemove4(Buffer<Message> type) {
         Buffer<Message> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 3)
-          : new FixedBuffer<>(3);
+          : createFixedBuffer(type, 3);
         buf.add(7, msg(7, true), dont_loopback_filter, true);
         buf.add(6, msg(6, true), dont_loopback_filter, true);
         buf.add(4, msg(4, true), dont_loopback_filter, true);
@@ -566,7 +733,7 @@ public class BufferTest {
     public void testNonBlockingAdd(Buffer<Integer> buf) {
         if(buf instanceof DynamicBuffer)
             return;
-        buf=new FixedBuffer<>(10, 0);
+        buf=createFixedBuffer(buf, 10, 0);
         for(int i=1; i <= 10; i++)
             assert buf.add(i, i);
         boolean rc=buf.add(11, 11, null, false);
@@ -591,7 +758,7 @@ public class BufferTest {
 
     public void testAddListWithResizingNegativeSeqnos(Buffer<Integer> type) {
         long seqno=Long.MAX_VALUE-50;
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,5,seqno) : new FixedBuffer<>(100, seqno);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,5,seqno) : createFixedBuffer(type, 100, seqno);
         List<LongTuple<Integer>> msgs=new ArrayList<>();
         for(int i=1; i < 100; i++)
             msgs.add(new LongTuple<>((long)i+seqno,i));
@@ -633,7 +800,7 @@ public class BufferTest {
     }
 
     public void testAddListWithResizing2(Buffer<Integer> type) {
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>() : new FixedBuffer<>(100, 0);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>() : createFixedBuffer(type, 100, 0);
         List<LongTuple<Integer>> msgs=new ArrayList<>();
         for(int i=1; i < 100; i++)
             msgs.add(new LongTuple<>(i, i));
@@ -647,7 +814,7 @@ public class BufferTest {
     }
 
     public void testAddListWithResizing(Buffer<Message> type) {
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,5,0) : new FixedBuffer<>(100, 0);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,5,0) : createFixedBuffer(type, 100, 0);
         List<LongTuple<Integer>> msgs=new ArrayList<>();
         for(int i=1; i < 100; i++)
             msgs.add(new LongTuple<>(i, i));
@@ -662,7 +829,7 @@ public class BufferTest {
 
     public void testIndex(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 5)
-          : new FixedBuffer<>(10, 5);
+          : createFixedBuffer(type, 10, 5);
         assertIndices(buf, 5,5,5);
         buf.add(6,6); buf.add(7,7);
         buf.remove(false); buf.remove(false);
@@ -679,7 +846,7 @@ public class BufferTest {
 
     public void testIndexWithRemoveMany(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 5)
-          : new FixedBuffer<>(10, 5);
+          : createFixedBuffer(type, 10, 5);
         assertIndices(buf, 5, 5, 5);
         buf.add(6, 6); buf.add(7, 7);
         long low=buf.low();
@@ -978,7 +1145,7 @@ public class BufferTest {
 
     public void testRemoveManyWithMaxBatchSize(Buffer<Message> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(1024, 0);
+            buf=createFixedBuffer(buf, 1024, 0);
         final Buffer<Message> b=buf;
         IntStream.rangeClosed(1, 1024).forEach(n -> b.add(n,new ObjectMessage(null, "hello-" + n)));
         assert buf.size() == 1024;
@@ -1042,7 +1209,7 @@ public class BufferTest {
 
     public void testGetNullMessages(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(100, 0);
+            buf=createFixedBuffer(buf, 100, 0);
         buf.add(1, 1);
         buf.add(100, 100);
         System.out.println("buf = " + buf);
@@ -1118,7 +1285,7 @@ public class BufferTest {
         System.out.println("missing = " + missing);
         assert missing == null && buf.numMissing() == 0;
 
-        buf=new FixedBuffer<>(10, 0);
+        buf=createFixedBuffer(buf, 10, 0);
         buf.add(10,10);
         missing=buf.getMissing();
         System.out.println("missing = " + missing);
@@ -1130,7 +1297,7 @@ public class BufferTest {
         System.out.println("missing = " + missing);
         assert buf.numMissing() == missing.size();
 
-        buf=new FixedBuffer<>(10, 0);
+        buf=createFixedBuffer(buf, 10, 0);
         buf.add(5,5);
         missing=buf.getMissing();
         System.out.println("missing = " + missing);
@@ -1142,7 +1309,7 @@ public class BufferTest {
         System.out.println("missing = " + missing);
         assert buf.numMissing() == missing.size();
 
-        buf=new FixedBuffer<>(10, 0);
+        buf=createFixedBuffer(buf, 10, 0);
         buf.add(5,7);
         missing=buf.getMissing();
         System.out.println("missing = " + missing);
@@ -1166,7 +1333,7 @@ public class BufferTest {
 
     public void testGetMissingWithOffset(Buffer<Integer> type) {
         Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, 300000)
-          : new FixedBuffer<>(300000);
+          : createFixedBuffer(type, 300000);
 
         SeqnoList missing=buf.getMissing();
         assert missing == null;
@@ -1190,7 +1357,7 @@ public class BufferTest {
 
     public void testGetMissingWithMaxSize(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(50, 0);
+            buf=createFixedBuffer(buf, 50, 0);
         for(int i=1; i <= 50; i++) {
             if(i % 2 == 0)
                 buf.add(i,i);
@@ -1210,7 +1377,7 @@ public class BufferTest {
         final int max_bundle_size=64000, missing_msgs=1_000_000;
         final int max_xmit_req_size=(max_bundle_size -50) * Global.LONG_SIZE;
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(missing_msgs, 0);
+            buf=createFixedBuffer(buf, missing_msgs, 0);
         buf.add(0, 0);
         buf.add(missing_msgs, missing_msgs);
         System.out.println("buf = " + buf);
@@ -1227,7 +1394,7 @@ public class BufferTest {
         final int max_bundle_size=64000, missing_msgs=2_000_000;
         final int max_xmit_req_size=(max_bundle_size -50) * Global.LONG_SIZE;
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(missing_msgs, 0);
+            buf=createFixedBuffer(buf, missing_msgs, 0);
         for(int i=0; i < missing_msgs/2; i++)
             buf.add(i, i);
 
@@ -1349,7 +1516,7 @@ public class BufferTest {
 
     public void testMassAddition(Buffer<Integer> type) {
         final int NUM_ELEMENTS=10005;
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,10,0) : new FixedBuffer<>(NUM_ELEMENTS, 0);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,10,0) : createFixedBuffer(type, NUM_ELEMENTS, 0);
         for(int i=1; i <= NUM_ELEMENTS; i++)
             buf.add(i, i);
         System.out.println("buf = " + buf);
@@ -1379,7 +1546,7 @@ public class BufferTest {
 
     public void testResizeWithPurge(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(100, 0);
+            buf=createFixedBuffer(buf, 100, 0);
         for(int i=1; i <= 100; i++)
             addAndGet(buf, i);
         System.out.println("buf: " + buf);
@@ -1398,7 +1565,7 @@ public class BufferTest {
 
     public void testResizeWithPurgeAndGetOfNonExistingElement(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(50, 0);
+            buf=createFixedBuffer(buf, 50, 0);
         for(int i=1; i <= 50; i++)
             addAndGet(buf, i);
         System.out.println("buf: " + buf);
@@ -1509,7 +1676,7 @@ public class BufferTest {
 
     public void testPurge(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(50, 0);
+            buf=createFixedBuffer(buf, 50, 0);
         for(int seqno=1; seqno <= 25; seqno++)
             buf.add(seqno, seqno);
 
@@ -1586,7 +1753,7 @@ public class BufferTest {
 
     public void testPurge4(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(100, 0);
+            buf=createFixedBuffer(buf, 100, 0);
         for(int i=1; i <= 100; i++)
             buf.add(i, i);
         System.out.println("buf = " + buf);
@@ -1597,7 +1764,7 @@ public class BufferTest {
 
     public void testPurge5(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(100, 0);
+            buf=createFixedBuffer(buf, 100, 0);
         for(int i=1; i <= 100; i++)
             buf.add(i, i);
         System.out.println("buf = " + buf);
@@ -1609,7 +1776,7 @@ public class BufferTest {
 
     public void testPurge6(Buffer<Integer> buf) {
         if(buf instanceof FixedBuffer)
-            buf=new FixedBuffer<>(100, 0);
+            buf=createFixedBuffer(buf, 100, 0);
         for(int i=1; i <= 100; i++)
             buf.add(i, i);
         System.out.println("buf = " + buf);
@@ -1723,7 +1890,7 @@ public class BufferTest {
 
 
     public void testCompact(Buffer<Integer> type) {
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,10,0) : new FixedBuffer<>(80, 0);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,10,0) : createFixedBuffer(type, 80, 0);
         IntStream.rangeClosed(1,80).boxed().forEach(n -> buf.add(n,n));
         assert buf.size() == 80;
         assertIndices(buf, 0, 0, 80);
@@ -1743,7 +1910,7 @@ public class BufferTest {
     }
 
     public void testCompact2(Buffer<Integer> type) {
-        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,10,0) : new FixedBuffer<>(80, 0);
+        Buffer<Integer> buf=type instanceof DynamicBuffer? new DynamicBuffer<>(3,10,0) : createFixedBuffer(type, 80, 0);
 
         int num_missing=type.numMissing();
         assert num_missing == 0;
@@ -1778,7 +1945,7 @@ public class BufferTest {
     public void testConcurrentAddAndRemove(Buffer<Integer> buf) throws Exception {
         if(!(buf instanceof FixedBuffer))
             return;
-        buf=new FixedBuffer<>(16, 0);
+        buf=createFixedBuffer(buf, 16, 0);
         final int NUM=5, capacity=buf.capacity();
         for(int i=1; i <= capacity; i++)
             buf.add(i, i); // fill the buffer, add() would block from now on
@@ -1821,7 +1988,7 @@ public class BufferTest {
     public void testCapacity(Buffer<Integer> type) {
         if(!(type instanceof FixedBuffer))
             return;
-        FixedBuffer<Integer> buf=new FixedBuffer<>(100, 1);
+        FixedBuffer<Integer> buf=createFixedBuffer(type, 100, 1);
         System.out.println("buf = " + buf);
         assert buf.capacity() == 100;
         assert buf.isEmpty();
@@ -1830,7 +1997,7 @@ public class BufferTest {
     public void testAddBeyondCapacity(Buffer<Integer> buf) throws ExecutionException, InterruptedException {
         if(buf instanceof DynamicBuffer)
             return;
-        buf=new FixedBuffer<>(10, 0);
+        buf=createFixedBuffer(buf, 10, 0);
         for(int i=1; i <= 10; i++)
             assert buf.add(i, i);
         final Buffer<Integer> b=buf;
@@ -1847,7 +2014,7 @@ public class BufferTest {
     public void testBlockingAddAndRemove(Buffer<Integer> buf) throws ExecutionException, InterruptedException {
         if(buf instanceof DynamicBuffer)
             return;
-        buf=new FixedBuffer<>(10, 0);
+        buf=createFixedBuffer(buf, 10, 0);
         for(int i=1; i <= 10; i++)
             assert buf.add(i, i);
         final Buffer<Integer> b=buf;
@@ -1866,7 +2033,7 @@ public class BufferTest {
     public void testBlockingAddAndClose(Buffer<Integer> type) {
         if(type instanceof DynamicBuffer)
             return;
-        FixedBuffer<Integer> buf=new FixedBuffer<>(10, 0);
+        FixedBuffer<Integer> buf=createFixedBuffer(type, 10, 0);
         for(int i=0; i <= 10; i++)
             buf.add(i, i, null, true);
         System.out.println("buf = " + buf);
@@ -1908,7 +2075,7 @@ public class BufferTest {
     public void testBlockingAddAndPurge(Buffer<Integer> type) throws InterruptedException {
         if(type instanceof DynamicBuffer)
             return;
-        final FixedBuffer<Integer> buf=new FixedBuffer<>(10, 0);
+        final FixedBuffer<Integer> buf=createFixedBuffer(type, 10, 0);
         for(int i=0; i <= 10; i++)
             buf.add(i, i, null, true);
         System.out.println("buf = " + buf);
@@ -1930,7 +2097,7 @@ public class BufferTest {
     public void testBlockingAddAndPurge2(Buffer<Integer> type) throws TimeoutException {
         if(type instanceof DynamicBuffer)
             return;
-        final FixedBuffer<Integer> buf=new FixedBuffer<>(10, 0);
+        final FixedBuffer<Integer> buf=createFixedBuffer(type, 10, 0);
         IntStream.rangeClosed(1, buf.capacity()).boxed()
           .forEach(n -> buf.add(n, n, null, true));
         System.out.println("buf = " + buf);
@@ -1947,6 +2114,100 @@ public class BufferTest {
         assert buf.size() == 9;
     }
 
+    public void testMaxBytes(Buffer<Integer> type) {
+        if(type instanceof DynamicBuffer)
+            return;
+        // the size of an element is its value
+        FixedBuffer<Integer> buf=BufferTest.<Integer>createFixedBuffer(type, 10, 0).maxBytes(100, Integer::intValue);
+        assert buf.add(1, 40, null, false);
+        assert buf.add(2, 40, null, false);
+        assert buf.bytes() == 80;
+        assert !buf.add(3, 40, null, false);
+        assert buf.add(3, 20, null, false);
+        assert buf.bytes() == 100 && buf.size() == 3;
+        assert buf.numDroppedMessages() == 1;
+
+        Integer el=buf.remove();
+        assert el == 40 && buf.bytes() == 60;
+        assert buf.add(4, 40, null, false);
+        List<Integer> list=buf.removeMany(true, 0);
+        assert list.equals(List.of(40, 20, 40));
+        assert buf.bytes() == 0;
+    }
+
+    /** The element at low+1 is always added, even if it exceeds max_bytes, or else a receiver would never be able
+     * to deliver the messages it has already received */
+    public void testMaxBytesFirstElementIsAlwaysAdded(Buffer<Integer> type) {
+        if(type instanceof DynamicBuffer)
+            return;
+        FixedBuffer<Integer> buf=BufferTest.<Integer>createFixedBuffer(type, 10, 0).maxBytes(100, Integer::intValue);
+        assert buf.add(2, 50, null, false);
+        assert buf.add(3, 50, null, false);
+        assert !buf.add(4, 10, null, false);
+        assert buf.add(1, 200, null, false);
+        assert buf.bytes() == 300;
+        List<Integer> list=buf.removeMany(true, 0);
+        assert list.equals(List.of(200, 50, 50));
+        assert buf.bytes() == 0;
+        assert buf.add(4, 500, null, false);
+    }
+
+    public void testMaxBytesBlockingAdd(Buffer<Integer> type) throws Exception {
+        if(type instanceof DynamicBuffer)
+            return;
+        final FixedBuffer<Integer> buf=BufferTest.<Integer>createFixedBuffer(type, 10, 0).maxBytes(100, Integer::intValue);
+        assert buf.add(1, 60, null, true);
+        assert buf.add(2, 40, null, true);
+        CompletableFuture<Boolean> cf=CompletableFuture.supplyAsync(() -> buf.add(3, 10, null, true));
+        Util.sleep(500);
+        assert !cf.isDone();
+        assert buf.numBlockings() == 1;
+        buf.remove();
+        assert cf.get(10, TimeUnit.SECONDS);
+        assert buf.size() == 2 && buf.bytes() == 50;
+    }
+
+    public void testMaxBytesPurge(Buffer<Integer> type) {
+        if(type instanceof DynamicBuffer)
+            return;
+        FixedBuffer<Integer> buf=BufferTest.<Integer>createFixedBuffer(type, 10, 0).maxBytes(100, Integer::intValue);
+        IntStream.rangeClosed(1, 5).forEach(n -> buf.add(n, 20, null, false));
+        assert buf.bytes() == 100;
+        buf.purge(3, true);
+        assert buf.bytes() == 40 && buf.size() == 2;
+        buf.purge(5, true);
+        assert buf.bytes() == 0;
+        assert buf.add(6, 100, null, false);
+    }
+
+    public void testTrim(Buffer<Integer> type) {
+        if(type instanceof DynamicBuffer)
+            return;
+        FixedBuffer<Integer> buf=BufferTest.createFixedBuffer(type, 10, 0);
+        IntStream.rangeClosed(1, 5).forEach(n -> buf.add(n, n));
+        assert !buf.trim(); // not empty
+        buf.removeMany(false, 0);
+        assert !buf.trim(); // elements were removed, but not nullified: low < hd
+        buf.purge(5);
+        if(type instanceof ConcurrentFixedBuffer) {
+            assert !buf.trim() && !buf.trimmed(); // not supported
+            return;
+        }
+        assert buf.trim() && buf.trimmed();
+        assert buf.capacity() == 10;
+        assert buf.low() == 5 && buf.hd() == 5 && buf.high() == 5;
+        assert buf.get(5) == null && buf.remove() == null && buf.getMissing() == null;
+        assert buf.removeMany(true, 0) == null;
+        assert buf.purge(5) == 0;
+
+        assert buf.add(7, 7) && !buf.trimmed(); // re-inflates the buffer
+        assert buf.add(6, 6);
+        assert buf.size() == 2 && buf.high() == 7;
+        List<Integer> list=buf.removeMany(true, 0);
+        assert list.equals(List.of(6, 7));
+        assert buf.trim();
+    }
+
     public void testRemoveManyWithMissingElements(Buffer<Integer> buf) {
         IntStream.rangeClosed(1,10).filter(n -> n!= 8).forEach(n -> buf.add(n,n));
         List<Integer> list=buf.removeMany(true, 3);
@@ -2030,7 +2291,7 @@ public class BufferTest {
     protected static void _testSeqnoOverflow(Buffer<Message> type, long seqno, final int delta) {
         long orig_seqno=seqno;
         Buffer<Message> win=type instanceof DynamicBuffer? new DynamicBuffer<>(3, 10, seqno)
-          : new FixedBuffer<>(seqno);
+          : createFixedBuffer(type, seqno);
 
         for(int i=1; i <= delta; i++) {
             Message msg=new BytesMessage(null, "hello");
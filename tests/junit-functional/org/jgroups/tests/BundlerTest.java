@@ -50,6 +50,7 @@ public class BundlerTest extends ChannelTestBase {
     public static Object[][] createBundler() {
         return new Object[][]{
           {TransferQueueBundler.class},
+          {RingBufferBundler.class},
           {NoBundler.class},
           {PerDestinationBundler.class}
         };
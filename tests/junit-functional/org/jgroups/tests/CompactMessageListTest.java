@@ -0,0 +1,137 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link CompactMessageList}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class CompactMessageListTest {
+    protected static final short   TP_ID=1, NAKACK_ID=2, UNICAST_ID=3, FRAG_ID=4;
+    protected static final Address A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B");
+    protected static final byte[]  CLUSTER="cluster".getBytes();
+
+    public void testSharedHeaders() throws Exception {
+        TpHeader tp_hdr=new TpHeader(CLUSTER);
+        List<Message> list=new ArrayList<>();
+        for(int i=1; i <= 100; i++) {
+            Message msg=new BytesMessage(null, ("msg-" + i).getBytes()).setSrc(A)
+              .putHeader(TP_ID, tp_hdr).putHeader(NAKACK_ID, NakAckHeader2.createMessageHeader(1000 + i));
+            if(i % 10 == 0)
+                msg.putHeader(FRAG_ID, new FragHeader(i, 0, 1)); // not shared
+            list.add(msg);
+        }
+        int compact_size=write(list, true), size=write(list, false);
+        System.out.printf("compact size: %,d, size: %,d\n", compact_size, size);
+        assert compact_size < size;
+
+        MessageBatch batch=read(list)[0];
+        assert batch.size() == list.size();
+        int i=1;
+        for(Message msg: batch) {
+            assert new String(msg.getArray(), msg.getOffset(), msg.getLength()).equals("msg-" + i);
+            assert msg.getSrc().equals(A) && msg.getDest() == null;
+            TpHeader tp=msg.getHeader(TP_ID);
+            assert new AsciiString(tp.clusterName()).equals(new AsciiString(CLUSTER));
+            NakAckHeader2 hdr=msg.getHeader(NAKACK_ID);
+            assert hdr.getType() == NakAckHeader2.MSG && hdr.getSeqno() == 1000 + i;
+            assert (msg.getHeader(FRAG_ID) != null) == (i % 10 == 0);
+            i++;
+        }
+    }
+
+    /** Seqnos which are not in ascending order (e.g. retransmissions) and unicast headers */
+    public void testNegativeDeltas() throws Exception {
+        long[] seqnos={500, 499, 1, 100_000, 501, 0};
+        List<Message> list=new ArrayList<>();
+        for(long seqno: seqnos)
+            list.add(new EmptyMessage(B).setSrc(A).setFlag(Message.Flag.OOB)
+                       .putHeader(UNICAST_ID, UnicastHeader3.createDataHeader(seqno, (short)5, false)));
+        MessageBatch[] batches=read(list);
+        assert batches[0] == null;
+        MessageBatch batch=batches[1];
+        assert batch.size() == seqnos.length && batch.mode() == MessageBatch.Mode.OOB;
+        int i=0;
+        for(Message msg: batch) {
+            UnicastHeader3 hdr=msg.getHeader(UNICAST_ID);
+            assert hdr.type() == UnicastHeader3.DATA && hdr.seqno() == seqnos[i++] && hdr.connId() == 5 && !hdr.first();
+            assert msg.getDest().equals(B);
+        }
+    }
+
+    /** Headers which are not delta-compatible, or missing in some messages, must not be shared */
+    public void testHeadersNotShared() throws Exception {
+        List<Message> list=new ArrayList<>();
+        list.add(new EmptyMessage(null).setSrc(A).putHeader(UNICAST_ID, UnicastHeader3.createDataHeader(1, (short)1, true)));
+        list.add(new EmptyMessage(null).setSrc(A).putHeader(UNICAST_ID, UnicastHeader3.createDataHeader(2, (short)1, false)));
+        list.add(new EmptyMessage(null).setSrc(A).putHeader(NAKACK_ID, NakAckHeader2.createMessageHeader(3)));
+        MessageBatch batch=read(list)[0];
+        assert batch.size() == 3;
+        UnicastHeader3 h1=batch.array().get(0).getHeader(UNICAST_ID), h2=batch.array().get(1).getHeader(UNICAST_ID);
+        assert h1.first() && h1.seqno() == 1 && !h2.first() && h2.seqno() == 2;
+        assert batch.array().get(2).getHeader(UNICAST_ID) == null;
+        NakAckHeader2 h3=batch.array().get(2).getHeader(NAKACK_ID);
+        assert h3.getSeqno() == 3;
+    }
+
+    public void testChannels() throws Exception {
+        try(JChannel a=create("A"); JChannel b=create("B")) {
+            a.connect("CompactMessageListTest");
+            b.connect("CompactMessageListTest");
+            Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+            MyReceiver<Integer> ra=new MyReceiver<>(), rb=new MyReceiver<>();
+            a.setReceiver(ra); b.setReceiver(rb);
+            final int NUM=1000;
+            for(int i=1; i <= NUM; i++) {
+                a.send(new ObjectMessage(null, i));
+                a.send(new ObjectMessage(b.address(), i));
+            }
+            Util.waitUntil(5000, 100, () -> ra.size() == NUM && rb.size() == NUM*2,
+                           () -> String.format("A: %d, B: %d", ra.size(), rb.size()));
+        }
+    }
+
+    protected static int write(List<Message> list, boolean compact) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(1024);
+        Address dest=list.get(0).getDest();
+        if(compact)
+            CompactMessageList.writeMessageList(dest, A, CLUSTER, list, out, dest == null);
+        else
+            Util.writeMessageList(dest, A, CLUSTER, list, out, dest == null);
+        return out.position();
+    }
+
+    protected static MessageBatch[] read(List<Message> list) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(1024);
+        Address dest=list.get(0).getDest();
+        CompactMessageList.writeMessageList(dest, A, CLUSTER, list, out, dest == null);
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(out.buffer(), 0, out.position()));
+        short version=in.readShort();
+        byte flags=in.readByte();
+        assert version == Version.version;
+        assert (flags & TP.COMPACT) == TP.COMPACT && (flags & TP.LIST) == TP.LIST;
+        return CompactMessageList.readMessageBatch(in, (flags & TP.MULTICAST) == TP.MULTICAST);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        TP transport=new SHARED_LOOPBACK().setBundler(new TransferQueueBundler().compactBatches(true));
+        List<Protocol> prots=List.of(transport, new SHARED_LOOPBACK_PING(), new NAKACK2(), new UNICAST3(),
+                                     new STABLE(), new GMS(), new FRAG2());
+        return new JChannel(prots).name(name);
+    }
+}
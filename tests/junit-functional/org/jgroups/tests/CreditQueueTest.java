@@ -0,0 +1,161 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.ObjectMessage;
+import org.jgroups.util.Credit;
+import org.jgroups.util.CreditQueue;
+import org.jgroups.util.Util;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests {@link CreditQueue}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class CreditQueueTest {
+    protected static final int    MAX_CREDITS=10_000, SIZE=1000;
+    protected Credit              cred;
+    protected CreditQueue         queue;
+    protected final List<Integer> sent=new CopyOnWriteArrayList<>();
+    protected long                max_size=MAX_CREDITS, max_block_time;
+
+    @BeforeMethod
+    protected void setup() {
+        sent.clear();
+        max_size=MAX_CREDITS;
+        max_block_time=0;
+        cred=new Credit(MAX_CREDITS);
+        queue=new CreditQueue(len -> cred.decrementIfEnoughCredits(null, (int)len, 0),
+                              m -> sent.add(m.getObject()), () -> max_size, () -> max_block_time);
+    }
+
+    public void testSendWithCredits() {
+        for(int i=1; i <= 10; i++) {
+            Object retval=queue.send(msg(i), SIZE, false);
+            assert !(retval instanceof CompletableFuture);
+        }
+        assert sent.equals(range(1, 10)) && cred.get() == 0;
+        assert queue.size() == 0 && queue.numQueued() == 0;
+    }
+
+    public void testQueueingAndDrain() {
+        for(int i=1; i <= 10; i++)
+            queue.send(msg(i), SIZE, false);
+        List<CompletableFuture<Object>> futures=IntStream.rangeClosed(11, 15)
+          .mapToObj(i -> (CompletableFuture<Object>)queue.send(msg(i), SIZE, false)).collect(Collectors.toList());
+        assert futures.stream().noneMatch(CompletableFuture::isDone);
+        assert queue.size() == 5 && queue.bytes() == 5 * SIZE && queue.numQueued() == 5;
+
+        cred.increment(2 * SIZE, MAX_CREDITS);
+        queue.drain();
+        assert futures.get(0).isDone() && futures.get(1).isDone() && !futures.get(2).isDone();
+        assert sent.equals(range(1, 12));
+
+        // credits are available, but a new message is queued behind the existing ones
+        cred.increment(SIZE, MAX_CREDITS);
+        CompletableFuture<Object> f=(CompletableFuture<Object>)queue.send(msg(16), SIZE, false);
+        assert sent.equals(range(1, 13)) && !f.isDone();
+
+        cred.increment(MAX_CREDITS, MAX_CREDITS);
+        queue.drain();
+        assert sent.equals(range(1, 16)) && f.isDone() && queue.size() == 0;
+        // the queue is empty: the message is sent right away
+        queue.send(msg(17), SIZE, false);
+        assert sent.equals(range(1, 17));
+    }
+
+    public void testFlush() {
+        cred.decrementIfEnoughCredits(null, MAX_CREDITS, 0);
+        List<CompletableFuture<Object>> futures=IntStream.rangeClosed(1, 5)
+          .mapToObj(i -> (CompletableFuture<Object>)queue.send(msg(i), SIZE, false)).collect(Collectors.toList());
+        assert sent.isEmpty();
+        queue.flush();
+        assert futures.stream().allMatch(CompletableFuture::isDone);
+        assert sent.equals(range(1, 5)) && cred.get() == 0;
+        // the flush is over: new messages are queued again
+        Object retval=queue.send(msg(6), SIZE, false);
+        assert retval instanceof CompletableFuture && sent.size() == 5;
+    }
+
+    public void testFullQueue() throws TimeoutException {
+        max_size=3 * SIZE;
+        cred.decrementIfEnoughCredits(null, MAX_CREDITS, 0);
+        for(int i=1; i <= 3; i++)
+            queue.send(msg(i), SIZE, false);
+        assert queue.send(msg(4), SIZE, true) == null; // dropped
+        assert queue.numDropped() == 1 && queue.size() == 3;
+
+        Thread sender=new Thread(() -> queue.send(msg(5), SIZE, false));
+        sender.start();
+        Util.waitUntil(2000, 10, () -> sender.getState() == Thread.State.WAITING);
+        cred.increment(SIZE, MAX_CREDITS);
+        queue.drain();
+        Util.waitUntil(2000, 10, () -> sender.getState() == Thread.State.TERMINATED);
+        assert sent.equals(range(1, 1)) && queue.size() == 3;
+        cred.increment(MAX_CREDITS, MAX_CREDITS);
+        queue.drain();
+        assert sent.equals(List.of(1, 2, 3, 5));
+    }
+
+    /** A sender blocked on a full queue gives up after max_block_time: the message is dropped */
+    public void testFullQueueTimeout() throws Exception {
+        max_size=3 * SIZE;
+        max_block_time=100;
+        cred.decrementIfEnoughCredits(null, MAX_CREDITS, 0);
+        for(int i=1; i <= 3; i++)
+            queue.send(msg(i), SIZE, false);
+        CompletableFuture<Object> f=(CompletableFuture<Object>)queue.send(msg(4), SIZE, false);
+        assert f.isCompletedExceptionally() && queue.numDropped() == 1 && queue.size() == 3;
+        try {
+            f.get();
+            assert false : "the future should have failed";
+        }
+        catch(ExecutionException ex) {
+            assert ex.getCause() instanceof TimeoutException : ex;
+        }
+    }
+
+    /** drainAsync() sends the queued messages on a thread of the executor, not on the caller's thread */
+    public void testDrainAsync() {
+        List<Runnable> tasks=new ArrayList<>();
+        queue.executor(tasks::add);
+        cred.decrementIfEnoughCredits(null, MAX_CREDITS, 0);
+        CompletableFuture<Object> f=(CompletableFuture<Object>)queue.send(msg(1), SIZE, false);
+        cred.increment(MAX_CREDITS, MAX_CREDITS);
+        queue.drainAsync();
+        assert sent.isEmpty() && !f.isDone() && tasks.size() == 1;
+        tasks.get(0).run();
+        assert sent.equals(range(1, 1)) && f.isDone();
+        queue.drainAsync(); // nothing queued: no task is submitted
+        assert tasks.size() == 1;
+    }
+
+    public void testSendFailure() {
+        cred.decrementIfEnoughCredits(null, MAX_CREDITS, 0);
+        CreditQueue q=new CreditQueue(len -> cred.decrementIfEnoughCredits(null, (int)len, 0),
+                                      m -> {throw new IllegalStateException("boom");}, () -> max_size, () -> 0);
+        CompletableFuture<Object> f=(CompletableFuture<Object>)q.send(msg(1), SIZE, false);
+        q.flush();
+        assert f.isCompletedExceptionally();
+    }
+
+    protected static Message msg(int i) {
+        return new ObjectMessage(null, i);
+    }
+
+    protected static List<Integer> range(int from, int to) {
+        return IntStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+}
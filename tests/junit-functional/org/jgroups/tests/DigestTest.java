@@ -5,6 +5,8 @@ package org.jgroups.tests;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.View;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.Digest;
 import org.jgroups.util.MutableDigest;
 import org.jgroups.util.Util;
@@ -17,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -378,6 +381,57 @@ public class DigestTest {
 
 
 
+    public void testMergeDifferentOrder() {
+        Digest other=new Digest(new Address[]{a3,a1,a2}, new long[]{30,40, 499,502, 20,20});
+        MutableDigest digest=new MutableDigest(d);
+        digest.merge(other);
+        Assert.assertEquals(digest.get(a1), new long[]{500,502});
+        Assert.assertEquals(digest.get(a2), new long[]{26,26});
+        Assert.assertEquals(digest.get(a3), new long[]{30,40});
+    }
+
+    public void testMergeWithOperators() {
+        MutableDigest digest=new MutableDigest(members).set(a1, 499,502).set(a3, 26,35);
+        digest.merge(d, (hd, other) -> hd == -1? other : Math.min(hd, other), Math::max);
+        Assert.assertEquals(digest.get(a1), new long[]{499,502});
+        Assert.assertEquals(digest.get(a2), new long[]{26,26});
+        Assert.assertEquals(digest.get(a3), new long[]{25,35});
+    }
+
+    public void testStreamingMerge() throws Exception {
+        for(boolean with_addrs: new boolean[]{true, false}) {
+            MutableDigest digest=new MutableDigest(members).set(a1, 499,502).set(a2, 26,27).set(a3, 26,35);
+            MutableDigest expected=new MutableDigest(digest).merge(d);
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(d.serializedSize(with_addrs));
+            d.writeTo(out, with_addrs);
+            digest.merge(new ByteArrayDataInputStream(out.buffer(), 0, out.position()), with_addrs);
+            Assert.assertEquals(digest, expected);
+        }
+    }
+
+    public void testStreamingMergeOfNonMembers() throws Exception {
+        Address ip1=Util.createRandomAddress("x");
+        Digest other=new Digest(new Address[]{ip1,a2}, new long[]{10,10, 30,31});
+        byte[] buf=Util.streamableToByteBuffer(other);
+        MutableDigest digest=new MutableDigest(d).merge(new ByteArrayDataInputStream(buf), true);
+        assert !digest.contains(ip1);
+        Assert.assertEquals(digest.get(a1), new long[]{500,501});
+        Assert.assertEquals(digest.get(a2), new long[]{30,31});
+    }
+
+    public void testStreamingMergeWithDifferentMembers() throws Exception {
+        Digest other=new Digest(new Address[]{a1,a2}, new long[]{10,10, 30,31});
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(other.serializedSize(false));
+        other.writeTo(out, false);
+        try {
+            new MutableDigest(d).merge(new ByteArrayDataInputStream(out.buffer(), 0, out.position()), false);
+            assert false : "merging a digest with a different number of members should have thrown an exception";
+        }
+        catch(IOException ex) {
+            System.out.println("caught exception as expected: " + ex);
+        }
+    }
+
     public void testStreamable() throws Exception {
         ByteArrayOutputStream outstream=new ByteArrayOutputStream();
         DataOutputStream dos=new DataOutputStream(outstream);
@@ -7,7 +7,9 @@ import org.jgroups.protocols.*;
 import org.jgroups.protocols.pbcast.GMS;
 import org.jgroups.protocols.pbcast.NAKACK2;
 import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
 import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.FragmentInputStream;
 import org.jgroups.util.MyReceiver;
 import org.jgroups.util.SizeStreamable;
 import org.jgroups.util.Streamable;
@@ -19,12 +21,15 @@ import org.testng.annotations.Test;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -57,6 +62,11 @@ public class FragTest {
         };
     }
 
+    @DataProvider
+    static Object[][] booleanProvider() {
+        return new Object[][] {{false}, {true}};
+    }
+
     @Test(enabled=false)
     protected void setup(Class<? extends Fragmentation> frag_clazz) throws Exception {
         setup(frag_clazz, false);
@@ -243,6 +253,107 @@ public class FragTest {
         assertForAllMessages(m -> Util.verifyByteBuffer(((NioMessage)m).getBuf()));
     }
 
+    /** Tests delivery of messages reassembled by FRAG4 as NioMessages wrapping the reassembly buffer */
+    @Test(dataProvider="booleanProvider")
+    public void testReassemblyIntoNioMessage(boolean use_direct_memory) throws Exception {
+        setup(FRAG4.class);
+        for(JChannel ch: Arrays.asList(a, b))
+            ((FRAG4)ch.getProtocolStack().findProtocol(FRAG4.class)).sendOffsets(true).deliverNioMessages(true)
+              .useDirectMemory(use_direct_memory);
+        Message m1=new BytesMessage(null, array), m2=new BytesMessage(b.getAddress(), array);
+        a.send(m1);
+        a.send(m2);
+        Util.waitUntil(10000, 100, () -> r1.size() == 1 && r2.size() == 2);
+        assertForAllMessages(m -> m instanceof NioMessage && ((NioMessage)m).isDirect() == use_direct_memory);
+        assertForAllMessages(m -> m.getLength() == array.length && Util.verifyByteBuffer(((NioMessage)m).getBuf()));
+        assertForAllMessages(m -> m.getSrc().equals(a.getAddress()));
+
+        // serialized objects are still readable from the NioMessage
+        r2.reset();
+        a.send(new BytesMessage(b.getAddress(), new Payload(1, FRAG_SIZE * 3)));
+        Util.waitUntil(10000, 100, () -> r2.size() == 1);
+        Payload p=r2.list().get(0).getObject();
+        assert p.seqno == 1 && p.buffer.length == FRAG_SIZE * 3;
+    }
+
+    /**
+     * Without send_offsets (default), FRAG4 sends FragHeaders, so the receiver reassembles a BytesMessage, even if it
+     * is configured to deliver NioMessages or streams
+     */
+    @Test(dataProvider="booleanProvider")
+    public void testNoOffsetsByDefault(boolean deliver_nio_messages) throws Exception {
+        setup(FRAG4.class);
+        FRAG4 frag_a=a.getProtocolStack().findProtocol(FRAG4.class), frag_b=b.getProtocolStack().findProtocol(FRAG4.class);
+        assert !frag_a.sendOffsets();
+        if(deliver_nio_messages)
+            frag_b.deliverNioMessages(true);
+        else
+            frag_b.streamThreshold(FRAG_SIZE);
+        a.send(new BytesMessage(b.getAddress(), array));
+        Util.waitUntil(10000, 100, () -> r2.size() == 1);
+        Message m=r2.list().get(0);
+        assert m instanceof BytesMessage && m.getLength() == array.length && Util.verifyArray(m.getArray());
+    }
+
+    /** Tests delivery of large messages by FRAG4 as an InputStream, fed with the fragments as they are received */
+    @Test(dataProvider="booleanProvider")
+    public void testStreaming(boolean oob) throws Exception {
+        setup(FRAG4.class);
+        for(JChannel ch: Arrays.asList(a, b))
+            ((FRAG4)ch.getProtocolStack().findProtocol(FRAG4.class)).sendOffsets(true).streamThreshold(FRAG_SIZE);
+        Message m1=new BytesMessage(null, array), m2=new BytesMessage(b.getAddress(), array);
+        if(oob) {
+            m1.setFlag(Message.Flag.OOB);
+            m2.setFlag(Message.Flag.OOB);
+        }
+        a.send(m1);
+        a.send(m2);
+        Util.waitUntil(10000, 100, () -> r1.size() == 1 && r2.size() == 2);
+        assertForAllMessages(m -> m instanceof ObjectMessage && m.getObject() instanceof FragmentInputStream);
+        assertForAllMessages(m -> ((FragmentInputStream)m.getObject()).length() == array.length);
+        assertForAllMessages(m -> m.getSrc().equals(a.getAddress()));
+        for(Message m: Stream.of(r1.list(), r2.list()).flatMap(Collection::stream).toList()) {
+            try(InputStream in=m.getObject()) {
+                byte[] buf=in.readAllBytes();
+                assert buf.length == array.length && Util.verifyArray(buf);
+            }
+        }
+
+        // smaller messages are reassembled as usual
+        r2.reset();
+        a.send(new BytesMessage(b.getAddress(), Arrays.copyOf(array, FRAG_SIZE - 1)));
+        Util.waitUntil(10000, 100, () -> r2.size() == 1);
+        assert r2.list().get(0) instanceof BytesMessage;
+    }
+
+    /** Changing stream_threshold while the fragments of a message are received doesn't affect that message */
+    @Test(dataProvider="booleanProvider")
+    public void testChangeStreamThreshold(boolean streaming) throws Exception {
+        FRAG4 frag=new FRAG4().streamThreshold(streaming? FRAG_SIZE : 0);
+        List<Message> list=new ArrayList<>();
+        frag.setUpProtocol(new Protocol() {
+            public Object up(Message msg) {list.add(msg); return null;}
+        });
+        Address sender=Util.createRandomAddress("A");
+        int num_frags=array.length / FRAG_SIZE;
+        for(int i=0; i < num_frags; i++) {
+            if(i == 1) // the second fragment would be added to an entry of the other type
+                frag.streamThreshold(streaming? 0 : FRAG_SIZE);
+            Message m=new BytesMessage(null, array, i * FRAG_SIZE, FRAG_SIZE).setSrc(sender)
+              .putHeader(frag.getId(), new Frag4Header(1, i, num_frags, array.length, i * FRAG_SIZE));
+            frag.up(m);
+        }
+        assert list.size() == 1;
+        Message msg=list.get(0);
+        if(streaming) {
+            try(InputStream in=msg.getObject()) {
+                assert Util.verifyArray(in.readAllBytes());
+            }
+        }
+        else
+            assert msg.getLength() == array.length && Util.verifyArray(msg.getArray());
+    }
+
     public void testCompositeMessage(Class<? extends Fragmentation> frag_clazz) throws Exception {
         setup(frag_clazz);
         CompositeMessage m1=new CompositeMessage(null, new EmptyMessage(null));
@@ -258,6 +369,28 @@ public class FragTest {
 
 
 
+    /** If the fragments are queued below (e.g. by non-blocking flow control), the futures of all are combined */
+    public void testFutures(Class<? extends Fragmentation> frag_clazz) throws Exception {
+        if(frag_clazz == FRAG.class) // FRAG doesn't return futures
+            return;
+        List<CompletableFuture<Object>> futures=new ArrayList<>();
+        Fragmentation frag=frag_clazz.getDeclaredConstructor().newInstance().setFragSize(FRAG_SIZE);
+        frag.setDownProtocol(new Protocol() {
+            public Object down(Message msg) {
+                CompletableFuture<Object> f=new CompletableFuture<>();
+                futures.add(f);
+                return f;
+            }
+        });
+        Object retval=frag.down(new BytesMessage(null, array));
+        assert futures.size() == 2 && retval instanceof CompletableFuture : retval;
+        CompletableFuture<?> f=(CompletableFuture<?>)retval;
+        futures.get(0).complete(null);
+        assert !f.isDone();
+        futures.get(1).complete(null);
+        assert f.isDone();
+    }
+
     protected static JChannel createChannel(String name, Class<? extends Fragmentation> clazz,
                                             boolean use_encr) throws Exception {
         Fragmentation frag_prot=clazz.getDeclaredConstructor().newInstance();
@@ -0,0 +1,105 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.FragmentInputStream;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link FragmentInputStream}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class FragmentInputStreamTest {
+
+    public void testRead() throws IOException {
+        FragmentInputStream in=new FragmentInputStream(10);
+        byte[] buf="0123456789".getBytes();
+        in.add(buf, 0, 4).add(buf, 4, 6).done();
+        assert in.available() == 10 && in.serializedSize() == 10;
+        assert in.read() == '0';
+        byte[] tmp=new byte[5];
+        int num=in.read(tmp, 0, tmp.length); // reads across fragments
+        assert num == 5 && new String(tmp).equals("12345");
+        assert in.available() == 4;
+        num=in.read(tmp, 0, tmp.length);
+        assert num == 4 && new String(tmp, 0, num).equals("6789");
+        assert in.read() == -1 && in.read(tmp, 0, tmp.length) == -1;
+    }
+
+    public void testBlockingRead() throws Exception {
+        FragmentInputStream in=new FragmentInputStream(20);
+        byte[] buf=Util.generateArray(20);
+        CompletableFuture<byte[]> f=CompletableFuture.supplyAsync(() -> {
+            try {
+                return in.readAllBytes();
+            }
+            catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        for(int i=0; i < buf.length; i+=5) {
+            Util.sleep(50);
+            assert !f.isDone();
+            in.add(buf, i, 5);
+        }
+        in.done();
+        byte[] result=f.get(5, TimeUnit.SECONDS);
+        assert result.length == buf.length && Util.verifyArray(result);
+    }
+
+    public void testAbort() throws Exception {
+        FragmentInputStream in=new FragmentInputStream(20);
+        in.add(new byte[10], 0, 10);
+        CompletableFuture<Void> f=CompletableFuture.runAsync(() -> {
+            try {
+                in.readAllBytes();
+            }
+            catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Util.sleep(100);
+        in.abort("sender left");
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            assert false : "reading an aborted stream should have failed";
+        }
+        catch(Exception ex) {
+            assert ex.getCause().getCause() instanceof EOFException : ex;
+        }
+        in.add(new byte[10], 0, 10); // discarded
+        assert in.available() == 0;
+    }
+
+    public void testClose() throws IOException {
+        FragmentInputStream in=new FragmentInputStream(20);
+        in.add(new byte[10], 0, 10);
+        in.close();
+        in.add(new byte[10], 0, 10);
+        assert in.available() == 0;
+        try {
+            in.read();
+            assert false : "reading a closed stream should have failed";
+        }
+        catch(IOException expected) {
+        }
+    }
+
+    public void testSerialization() {
+        FragmentInputStream in=new FragmentInputStream(10);
+        try {
+            Util.streamableToByteBuffer(in);
+            assert false : "serializing the stream should have failed";
+        }
+        catch(Exception ex) {
+            assert ex instanceof IOException : ex;
+        }
+    }
+}
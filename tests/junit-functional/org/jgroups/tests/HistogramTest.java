@@ -0,0 +1,182 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.AverageMinMax;
+import org.jgroups.util.ByteArray;
+import org.jgroups.util.Histogram;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Tests {@link Histogram}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class HistogramTest {
+    // max relative error of a value with the default precision (4): 1/32
+    protected static final double ERROR=1/32.0;
+
+    public void testEmpty() {
+        Histogram h=new Histogram();
+        assert h.isEmpty();
+        assert h.count() == 0;
+        assert h.average() == 0.0;
+        assert h.min() == 0 && h.max() == 0;
+        assert h.p(99) == -1;
+        assert "n/a".equals(h.toString());
+    }
+
+    public void testSmallValuesAreExact() {
+        Histogram h=new Histogram();
+        IntStream.rangeClosed(1, 10).forEach(h::add);
+        h.add(-1); // ignored
+        assert h.count() == 10;
+        assert h.min() == 1 && h.max() == 10;
+        assert h.average() == 5.5;
+        assert h.p(50) == 5;
+        assert h.p(90) == 9;
+        assert h.p(100) == 10;
+    }
+
+    public void testPercentiles() {
+        Histogram h=new Histogram();
+        LongStream.rangeClosed(1, 100_000).forEach(h::add);
+        assert h.count() == 100_000;
+        assert h.average() == 50_000.5;
+        assert h.min() == 1 && h.max() == 100_000;
+        for(double p: new double[]{10, 50, 90, 99, 99.9, 99.99}) {
+            double expected=p * 1000, actual=h.p(p);
+            assert Util.withinRange(actual, expected, ERROR) : String.format("p%s: expected %.2f, actual %.2f", p, expected, actual);
+        }
+    }
+
+    public void testTail() {
+        Histogram h=new Histogram();
+        IntStream.range(0, 990).forEach(__ -> h.add(100));
+        IntStream.range(0, 10).forEach(__ -> h.add(1_000_000));
+        assert Util.withinRange(h.p(50), 100, ERROR);
+        assert Util.withinRange(h.p(99), 100, ERROR);
+        assert Util.withinRange(h.p(99.9), 1_000_000, ERROR);
+        assert h.max() == 1_000_000;
+    }
+
+    public void testLargeValues() {
+        Histogram h=new Histogram();
+        h.add(Long.MAX_VALUE);
+        h.add(Long.MAX_VALUE / 3);
+        assert h.max() == Long.MAX_VALUE;
+        assert h.p(100) == Long.MAX_VALUE;
+        assert Util.withinRange(h.p(50), Long.MAX_VALUE / 3, ERROR);
+    }
+
+    public void testPrecision() {
+        for(int precision=1; precision <= 10; precision++) {
+            Histogram h=new Histogram(precision);
+            LongStream.rangeClosed(1, 10_000).forEach(h::add);
+            double error=1.0 / (1 << (precision+1)), actual=h.p(50);
+            assert Util.withinRange(actual, 5000, error) : String.format("precision %d: %.2f", precision, actual);
+        }
+    }
+
+    @Test(expectedExceptions=IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        new Histogram(11);
+    }
+
+    public void testMerge() {
+        Histogram h1=new Histogram(), h2=new Histogram();
+        LongStream.rangeClosed(1, 1000).forEach(h1::add);
+        LongStream.rangeClosed(1001, 2000).forEach(h2::add);
+        h1.merge(h2);
+        assert h1.count() == 2000;
+        assert h1.min() == 1 && h1.max() == 2000;
+        assert h1.average() == 1000.5;
+        assert Util.withinRange(h1.p(50), 1000, ERROR);
+        assert Util.withinRange(h1.p(99), 1980, ERROR);
+        assert h2.count() == 1000;
+    }
+
+    public void testMergeDifferentPrecision() {
+        Histogram h1=new Histogram(2), h2=new Histogram(6);
+        LongStream.rangeClosed(1, 1000).forEach(h2::add);
+        h1.merge(h2);
+        assert h1.count() == 1000;
+        assert h1.min() == 1 && h1.max() == 1000;
+        assert Util.withinRange(h1.p(50), 500, 1/8.0 + 1/128.0);
+    }
+
+    public void testMergeAverageMinMax() {
+        Histogram h=new Histogram();
+        AverageMinMax avg=new AverageMinMax().usePercentiles(100);
+        IntStream.rangeClosed(1, 100).forEach(avg::add);
+        h.merge(avg);
+        assert h.count() == 100;
+        assert h.min() == 1 && h.max() == 100;
+        assert h.average() == 50.5;
+    }
+
+    public void testClear() {
+        Histogram h=new Histogram();
+        LongStream.rangeClosed(1, 1000).forEach(h::add);
+        h.clear();
+        assert h.isEmpty();
+        assert h.min() == 0 && h.max() == 0;
+        h.add(5);
+        assert h.min() == 5 && h.max() == 5 && h.p(50) == 5;
+    }
+
+    public void testConcurrentAdds() throws Exception {
+        final int NUM_THREADS=8, NUM=100_000;
+        Histogram h=new Histogram();
+        CountDownLatch latch=new CountDownLatch(1);
+        Thread[] threads=new Thread[NUM_THREADS];
+        for(int i=0; i < threads.length; i++) {
+            threads[i]=new Thread(() -> {
+                try {
+                    latch.await();
+                    for(int j=1; j <= NUM; j++)
+                        h.add(j);
+                }
+                catch(InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[i].start();
+        }
+        latch.countDown();
+        for(Thread t: threads)
+            t.join();
+        assert h.count() == NUM_THREADS * NUM;
+        assert h.min() == 1 && h.max() == NUM;
+        assert h.average() == (NUM + 1) / 2.0;
+    }
+
+    public void testSerialization() throws Exception {
+        Histogram h=new Histogram(5);
+        LongStream.rangeClosed(1, 10_000).forEach(h::add);
+        h.add(1_000_000_000L);
+        ByteArray buf=Util.objectToBuffer(h);
+        Histogram h2=Util.objectFromBuffer(buf, null);
+        assert h2 != null;
+        assert h2.precision() == 5;
+        assert h2.count() == h.count();
+        assert h2.average() == h.average();
+        assert h2.min() == h.min() && h2.max() == h.max();
+        for(double p: new double[]{50, 90, 99, 99.9, 99.99})
+            assert h2.p(p) == h.p(p);
+    }
+
+    public void testToString() {
+        Histogram h=new Histogram().unit(TimeUnit.NANOSECONDS);
+        LongStream.rangeClosed(1, 1000).forEach(i -> h.add(i * 1000));
+        String s=h.toString();
+        assert s.contains("p99=");
+        System.out.printf("histogram: %s\npercentiles: %s", s, h.percentiles());
+    }
+}
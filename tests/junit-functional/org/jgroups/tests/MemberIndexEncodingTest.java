@@ -0,0 +1,133 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Tests the encoding of addresses as index into the members of a view (use_member_index in NAKACK2/NAKACK4 and STABLE)
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class MemberIndexEncodingTest {
+    protected JChannel            a, b, c;
+    protected static final String CLUSTER=MemberIndexEncodingTest.class.getSimpleName();
+
+    @AfterMethod protected void destroy() {Util.closeReverse(a, b, c);}
+
+    public void testXmitRequestHeader() throws Exception {
+        View view=createView(300);
+        Address sender=view.getMembersRaw()[250];
+        NakAckHeader2 full=NakAckHeader2.createXmitRequestHeader(sender), hdr=NakAckHeader2.createXmitRequestHeader(sender, view);
+        assert hdr.senderIndex() == 250;
+        assert hdr.serializedSize() < full.serializedSize();
+
+        NakAckHeader2 h=read(hdr, new NakAckHeader2());
+        assert h.getSender() == null && h.senderIndex() == 250;
+        assert h.getSender(view).equals(sender);
+        View other=View.create(view.getCreator(), view.getViewId().getId() + 1, view.getMembersRaw());
+        assert h.getSender(other) == null;
+        // same numeric view-id, but created by a different member (e.g. in a different partition)
+        other=View.create(Util.createRandomAddress("Y"), view.getViewId().getId(), view.getMembersRaw());
+        assert h.getSender(other) == null;
+        assert h.getSender(null) == null;
+
+        NakAckHeader hdr4=read(NakAckHeader.createXmitRequestHeader(sender, view), new NakAckHeader());
+        assert hdr4.getSender(view).equals(sender);
+    }
+
+    /** The index is not used if the full address is smaller (here: an IpAddress, and a large view-id) */
+    public void testFullAddressIfSmaller() throws Exception {
+        List<Address> mbrs=new ArrayList<>(10);
+        for(int i=0; i < 10; i++)
+            mbrs.add(new IpAddress("127.0.0.1", 7800 + i));
+        View view=View.create(mbrs.get(0), 1L << 40, mbrs);
+        NakAckHeader2 hdr=NakAckHeader2.createXmitRequestHeader(mbrs.get(5), view);
+        assert hdr.senderIndex() == -1;
+        NakAckHeader2 h=read(hdr, new NakAckHeader2());
+        assert h.getSender().equals(mbrs.get(5));
+    }
+
+    /** A sender which is not a member of the view is written as full address */
+    public void testNonMember() throws Exception {
+        View view=createView(10);
+        Address non_member=Util.createRandomAddress("X");
+        NakAckHeader2 hdr=NakAckHeader2.createXmitRequestHeader(non_member, view);
+        assert hdr.senderIndex() == -1;
+        NakAckHeader2 h=read(hdr, new NakAckHeader2());
+        assert h.getSender().equals(non_member) && h.getSender(view).equals(non_member);
+    }
+
+    /** C drops the first messages from A; retransmission (using member indices) and STABLE purging must work */
+    public void testRetransmissionAndStability() throws Exception {
+        a=create("A").connect(CLUSTER);
+        b=create("B").connect(CLUSTER);
+        c=create("C").connect(CLUSTER);
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b, c);
+        MyReceiver<Integer> rb=new MyReceiver<>(), rc=new MyReceiver<>();
+        b.setReceiver(rb); c.setReceiver(rc);
+
+        DROP drop=new DROP();
+        Address addr_a=a.address();
+        AtomicInteger dropped=new AtomicInteger();
+        Predicate<Message> first_msgs=m -> addr_a.equals(m.getSrc()) && m.getDest() == null // retransmissions pass
+          && m.getHeader(nakack(c).getId()) instanceof NakAckHeader2 h && h.getType() == NakAckHeader2.MSG
+          && dropped.get() < 10 && dropped.incrementAndGet() <= 10;
+        c.stack().insertProtocol(drop, ProtocolStack.Position.ABOVE, TP.class);
+        drop.addUpFilter(first_msgs);
+
+        final int NUM=100;
+        for(int i=1; i <= NUM; i++)
+            a.send(null, i);
+        Util.waitUntil(5000, 100, () -> rb.size() == NUM && rc.size() == NUM,
+                       () -> String.format("B: %d, C: %d", rb.size(), rc.size()));
+        assert nakack(a).getXmitRequestsReceived() > 0;
+
+        Util.waitUntil(5000, 100, () -> {
+            Stream.of(a, b, c).forEach(ch -> ((STABLE)ch.stack().findProtocol(STABLE.class)).gc());
+            return Stream.of(a, b, c).allMatch(ch -> nakack(ch).getWindow(addr_a).getLow() >= NUM);
+        }, () -> String.format("lows: %s", Stream.of(a, b, c).map(ch -> nakack(ch).getWindow(addr_a).getLow()).toList()));
+    }
+
+    protected static <T extends Header> T read(Header hdr, T ret) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(hdr.serializedSize());
+        hdr.writeTo(out);
+        assert out.position() == hdr.serializedSize();
+        ret.readFrom(new ByteArrayDataInputStream(out.buffer(), 0, out.position()));
+        return ret;
+    }
+
+    protected static View createView(int num) {
+        List<Address> mbrs=new ArrayList<>(num);
+        for(int i=0; i < num; i++)
+            mbrs.add(Util.createRandomAddress(String.valueOf(i)));
+        return View.create(mbrs.get(0), 22, mbrs);
+    }
+
+    protected static NAKACK2 nakack(JChannel ch) {
+        return ch.stack().findProtocol(NAKACK2.class);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        List<Protocol> prots=List.of(new SHARED_LOOPBACK(), new SHARED_LOOPBACK_PING(),
+                                     new NAKACK2().useMemberIndex(true).setXmitInterval(100), new UNICAST3(),
+                                     new STABLE().useMemberIndex(true), new GMS());
+        return new JChannel(prots).name(name);
+    }
+}
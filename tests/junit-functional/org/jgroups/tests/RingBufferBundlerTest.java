@@ -0,0 +1,74 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.ObjectMessage;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Tests {@link RingBufferBundler} with concurrent senders and the different wait strategies
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="waitStrategies")
+public class RingBufferBundlerTest {
+    protected JChannel            a, b;
+    protected static final int    NUM_SENDERS=4, NUM=2500;
+    protected static final String CLUSTER=RingBufferBundlerTest.class.getSimpleName();
+
+    @DataProvider
+    static Object[][] waitStrategies() {
+        return new Object[][]{{"spin"},{" Yield "},{"PARK"}}; // case and whitespace are ignored
+    }
+
+    @AfterMethod protected void destroy() {Util.closeReverse(a, b);}
+
+    public void testConcurrentSenders(String wait_strategy) throws Exception {
+        a=create("A", wait_strategy).connect(CLUSTER);
+        b=create("B", wait_strategy).connect(CLUSTER);
+        Util.waitUntilAllChannelsHaveSameView(5000, 100, a, b);
+        MyReceiver<Integer> ra=new MyReceiver<>(), rb=new MyReceiver<>();
+        a.setReceiver(ra);
+        b.setReceiver(rb);
+        Thread[] senders=new Thread[NUM_SENDERS];
+        for(int i=0; i < senders.length; i++) {
+            senders[i]=new Thread(() -> {
+                for(int j=0; j < NUM; j++) {
+                    try {
+                        a.send(new ObjectMessage(null, j));
+                    }
+                    catch(Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            senders[i].start();
+        }
+        for(Thread t: senders)
+            t.join();
+        int expected=NUM_SENDERS * NUM;
+        Util.waitUntil(10000, 100, () -> ra.size() == expected && rb.size() == expected,
+                       () -> String.format("A: %d, B: %d (expected: %d)", ra.size(), rb.size(), expected));
+        RingBufferBundler bundler=(RingBufferBundler)a.stack().getTransport().getBundler();
+        assert bundler.waitStrategy().equals(wait_strategy);
+        System.out.printf("%s: avg batch size=%.2f\n", wait_strategy, bundler.avgBatchSize());
+    }
+
+    protected static JChannel create(String name, String wait_strategy) throws Exception {
+        TP transport=new SHARED_LOOPBACK().setBundler(new RingBufferBundler().waitStrategy(wait_strategy));
+        List<Protocol> prots=List.of(transport, new SHARED_LOOPBACK_PING(), new NAKACK2(), new UNICAST3(),
+                                     new STABLE(), new GMS());
+        return new JChannel(prots).name(name);
+    }
+}
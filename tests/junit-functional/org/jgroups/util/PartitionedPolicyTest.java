@@ -0,0 +1,173 @@
+package org.jgroups.util;
+
+import org.jgroups.*;
+import org.jgroups.blocks.RequestCorrelator;
+import org.jgroups.protocols.UDP;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Tests {@link PartitionedPolicy}
+ * @author Bela Ban
+ * @since  5.6
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class PartitionedPolicyTest {
+    protected UDP                            tp;
+    protected PartitionedPolicy              policy;
+    protected final Map<Address,List<Integer>> received=new ConcurrentHashMap<>();
+    protected final Map<Address,List<Thread>>  threads=new ConcurrentHashMap<>();
+    protected final AtomicInteger            count=new AtomicInteger();
+    protected static final int               NUM_SENDERS=10, NUM=1000;
+
+    @BeforeMethod protected void setup() throws Exception {
+        received.clear();
+        threads.clear();
+        count.set(0);
+        tp=new UDP() {
+            @Override
+            public void passMessageUp(Message msg, boolean perform_cluster_name_matching, boolean multicast, boolean discard_own_mcast) {
+                add(msg);
+            }
+
+            @Override public void passBatchUp(MessageBatch batch, boolean cluster_name_matching, boolean discard_own_mcast) {
+                batch.forEach(PartitionedPolicyTest.this::add);
+            }
+        };
+        tp.getThreadPool().init();
+    }
+
+    @AfterMethod protected void destroy() {
+        policy.destroy();
+        tp.getThreadPool().destroy();
+    }
+
+    /** Messages and batches from the same sender are processed in order, and always by the same thread */
+    public void testOrderingAndAffinity() throws Exception {
+        policy=create(4, 64);
+        Address[] senders=IntStream.range(0, NUM_SENDERS).mapToObj(i -> Util.createRandomAddress(String.valueOf(i)))
+          .toArray(Address[]::new);
+        Thread[] producers=new Thread[NUM_SENDERS];
+        for(int i=0; i < producers.length; i++) {
+            Address sender=senders[i];
+            producers[i]=new Thread(() -> {
+                for(int j=1; j <= NUM; j++) {
+                    if(j % 10 == 0 && j < NUM) {
+                        MessageBatch batch=new MessageBatch(2).sender(sender).multicast(true).mode(MessageBatch.Mode.REG);
+                        batch.add(create(sender, j++)).add(create(sender, j));
+                        policy.process(batch, false);
+                    }
+                    else
+                        policy.process(create(sender, j), false);
+                }
+            });
+            producers[i].start();
+        }
+        for(Thread t: producers)
+            t.join();
+        Util.waitUntil(10000, 100, () -> count.get() == NUM_SENDERS * NUM,
+                       () -> String.format("expected %d messages, but got %d", NUM_SENDERS * NUM, count.get()));
+        for(Address sender: senders) {
+            List<Integer> list=received.get(sender);
+            for(int i=1; i <= NUM; i++)
+                assert list.get(i-1) == i : String.format("%s: expected %d, but got %d", sender, i, list.get(i-1));
+            assert threads.get(sender).stream().distinct().count() == 1 : "different threads processed " + sender;
+        }
+        assert policy.numProcessed() > 0;
+    }
+
+    /** A worker adding a message to its own, full queue must not block */
+    public void testAddToFullQueueFromWorker() throws Exception {
+        Address sender=Util.createRandomAddress("A");
+        tp=new UDP() {
+            @Override
+            public void passMessageUp(Message msg, boolean perform_cluster_name_matching, boolean multicast, boolean discard_own_mcast) {
+                int num=msg.getObject();
+                if(num == 1) { // fill the queue from the worker thread itself
+                    for(int i=2; i <= 10; i++)
+                        policy.loopback(create(sender, i), false);
+                }
+                add(msg);
+            }
+        };
+        tp.getThreadPool().init();
+        policy=create(1, 2);
+        policy.process(create(sender, 1), false);
+        Util.waitUntil(5000, 100, () -> count.get() == 10, () -> String.format("expected 10 messages, got %d", count.get()));
+    }
+
+    /**
+     * A worker blocking on an RPC response (e.g. a sync RPC made in receive()) must not deadlock when the responder
+     * hashes onto the same worker: responses are processed by the thread pool
+     */
+    public void testResponseToWorker() throws Exception {
+        Address a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B");
+        CountDownLatch rsp_received=new CountDownLatch(1);
+        tp=new UDP() {
+            @Override
+            public void passMessageUp(Message msg, boolean perform_cluster_name_matching, boolean multicast, boolean discard_own_mcast) {
+                if(msg.getHeader(PartitionedPolicy.CORR_ID) != null)
+                    rsp_received.countDown();
+                else {
+                    try {
+                        rsp_received.await(5, TimeUnit.SECONDS); // the worker blocks until the response is received
+                    }
+                    catch(InterruptedException ignored) {
+                    }
+                }
+                add(msg);
+            }
+
+            @Override public void passBatchUp(MessageBatch batch, boolean cluster_name_matching, boolean discard_own_mcast) {
+                batch.forEach(m -> passMessageUp(m, false, true, false));
+            }
+        };
+        tp.getThreadPool().init();
+        policy=create(1, 16); // both senders hash onto the same worker
+        policy.process(create(a, 1), false);
+        MessageBatch batch=new MessageBatch(2).sender(b).multicast(true).mode(MessageBatch.Mode.REG);
+        batch.add(create(b, 2).putHeader(PartitionedPolicy.CORR_ID, new RequestCorrelator.Header(RequestCorrelator.Header.RSP, 1, PartitionedPolicy.CORR_ID)));
+        policy.process(batch, false);
+        assert rsp_received.await(2, TimeUnit.SECONDS) : "response was not processed";
+        Util.waitUntil(5000, 100, () -> count.get() == 2);
+    }
+
+    /** A destroyed policy rejects work and doesn't restart its worker threads */
+    public void testDestroy() {
+        policy=create(2, 16);
+        Address sender=Util.createRandomAddress("A");
+        assert policy.process(create(sender, 1), false);
+        policy.destroy();
+        assert !policy.process(create(sender, 2), false);
+        assert !policy.loopback(create(sender, 3), false);
+        assert Arrays.stream(policy.workers).allMatch(w -> w.runner == null || !w.runner.isRunning());
+    }
+
+    protected PartitionedPolicy create(int num_workers, int capacity) {
+        PartitionedPolicy p=new PartitionedPolicy().numWorkers(num_workers).queueCapacity(capacity);
+        p.init(tp);
+        return p;
+    }
+
+    protected static Message create(Address sender, int num) {
+        return new ObjectMessage(null, num).setSrc(sender);
+    }
+
+    protected void add(Message msg) {
+        Address sender=msg.getSrc();
+        received.computeIfAbsent(sender, s -> new CopyOnWriteArrayList<>()).add(msg.getObject());
+        threads.computeIfAbsent(sender, s -> new CopyOnWriteArrayList<>()).add(Thread.currentThread());
+        count.incrementAndGet();
+    }
+}
@@ -0,0 +1,351 @@
+package org.jgroups.tests.perf;
+
+import org.jgroups.*;
+import org.jgroups.blocks.MessageDispatcher;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.conf.ConfiguratorFactory;
+import org.jgroups.conf.ProtocolConfiguration;
+import org.jgroups.conf.ProtocolStackConfigurator;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.stack.Configurator;
+import org.jgroups.util.*;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Measures the cost of protocol processing independent of the network: for each of the given configurations
+ * (e.g. udp.xml, tcp.xml), N members are created in the same JVM, with the transport replaced by {@link SHARED_LOOPBACK}
+ * and the discovery protocol(s) by {@link LOCAL_PING}. Failure detection protocols which require sockets
+ * ({@link FD_SOCK}, {@link FD_SOCK2}) are removed; the properties of the original transport which are supported by
+ * {@link TP} (e.g. bundler_type or thread pool settings) are retained.
+ * <br/>
+ * The following workloads are run against each configuration:
+ * <ul>
+ *     <li>mcast: every member multicasts messages to all members</li>
+ *     <li>ucast: every member sends unicast messages to the next member (ring)</li>
+ *     <li>rpc: every member sends synchronous unicast requests to random other members</li>
+ * </ul>
+ * For mcast and ucast, the latency is the time between sending a message and its reception; for RPCs, it's the
+ * round-trip time. The results (throughput, latency percentiles) are written as JSON or CSV, e.g. to track
+ * regressions in protocol processing cost between releases.
+ * @author Bela Ban
+ * @since  5.6
+ */
+public class StackPerf {
+    protected List<String>               configs=List.of("udp.xml", "tcp.xml", "tcp-nio.xml");
+    protected List<String>               workloads=List.of("mcast", "ucast", "rpc");
+    protected int                        num_members=4;
+    protected int                        num_msgs=10_000;  // per member
+    protected int                        num_threads=4;    // sender threads per member
+    protected int                        msg_size=1000;
+    protected int                        warmup=1000;      // warmup messages per member
+    protected long                       timeout=60_000;   // max time (ms) for a single run
+    protected String                     format="json";
+    protected String                     output;           // file, or stdout if null
+    protected final List<Result>         results=new ArrayList<>();
+
+    protected JChannel[]                 channels;
+    protected MessageDispatcher[]        dispatchers;
+    protected PerfReceiver[]             receivers;
+    protected static final RequestOptions SYNC=RequestOptions.SYNC().timeout(10_000);
+    protected static final String        TRANSPORT="SHARED_LOOPBACK", DISCOVERY="LOCAL_PING";
+    protected static final Collection<String> REMOVED=List.of("FD_SOCK", "FD_SOCK2");
+
+
+    public StackPerf configs(List<String> c)   {this.configs=c; return this;}
+    public StackPerf workloads(List<String> w) {this.workloads=w; return this;}
+    public StackPerf members(int m)            {this.num_members=m; return this;}
+    public StackPerf msgs(int n)               {this.num_msgs=n; return this;}
+    public StackPerf threads(int t)            {this.num_threads=t; return this;}
+    public StackPerf size(int s)               {this.msg_size=Math.max(s, Global.LONG_SIZE); return this;}
+    public StackPerf warmup(int w)             {this.warmup=w; return this;}
+    public StackPerf timeout(long t)           {this.timeout=t; return this;}
+    public StackPerf format(String f)          {this.format=f; return this;}
+    public StackPerf output(String o)          {this.output=o; return this;}
+    public List<Result> results()              {return results;}
+
+
+    public StackPerf run() throws Exception {
+        for(String config: configs) {
+            try {
+                start(config);
+                for(String workload: workloads) {
+                    if(warmup > 0)
+                        run(config, workload, warmup);
+                    results.add(run(config, workload, num_msgs));
+                }
+            }
+            finally {
+                stop();
+            }
+        }
+        return this;
+    }
+
+    public void print() throws Exception {
+        try(PrintStream out=output != null? new PrintStream(new FileOutputStream(output)) : null) {
+            PrintStream ps=out != null? out : System.out;
+            ps.println("csv".equalsIgnoreCase(format)? toCSV(results) : toJSON(results));
+        }
+    }
+
+    /** Creates a configuration from config, with the transport and discovery protocols replaced */
+    public static ProtocolStackConfigurator loopbackConfig(String config) throws Exception {
+        ProtocolStackConfigurator cfg=ConfiguratorFactory.getStackConfigurator(config);
+        List<ProtocolConfiguration> prots=cfg.getProtocolStack();
+        ProtocolConfiguration transport=prots.get(0);
+        transport.substituteVariables();
+        prots.set(0, new ProtocolConfiguration(TRANSPORT, transportProperties(transport.getProperties())));
+        for(Iterator<ProtocolConfiguration> it=prots.listIterator(1); it.hasNext();) {
+            ProtocolConfiguration pc=it.next();
+            String name=pc.getProtocolName();
+            if(REMOVED.contains(name) || Discovery.class.isAssignableFrom(pc.loadProtocolClass(StackPerf.class)))
+                it.remove();
+            else if(pc.loadProtocolClass(StackPerf.class) == GMS.class)
+                pc.getProperties().put("print_local_addr", "false");
+        }
+        prots.add(1, new ProtocolConfiguration(DISCOVERY, new HashMap<>()));
+        return cfg;
+    }
+
+    /** Returns the properties of the original transport which are also supported by {@link SHARED_LOOPBACK} */
+    protected static Map<String,String> transportProperties(Map<String,String> props) throws Exception {
+        Map<String,String> unsupported=new HashMap<>(props), retval=new HashMap<>(props);
+        Configurator.initializeAttrs(new SHARED_LOOPBACK(), unsupported, Util.getIpStackType()); // removes supported props
+        Util.forAllComponentTypes(SHARED_LOOPBACK.class, (cl, prefix) -> unsupported.keySet().removeIf(k -> k.startsWith(prefix + ".")));
+        retval.keySet().removeAll(unsupported.keySet());
+        return retval;
+    }
+
+    protected void start(String config) throws Exception {
+        String cluster=StackPerf.class.getSimpleName() + "-" + config;
+        channels=new JChannel[num_members];
+        dispatchers=new MessageDispatcher[num_members];
+        receivers=new PerfReceiver[num_members];
+        for(int i=0; i < num_members; i++) {
+            channels[i]=new JChannel(loopbackConfig(config)).name(String.valueOf((char)('A' + i % 26)) + (i / 26 > 0? i / 26 : ""));
+            receivers[i]=new PerfReceiver();
+            dispatchers[i]=new MessageDispatcher(channels[i], msg -> null);
+            channels[i].connect(cluster);
+        }
+        Util.waitUntilAllChannelsHaveSameView(30_000, 100, channels);
+    }
+
+    protected void stop() {
+        Util.closeReverse(dispatchers);
+        Util.closeReverse(channels);
+        channels=null;
+        dispatchers=null;
+        receivers=null;
+    }
+
+    /** Runs a workload, in which every member sends num messages (or RPCs) */
+    protected Result run(String config, String workload, int num) throws Exception {
+        boolean rpc="rpc".equals(workload), mcast="mcast".equals(workload);
+        if(!rpc && !mcast && !"ucast".equals(workload))
+            throw new IllegalArgumentException(String.format("workload %s not known", workload));
+        for(int i=0; i < num_members; i++) { // the dispatcher drops messages which are not requests or responses
+            channels[i].setUpHandler(rpc? dispatchers[i].protocolAdapter() : null).setReceiver(receivers[i]);
+            receivers[i].reset();
+        }
+        int per_thread=num / num_threads;
+        long expected=mcast? (long)per_thread * num_threads * num_members : (long)per_thread * num_threads;
+        List<Sender> senders=new ArrayList<>(num_members * num_threads);
+        for(int i=0; i < num_members; i++) {
+            Address next=channels[(i+1) % num_members].getAddress();
+            for(int j=0; j < num_threads; j++)
+                senders.add(new Sender(i, mcast? null : next, rpc, per_thread));
+        }
+        long start=System.nanoTime();
+        senders.forEach(Thread::start);
+        for(Sender s: senders)
+            s.join(timeout);
+        if(!rpc) {
+            Util.waitUntil(timeout, 10, () -> Arrays.stream(receivers).allMatch(r -> r.count.sum() >= expected),
+                           () -> String.format("%s/%s: expected %d msgs per member, received: %s", config, workload,
+                                               expected, Arrays.stream(receivers).map(r -> r.count.sum()).toList()));
+        }
+        long time=System.nanoTime() - start;
+        for(Sender s: senders)
+            if(s.ex != null)
+                throw s.ex;
+
+        Histogram lat=new Histogram().unit(NANOSECONDS);
+        if(rpc)
+            senders.forEach(s -> lat.merge(s.rtt));
+        else
+            Arrays.stream(receivers).forEach(r -> lat.merge(r.lat));
+        long total=rpc? (long)per_thread * num_threads * num_members : expected * num_members; // msgs received
+        return new Result(config, workload, num_members, num_threads, msg_size, total, time, lat);
+    }
+
+    protected byte[] payload() {
+        byte[] buf=new byte[msg_size];
+        Bits.writeLong(System.nanoTime(), buf, 0);
+        return buf;
+    }
+
+    protected static String toJSON(List<Result> results) {
+        return results.stream().map(Result::toJSON).collect(Collectors.joining(",\n  ", "[\n  ", "\n]"));
+    }
+
+    protected static String toCSV(List<Result> results) {
+        return results.stream().map(Result::toCSV).collect(Collectors.joining("\n", Result.CSV_HEADER + "\n", ""));
+    }
+
+
+    protected class Sender extends Thread {
+        protected final int           index;
+        protected final Address       dest;
+        protected final boolean       rpc;
+        protected final int           num;
+        protected final Histogram     rtt=new Histogram().unit(NANOSECONDS);
+        protected Exception           ex;
+
+        protected Sender(int index, Address dest, boolean rpc, int num) {
+            this.index=index;
+            this.dest=dest;
+            this.rpc=rpc;
+            this.num=num;
+        }
+
+        public void run() {
+            try {
+                for(int i=0; i < num; i++) {
+                    if(!rpc) {
+                        channels[index].send(new BytesMessage(dest, payload()));
+                        continue;
+                    }
+                    int target=ThreadLocalRandom.current().nextInt(num_members - 1);
+                    if(target >= index)
+                        target++;
+                    Message req=new BytesMessage(channels[target].getAddress(), payload());
+                    long start=System.nanoTime();
+                    dispatchers[index].sendMessage(req, SYNC);
+                    rtt.add(System.nanoTime() - start);
+                }
+            }
+            catch(Exception e) {
+                ex=e;
+            }
+        }
+    }
+
+    protected static class PerfReceiver implements Receiver {
+        protected final LongAdder     count=new LongAdder();
+        protected final Histogram     lat=new Histogram().unit(NANOSECONDS);
+
+        protected void reset() {
+            count.reset();
+            lat.clear();
+        }
+
+        public void receive(Message msg) {
+            long sent=Bits.readLong(msg.getArray(), msg.getOffset());
+            long time=System.nanoTime() - sent;
+            lat.add(time);
+            count.increment();
+        }
+    }
+
+    public record Result(String config, String workload, int members, int threads, int size, long msgs, long time,
+                         Histogram lat) {
+        static final String CSV_HEADER="config,workload,members,threads,size,msgs,time_ms,msgs_sec,mb_sec," +
+          "lat_avg_us,lat_p50_us,lat_p90_us,lat_p99_us,lat_p999_us,lat_max_us";
+
+        public double msgsPerSec() {return msgs / (time / 1_000_000_000.0);}
+        public double mbPerSec()   {return msgsPerSec() * size / 1_000_000.0;}
+
+        protected static double us(double ns) {return ns / 1000.0;}
+
+        public double avg() {return lat.average();}
+
+        public String toCSV() {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f",
+                                 config, workload, members, threads, size, msgs, time / 1_000_000.0, msgsPerSec(),
+                                 mbPerSec(), us(avg()), us(lat.p(50)), us(lat.p(90)), us(lat.p(99)),
+                                 us(lat.p(99.9)), us(lat.max()));
+        }
+
+        public String toJSON() {
+            return String.format(Locale.ROOT, "{\"config\": \"%s\", \"workload\": \"%s\", \"members\": %d, " +
+                                   "\"threads\": %d, \"size\": %d, \"msgs\": %d, \"time_ms\": %.2f, \"msgs_sec\": %.2f, " +
+                                   "\"mb_sec\": %.2f, \"lat_us\": {\"avg\": %.2f, \"p50\": %.2f, \"p90\": %.2f, " +
+                                   "\"p99\": %.2f, \"p999\": %.2f, \"max\": %.2f}}",
+                                 config, workload, members, threads, size, msgs, time / 1_000_000.0, msgsPerSec(),
+                                 mbPerSec(), us(avg()), us(lat.p(50)), us(lat.p(90)), us(lat.p(99)),
+                                 us(lat.p(99.9)), us(lat.max()));
+        }
+
+        public String toString() {
+            return String.format("%s/%s: %,.2f msgs/sec (%,.2f MB/sec), latency avg/p99/max: %s/%s/%s",
+                                 config, workload, msgsPerSec(), mbPerSec(), Util.printTime(avg(), NANOSECONDS),
+                                 Util.printTime(lat.p(99), NANOSECONDS), Util.printTime(lat.max(), NANOSECONDS));
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        StackPerf perf=new StackPerf();
+        for(int i=0; i < args.length; i++) {
+            if("-configs".equals(args[i])) {
+                perf.configs(Arrays.asList(args[++i].split(",")));
+                continue;
+            }
+            if("-workloads".equals(args[i])) {
+                perf.workloads(Arrays.asList(args[++i].split(",")));
+                continue;
+            }
+            if("-members".equals(args[i])) {
+                perf.members(Integer.parseInt(args[++i]));
+                continue;
+            }
+            if("-msgs".equals(args[i])) {
+                perf.msgs(Integer.parseInt(args[++i]));
+                continue;
+            }
+            if("-threads".equals(args[i])) {
+                perf.threads(Integer.parseInt(args[++i]));
+                continue;
+            }
+            if("-size".equals(args[i])) {
+                perf.size(Integer.parseInt(args[++i]));
+                continue;
+            }
+            if("-warmup".equals(args[i])) {
+                perf.warmup(Integer.parseInt(args[++i]));
+                continue;
+            }
+            if("-timeout".equals(args[i])) {
+                perf.timeout(Long.parseLong(args[++i]));
+                continue;
+            }
+            if("-format".equals(args[i])) {
+                perf.format(args[++i]);
+                continue;
+            }
+            if("-output".equals(args[i])) {
+                perf.output(args[++i]);
+                continue;
+            }
+            help();
+            return;
+        }
+        perf.run().print();
+    }
+
+    protected static void help() {
+        System.out.printf("%s [-configs udp.xml,tcp.xml,tcp-nio.xml] [-workloads mcast,ucast,rpc] [-members 4]\n" +
+                            "          [-msgs <msgs per member>] [-threads <sender threads per member>] [-size <bytes>]\n" +
+                            "          [-warmup <msgs per member>] [-timeout <ms>] [-format json|csv] [-output <file>]\n",
+                          StackPerf.class.getSimpleName());
+    }
+}